@@ -0,0 +1,331 @@
+package com.afred.ishopper;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.UniformReservoir;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import io.dropwizard.lifecycle.ServerLifecycleListener;
+import io.dropwizard.setup.Environment;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.PoolingClientConnectionManager;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.util.EntityUtils;
+import org.eclipse.jetty.server.Server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Load test for the execution modes at the same total thread budget. Starts the application in one mode against a
+ * stub Watson backend that answers every synthesis after a fixed delay, so each request blocks on upstream I/O like
+ * a proxied call. In jetty mode server.maxThreads is the whole budget; in executor mode a quarter of it goes to
+ * Jetty and the rest to execution.threads. For each concurrency level it keeps that many GET /text-to-speech
+ * requests in flight and reports throughput, latency, the requests answered with 503, and the peak number of
+ * server threads and heap use. Run one mode per JVM:
+ * <pre>
+ * mvn -Pbenchmarks test-compile exec:exec -Dbenchmark.main=com.afred.ishopper.ExecutionModeLoadTest \
+ *     -Djmh.args="executor 50,200,800 [budget] [queueSize] [delayMillis] [seconds]"
+ * </pre>
+ * The client is Apache HttpClient with a blocking thread per in-flight request. Those threads are left out of the
+ * thread count, which covers the rest of the JVM: Jetty, the executor and the stub. The heap figure includes the
+ * client.
+ */
+public class ExecutionModeLoadTest {
+    private static final String CLIENT_THREAD = "load-client-";
+    private static final byte[] AUDIO = new byte[16 * 1024];
+
+    public static void main(String[] args) throws Exception {
+        String mode = args.length > 0 ? args[0] : "jetty";
+        String[] levels = (args.length > 1 ? args[1] : "50,200,800").split(",");
+        int budget = args.length > 2 ? Integer.parseInt(args[2]) : 128;
+        int queueSize = args.length > 3 ? Integer.parseInt(args[3]) : 256;
+        long delayMillis = args.length > 4 ? Long.parseLong(args[4]) : 200;
+        int seconds = args.length > 5 ? Integer.parseInt(args[5]) : 5;
+
+        StubBackend backend = new StubBackend(delayMillis);
+        int status = 0;
+        try {
+            run(mode, levels, budget, queueSize, delayMillis, seconds, backend);
+        } catch (Exception e) {
+            e.printStackTrace();
+            status = 1;
+        } finally {
+            backend.stop();
+        }
+        // the application's non-daemon threads would keep the JVM alive
+        System.exit(status);
+    }
+
+    private static void run(String mode, String[] levels, int budget, int queueSize, long delayMillis, int seconds,
+            StubBackend backend) throws Exception {
+        int jettyThreads = "jetty".equals(mode) ? budget : budget / 4;
+        int executorThreads = budget - jettyThreads;
+        int port = freePort();
+        Path config = writeConfiguration(mode, port, backend.port(), jettyThreads, Math.max(1, executorThreads),
+                queueSize);
+        final Server[] server = new Server[1];
+        final CountDownLatch started = new CountDownLatch(1);
+        new HelloWorldApplication() {
+            @Override
+            public void run(HelloWorldConfiguration configuration, Environment environment) throws Exception {
+                super.run(configuration, environment);
+                environment.lifecycle().addServerLifecycleListener(new ServerLifecycleListener() {
+                    @Override
+                    public void serverStarted(Server jetty) {
+                        server[0] = jetty;
+                        started.countDown();
+                    }
+                });
+            }
+        }.run("server", config.toString());
+        if (!started.await(30, TimeUnit.SECONDS)) {
+            throw new IllegalStateException("Server did not start");
+        }
+
+        String uri = "http://127.0.0.1:" + port + "/text-to-speech?text=Your%20basket%20is%20empty";
+
+        run(uri, 20, 2);
+        System.out.printf("mode=%s java=%s backend delay=%d ms, jetty maxThreads=%d, executor threads=%d, queue=%d, "
+                + "idle threads=%d%n", mode, System.getProperty("java.version"), delayMillis, jettyThreads,
+                "jetty".equals(mode) ? 0 : executorThreads, queueSize, serverThreads());
+        System.out.printf("%11s %10s %9s %9s %9s %8s %8s %12s %8s%n",
+                "concurrency", "req/s", "p50 ms", "p99 ms", "max ms", "503s", "threads", "heap MB", "errors");
+        for (String level : levels) {
+            Result result = run(uri, Integer.parseInt(level.trim()), seconds);
+            Snapshot latency = result.latency.getSnapshot();
+            System.out.printf("%11s %10.0f %9.1f %9.1f %9.1f %8d %8d %12.1f %8d%n", level.trim(), result.throughput,
+                    latency.getMedian(), latency.get99thPercentile(), (double) latency.getMax(), result.rejected,
+                    result.peakThreads, result.peakHeap / 1048576.0, result.errors);
+        }
+
+        server[0].stop();
+    }
+
+    private static Result run(final String uri, int concurrency, int seconds) throws InterruptedException {
+        final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        System.gc();
+
+        PoolingClientConnectionManager connections = new PoolingClientConnectionManager();
+        connections.setMaxTotal(concurrency);
+        connections.setDefaultMaxPerRoute(concurrency);
+        final HttpClient client = new DefaultHttpClient(connections);
+        HttpConnectionParams.setSoTimeout(client.getParams(), 60000);
+        ExecutorService clientThreads = Executors.newFixedThreadPool(concurrency, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                return new Thread(r, CLIENT_THREAD + count.incrementAndGet());
+            }
+        });
+
+        final Result result = new Result();
+        final AtomicLong peakHeap = new AtomicLong();
+        final AtomicInteger peakThreads = new AtomicInteger();
+        ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor();
+        sampler.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                long used = memory.getHeapMemoryUsage().getUsed();
+                if (used > peakHeap.get()) {
+                    peakHeap.set(used);
+                }
+                int threads = serverThreads();
+                if (threads > peakThreads.get()) {
+                    peakThreads.set(threads);
+                }
+            }
+        }, 0, 50, TimeUnit.MILLISECONDS);
+
+        // the clock starts once every client thread exists, which takes a while at high concurrency
+        final AtomicLong end = new AtomicLong();
+        final CountDownLatch ready = new CountDownLatch(concurrency);
+        final CountDownLatch go = new CountDownLatch(1);
+        final AtomicInteger completed = new AtomicInteger();
+        final AtomicInteger rejected = new AtomicInteger();
+        final AtomicInteger errors = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(concurrency);
+        for (int i = 0; i < concurrency; i++) {
+            clientThreads.execute(new Runnable() {
+                @Override
+                public void run() {
+                    ready.countDown();
+                    try {
+                        go.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    while (System.nanoTime() < end.get()) {
+                        long start = System.nanoTime();
+                        try {
+                            HttpResponse response = client.execute(new HttpGet(uri));
+                            int status = response.getStatusLine().getStatusCode();
+                            EntityUtils.consume(response.getEntity());
+                            if (status == 200) {
+                                completed.incrementAndGet();
+                                result.latency.update(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                            } else if (status == 503) {
+                                rejected.incrementAndGet();
+                            } else {
+                                errors.incrementAndGet();
+                            }
+                        } catch (IOException e) {
+                            errors.incrementAndGet();
+                        }
+                    }
+                    done.countDown();
+                }
+            });
+        }
+        ready.await();
+        long started = System.nanoTime();
+        end.set(started + TimeUnit.SECONDS.toNanos(seconds));
+        go.countDown();
+        done.await();
+        double elapsed = (System.nanoTime() - started) / 1e9;
+        sampler.shutdownNow();
+        clientThreads.shutdownNow();
+        client.getConnectionManager().shutdown();
+
+        result.throughput = completed.get() / elapsed;
+        result.rejected = rejected.get();
+        result.errors = errors.get();
+        result.peakThreads = peakThreads.get();
+        result.peakHeap = peakHeap.get();
+        return result;
+    }
+
+    /**
+     * Live threads other than the load generator's.
+     */
+    private static int serverThreads() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        int count = 0;
+        for (ThreadInfo thread : threads.getThreadInfo(threads.getAllThreadIds(), 0)) {
+            if (thread != null && !thread.getThreadName().startsWith(CLIENT_THREAD)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static Path writeConfiguration(String mode, int port, int backendPort, int jettyThreads,
+            int executorThreads, int queueSize) throws IOException {
+        String yaml = "server:\n"
+                + "    type: simple\n"
+                + "    maxThreads: " + jettyThreads + "\n"
+                + "    applicationContextPath: /\n"
+                + "    connector:\n"
+                + "        type: http\n"
+                + "        bindHost: 127.0.0.1\n"
+                + "        port: " + port + "\n"
+                + "    requestLog:\n"
+                + "        appenders: []\n"
+                + "logging:\n"
+                + "    level: WARN\n"
+                + "template: Hello, %s!\n"
+                + "ids:\n"
+                + "    type: atomic\n"
+                + "execution:\n"
+                + "    mode: " + mode + "\n"
+                + "    threads: " + executorThreads + "\n"
+                + "    queueSize: " + queueSize + "\n"
+                + "textToSpeech:\n"
+                + "    engine: watson\n"
+                + "    url: http://127.0.0.1:" + backendPort + "/synthesize\n"
+                + "    username: load\n"
+                + "    password: test\n"
+                + "    readTimeout: 60s\n";
+        Path config = Files.createTempFile("execution-load-test", ".yml");
+        Files.write(config, yaml.getBytes(StandardCharsets.UTF_8));
+        config.toFile().deleteOnExit();
+        return config;
+    }
+
+    private static int freePort() throws IOException {
+        ServerSocket socket = new ServerSocket(0);
+        try {
+            return socket.getLocalPort();
+        } finally {
+            socket.close();
+        }
+    }
+
+    private static class Result {
+        private final Histogram latency = new Histogram(new UniformReservoir(100000));
+        private double throughput;
+        private int rejected;
+        private int errors;
+        private int peakThreads;
+        private long peakHeap;
+    }
+
+    /**
+     * Answers every synthesis after the delay from a single scheduler thread, without holding a thread meanwhile.
+     */
+    private static class StubBackend {
+        private final HttpServer server;
+        private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+
+        StubBackend(final long delayMillis) throws IOException {
+            server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 4096);
+            server.createContext("/synthesize", new HttpHandler() {
+                @Override
+                public void handle(final HttpExchange exchange) throws IOException {
+                    InputStream body = exchange.getRequestBody();
+                    while (body.read(new byte[1024]) >= 0) {
+                        // the text is not needed
+                    }
+                    scheduler.schedule(new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                exchange.getResponseHeaders().set("Content-Type", "audio/wav");
+                                exchange.sendResponseHeaders(200, AUDIO.length);
+                                OutputStream out = exchange.getResponseBody();
+                                out.write(AUDIO);
+                                out.close();
+                            } catch (IOException e) {
+                                exchange.close();
+                            }
+                        }
+                    }, delayMillis, TimeUnit.MILLISECONDS);
+                }
+            });
+            server.setExecutor(null);
+            server.start();
+        }
+
+        int port() {
+            return server.getAddress().getPort();
+        }
+
+        void stop() {
+            server.stop(0);
+            scheduler.shutdownNow();
+        }
+    }
+}
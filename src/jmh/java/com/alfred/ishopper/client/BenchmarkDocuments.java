@@ -0,0 +1,51 @@
+package com.alfred.ishopper.client;
+
+/**
+ * Representative upstream payloads for the benchmarks.
+ */
+public final class BenchmarkDocuments {
+
+	private BenchmarkDocuments() {
+	}
+
+	public static String product(int id) {
+		return "{\"id\":" + id + ",\"name\":\"Organic whole milk 1L " + id + "\",\"brand\":\"Arla\",\"price\":12.95,"
+				+ "\"currency\":\"DKK\",\"inStock\":true,\"categories\":[\"dairy\",\"milk\",\"organic\"],"
+				+ "\"nutrition\":{\"energy\":268,\"fat\":3.5,\"protein\":3.4}}";
+	}
+
+	public static String smallJson() {
+		return product(1);
+	}
+
+	public static String largeJson(int products) {
+		StringBuilder json = new StringBuilder(products * 200).append("{\"total\":").append(products).append(",\"products\":[");
+		for (int i = 0; i < products; i++) {
+			if (i > 0) {
+				json.append(',');
+			}
+			json.append(product(i));
+		}
+		return json.append("]}").toString();
+	}
+
+	public static String jsonApi(int resources) {
+		StringBuilder json = new StringBuilder(resources * 300).append("{\"data\":[");
+		for (int i = 0; i < resources; i++) {
+			if (i > 0) {
+				json.append(',');
+			}
+			json.append("{\"type\":\"products\",\"id\":\"").append(i).append("\",\"attributes\":").append(product(i))
+					.append(",\"relationships\":{\"brand\":{\"data\":{\"type\":\"brands\",\"id\":\"").append(i % 10)
+					.append("\"}}},\"links\":{\"self\":\"/products/").append(i).append("\"}}");
+		}
+		json.append("],\"included\":[");
+		for (int i = 0; i < 10; i++) {
+			if (i > 0) {
+				json.append(',');
+			}
+			json.append("{\"type\":\"brands\",\"id\":\"").append(i).append("\",\"attributes\":{\"name\":\"Brand ").append(i).append("\"}}");
+		}
+		return json.append("],\"links\":{\"self\":\"/products?page[offset]=0\"}}").toString();
+	}
+}
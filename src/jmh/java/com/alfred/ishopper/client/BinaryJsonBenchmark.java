@@ -0,0 +1,112 @@
+package com.alfred.ishopper.client;
+
+import java.io.ByteArrayInputStream;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.ws.rs.core.MediaType;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.alfred.ishopper.resources.Saying;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+import io.dropwizard.jackson.Jackson;
+
+/**
+ * Encoding with the server's mappers and decoding through JsonRestClient.map, as JSON, Smile and CBOR, for a Saying
+ * and for small and large upstream documents. The encoded sizes are reported by {@link #main}, outside JMH:
+ * <pre>
+ * mvn -Pbenchmarks test-compile exec:exec -Dbenchmark.main=com.alfred.ishopper.client.BinaryJsonBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BinaryJsonBenchmark {
+
+	@Param({ "json", "smile", "cbor" })
+	private String format;
+
+	@Param({ "saying", "small", "large" })
+	private String document;
+
+	private ObjectMapper mapper;
+	private MediaType mediaType;
+	private Class<?> type;
+	private Object value;
+	private byte[] bytes;
+
+	@Setup
+	public void setUp() throws Exception {
+		if ("smile".equals(format)) {
+			mapper = Jackson.newObjectMapper(new SmileFactory());
+			mediaType = MediaType.valueOf(JsonRestClient.APPLICATION_SMILE);
+		} else if ("cbor".equals(format)) {
+			mapper = Jackson.newObjectMapper(new CBORFactory());
+			mediaType = MediaType.valueOf(JsonRestClient.APPLICATION_CBOR);
+		} else {
+			mapper = Jackson.newObjectMapper();
+			mediaType = MediaType.APPLICATION_JSON_TYPE;
+		}
+
+		if ("saying".equals(document)) {
+			type = Saying.class;
+			value = new Saying(1234567, "Hello, Kamran!");
+		} else {
+			type = Map.class;
+			value = JsonRestClient.map("small".equals(document) ? BenchmarkDocuments.smallJson() : BenchmarkDocuments.largeJson(2000));
+		}
+		bytes = mapper.writeValueAsBytes(value);
+	}
+
+	/**
+	 * Prints the encoded size in bytes of every document in every format the benchmark runs with.
+	 */
+	public static void main(String[] args) throws Exception {
+		String[] formats = BinaryJsonBenchmark.class.getDeclaredField("format").getAnnotation(Param.class).value();
+		String[] documents = BinaryJsonBenchmark.class.getDeclaredField("document").getAnnotation(Param.class).value();
+
+		System.out.printf("%-8s", "bytes");
+		for (String format : formats) {
+			System.out.printf("%10s", format);
+		}
+		System.out.println();
+		for (String document : documents) {
+			System.out.printf("%-8s", document);
+			for (String format : formats) {
+				BinaryJsonBenchmark benchmark = new BinaryJsonBenchmark();
+				benchmark.format = format;
+				benchmark.document = document;
+				benchmark.setUp();
+				System.out.printf("%10d", benchmark.bytes.length);
+			}
+			System.out.println();
+		}
+	}
+
+	@Benchmark
+	public byte[] encode() throws Exception {
+		return mapper.writeValueAsBytes(value);
+	}
+
+	@Benchmark
+	public Object decode() throws JsonRestClientException {
+		return JsonRestClient.map(new ByteArrayInputStream(bytes), type, mediaType);
+	}
+}
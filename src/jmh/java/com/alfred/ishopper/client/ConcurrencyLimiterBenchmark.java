@@ -0,0 +1,48 @@
+package com.alfred.ishopper.client;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.codahale.metrics.MetricRegistry;
+
+/**
+ * Per-call overhead of taking a permit and sampling the call's RTT, with four threads sharing one limiter.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class ConcurrencyLimiterBenchmark {
+
+	private ConcurrencyLimiter limiter;
+
+	@Setup
+	public void setUp() {
+		ConcurrencyLimitConfiguration config = new ConcurrencyLimitConfiguration();
+		config.setInitialLimit(100);
+		limiter = new ConcurrencyLimiter(config, new MetricRegistry(), "benchmark");
+	}
+
+	@Benchmark
+	public boolean acquireAndRecord() {
+		boolean acquired = limiter.tryAcquire();
+		if (acquired) {
+			limiter.onResult(1000000, false);
+		}
+		return acquired;
+	}
+}
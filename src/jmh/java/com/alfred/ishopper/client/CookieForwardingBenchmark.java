@@ -0,0 +1,146 @@
+package com.alfred.ishopper.client;
+
+import java.io.ByteArrayInputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.ws.rs.core.Cookie;
+
+import org.eclipse.jetty.server.CookieCutter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.sun.jersey.api.client.Client;
+import com.sun.jersey.api.client.ClientHandlerException;
+import com.sun.jersey.api.client.ClientRequest;
+import com.sun.jersey.api.client.ClientResponse;
+import com.sun.jersey.api.client.filter.ClientFilter;
+import com.sun.jersey.core.header.InBoundHeaders;
+
+/**
+ * A proxied GET with a shopper session's cookies, from the inbound request to the Cookie header the upstream
+ * receives: the servlet cookies converted to a map and serialized one by one, against the raw header passed through
+ * whole or filtered by an allow-list. The convert path includes Jetty's cookie parsing, which the request pays the
+ * first time getCookies() is called. The in-memory upstream renders the Cookie header like the HTTP handlers do.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CookieForwardingBenchmark {
+
+	private static final byte[] BODY = "{}".getBytes();
+
+	private String header;
+	private long rendered;
+	private JsonRestClient client;
+	private JsonRestClient filteringClient;
+
+	@Setup
+	public void setUp() throws Exception {
+		StringBuilder cookies = new StringBuilder()
+				.append("JSESSIONID=node01a2b3c4d5e6f7g8h9i0j1k2l3m4n5o6.node0")
+				.append("; encodedTicket=").append(repeat("dGlja2V0LXRoYXQtaXMtcXVpdGUtbG9uZw", 24))
+				.append("; cart=").append(repeat("c2t1LTEyMzQ1Njc4OnF0eS0y", 32))
+				.append("; recentlyViewed=").append(repeat("MTIzNDU2Nzg5MCw", 40))
+				.append("; locale=de-DE; currency=EUR")
+				.append("; _ga=GA1.2.1234567890.1451606400; _gid=GA1.2.987654321.1451606400")
+				.append("; _fbp=fb.1.1451606400000.1234567890")
+				.append("; consent=").append(repeat("YW5hbHl0aWNzOnRydWU", 16))
+				.append("; ab=checkout-v2:b|search-v3:a|reco-v5:control");
+		header = cookies.toString();
+
+		final Client inMemory = Client.create();
+		inMemory.addFilter(new ClientFilter() {
+			@Override
+			public ClientResponse handle(ClientRequest request) throws ClientHandlerException {
+				int length = 0;
+				List<Object> values = request.getHeaders().get(ForwardedCookies.HEADER_COOKIE);
+				if (values != null) {
+					for (Object value : values) {
+						length += ClientRequest.getHeaderValue(value).length();
+					}
+				}
+				rendered += length;
+				return new ClientResponse(200, new InBoundHeaders(), new ByteArrayInputStream(BODY), inMemory.getMessageBodyWorkers());
+			}
+		});
+
+		ClientConfiguration config = new ClientConfiguration();
+		config.setBaseUri("http://localhost");
+		config.setBasePort(8080);
+		client = new JsonRestClient(inMemory, config);
+
+		ClientConfiguration filtering = new ClientConfiguration();
+		filtering.setBaseUri("http://localhost");
+		filtering.setBasePort(8080);
+		filtering.setForwardedCookies(Arrays.asList("JSESSIONID", "encodedTicket", "cart", "locale", "currency"));
+		filteringClient = new JsonRestClient(inMemory, filtering);
+	}
+
+	private static String repeat(String s, int times) {
+		StringBuilder repeated = new StringBuilder(s.length() * times);
+		for (int i = 0; i < times; i++) {
+			repeated.append(s);
+		}
+		return repeated.toString();
+	}
+
+	@Benchmark
+	public String convert() {
+		Map<String, Cookie> cookies = JsonRestClient.convert(request());
+		return client.get("cart", null, cookies, "10.0.0.1", true);
+	}
+
+	@Benchmark
+	public String forward() {
+		return client.get("cart", null, client.forwardCookies(request()), "10.0.0.1", true);
+	}
+
+	@Benchmark
+	public String forwardFiltered() {
+		return filteringClient.get("cart", null, filteringClient.forwardCookies(request()), "10.0.0.1", true);
+	}
+
+	/**
+	 * A fresh request each time, as the container hands out, with getCookies() parsing the header on first use.
+	 */
+	private HttpServletRequest request() {
+		return (HttpServletRequest) Proxy.newProxyInstance(HttpServletRequest.class.getClassLoader(),
+				new Class<?>[] { HttpServletRequest.class }, new InvocationHandler() {
+					private CookieCutter cutter;
+
+					@Override
+					public Object invoke(Object proxy, Method method, Object[] args) {
+						if ("getCookies".equals(method.getName())) {
+							if (cutter == null) {
+								cutter = new CookieCutter();
+								cutter.addCookieField(header);
+							}
+							return cutter.getCookies();
+						}
+						if ("getHeaders".equals(method.getName()) && ForwardedCookies.HEADER_COOKIE.equalsIgnoreCase((String) args[0])) {
+							return Collections.enumeration(Collections.singletonList(header));
+						}
+						return null;
+					}
+				});
+	}
+}
@@ -0,0 +1,69 @@
+package com.alfred.ishopper.client;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+
+/**
+ * Mapping a whole JSON:API document against streaming its data resources one at a time. Run with -prof gc to
+ * compare allocation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx256m")
+public class JsonApiStreamingBenchmark {
+
+	@Param({ "100", "10000" })
+	private int resources;
+
+	private byte[] document;
+	private ObjectReader reader;
+	private ObjectReader treeReader;
+
+	@Setup
+	public void setUp() {
+		document = BenchmarkDocuments.jsonApi(resources).getBytes(StandardCharsets.UTF_8);
+		ObjectMapper mapper = new ObjectMapper();
+		reader = mapper.readerFor(Map.class);
+		treeReader = mapper.readerFor(JsonNode.class);
+	}
+
+	@Benchmark
+	@SuppressWarnings("rawtypes")
+	public void mapDocument(Blackhole blackhole) throws JsonRestClientException {
+		Map map = JsonRestClient.map(new String(document, StandardCharsets.UTF_8));
+		for (Object resource : (Iterable) map.get("data")) {
+			blackhole.consume(resource);
+		}
+	}
+
+	@Benchmark
+	@SuppressWarnings("rawtypes")
+	public void streamResources(Blackhole blackhole) {
+		JsonApiIterator<Map> resources = new JsonApiIterator<Map>(new ByteArrayInputStream(document), reader, treeReader);
+		while (resources.hasNext()) {
+			blackhole.consume(resources.next());
+		}
+	}
+}
@@ -0,0 +1,64 @@
+package com.alfred.ishopper.client;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JsonRestClient.map over small, large and JSON:API documents, from a String and straight from a stream.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonMappingBenchmark {
+
+	@Param({ "small", "large", "jsonapi" })
+	private String document;
+
+	private String json;
+	private byte[] bytes;
+
+	@Setup
+	public void setUp() {
+		if ("small".equals(document)) {
+			json = BenchmarkDocuments.smallJson();
+		} else if ("large".equals(document)) {
+			json = BenchmarkDocuments.largeJson(2000);
+		} else {
+			json = BenchmarkDocuments.jsonApi(2000);
+		}
+		bytes = json.getBytes(StandardCharsets.UTF_8);
+	}
+
+	@Benchmark
+	public Map<String, Object> mapString() throws JsonRestClientException {
+		return JsonRestClient.map(json);
+	}
+
+	@Benchmark
+	public Map<String, Object> mapBytesViaString() throws JsonRestClientException {
+		return JsonRestClient.map(new String(bytes, StandardCharsets.UTF_8));
+	}
+
+	@Benchmark
+	@SuppressWarnings("rawtypes")
+	public Map mapStream() throws JsonRestClientException {
+		return JsonRestClient.map(new ByteArrayInputStream(bytes), Map.class);
+	}
+}
@@ -0,0 +1,107 @@
+package com.alfred.ishopper.client;
+
+import java.io.ByteArrayInputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.ws.rs.core.Cookie;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.Response;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.sun.jersey.api.client.Client;
+import com.sun.jersey.api.client.ClientHandlerException;
+import com.sun.jersey.api.client.ClientRequest;
+import com.sun.jersey.api.client.ClientResponse;
+import com.sun.jersey.api.client.ClientResponse.Status;
+import com.sun.jersey.api.client.WebResource;
+import com.sun.jersey.api.client.filter.ClientFilter;
+import com.sun.jersey.core.header.InBoundHeaders;
+import com.sun.jersey.core.util.MultivaluedMapImpl;
+
+/**
+ * Request building and status conversion, the per-call work JsonRestClient does before and after the network. The
+ * get* benchmarks run whole calls against a filter that answers in memory, comparing plain and prepared requests.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonRestClientBenchmark {
+
+	private static final byte[] BODY = "{}".getBytes();
+
+	private JsonRestClient client;
+	private JsonRestClient inMemoryClient;
+	private PreparedRequest prepared;
+	private AuthUser user;
+	private MultivaluedMap<String, String> params;
+	private Map<String, Cookie> cookies;
+
+	@Setup
+	public void setUp() throws Exception {
+		ClientConfiguration config = new ClientConfiguration();
+		config.setBaseUri("http://localhost");
+		config.setBasePort(8080);
+		client = new JsonRestClient(Client.create(), config);
+
+		final Client inMemory = Client.create();
+		inMemory.addFilter(new ClientFilter() {
+			@Override
+			public ClientResponse handle(ClientRequest request) throws ClientHandlerException {
+				return new ClientResponse(200, new InBoundHeaders(), new ByteArrayInputStream(BODY), inMemory.getMessageBodyWorkers());
+			}
+		});
+		inMemoryClient = new JsonRestClient(inMemory, config);
+		prepared = inMemoryClient.prepare("products/{id}/reviews");
+		user = new AuthUser();
+
+		params = new MultivaluedMapImpl();
+		params.add("page[offset]", "0");
+		params.add("page[limit]", "50");
+
+		cookies = new HashMap<String, Cookie>();
+		cookies.put("session", new Cookie("session", "6f1c2d3e4a5b6c7d8e9f0a1b2c3d4e5f"));
+		cookies.put("encodedTicket", new Cookie("encodedTicket", "dGlja2V0LXRoYXQtaXMtcXVpdGUtbG9uZw=="));
+	}
+
+	@Benchmark
+	public WebResource.Builder buildResourceBuilder() {
+		Map<String, String> headers = client.combineHeaders(null, "10.0.0.1", 42L, "emarkets-42");
+		return client.buildResourceBuilder("products/1234/reviews", params, cookies, headers, MediaType.APPLICATION_JSON);
+	}
+
+	@Benchmark
+	public ClientResponse getPlain() {
+		return inMemoryClient.getResponse("products/1234/reviews", params, cookies, "10.0.0.1", user, MediaType.APPLICATION_JSON);
+	}
+
+	@Benchmark
+	public ClientResponse getPrepared() {
+		return inMemoryClient.getResponse(prepared, params, cookies, "10.0.0.1", user, 1234);
+	}
+
+	@Benchmark
+	public Response.Status convertResponseStatusOk() {
+		return client.convertResponseStatus(Status.OK);
+	}
+
+	@Benchmark
+	public Response.Status convertResponseStatusNotFound() {
+		return client.convertResponseStatus(Status.NOT_FOUND);
+	}
+}
@@ -0,0 +1,55 @@
+package com.alfred.ishopper.client;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.codahale.metrics.MetricRegistry;
+
+/**
+ * Per-call overhead of picking an endpoint and recording the outcome, with four threads sharing one balancer of
+ * eight endpoints.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class LoadBalancerBenchmark {
+
+	@Param({ LoadBalancerConfiguration.ROUND_ROBIN, LoadBalancerConfiguration.LEAST_OUTSTANDING, LoadBalancerConfiguration.EWMA })
+	public String policy;
+
+	private LoadBalancer balancer;
+
+	@Setup
+	public void setUp() {
+		ClientConfiguration config = new ClientConfiguration();
+		config.setEndpoints(Arrays.asList("http://10.0.0.1:8080", "http://10.0.0.2:8080", "http://10.0.0.3:8080",
+				"http://10.0.0.4:8080", "http://10.0.0.5:8080", "http://10.0.0.6:8080", "http://10.0.0.7:8080",
+				"http://10.0.0.8:8080"));
+		config.getLoadBalancer().setPolicy(policy);
+		balancer = new LoadBalancer(config, new MetricRegistry(), "benchmark");
+	}
+
+	@Benchmark
+	public LoadBalancer.Endpoint chooseAndRelease() {
+		LoadBalancer.Endpoint endpoint = balancer.choose();
+		endpoint.release(1000000, false);
+		return endpoint;
+	}
+}
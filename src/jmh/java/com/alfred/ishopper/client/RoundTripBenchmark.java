@@ -0,0 +1,70 @@
+package com.alfred.ishopper.client;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.sun.jersey.api.client.Client;
+
+/**
+ * Full GET round trips through JsonRestClient against an in-process stub server, with the default
+ * HttpURLConnection client and with the pooled client.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RoundTripBenchmark {
+
+	@Param({ "small", "large" })
+	private String document;
+
+	@Param({ "default", "pooled" })
+	private String connector;
+
+	private StubHttpServer server;
+	private Client jerseyClient;
+	private JsonRestClient client;
+
+	@Setup
+	public void setUp() throws Exception {
+		String json = "small".equals(document) ? BenchmarkDocuments.smallJson() : BenchmarkDocuments.largeJson(2000);
+		server = new StubHttpServer(json.getBytes(StandardCharsets.UTF_8), "application/json");
+
+		ClientConfiguration config = server.clientConfiguration();
+		jerseyClient = "pooled".equals(connector) ? new PooledClientFactory(config).build(null, null, "benchmark") : Client.create();
+		client = new JsonRestClient(jerseyClient, config);
+	}
+
+	@TearDown
+	public void tearDown() {
+		jerseyClient.destroy();
+		server.stop();
+	}
+
+	@Benchmark
+	public String getString() {
+		return client.get("products", (AuthUser) null);
+	}
+
+	@Benchmark
+	@SuppressWarnings("rawtypes")
+	public Map getTyped() throws JsonRestClientException {
+		return client.get("products", null, null, null, (AuthUser) null, Map.class);
+	}
+}
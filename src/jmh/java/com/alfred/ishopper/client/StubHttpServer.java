@@ -0,0 +1,55 @@
+package com.alfred.ishopper.client;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * In-process HTTP server answering every request with the same body, so round trips measure the client and the
+ * loopback network only.
+ */
+public class StubHttpServer {
+
+	static {
+		// the JDK server writes headers and body separately; without this, Nagle plus delayed ACKs add ~40ms per call
+		System.setProperty("sun.net.httpserver.nodelay", "true");
+	}
+
+	private final HttpServer server;
+	private final ExecutorService executor;
+
+	public StubHttpServer(final byte[] body, final String contentType) throws IOException {
+		this.server = HttpServer.create(new InetSocketAddress("localhost", 0), 128);
+		this.executor = Executors.newFixedThreadPool(8);
+		this.server.setExecutor(executor);
+		this.server.createContext("/", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				exchange.getResponseHeaders().add("Content-Type", contentType);
+				exchange.sendResponseHeaders(200, body.length);
+				OutputStream out = exchange.getResponseBody();
+				out.write(body);
+				out.close();
+			}
+		});
+		this.server.start();
+	}
+
+	public ClientConfiguration clientConfiguration() {
+		ClientConfiguration config = new ClientConfiguration();
+		config.setBaseUri("http://localhost");
+		config.setBasePort(server.getAddress().getPort());
+		return config;
+	}
+
+	public void stop() {
+		server.stop(0);
+		executor.shutdownNow();
+	}
+}
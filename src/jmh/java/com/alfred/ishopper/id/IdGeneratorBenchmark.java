@@ -0,0 +1,51 @@
+package com.alfred.ishopper.id;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Clock;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ID throughput with one thread per available core (override with -t). "atomic" is the old shared AtomicLong;
+ * "snowflake-1" claims every sequence number with its own CAS, "snowflake-64" in blocks of 64.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(Threads.MAX)
+@Fork(1)
+public class IdGeneratorBenchmark {
+
+    @Param({ "atomic", "snowflake-1", "snowflake-64" })
+    private String generator;
+
+    private IdGenerator ids;
+
+    @Setup
+    public void setUp() {
+        if ("atomic".equals(generator)) {
+            ids = new AtomicIdGenerator();
+        } else {
+            int blockSize = Integer.parseInt(generator.substring(generator.indexOf('-') + 1));
+            ids = new SnowflakeIdGenerator(1, SnowflakeIdGenerator.DEFAULT_EPOCH, 1000, blockSize, Clock.systemUTC());
+        }
+    }
+
+    @Benchmark
+    public long nextId() {
+        return ids.nextId();
+    }
+}
@@ -0,0 +1,70 @@
+package com.alfred.ishopper.resources;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Optional;
+import io.dropwizard.jackson.Jackson;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * sayHello plus the serialization Dropwizard performs on the returned Saying: through the ObjectMapper, through
+ * {@link SayingWriter}, and the old String.format path for comparison.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HelloWorldResourceBenchmark {
+    private HelloWorldResource resource;
+    private ObjectMapper mapper;
+    private Optional<String> name;
+    private SayingWriter writer;
+    private ByteArrayOutputStream out;
+    private AtomicLong counter;
+
+    @Setup
+    public void setUp() {
+        resource = new HelloWorldResource("Hello, %s!", "Stranger");
+        mapper = Jackson.newObjectMapper();
+        name = Optional.of("Kamran");
+        writer = new SayingWriter(mapper);
+        out = new ByteArrayOutputStream(128);
+        counter = new AtomicLong();
+    }
+
+    @Benchmark
+    public byte[] formatSerialized() throws Exception {
+        return mapper.writeValueAsBytes(new Saying(counter.incrementAndGet(), String.format("Hello, %s!", name.or("Stranger"))));
+    }
+
+    @Benchmark
+    public int sayHelloWritten() throws Exception {
+        out.reset();
+        writer.writeTo(resource.sayHello(name), Saying.class, Saying.class, null, null, null, out);
+        return out.size();
+    }
+
+    @Benchmark
+    public Saying sayHello() {
+        return resource.sayHello(name);
+    }
+
+    @Benchmark
+    public byte[] sayHelloSerialized() throws Exception {
+        return mapper.writeValueAsBytes(resource.sayHello(name));
+    }
+}
@@ -1,11 +1,21 @@
 package com.afred.ishopper;
 
 import com.alfred.ishopper.resources.TextToSpeech;
+import com.alfred.ishopper.server.BinaryJsonWriter;
+import com.alfred.ishopper.speech.SentencePipeline;
+import com.alfred.ishopper.speech.SpeechCache;
+import com.alfred.ishopper.speech.SpeechCacheConfiguration;
+import com.alfred.ishopper.speech.SpeechConfiguration;
+import com.alfred.ishopper.speech.SpeechSynthesizer;
 import io.dropwizard.Application;
 import io.dropwizard.setup.Bootstrap;
 import io.dropwizard.setup.Environment;
+import org.glassfish.jersey.server.ServerProperties;
+
+import java.util.concurrent.ExecutorService;
 
 import com.alfred.ishopper.resources.HelloWorldResource;
+import com.alfred.ishopper.resources.SayingWriter;
 
 public class HelloWorldApplication extends Application<HelloWorldConfiguration> {
     public static void main(String[] args) throws Exception {
@@ -24,12 +34,45 @@ public class HelloWorldApplication extends Application<HelloWorldConfiguration>
 
     @Override
     public void run(HelloWorldConfiguration configuration,
-                    Environment environment) {
+                    Environment environment) throws Exception {
+        // the Jersey 1 jars the client needs list their providers in META-INF/services, which Jersey 2 would load
+        environment.jersey().property(ServerProperties.METAINF_SERVICES_LOOKUP_DISABLE, true);
+        configuration.getExecution().configure(environment);
+        configuration.getDeadlines().configure(environment);
         final HelloWorldResource resource = new HelloWorldResource(
             configuration.getTemplate(),
-            configuration.getDefaultName()
+            configuration.getDefaultName(),
+            configuration.getIds().build(),
+            configuration.getCachedNames()
         );
         environment.jersey().register(resource);
-        environment.jersey().register(new TextToSpeech());
+        environment.jersey().register(new SayingWriter(environment.getObjectMapper()));
+        environment.jersey().register(new BinaryJsonWriter());
+        final SpeechConfiguration speech = configuration.getTextToSpeech();
+        SpeechSynthesizer synthesizer = speech.build();
+        final SpeechCacheConfiguration cacheConfiguration = speech.getCache();
+        if (cacheConfiguration.isEnabled()) {
+            final SpeechCache cache = cacheConfiguration.build(synthesizer, environment.metrics());
+            if (!cacheConfiguration.getWarmPhrases().isEmpty()) {
+                ExecutorService warmer = environment.lifecycle().executorService("speech-cache-warmer")
+                    .minThreads(1).maxThreads(1).build();
+                warmer.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        cache.warm(cacheConfiguration.getWarmPhrases(), null, speech.getFormat());
+                    }
+                });
+            }
+            synthesizer = cache;
+        }
+        final ExecutorService pipelineExecutor = environment.lifecycle().executorService("speech-pipeline-%d")
+            .minThreads(speech.getPipelineThreads()).maxThreads(speech.getPipelineThreads()).build();
+        environment.jersey().register(new TextToSpeech(
+            synthesizer,
+            new SentencePipeline(synthesizer, pipelineExecutor, speech.getPipelineDepth()),
+            speech.getFormat(),
+            speech.getBufferSize(),
+            environment.metrics()
+        ));
     }
 }
\ No newline at end of file
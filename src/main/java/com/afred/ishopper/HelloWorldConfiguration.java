@@ -1,9 +1,17 @@
 package com.afred.ishopper;
 
 import io.dropwizard.Configuration;
+import com.alfred.ishopper.id.IdGeneratorConfiguration;
+import com.alfred.ishopper.server.DeadlineConfiguration;
+import com.alfred.ishopper.server.ExecutionConfiguration;
+import com.alfred.ishopper.speech.SpeechConfiguration;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import org.hibernate.validator.constraints.NotEmpty;
 
+import javax.validation.Valid;
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+
 public class HelloWorldConfiguration extends Configuration {
     @NotEmpty
     private String template;
@@ -11,6 +19,25 @@ public class HelloWorldConfiguration extends Configuration {
     @NotEmpty
     private String defaultName = "Stranger";
 
+    @Min(0)
+    private int cachedNames = 1024;
+
+    @Valid
+    @NotNull
+    private SpeechConfiguration textToSpeech = new SpeechConfiguration();
+
+    @Valid
+    @NotNull
+    private IdGeneratorConfiguration ids = new IdGeneratorConfiguration();
+
+    @Valid
+    @NotNull
+    private ExecutionConfiguration execution = new ExecutionConfiguration();
+
+    @Valid
+    @NotNull
+    private DeadlineConfiguration deadlines = new DeadlineConfiguration();
+
     @JsonProperty
     public String getTemplate() {
         return template;
@@ -30,4 +57,54 @@ public class HelloWorldConfiguration extends Configuration {
     public void setDefaultName(String name) {
         this.defaultName = name;
     }
+
+    @JsonProperty
+    public int getCachedNames() {
+        return cachedNames;
+    }
+
+    @JsonProperty
+    public void setCachedNames(int cachedNames) {
+        this.cachedNames = cachedNames;
+    }
+
+    @JsonProperty
+    public SpeechConfiguration getTextToSpeech() {
+        return textToSpeech;
+    }
+
+    @JsonProperty
+    public void setTextToSpeech(SpeechConfiguration textToSpeech) {
+        this.textToSpeech = textToSpeech;
+    }
+
+    @JsonProperty
+    public IdGeneratorConfiguration getIds() {
+        return ids;
+    }
+
+    @JsonProperty
+    public void setIds(IdGeneratorConfiguration ids) {
+        this.ids = ids;
+    }
+
+    @JsonProperty
+    public ExecutionConfiguration getExecution() {
+        return execution;
+    }
+
+    @JsonProperty
+    public void setExecution(ExecutionConfiguration execution) {
+        this.execution = execution;
+    }
+
+    @JsonProperty
+    public DeadlineConfiguration getDeadlines() {
+        return deadlines;
+    }
+
+    @JsonProperty
+    public void setDeadlines(DeadlineConfiguration deadlines) {
+        this.deadlines = deadlines;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,36 @@
+package com.alfred.ishopper.client;
+
+import java.util.concurrent.CompletionStage;
+import java.util.function.BiConsumer;
+
+import javax.ws.rs.container.AsyncResponse;
+
+/**
+ * Bridges the {@link JsonRestClient} *Async methods to suspended JAX-RS resource methods, so a resource can hand
+ * its thread back to Jetty while the upstream call is in flight:
+ *
+ * <pre>
+ * &#64;GET
+ * public void basket(&#64;Suspended AsyncResponse response) {
+ *     AsyncResponses.resume(client.getAsync("basket", null, null, null, user, Basket.class), response);
+ * }
+ * </pre>
+ */
+public final class AsyncResponses {
+
+	private AsyncResponses() {
+	}
+
+	public static <T> void resume(CompletionStage<T> stage, final AsyncResponse response) {
+		stage.whenComplete(new BiConsumer<T, Throwable>() {
+			@Override
+			public void accept(T value, Throwable t) {
+				if (t != null) {
+					response.resume(JsonRestClient.unwrap(t));
+				} else {
+					response.resume(value);
+				}
+			}
+		});
+	}
+}
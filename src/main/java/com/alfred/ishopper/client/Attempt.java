@@ -0,0 +1,81 @@
+package com.alfred.ishopper.client;
+
+import java.util.concurrent.Callable;
+
+import org.apache.http.client.methods.AbortableHttpRequest;
+
+import com.sun.jersey.api.client.ClientResponse;
+
+/**
+ * One attempt of a hedged call. It is current on the thread making it, so the transport can hand over the request it
+ * sends; aborting the attempt from another thread then shuts down that request's connection, which fails the
+ * blocked call right away with a {@link com.sun.jersey.api.client.ClientHandlerException}. Only clients built by
+ * {@link PooledClientFactory} hand their requests over; with other transports an aborted attempt runs to its end and
+ * its response is discarded.
+ * <p>
+ * The failure of an aborted attempt says nothing about the upstream, so the circuit breaker, the concurrency limit
+ * and the load balancer do not count it.
+ */
+final class Attempt {
+
+	private static final ThreadLocal<Attempt> CURRENT = new ThreadLocal<Attempt>();
+
+	private AbortableHttpRequest request;
+	private volatile boolean aborted;
+
+	static Attempt current() {
+		return CURRENT.get();
+	}
+
+	/**
+	 * Whether the current thread makes an attempt that has been aborted.
+	 */
+	static boolean isAborted() {
+		Attempt attempt = CURRENT.get();
+		return attempt != null && attempt.aborted;
+	}
+
+	/**
+	 * Makes the call as this attempt.
+	 */
+	ClientResponse call(Callable<ClientResponse> call) throws Exception {
+		Attempt previous = CURRENT.get();
+		CURRENT.set(this);
+		try {
+			return call.call();
+		} finally {
+			if (previous != null) {
+				CURRENT.set(previous);
+			} else {
+				CURRENT.remove();
+			}
+		}
+	}
+
+	/**
+	 * Called by the transport with the request it is about to send; aborts it at once if the attempt already is.
+	 */
+	void attach(AbortableHttpRequest request) {
+		synchronized (this) {
+			if (!aborted) {
+				this.request = request;
+				return;
+			}
+		}
+		request.abort();
+	}
+
+	void abort() {
+		AbortableHttpRequest sent;
+		synchronized (this) {
+			if (aborted) {
+				return;
+			}
+			aborted = true;
+			sent = request;
+		}
+		if (sent != null) {
+			sent.abort();
+		}
+	}
+}
@@ -0,0 +1,41 @@
+package com.alfred.ishopper.client;
+
+/**
+ * Outcome of a single item of a {@link JsonRestClient#getAll} batch: either the mapped value or the reason it
+ * failed. A failed item never fails the rest of the batch.
+ */
+public class BatchResult<T> {
+	private final String resource;
+	private final T value;
+	private final Throwable error;
+
+	private BatchResult(String resource, T value, Throwable error) {
+		this.resource = resource;
+		this.value = value;
+		this.error = error;
+	}
+
+	public static <T> BatchResult<T> success(String resource, T value) {
+		return new BatchResult<T>(resource, value, null);
+	}
+
+	public static <T> BatchResult<T> failure(String resource, Throwable error) {
+		return new BatchResult<T>(resource, null, error);
+	}
+
+	public String getResource() {
+		return resource;
+	}
+
+	public boolean isSuccess() {
+		return error == null;
+	}
+
+	public T getValue() {
+		return value;
+	}
+
+	public Throwable getError() {
+		return error;
+	}
+}
@@ -0,0 +1,80 @@
+package com.alfred.ishopper.client;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import javax.ws.rs.core.MultivaluedMap;
+
+import com.sun.jersey.api.client.ClientHandlerException;
+import com.sun.jersey.api.client.ClientResponse;
+import com.sun.jersey.core.header.InBoundHeaders;
+import com.sun.jersey.spi.MessageBodyWorkers;
+
+/**
+ * Immutable snapshot of a fully read upstream response that can be replayed as any number of independent
+ * {@link ClientResponse}s.
+ */
+class BufferedResponse {
+	private final int status;
+	private final Map<String, List<String>> headers;
+	private final byte[] body;
+
+	BufferedResponse(int status, MultivaluedMap<String, String> headers, byte[] body) {
+		this.status = status;
+		this.headers = new LinkedHashMap<String, List<String>>();
+		for (Entry<String, List<String>> header : headers.entrySet()) {
+			this.headers.put(header.getKey(), new ArrayList<String>(header.getValue()));
+		}
+		this.body = body;
+	}
+
+	/**
+	 * Reads the whole entity of the response and releases the underlying connection. The response itself stays
+	 * usable, its entity is replaced by the buffered bytes.
+	 */
+	static byte[] buffer(ClientResponse response) {
+		InputStream in = response.getEntityInputStream();
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream(response.getLength() > 0 ? response.getLength() : 4096);
+			byte[] buffer = new byte[4096];
+			int read;
+			while ((read = in.read(buffer)) != -1) {
+				out.write(buffer, 0, read);
+			}
+			byte[] body = out.toByteArray();
+			response.setEntityInputStream(new ByteArrayInputStream(body));
+			return body;
+		} catch (IOException e) {
+			throw new ClientHandlerException(e);
+		} finally {
+			try {
+				in.close();
+			} catch (IOException e) {
+				// the body has been read completely or the request fails anyway
+			}
+		}
+	}
+
+	int getStatus() {
+		return status;
+	}
+
+	long size() {
+		return body.length;
+	}
+
+	ClientResponse toClientResponse(MessageBodyWorkers workers) {
+		InBoundHeaders inBoundHeaders = new InBoundHeaders();
+		for (Entry<String, List<String>> header : headers.entrySet()) {
+			inBoundHeaders.put(header.getKey(), new ArrayList<String>(header.getValue()));
+		}
+		return new ClientResponse(status, inBoundHeaders, new ByteArrayInputStream(body), workers);
+	}
+}
@@ -0,0 +1,66 @@
+package com.alfred.ishopper.client;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+
+/**
+ * Caps the number of concurrent in-flight calls to one upstream, so a slow dependency can only tie up a bounded
+ * share of the server's threads.
+ */
+public class Bulkhead {
+
+	private final int maxConcurrentCalls;
+	private final long maxWaitNanos;
+	private final Semaphore permits;
+	private final Meter rejected = new Meter();
+
+	public Bulkhead(int maxConcurrentCalls) {
+		this(maxConcurrentCalls, 0, TimeUnit.MILLISECONDS, null, null);
+	}
+
+	/**
+	 * @param maxWait how long a call may wait for a free slot before it is rejected; zero rejects immediately
+	 */
+	public Bulkhead(int maxConcurrentCalls, long maxWait, TimeUnit unit, MetricRegistry metrics, String name) {
+		this.maxConcurrentCalls = maxConcurrentCalls;
+		this.maxWaitNanos = unit.toNanos(maxWait);
+		this.permits = new Semaphore(maxConcurrentCalls);
+
+		if (metrics != null) {
+			metrics.register(MetricRegistry.name(Bulkhead.class, name, "rejected"), rejected);
+			metrics.register(MetricRegistry.name(Bulkhead.class, name, "in-flight"), new Gauge<Integer>() {
+				@Override
+				public Integer getValue() {
+					return Bulkhead.this.maxConcurrentCalls - permits.availablePermits();
+				}
+			});
+		}
+	}
+
+	public boolean tryAcquire() {
+		boolean acquired;
+		if (maxWaitNanos <= 0) {
+			acquired = permits.tryAcquire();
+		} else {
+			try {
+				acquired = permits.tryAcquire(maxWaitNanos, TimeUnit.NANOSECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				acquired = false;
+			}
+		}
+
+		if (!acquired) {
+			rejected.mark();
+		}
+		return acquired;
+	}
+
+	public void release() {
+		permits.release();
+	}
+}
@@ -0,0 +1,216 @@
+package com.alfred.ishopper.client;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+
+/**
+ * Circuit breaker over a count based sliding window of the most recent upstream calls. The circuit opens when the
+ * failure rate or the slow call rate crosses its threshold, rejects all calls while open, and after the open
+ * duration lets a limited number of probe calls through to decide whether to close again.
+ */
+public class CircuitBreaker {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(CircuitBreaker.class);
+
+	private static final byte FAILED = 1;
+	private static final byte SLOW = 2;
+
+	public enum State {
+		CLOSED, OPEN, HALF_OPEN
+	}
+
+	private final String name;
+	private final CircuitBreakerConfiguration config;
+	private final long slowCallNanos;
+	private final long openNanos;
+
+	private final AtomicReference<State> state = new AtomicReference<State>(State.CLOSED);
+	private volatile long openedAt;
+	private final AtomicInteger halfOpenPermits = new AtomicInteger();
+	private final AtomicInteger halfOpenSuccesses = new AtomicInteger();
+
+	private final byte[] window;
+	private int windowIndex;
+	private int windowCount;
+	private int failedCalls;
+	private int slowCalls;
+
+	private final Meter opened = new Meter();
+	private final Meter halfOpened = new Meter();
+	private final Meter closed = new Meter();
+	private final Meter rejected = new Meter();
+
+	public CircuitBreaker(String name, CircuitBreakerConfiguration config) {
+		this(name, config, null);
+	}
+
+	public CircuitBreaker(String name, CircuitBreakerConfiguration config, MetricRegistry metrics) {
+		this.name = name;
+		this.config = config;
+		this.slowCallNanos = config.getSlowCallDuration().toNanoseconds();
+		this.openNanos = config.getOpenDuration().toNanoseconds();
+		this.window = new byte[config.getWindowSize()];
+
+		if (metrics != null) {
+			metrics.register(MetricRegistry.name(CircuitBreaker.class, name, "opened"), opened);
+			metrics.register(MetricRegistry.name(CircuitBreaker.class, name, "half-opened"), halfOpened);
+			metrics.register(MetricRegistry.name(CircuitBreaker.class, name, "closed"), closed);
+			metrics.register(MetricRegistry.name(CircuitBreaker.class, name, "rejected"), rejected);
+			metrics.register(MetricRegistry.name(CircuitBreaker.class, name, "state"), new Gauge<String>() {
+				@Override
+				public String getValue() {
+					return state.get().name();
+				}
+			});
+		}
+	}
+
+	public State getState() {
+		return state.get();
+	}
+
+	/**
+	 * Returns whether a call may proceed. Every permitted call must be followed by {@link #onResult} or
+	 * {@link #release}.
+	 */
+	public boolean tryAcquirePermission() {
+		switch (state.get()) {
+		case CLOSED:
+			return true;
+		case OPEN:
+			if (System.nanoTime() - openedAt < openNanos) {
+				return reject();
+			}
+			halfOpen();
+			return tryAcquirePermission();
+		case HALF_OPEN:
+		default:
+			for (;;) {
+				int permits = halfOpenPermits.get();
+				if (permits <= 0) {
+					return reject();
+				}
+				if (halfOpenPermits.compareAndSet(permits, permits - 1)) {
+					return true;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Ends a permitted call whose outcome says nothing about the upstream, such as an aborted hedge, without
+	 * recording it. A probe permit taken while half open is handed back.
+	 */
+	public void release() {
+		if (state.get() == State.HALF_OPEN) {
+			halfOpenPermits.incrementAndGet();
+		}
+	}
+
+	public void onResult(long durationNanos, boolean failed) {
+		boolean slow = durationNanos >= slowCallNanos;
+
+		switch (state.get()) {
+		case CLOSED:
+			if (record(failed, slow)) {
+				transition(State.CLOSED, State.OPEN);
+			}
+			break;
+		case HALF_OPEN:
+			if (failed || slow) {
+				transition(State.HALF_OPEN, State.OPEN);
+			} else if (halfOpenSuccesses.incrementAndGet() >= config.getHalfOpenCalls()) {
+				transition(State.HALF_OPEN, State.CLOSED);
+			}
+			break;
+		case OPEN:
+		default:
+			// late result of a call permitted before the circuit opened
+			break;
+		}
+	}
+
+	/**
+	 * Records an outcome in the sliding window and returns whether the thresholds are now exceeded.
+	 */
+	private synchronized boolean record(boolean failed, boolean slow) {
+		if (windowCount == window.length) {
+			byte evicted = window[windowIndex];
+			failedCalls -= (evicted & FAILED) != 0 ? 1 : 0;
+			slowCalls -= (evicted & SLOW) != 0 ? 1 : 0;
+		} else {
+			windowCount++;
+		}
+
+		window[windowIndex] = (byte) ((failed ? FAILED : 0) | (slow ? SLOW : 0));
+		windowIndex = (windowIndex + 1) % window.length;
+		failedCalls += failed ? 1 : 0;
+		slowCalls += slow ? 1 : 0;
+
+		return windowCount >= config.getMinimumCalls()
+				&& (failedCalls * 100 >= config.getFailureRateThreshold() * windowCount
+						|| slowCalls * 100 >= config.getSlowCallRateThreshold() * windowCount);
+	}
+
+	private synchronized void resetWindow() {
+		windowIndex = 0;
+		windowCount = 0;
+		failedCalls = 0;
+		slowCalls = 0;
+	}
+
+	/**
+	 * Moves from open to half open with the probe permits in place before the state is seen, so callers that lose
+	 * the race to make the move take a permit like the one that made it.
+	 */
+	private synchronized void halfOpen() {
+		if (state.get() == State.OPEN) {
+			halfOpenSuccesses.set(0);
+			halfOpenPermits.set(config.getHalfOpenCalls());
+			transition(State.OPEN, State.HALF_OPEN);
+		}
+	}
+
+	private boolean transition(State from, State to) {
+		if (to == State.OPEN) {
+			// before the state, so nobody sees it open since an earlier time
+			openedAt = System.nanoTime();
+		}
+		if (!state.compareAndSet(from, to)) {
+			return false;
+		}
+
+		if (from == State.HALF_OPEN) {
+			halfOpenPermits.set(0);
+		}
+
+		switch (to) {
+		case OPEN:
+			opened.mark();
+			break;
+		case HALF_OPEN:
+			halfOpened.mark();
+			break;
+		case CLOSED:
+		default:
+			resetWindow();
+			closed.mark();
+			break;
+		}
+
+		LOGGER.warn("Circuit breaker {} changed from {} to {}", name, from, to);
+		return true;
+	}
+
+	private boolean reject() {
+		rejected.mark();
+		return false;
+	}
+}
@@ -0,0 +1,115 @@
+package com.alfred.ishopper.client;
+
+import javax.validation.constraints.Max;
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import io.dropwizard.util.Duration;
+
+public class CircuitBreakerConfiguration {
+	@Min(1)
+	@JsonProperty
+	private int windowSize = 100;
+
+	@Min(1)
+	@JsonProperty
+	private int minimumCalls = 20;
+
+	@Min(1)
+	@Max(100)
+	@JsonProperty
+	private int failureRateThreshold = 50;
+
+	@Min(1)
+	@Max(100)
+	@JsonProperty
+	private int slowCallRateThreshold = 80;
+
+	@NotNull
+	@JsonProperty
+	private Duration slowCallDuration = Duration.seconds(2);
+
+	@NotNull
+	@JsonProperty
+	private Duration openDuration = Duration.seconds(10);
+
+	@Min(1)
+	@JsonProperty
+	private int halfOpenCalls = 5;
+
+	/**
+	 * Number of most recent calls the failure and slow call rates are computed over.
+	 */
+	public int getWindowSize() {
+		return windowSize;
+	}
+
+	public void setWindowSize(int windowSize) {
+		this.windowSize = windowSize;
+	}
+
+	/**
+	 * Number of calls that must be recorded before the rates can open the circuit.
+	 */
+	public int getMinimumCalls() {
+		return minimumCalls;
+	}
+
+	public void setMinimumCalls(int minimumCalls) {
+		this.minimumCalls = minimumCalls;
+	}
+
+	/**
+	 * Percentage of failed calls (transport errors and 5xx) at which the circuit opens.
+	 */
+	public int getFailureRateThreshold() {
+		return failureRateThreshold;
+	}
+
+	public void setFailureRateThreshold(int failureRateThreshold) {
+		this.failureRateThreshold = failureRateThreshold;
+	}
+
+	/**
+	 * Percentage of calls slower than the slow call duration at which the circuit opens.
+	 */
+	public int getSlowCallRateThreshold() {
+		return slowCallRateThreshold;
+	}
+
+	public void setSlowCallRateThreshold(int slowCallRateThreshold) {
+		this.slowCallRateThreshold = slowCallRateThreshold;
+	}
+
+	public Duration getSlowCallDuration() {
+		return slowCallDuration;
+	}
+
+	public void setSlowCallDuration(Duration slowCallDuration) {
+		this.slowCallDuration = slowCallDuration;
+	}
+
+	/**
+	 * How long an open circuit rejects calls before letting probe calls through.
+	 */
+	public Duration getOpenDuration() {
+		return openDuration;
+	}
+
+	public void setOpenDuration(Duration openDuration) {
+		this.openDuration = openDuration;
+	}
+
+	/**
+	 * Number of probe calls let through while half-open; all must succeed to close the circuit again.
+	 */
+	public int getHalfOpenCalls() {
+		return halfOpenCalls;
+	}
+
+	public void setHalfOpenCalls(int halfOpenCalls) {
+		this.halfOpenCalls = halfOpenCalls;
+	}
+}
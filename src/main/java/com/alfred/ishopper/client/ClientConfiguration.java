@@ -1,14 +1,91 @@
 package com.alfred.ishopper.client;
 
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.validation.Valid;
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
+import io.dropwizard.util.Duration;
+import io.dropwizard.util.Size;
+
 public class ClientConfiguration {
+	public static final String SMILE = "smile";
+	public static final String CBOR = "cbor";
+
+	private static final String HTTP_SCHEME = "http://";
+	private static final String HTTPS_SCHEME = "https://";
+	private static final int DEFAULT_HTTP_PORT = 80;
+	private static final int DEFAULT_HTTPS_PORT = 443;
+
 	@JsonProperty
 	private String baseUri;
 	
 	@JsonProperty
 	private int basePort;
 
+	@NotNull
+	@JsonProperty
+	private List<String> endpoints = new ArrayList<String>();
+
+	@Valid
+	@NotNull
+	@JsonProperty
+	private LoadBalancerConfiguration loadBalancer = new LoadBalancerConfiguration();
+
+	@Min(1)
+	@JsonProperty
+	private int maxConnections = 64;
+
+	@Min(1)
+	@JsonProperty
+	private int maxConnectionsPerRoute = 16;
+
+	@NotNull
+	@JsonProperty
+	private Duration timeToLive = Duration.minutes(5);
+
+	@NotNull
+	@JsonProperty
+	private Duration keepAlive = Duration.seconds(30);
+
+	@NotNull
+	@JsonProperty
+	private Duration idleTimeout = Duration.seconds(60);
+
+	@NotNull
+	@JsonProperty
+	private Duration connectTimeout = Duration.milliseconds(500);
+
+	@NotNull
+	@JsonProperty
+	private Duration readTimeout = Duration.seconds(5);
+
+	@NotNull
+	@JsonProperty
+	private Duration connectionRequestTimeout = Duration.seconds(1);
+
+	@JsonProperty
+	private boolean compressResponses = true;
+
+	@JsonProperty
+	private boolean compressRequests = false;
+
+	@NotNull
+	@JsonProperty
+	private Size requestCompressionThreshold = Size.kilobytes(1);
+
+	@JsonProperty
+	private String binaryFormat;
+
+	@NotNull
+	@JsonProperty
+	private List<String> forwardedCookies = new ArrayList<String>();
+
 	public String getBaseUri() {
 		return baseUri;
 	}
@@ -24,4 +101,167 @@ public class ClientConfiguration {
 	public void setBasePort(int basePort) {
 		this.basePort = basePort;
 	}
+
+	/**
+	 * The URI requests are built against: baseUri with basePort unless it is the scheme's default, or the first
+	 * endpoint when only endpoints are configured.
+	 */
+	@JsonIgnore
+	public String getUri() {
+		if (baseUri == null && !endpoints.isEmpty()) {
+			return endpoints.get(0);
+		}
+		return (baseUri.startsWith(HTTP_SCHEME) && basePort != DEFAULT_HTTP_PORT) ||
+				(baseUri.startsWith(HTTPS_SCHEME) && basePort != DEFAULT_HTTPS_PORT) ? baseUri + ":" + basePort : baseUri;
+	}
+
+	/**
+	 * Instances of the upstream, such as <code>http://catalog-1:8080</code>, that calls are spread over by a
+	 * {@link LoadBalancer}; empty sends every call to the base URI.
+	 */
+	public List<String> getEndpoints() {
+		return endpoints;
+	}
+
+	public void setEndpoints(List<String> endpoints) {
+		this.endpoints = endpoints;
+	}
+
+	public LoadBalancerConfiguration getLoadBalancer() {
+		return loadBalancer;
+	}
+
+	public void setLoadBalancer(LoadBalancerConfiguration loadBalancer) {
+		this.loadBalancer = loadBalancer;
+	}
+
+	public int getMaxConnections() {
+		return maxConnections;
+	}
+
+	public void setMaxConnections(int maxConnections) {
+		this.maxConnections = maxConnections;
+	}
+
+	public int getMaxConnectionsPerRoute() {
+		return maxConnectionsPerRoute;
+	}
+
+	public void setMaxConnectionsPerRoute(int maxConnectionsPerRoute) {
+		this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+	}
+
+	/**
+	 * Maximum lifetime of a pooled connection, regardless of activity.
+	 */
+	public Duration getTimeToLive() {
+		return timeToLive;
+	}
+
+	public void setTimeToLive(Duration timeToLive) {
+		this.timeToLive = timeToLive;
+	}
+
+	/**
+	 * How long an idle connection is kept alive when the upstream does not send a Keep-Alive timeout itself.
+	 */
+	public Duration getKeepAlive() {
+		return keepAlive;
+	}
+
+	public void setKeepAlive(Duration keepAlive) {
+		this.keepAlive = keepAlive;
+	}
+
+	/**
+	 * Connections idle for longer than this are evicted from the pool in the background.
+	 */
+	public Duration getIdleTimeout() {
+		return idleTimeout;
+	}
+
+	public void setIdleTimeout(Duration idleTimeout) {
+		this.idleTimeout = idleTimeout;
+	}
+
+	public Duration getConnectTimeout() {
+		return connectTimeout;
+	}
+
+	public void setConnectTimeout(Duration connectTimeout) {
+		this.connectTimeout = connectTimeout;
+	}
+
+	public Duration getReadTimeout() {
+		return readTimeout;
+	}
+
+	public void setReadTimeout(Duration readTimeout) {
+		this.readTimeout = readTimeout;
+	}
+
+	/**
+	 * Maximum time to wait for a connection from the pool.
+	 */
+	public Duration getConnectionRequestTimeout() {
+		return connectionRequestTimeout;
+	}
+
+	public void setConnectionRequestTimeout(Duration connectionRequestTimeout) {
+		this.connectionRequestTimeout = connectionRequestTimeout;
+	}
+
+	/**
+	 * Sends Accept-Encoding: gzip, deflate and decompresses responses as they are read.
+	 */
+	public boolean isCompressResponses() {
+		return compressResponses;
+	}
+
+	public void setCompressResponses(boolean compressResponses) {
+		this.compressResponses = compressResponses;
+	}
+
+	/**
+	 * Gzips request entities of at least {@link #getRequestCompressionThreshold()}. Only enable this for upstreams
+	 * that accept Content-Encoding: gzip.
+	 */
+	public boolean isCompressRequests() {
+		return compressRequests;
+	}
+
+	public void setCompressRequests(boolean compressRequests) {
+		this.compressRequests = compressRequests;
+	}
+
+	public Size getRequestCompressionThreshold() {
+		return requestCompressionThreshold;
+	}
+
+	public void setRequestCompressionThreshold(Size requestCompressionThreshold) {
+		this.requestCompressionThreshold = requestCompressionThreshold;
+	}
+
+	/**
+	 * <code>smile</code> or <code>cbor</code> to ask for that binary encoding of JSON when mapping responses to
+	 * objects, with JSON as the fallback; none by default. Only enable this for upstreams that can produce it.
+	 */
+	public String getBinaryFormat() {
+		return binaryFormat;
+	}
+
+	public void setBinaryFormat(String binaryFormat) {
+		this.binaryFormat = binaryFormat;
+	}
+
+	/**
+	 * Names of the inbound cookies {@link JsonRestClient#forwardCookies} passes to the upstream; empty passes all.
+	 */
+	public List<String> getForwardedCookies() {
+		return forwardedCookies;
+	}
+
+	public void setForwardedCookies(List<String> forwardedCookies) {
+		this.forwardedCookies = forwardedCookies;
+	}
 }
@@ -0,0 +1,135 @@
+package com.alfred.ishopper.client;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+
+/**
+ * Outbound call metrics of one upstream, registered as
+ * <pre>
+ * JsonRestClient.{upstream}.{verb}.{resource template}.{status family}   time until the response headers arrived
+ * JsonRestClient.{upstream}.ttfb                                          same, over all calls
+ * JsonRestClient.{upstream}.body-read                                     time spent reading typed response bodies
+ * JsonRestClient.{upstream}.mapping                                       time spent mapping them with Jackson
+ * JsonRestClient.{upstream}.failures                                      calls without a response
+ * </pre>
+ * Calls are timed per attempt sent upstream, from when it got its permits until its response headers arrived: a
+ * hedge or retry is a call of its own, while waiting on a coalesced call, reading a cached response and buffering
+ * one for the cache are not timed. Prepared requests are named by their template; for other calls IDs in resource
+ * paths (numbers, UUIDs, long hex strings) are replaced by {id}. Past {@value #MAX_TIMERS} timers, calls of new
+ * templates are recorded under {@value #OTHER}. Connection acquire time is recorded by the
+ * {@link PooledClientFactory} connection pool.
+ */
+public class ClientMetrics {
+
+	static final String FAILED = "failed";
+	static final String OTHER = "other";
+	static final int MAX_TIMERS = 256;
+
+	private final MetricRegistry registry;
+	private final String upstream;
+	private final ConcurrentMap<String, Timer> callTimers = new ConcurrentHashMap<String, Timer>();
+
+	private final Timer ttfb;
+	private final Timer bodyRead;
+	private final Timer mapping;
+	private final Meter failures;
+
+	public ClientMetrics(MetricRegistry registry, String upstream) {
+		this.registry = registry;
+		this.upstream = upstream;
+		this.ttfb = registry.timer(MetricRegistry.name(JsonRestClient.class, upstream, "ttfb"));
+		this.bodyRead = registry.timer(MetricRegistry.name(JsonRestClient.class, upstream, "body-read"));
+		this.mapping = registry.timer(MetricRegistry.name(JsonRestClient.class, upstream, "mapping"));
+		this.failures = registry.meter(MetricRegistry.name(JsonRestClient.class, upstream, "failures"));
+	}
+
+	/**
+	 * Records one attempt of a call, named by the template of a prepared request or else by its resource path.
+	 */
+	public void recordCall(String httpMethod, String resource, int status, long nanos) {
+		String family = status > 0 ? (status / 100) + "xx" : FAILED;
+		String template = template(resource);
+
+		Timer timer = callTimers.get(httpMethod + ' ' + template + ' ' + family);
+		if (timer == null) {
+			timer = timer(callTimers.size() < MAX_TIMERS ? template : OTHER, httpMethod, family);
+		}
+
+		timer.update(nanos, TimeUnit.NANOSECONDS);
+		if (status > 0) {
+			ttfb.update(nanos, TimeUnit.NANOSECONDS);
+		} else {
+			failures.mark();
+		}
+	}
+
+	private Timer timer(String template, String httpMethod, String family) {
+		String key = httpMethod + ' ' + template + ' ' + family;
+		Timer timer = callTimers.get(key);
+		if (timer == null) {
+			timer = registry.timer(MetricRegistry.name(JsonRestClient.class, upstream, httpMethod, template, family));
+			Timer existing = callTimers.putIfAbsent(key, timer);
+			if (existing != null) {
+				timer = existing;
+			}
+		}
+		return timer;
+	}
+
+	public void recordBody(long readNanos, long mappingNanos) {
+		bodyRead.update(readNanos, TimeUnit.NANOSECONDS);
+		mapping.update(mappingNanos, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Normalizes a resource path into a template, e.g. "products/12345/reviews" into "products.{id}.reviews".
+	 * Segments are joined with dots to fit the metric naming scheme.
+	 */
+	static String template(String resource) {
+		if (resource == null || resource.isEmpty()) {
+			return "root";
+		}
+
+		StringBuilder template = new StringBuilder(resource.length());
+		int start = 0;
+		int length = resource.length();
+		while (start <= length) {
+			int end = resource.indexOf('/', start);
+			if (end < 0) {
+				end = length;
+			}
+			if (end > start) {
+				if (template.length() > 0) {
+					template.append('.');
+				}
+				if (isId(resource, start, end)) {
+					template.append("{id}");
+				} else {
+					template.append(resource, start, end);
+				}
+			}
+			start = end + 1;
+		}
+
+		return template.length() > 0 ? template.toString() : "root";
+	}
+
+	private static boolean isId(String resource, int start, int end) {
+		boolean digits = true;
+		boolean hex = true;
+		boolean hasDigit = false;
+		for (int i = start; i < end; i++) {
+			char c = resource.charAt(i);
+			boolean digit = c >= '0' && c <= '9';
+			hasDigit |= digit;
+			digits &= digit;
+			hex &= digit || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F') || c == '-';
+		}
+		return digits || (hex && hasDigit && end - start >= 8);
+	}
+}
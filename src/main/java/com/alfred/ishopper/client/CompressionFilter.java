@@ -0,0 +1,229 @@
+package com.alfred.ishopper.client;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import javax.ws.rs.core.GenericEntity;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.ext.MessageBodyWriter;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.sun.jersey.api.client.Client;
+import com.sun.jersey.api.client.ClientHandlerException;
+import com.sun.jersey.api.client.ClientRequest;
+import com.sun.jersey.api.client.ClientResponse;
+import com.sun.jersey.api.client.filter.ClientFilter;
+import com.sun.jersey.spi.MessageBodyWorkers;
+
+/**
+ * Negotiates gzip/deflate compressed responses and decompresses them while they are read, and optionally gzips
+ * request entities of at least a threshold size. Byte counts before and after compression are metered per
+ * direction:
+ * <pre>
+ * CompressionFilter.{name}.request-bytes-uncompressed / request-bytes-compressed    entities that were compressed
+ * CompressionFilter.{name}.response-bytes-compressed / response-bytes-uncompressed  responses that arrived compressed
+ * </pre>
+ */
+public class CompressionFilter extends ClientFilter {
+
+	private static final String GZIP = "gzip";
+	private static final String DEFLATE = "deflate";
+	private static final String ACCEPTED_ENCODINGS = GZIP + ", " + DEFLATE;
+	private static final Annotation[] NO_ANNOTATIONS = new Annotation[0];
+
+	private final MessageBodyWorkers workers;
+	private final boolean compressResponses;
+	private final boolean compressRequests;
+	private final long requestCompressionThreshold;
+
+	private final Meter requestBytesUncompressed;
+	private final Meter requestBytesCompressed;
+	private final Meter responseBytesCompressed;
+	private final Meter responseBytesUncompressed;
+
+	public CompressionFilter(Client client, ClientConfiguration config, MetricRegistry metrics, String name) {
+		this.workers = client.getMessageBodyWorkers();
+		this.compressResponses = config.isCompressResponses();
+		this.compressRequests = config.isCompressRequests();
+		this.requestCompressionThreshold = config.getRequestCompressionThreshold().toBytes();
+		this.requestBytesUncompressed = meter(metrics, name, "request-bytes-uncompressed");
+		this.requestBytesCompressed = meter(metrics, name, "request-bytes-compressed");
+		this.responseBytesCompressed = meter(metrics, name, "response-bytes-compressed");
+		this.responseBytesUncompressed = meter(metrics, name, "response-bytes-uncompressed");
+	}
+
+	private static Meter meter(MetricRegistry metrics, String name, String metric) {
+		return metrics != null ? metrics.meter(MetricRegistry.name(CompressionFilter.class, name, metric)) : new Meter();
+	}
+
+	@Override
+	public ClientResponse handle(ClientRequest request) throws ClientHandlerException {
+		if (compressResponses && !request.getHeaders().containsKey(HttpHeaders.ACCEPT_ENCODING)) {
+			request.getHeaders().putSingle(HttpHeaders.ACCEPT_ENCODING, ACCEPTED_ENCODINGS);
+		}
+		if (compressRequests && request.getEntity() != null && !request.getHeaders().containsKey(HttpHeaders.CONTENT_ENCODING)) {
+			compress(request);
+		}
+
+		ClientResponse response = getNext().handle(request);
+
+		String encoding = response.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING);
+		if (encoding != null) {
+			encoding = encoding.trim();
+			if (encoding.equalsIgnoreCase(GZIP) || encoding.equalsIgnoreCase("x-gzip") || encoding.equalsIgnoreCase(DEFLATE)) {
+				response.setEntityInputStream(new DecodingInputStream(response.getEntityInputStream(), encoding.equalsIgnoreCase(DEFLATE)));
+				response.getHeaders().remove(HttpHeaders.CONTENT_ENCODING);
+				response.getHeaders().remove(HttpHeaders.CONTENT_LENGTH);
+			}
+		}
+		return response;
+	}
+
+	/**
+	 * Serializes the entity up front, which also gives its size, and swaps in the gzipped bytes when it is at least
+	 * the threshold. Entities without a writer are sent as they are.
+	 */
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	private void compress(ClientRequest request) {
+		Object entity = request.getEntity();
+		Class<?> type = entity.getClass();
+		Type genericType = type;
+		if (entity instanceof GenericEntity) {
+			genericType = ((GenericEntity) entity).getType();
+			entity = ((GenericEntity) entity).getEntity();
+			type = entity.getClass();
+		}
+
+		Object contentType = request.getHeaders().getFirst(HttpHeaders.CONTENT_TYPE);
+		MediaType mediaType = contentType instanceof MediaType ? (MediaType) contentType :
+				contentType != null ? MediaType.valueOf(contentType.toString()) : MediaType.APPLICATION_OCTET_STREAM_TYPE;
+
+		MessageBodyWriter writer = workers.getMessageBodyWriter(type, genericType, NO_ANNOTATIONS, mediaType);
+		if (writer == null) {
+			return;
+		}
+
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			writer.writeTo(entity, type, genericType, NO_ANNOTATIONS, mediaType, request.getHeaders(), bytes);
+
+			if (bytes.size() < requestCompressionThreshold) {
+				request.setEntity(bytes.toByteArray());
+				return;
+			}
+
+			ByteArrayOutputStream compressed = new ByteArrayOutputStream(bytes.size() / 4 + 64);
+			GZIPOutputStream gzip = new GZIPOutputStream(compressed);
+			bytes.writeTo(gzip);
+			gzip.close();
+
+			request.setEntity(compressed.toByteArray());
+			request.getHeaders().putSingle(HttpHeaders.CONTENT_ENCODING, GZIP);
+			requestBytesUncompressed.mark(bytes.size());
+			requestBytesCompressed.mark(compressed.size());
+		} catch (IOException e) {
+			throw new ClientHandlerException(e);
+		}
+	}
+
+	/**
+	 * Decompresses on first read, so empty bodies (304, HEAD) never touch the decoder.
+	 */
+	private class DecodingInputStream extends InputStream {
+		private final InputStream raw;
+		private final boolean deflate;
+		private InputStream decoded;
+
+		DecodingInputStream(InputStream raw, boolean deflate) {
+			this.raw = new MeteredInputStream(raw, responseBytesCompressed);
+			this.deflate = deflate;
+		}
+
+		private InputStream decoded() throws IOException {
+			if (decoded == null) {
+				PushbackInputStream in = new PushbackInputStream(raw, 2);
+				int first = in.read();
+				if (first < 0) {
+					decoded = in;
+				} else {
+					in.unread(first);
+					decoded = new MeteredInputStream(deflate ? inflater(in) : new GZIPInputStream(in), responseBytesUncompressed);
+				}
+			}
+			return decoded;
+		}
+
+		/**
+		 * "deflate" should be zlib-wrapped, but some servers send raw deflate data; the zlib header tells them apart.
+		 */
+		private InputStream inflater(PushbackInputStream in) throws IOException {
+			byte[] header = new byte[2];
+			int n = in.read(header);
+			in.unread(header, 0, Math.max(n, 0));
+			boolean zlib = n == 2 && (header[0] & 0x0F) == 8 && (((header[0] & 0xFF) << 8) | (header[1] & 0xFF)) % 31 == 0;
+			return new InflaterInputStream(in, new Inflater(!zlib));
+		}
+
+		@Override
+		public int read() throws IOException {
+			return decoded().read();
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			return decoded().read(b, off, len);
+		}
+
+		@Override
+		public int available() throws IOException {
+			return decoded == null ? 0 : decoded.available();
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (decoded != null) {
+				decoded.close();
+			} else {
+				raw.close();
+			}
+		}
+	}
+
+	private static class MeteredInputStream extends FilterInputStream {
+		private final Meter bytes;
+
+		MeteredInputStream(InputStream in, Meter bytes) {
+			super(in);
+			this.bytes = bytes;
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if (b >= 0) {
+				bytes.mark();
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int n = super.read(b, off, len);
+			if (n > 0) {
+				bytes.mark(n);
+			}
+			return n;
+		}
+	}
+}
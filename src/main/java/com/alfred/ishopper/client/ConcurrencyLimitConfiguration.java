@@ -0,0 +1,95 @@
+package com.alfred.ishopper.client;
+
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import io.dropwizard.util.Duration;
+
+public class ConcurrencyLimitConfiguration {
+	@Min(1)
+	@JsonProperty
+	private int initialLimit = 20;
+
+	@Min(1)
+	@JsonProperty
+	private int minLimit = 1;
+
+	@Min(1)
+	@JsonProperty
+	private int maxLimit = 200;
+
+	@NotNull
+	@JsonProperty
+	private Duration sampleWindow = Duration.milliseconds(250);
+
+	@Min(1)
+	@JsonProperty
+	private int minWindowCalls = 10;
+
+	@NotNull
+	@JsonProperty
+	private Duration probeInterval = Duration.seconds(30);
+
+	/**
+	 * Limit used until the first sample window has completed.
+	 */
+	public int getInitialLimit() {
+		return initialLimit;
+	}
+
+	public void setInitialLimit(int initialLimit) {
+		this.initialLimit = initialLimit;
+	}
+
+	public int getMinLimit() {
+		return minLimit;
+	}
+
+	public void setMinLimit(int minLimit) {
+		this.minLimit = minLimit;
+	}
+
+	public int getMaxLimit() {
+		return maxLimit;
+	}
+
+	public void setMaxLimit(int maxLimit) {
+		this.maxLimit = maxLimit;
+	}
+
+	/**
+	 * Minimum time over which RTTs are collected before the limit is recalculated.
+	 */
+	public Duration getSampleWindow() {
+		return sampleWindow;
+	}
+
+	public void setSampleWindow(Duration sampleWindow) {
+		this.sampleWindow = sampleWindow;
+	}
+
+	/**
+	 * Number of completed calls a sample window needs before the limit is recalculated.
+	 */
+	public int getMinWindowCalls() {
+		return minWindowCalls;
+	}
+
+	public void setMinWindowCalls(int minWindowCalls) {
+		this.minWindowCalls = minWindowCalls;
+	}
+
+	/**
+	 * How often the limit is halved for one sample window to measure the upstream's RTT without a queue again. Calls
+	 * over the halved limit wait for a permit instead of being rejected.
+	 */
+	public Duration getProbeInterval() {
+		return probeInterval;
+	}
+
+	public void setProbeInterval(Duration probeInterval) {
+		this.probeInterval = probeInterval;
+	}
+}
@@ -0,0 +1,248 @@
+package com.alfred.ishopper.client;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+
+/**
+ * Adaptive cap on the number of concurrent calls to one upstream, estimated from observed RTTs in the manner of TCP
+ * Vegas. Completed calls are collected into sample windows; the average RTT of a window is compared with the RTT the
+ * upstream shows without a queue, which gives the number of calls waiting there:
+ * <pre>
+ * queue = limit * (1 - noLoadRtt / windowRtt)
+ * </pre>
+ * While the queue is shorter than alpha the limit grows, fast when there is none; when it is longer than beta the
+ * limit shrinks by the excess, at most by half. Alpha and beta are 3 and 6 times log10(limit). A window with failed
+ * calls shrinks the limit by log10(limit). Growing is skipped while fewer than half the permitted calls are in use.
+ * <p>
+ * The no-load RTT is the smallest window RTT seen since the last probe. Every probe interval the limit is halved for
+ * one window so the upstream's queue drains, and the no-load RTT is measured afresh from the calls started during
+ * that window. Calls over the halved limit are not rejected but wait here for a permit, for at most two sample
+ * windows and never past the request's {@link Deadline}: the probe moves the queue into the client for a moment
+ * instead of shedding load.
+ */
+public class ConcurrencyLimiter {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(ConcurrencyLimiter.class);
+
+	private final String name;
+	private final int minLimit;
+	private final int maxLimit;
+	private final long windowNanos;
+	private final int minWindowCalls;
+	private final long probeNanos;
+
+	private volatile int limit;
+	private final AtomicInteger inFlight = new AtomicInteger();
+	private final Meter rejected = new Meter();
+
+	private double estimate;
+	private long noLoadRtt;
+	private volatile boolean probing;
+	private volatile int waiting;
+	private long probeStart;
+	private long nextProbe;
+
+	private long windowStart;
+	private int windowCalls;
+	private long windowRttSum;
+	private int windowSamples;
+	private int windowMaxInFlight;
+	private boolean windowFailed;
+
+	public ConcurrencyLimiter(ConcurrencyLimitConfiguration config) {
+		this(config, null, null);
+	}
+
+	public ConcurrencyLimiter(ConcurrencyLimitConfiguration config, MetricRegistry metrics, String name) {
+		this.name = name;
+		this.minLimit = config.getMinLimit();
+		this.maxLimit = Math.max(config.getMaxLimit(), minLimit);
+		this.windowNanos = config.getSampleWindow().toNanoseconds();
+		this.minWindowCalls = config.getMinWindowCalls();
+		this.probeNanos = config.getProbeInterval().toNanoseconds();
+		this.estimate = Math.max(minLimit, Math.min(maxLimit, config.getInitialLimit()));
+		this.limit = (int) estimate;
+
+		long now = System.nanoTime();
+		this.windowStart = now;
+		this.nextProbe = now + probeNanos;
+
+		if (metrics != null) {
+			metrics.register(MetricRegistry.name(ConcurrencyLimiter.class, name, "rejected"), rejected);
+			metrics.register(MetricRegistry.name(ConcurrencyLimiter.class, name, "limit"), new Gauge<Integer>() {
+				@Override
+				public Integer getValue() {
+					return limit;
+				}
+			});
+			metrics.register(MetricRegistry.name(ConcurrencyLimiter.class, name, "in-flight"), new Gauge<Integer>() {
+				@Override
+				public Integer getValue() {
+					return inFlight.get();
+				}
+			});
+		}
+	}
+
+	public int getLimit() {
+		return limit;
+	}
+
+	public int getInFlight() {
+		return inFlight.get();
+	}
+
+	/**
+	 * Returns whether a call may proceed. Every permitted call must be followed by {@link #onResult} or
+	 * {@link #release}.
+	 */
+	public boolean tryAcquire() {
+		if (acquire() || (probing && awaitProbe())) {
+			return true;
+		}
+		rejected.mark();
+		return false;
+	}
+
+	private boolean acquire() {
+		for (;;) {
+			int current = inFlight.get();
+			if (current >= limit) {
+				return false;
+			}
+			if (inFlight.compareAndSet(current, current + 1)) {
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Waits for a permit while a probe has the limit halved.
+	 */
+	private synchronized boolean awaitProbe() {
+		long waitNanos = 2 * windowNanos;
+		Deadline deadline = Deadline.current();
+		if (deadline != null) {
+			waitNanos = Math.min(waitNanos, deadline.remaining(TimeUnit.NANOSECONDS));
+		}
+		long until = System.nanoTime() + waitNanos;
+
+		waiting++;
+		try {
+			while (probing) {
+				if (acquire()) {
+					return true;
+				}
+				long left = until - System.nanoTime();
+				if (left <= 0) {
+					return false;
+				}
+				TimeUnit.NANOSECONDS.timedWait(this, left);
+			}
+			return acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		} finally {
+			waiting--;
+		}
+	}
+
+	/**
+	 * Ends a permitted call that never reached the upstream, without taking a sample.
+	 */
+	public void release() {
+		inFlight.decrementAndGet();
+		if (waiting > 0) {
+			synchronized (this) {
+				notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Ends a permitted call and samples its RTT; failed calls (transport errors and 5xx) only count as failures.
+	 */
+	public void onResult(long durationNanos, boolean failed) {
+		int calls = inFlight.getAndDecrement();
+		sample(durationNanos, failed, calls, System.nanoTime());
+	}
+
+	private synchronized void sample(long durationNanos, boolean failed, int calls, long now) {
+		if (waiting > 0) {
+			notifyAll();
+		}
+		windowCalls++;
+		windowMaxInFlight = Math.max(windowMaxInFlight, calls);
+		if (failed) {
+			windowFailed = true;
+		} else if (!probing || now - durationNanos - probeStart >= 0) {
+			windowRttSum += durationNanos;
+			windowSamples++;
+		}
+
+		if (windowCalls < minWindowCalls || now - windowStart < windowNanos) {
+			return;
+		}
+
+		if (probing) {
+			probing = false;
+			nextProbe = now + probeNanos;
+			if (windowSamples > 0) {
+				noLoadRtt = windowRttSum / windowSamples;
+			}
+		} else {
+			adjust();
+			if (now - nextProbe >= 0) {
+				probing = true;
+				probeStart = now;
+			}
+		}
+
+		int previous = limit;
+		limit = probing ? Math.max(minLimit, (int) (estimate / 2)) : (int) estimate;
+		if (LOGGER.isDebugEnabled() && limit != previous) {
+			LOGGER.debug("Concurrency limit of {} changed from {} to {}", name, previous, limit);
+		}
+
+		windowStart = now;
+		windowCalls = 0;
+		windowRttSum = 0;
+		windowSamples = 0;
+		windowMaxInFlight = 0;
+		windowFailed = false;
+	}
+
+	private void adjust() {
+		double log = Math.max(1, Math.log10(estimate));
+		double next = estimate;
+
+		if (windowFailed) {
+			next = estimate - log;
+		} else if (windowSamples > 0) {
+			long windowRtt = windowRttSum / windowSamples;
+			if (noLoadRtt == 0 || windowRtt < noLoadRtt) {
+				noLoadRtt = windowRtt;
+			}
+			double queue = estimate * (1 - (double) noLoadRtt / windowRtt);
+			boolean appLimited = windowMaxInFlight * 2 < estimate;
+
+			if (queue <= log) {
+				next = appLimited ? estimate : estimate + 6 * log;
+			} else if (queue < 3 * log) {
+				next = appLimited ? estimate : estimate + log;
+			} else if (queue > 6 * log) {
+				next = estimate - Math.min(queue - 6 * log, estimate / 2);
+			}
+		}
+
+		estimate = Math.max(minLimit, Math.min(maxLimit, next));
+	}
+}
@@ -0,0 +1,113 @@
+package com.alfred.ishopper.client;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The point in time by which the current request must be answered. Set for the thread handling an inbound request,
+ * it bounds every upstream call the request makes: {@link JsonRestClient} fails calls fast once it has passed, and
+ * the {@link DeadlineFilter} caps the call's timeouts at the remaining time and passes that on to the upstream in
+ * the {@link #HEADER} header. Work handed to other threads carries the deadline along through
+ * {@link #propagate(Runnable)}.
+ */
+public final class Deadline {
+
+	/**
+	 * Milliseconds the receiver has left to answer, relative so that clock skew between hosts does not matter.
+	 */
+	public static final String HEADER = "X-Request-Timeout";
+
+	private static final ThreadLocal<Deadline> CURRENT = new ThreadLocal<Deadline>();
+
+	private final long deadlineNanos;
+
+	private Deadline(long deadlineNanos) {
+		this.deadlineNanos = deadlineNanos;
+	}
+
+	public static Deadline after(long duration, TimeUnit unit) {
+		return new Deadline(System.nanoTime() + unit.toNanos(duration));
+	}
+
+	/**
+	 * Returns the deadline of the request the current thread works for, or null when there is none.
+	 */
+	public static Deadline current() {
+		return CURRENT.get();
+	}
+
+	/**
+	 * Makes the deadline current for this thread and returns the one it replaces, to be restored when done.
+	 */
+	public static Deadline set(Deadline deadline) {
+		Deadline previous = CURRENT.get();
+		if (deadline != null) {
+			CURRENT.set(deadline);
+		} else {
+			CURRENT.remove();
+		}
+		return previous;
+	}
+
+	/**
+	 * Wraps a task so that it runs under the deadline current where it was created.
+	 */
+	public static Runnable propagate(final Runnable task) {
+		final Deadline deadline = current();
+		if (deadline == null) {
+			return task;
+		}
+		return new Runnable() {
+			@Override
+			public void run() {
+				Deadline previous = set(deadline);
+				try {
+					task.run();
+				} finally {
+					set(previous);
+				}
+			}
+		};
+	}
+
+	public static <T> Callable<T> propagate(final Callable<T> task) {
+		final Deadline deadline = current();
+		if (deadline == null) {
+			return task;
+		}
+		return new Callable<T>() {
+			@Override
+			public T call() throws Exception {
+				Deadline previous = set(deadline);
+				try {
+					return task.call();
+				} finally {
+					set(previous);
+				}
+			}
+		};
+	}
+
+	/**
+	 * Time left, never negative.
+	 */
+	public long remaining(TimeUnit unit) {
+		return unit.convert(Math.max(deadlineNanos - System.nanoTime(), 0), TimeUnit.NANOSECONDS);
+	}
+
+	public boolean isExpired() {
+		return deadlineNanos - System.nanoTime() <= 0;
+	}
+
+	/**
+	 * Returns whichever of the two deadlines comes first; other may be null.
+	 */
+	public Deadline min(Deadline other) {
+		return other != null && other.deadlineNanos - deadlineNanos < 0 ? other : this;
+	}
+
+	@Override
+	public String toString() {
+		return "Deadline in " + remaining(TimeUnit.MILLISECONDS) + "ms";
+	}
+}
@@ -0,0 +1,22 @@
+package com.alfred.ishopper.client;
+
+import com.sun.jersey.api.client.ClientHandlerException;
+
+/**
+ * Thrown by the {@link DeadlineFilter} for a call the request's {@link Deadline} failed: it had passed before the
+ * call was sent, or the call ran into the timeouts the deadline capped. The failure says nothing about the upstream,
+ * so the circuit breaker, the concurrency limit and the load balancer do not count it.
+ */
+public class DeadlineExceededException extends ClientHandlerException {
+
+	private static final long serialVersionUID = 1L;
+
+	public DeadlineExceededException(String message) {
+		super(message);
+	}
+
+	public DeadlineExceededException(String message, Throwable t) {
+		super(message, t);
+	}
+
+}
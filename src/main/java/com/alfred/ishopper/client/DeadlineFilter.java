@@ -0,0 +1,73 @@
+package com.alfred.ishopper.client;
+
+import java.util.concurrent.TimeUnit;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.sun.jersey.api.client.ClientHandlerException;
+import com.sun.jersey.api.client.ClientRequest;
+import com.sun.jersey.api.client.ClientResponse;
+import com.sun.jersey.api.client.config.ClientConfig;
+import com.sun.jersey.api.client.filter.ClientFilter;
+
+/**
+ * Bounds each call by the {@link Deadline} of the request it is made for. A call whose deadline has already passed
+ * fails before anything is sent; otherwise the remaining time is sent upstream in the {@link Deadline#HEADER}
+ * header and caps the call's connect and read timeouts. The HttpURLConnection handler takes the timeouts from the
+ * request properties set here; the pooled Apache client reads them through the parameters
+ * {@link PooledClientFactory} gives it.
+ * <p>
+ * A call the deadline fails, before it is sent or by running into the capped timeouts, fails with a
+ * {@link DeadlineExceededException} and is metered as DeadlineFilter.{name}.deadline-exceeded. A call that fails once
+ * less than a millisecond of the deadline is left ran into them, since they are the remaining time in whole
+ * milliseconds; one that fails earlier, such as a connect timeout shorter than the remaining time, is the upstream's
+ * failure.
+ */
+public class DeadlineFilter extends ClientFilter {
+
+	private final int connectTimeout;
+	private final int readTimeout;
+	private final Meter exceeded;
+
+	public DeadlineFilter(ClientConfiguration config, MetricRegistry metrics, String name) {
+		this.connectTimeout = (int) config.getConnectTimeout().toMilliseconds();
+		this.readTimeout = (int) config.getReadTimeout().toMilliseconds();
+		this.exceeded = metrics != null ? metrics.meter(MetricRegistry.name(DeadlineFilter.class, name, "deadline-exceeded")) : new Meter();
+	}
+
+	@Override
+	public ClientResponse handle(ClientRequest request) throws ClientHandlerException {
+		Deadline deadline = Deadline.current();
+		if (deadline == null) {
+			return getNext().handle(request);
+		}
+
+		long remaining = deadline.remaining(TimeUnit.MILLISECONDS);
+		if (remaining <= 0) {
+			exceeded.mark();
+			throw new DeadlineExceededException("Deadline exceeded before " + request.getMethod() + " " + request.getURI());
+		}
+
+		request.getHeaders().putSingle(Deadline.HEADER, Long.toString(remaining));
+		request.getProperties().put(ClientConfig.PROPERTY_CONNECT_TIMEOUT, cap(connectTimeout, remaining));
+		request.getProperties().put(ClientConfig.PROPERTY_READ_TIMEOUT, cap(readTimeout, remaining));
+		try {
+			return getNext().handle(request);
+		} catch (DeadlineExceededException e) {
+			throw e;
+		} catch (ClientHandlerException e) {
+			if (deadline.remaining(TimeUnit.MILLISECONDS) > 0 || Attempt.isAborted()) {
+				throw e;
+			}
+			exceeded.mark();
+			throw new DeadlineExceededException("Deadline exceeded during " + request.getMethod() + " " + request.getURI(), e);
+		}
+	}
+
+	/**
+	 * A timeout of at most the remaining time; zero means none at all to both handlers, so it is never returned.
+	 */
+	static int cap(int timeout, long remaining) {
+		return (int) Math.max(timeout > 0 ? Math.min(timeout, remaining) : Math.min(remaining, Integer.MAX_VALUE), 1);
+	}
+}
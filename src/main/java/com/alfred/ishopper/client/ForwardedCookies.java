@@ -0,0 +1,244 @@
+package com.alfred.ishopper.client;
+
+import java.util.AbstractMap;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.ws.rs.core.Cookie;
+
+import com.sun.jersey.api.client.WebResource;
+
+/**
+ * The inbound <code>Cookie</code> header, forwarded to the upstream exactly as the browser sent it instead of being
+ * parsed into {@link Cookie}s and serialized again. It can be passed wherever the client takes a cookie map.
+ * {@link #containsKey} and {@link #get} scan the header in place; the map itself is only built when iterated.
+ * <p>
+ * An allow-list is applied in a single scan over the header, keeping the cookies it names in their original order
+ * and form. Immutable and thread-safe.
+ */
+public final class ForwardedCookies extends AbstractMap<String, Cookie> {
+
+	static final String HEADER_COOKIE = "Cookie";
+
+	private static final ForwardedCookies NONE = new ForwardedCookies("");
+
+	private final String header;
+	private volatile Map<String, Cookie> cookies;
+
+	private ForwardedCookies(String header) {
+		this.header = header;
+	}
+
+	public static ForwardedCookies of(String header) {
+		return header == null || header.trim().isEmpty() ? NONE : new ForwardedCookies(header);
+	}
+
+	/**
+	 * Takes the cookies of an inbound request; several Cookie headers, as HTTP/2 clients may send, are joined.
+	 */
+	public static ForwardedCookies of(HttpServletRequest request) {
+		Enumeration<String> values = request.getHeaders(HEADER_COOKIE);
+		if (values == null || !values.hasMoreElements()) {
+			return NONE;
+		}
+		String header = values.nextElement();
+		while (values.hasMoreElements()) {
+			header = header + "; " + values.nextElement();
+		}
+		return of(header);
+	}
+
+	/**
+	 * Takes only the cookies named in the allow-list; an empty or null list keeps them all.
+	 */
+	public static ForwardedCookies of(HttpServletRequest request, Collection<String> allowed) {
+		ForwardedCookies all = of(request);
+		return allowed == null || allowed.isEmpty() || all.header.isEmpty() ?
+				all : of(filter(all.header, allowed.toArray(new String[allowed.size()])));
+	}
+
+	/**
+	 * Returns the header with only the allowed cookies, or the header itself when none was dropped.
+	 */
+	static String filter(String header, String[] allowed) {
+		StringBuilder kept = null;
+		int keptStart = -1;
+		int keptEnd = 0;
+		int length = header.length();
+		for (int start = 0; start < length; start++) {
+			int end = header.indexOf(';', start);
+			if (end < 0) {
+				end = length;
+			}
+			int nameStart = skipSpace(header, start, end);
+			int nameEnd = nameEnd(header, nameStart, end);
+			boolean allow = nameEnd > nameStart && isAllowed(header, nameStart, nameEnd, allowed);
+
+			if (allow && kept != null) {
+				if (kept.length() > 0) {
+					kept.append("; ");
+				}
+				kept.append(header, nameStart, trimEnd(header, nameStart, end));
+			} else if (allow) {
+				keptStart = keptStart < 0 ? nameStart : keptStart;
+				keptEnd = end;
+			} else if (kept == null && nameEnd > nameStart) {
+				kept = new StringBuilder(header.length());
+				if (keptStart >= 0) {
+					kept.append(header, keptStart, trimEnd(header, keptStart, keptEnd));
+				}
+			}
+			start = end;
+		}
+		return kept == null ? header : kept.toString();
+	}
+
+	private static boolean isAllowed(String header, int nameStart, int nameEnd, String[] allowed) {
+		int length = nameEnd - nameStart;
+		for (String name : allowed) {
+			if (name.length() == length && header.regionMatches(nameStart, name, 0, length)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * The header as it is sent upstream.
+	 */
+	public String getHeader() {
+		return header;
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return header.isEmpty();
+	}
+
+	@Override
+	public boolean containsKey(Object name) {
+		return name instanceof String && valueStart((String) name) >= 0;
+	}
+
+	@Override
+	public Cookie get(Object name) {
+		if (!(name instanceof String)) {
+			return null;
+		}
+		int valueStart = valueStart((String) name);
+		if (valueStart < 0) {
+			return null;
+		}
+		int end = header.indexOf(';', valueStart);
+		return new Cookie((String) name, value(header, valueStart, end < 0 ? header.length() : end));
+	}
+
+	@Override
+	public Set<Entry<String, Cookie>> entrySet() {
+		Map<String, Cookie> parsed = cookies;
+		if (parsed == null) {
+			cookies = parsed = Collections.unmodifiableMap(parse(header));
+		}
+		return parsed.entrySet();
+	}
+
+	/**
+	 * Returns where the value of the first cookie with this name starts, or -1 when there is none.
+	 */
+	private int valueStart(String name) {
+		int length = header.length();
+		for (int start = 0; start < length; start++) {
+			int end = header.indexOf(';', start);
+			if (end < 0) {
+				end = length;
+			}
+			int nameStart = skipSpace(header, start, end);
+			int nameEnd = nameEnd(header, nameStart, end);
+			if (nameEnd - nameStart == name.length() && header.regionMatches(nameStart, name, 0, name.length())) {
+				int equals = header.indexOf('=', nameEnd);
+				return equals >= 0 && equals < end ? equals + 1 : end;
+			}
+			start = end;
+		}
+		return -1;
+	}
+
+	/**
+	 * RFC 2109 attributes such as <code>$Version</code> and <code>$Path</code> are not cookies and are left out.
+	 */
+	private static Map<String, Cookie> parse(String header) {
+		Map<String, Cookie> cookies = new LinkedHashMap<String, Cookie>();
+		int length = header.length();
+		for (int start = 0; start < length; start++) {
+			int end = header.indexOf(';', start);
+			if (end < 0) {
+				end = length;
+			}
+			int nameStart = skipSpace(header, start, end);
+			int nameEnd = nameEnd(header, nameStart, end);
+			if (nameEnd > nameStart && header.charAt(nameStart) != '$') {
+				String name = header.substring(nameStart, nameEnd);
+				if (!cookies.containsKey(name)) {
+					int equals = header.indexOf('=', nameEnd);
+					cookies.put(name, new Cookie(name, equals >= 0 && equals < end ? value(header, equals + 1, end) : ""));
+				}
+			}
+			start = end;
+		}
+		return cookies;
+	}
+
+	private static String value(String header, int start, int end) {
+		start = skipSpace(header, start, end);
+		end = trimEnd(header, start, end);
+		if (end - start >= 2 && header.charAt(start) == '"' && header.charAt(end - 1) == '"') {
+			start++;
+			end--;
+		}
+		return header.substring(start, end);
+	}
+
+	private static int skipSpace(String header, int start, int end) {
+		while (start < end && (header.charAt(start) == ' ' || header.charAt(start) == '\t')) {
+			start++;
+		}
+		return start;
+	}
+
+	private static int nameEnd(String header, int nameStart, int end) {
+		int equals = header.indexOf('=', nameStart);
+		return trimEnd(header, nameStart, equals >= 0 && equals < end ? equals : end);
+	}
+
+	private static int trimEnd(String header, int start, int end) {
+		while (end > start && (header.charAt(end - 1) == ' ' || header.charAt(end - 1) == '\t')) {
+			end--;
+		}
+		return end;
+	}
+
+	/**
+	 * Sets the cookies on an outgoing request: forwarded ones as the raw header, any other map cookie by cookie.
+	 */
+	static void addTo(WebResource.Builder builder, Map<String, Cookie> cookies) {
+		if (cookies instanceof ForwardedCookies) {
+			if (!cookies.isEmpty()) {
+				builder.header(HEADER_COOKIE, ((ForwardedCookies) cookies).header);
+			}
+		} else if (cookies != null) {
+			for (Cookie cookie : cookies.values()) {
+				builder.cookie(cookie);
+			}
+		}
+	}
+
+	@Override
+	public String toString() {
+		return header;
+	}
+}
@@ -0,0 +1,276 @@
+package com.alfred.ishopper.client;
+
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import javax.ws.rs.core.MultivaluedMap;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.sun.jersey.api.client.ClientResponse;
+import com.sun.jersey.api.uri.UriComponent;
+import com.sun.jersey.spi.MessageBodyWorkers;
+
+/**
+ * In-process cache for GET responses, bounded by the number of cached body bytes and evicted in LRU order.
+ * Freshness follows the upstream's Cache-Control (no-store, no-cache, max-age) and Expires headers; stale entries
+ * carrying an ETag are revalidated with If-None-Match and served from the cache on a 304. The cache is shared by
+ * every caller of the client, so responses marked private are not stored either.
+ */
+public class HttpResponseCache {
+
+	static final String IF_NONE_MATCH = "If-None-Match";
+
+	private static final String CACHE_CONTROL = "Cache-Control";
+	private static final String EXPIRES = "Expires";
+	private static final String ETAG = "ETag";
+	private static final String VARY = "Vary";
+
+	private static final int HTTP_STATUS_OK = 200;
+	private static final int HTTP_STATUS_NOT_MODIFIED = 304;
+
+	private final long maxBytes;
+	private final LinkedHashMap<String, CachedResponse> entries = new LinkedHashMap<String, CachedResponse>(16, 0.75f, true);
+	private long currentBytes;
+
+	private final Meter hits;
+	private final Meter misses;
+	private final Meter revalidations;
+	private final Meter evictions;
+
+	public HttpResponseCache(long maxBytes) {
+		this(maxBytes, null, null);
+	}
+
+	public HttpResponseCache(long maxBytes, MetricRegistry metrics, String name) {
+		this.maxBytes = maxBytes;
+		this.hits = new Meter();
+		this.misses = new Meter();
+		this.revalidations = new Meter();
+		this.evictions = new Meter();
+
+		if (metrics != null) {
+			metrics.register(MetricRegistry.name(HttpResponseCache.class, name, "hits"), hits);
+			metrics.register(MetricRegistry.name(HttpResponseCache.class, name, "misses"), misses);
+			metrics.register(MetricRegistry.name(HttpResponseCache.class, name, "revalidations"), revalidations);
+			metrics.register(MetricRegistry.name(HttpResponseCache.class, name, "evictions"), evictions);
+			metrics.register(MetricRegistry.name(HttpResponseCache.class, name, "bytes"), new Gauge<Long>() {
+				@Override
+				public Long getValue() {
+					synchronized (HttpResponseCache.this) {
+						return currentBytes;
+					}
+				}
+			});
+			metrics.register(MetricRegistry.name(HttpResponseCache.class, name, "entries"), new Gauge<Integer>() {
+				@Override
+				public Integer getValue() {
+					synchronized (HttpResponseCache.this) {
+						return entries.size();
+					}
+				}
+			});
+		}
+	}
+
+	/**
+	 * Builds the cache key for a request. Every request header is part of the key, which covers the userId and
+	 * emarketsId headers, except X-Forwarded-For which only identifies the hop. The resource, parameters and headers
+	 * are percent-encoded so that no value can pass for a separator: a=1&amp;b=2 as one value is not the two
+	 * parameters a=1 and b=2.
+	 */
+	static String key(String baseUri, String resource, MultivaluedMap<String, String> params, Map<String, String> headers,
+			String mediaType, String excludedHeader) {
+		StringBuilder key = new StringBuilder(128).append(mediaType).append(' ').append(baseUri).append('/')
+				.append(UriComponent.encode(resource, UriComponent.Type.PATH));
+
+		if (params != null && !params.isEmpty()) {
+			char separator = '?';
+			for (Entry<String, List<String>> param : new TreeMap<String, List<String>>(params).entrySet()) {
+				for (String value : param.getValue()) {
+					key.append(separator).append(encode(param.getKey())).append('=').append(encode(value));
+					separator = '&';
+				}
+			}
+		}
+
+		if (headers != null && !headers.isEmpty()) {
+			for (Entry<String, String> header : new TreeMap<String, String>(headers).entrySet()) {
+				if (!header.getKey().equalsIgnoreCase(excludedHeader)) {
+					key.append('\n').append(encode(header.getKey())).append(": ").append(encode(header.getValue()));
+				}
+			}
+		}
+
+		return key.toString();
+	}
+
+	private static String encode(String value) {
+		return value != null ? UriComponent.encode(value, UriComponent.Type.QUERY_PARAM) : "";
+	}
+
+	/**
+	 * Returns the cached response for the key, fresh or stale, or null.
+	 */
+	public synchronized CachedResponse get(String key) {
+		return entries.get(key);
+	}
+
+	public ClientResponse hit(CachedResponse cached, MessageBodyWorkers workers) {
+		hits.mark();
+		return cached.toClientResponse(workers);
+	}
+
+	/**
+	 * Handles the upstream response to a (conditional) GET. A 304 for a cached entry refreshes that entry and is
+	 * answered from the cache; a cacheable 200 is buffered and stored. Anything else is passed through untouched.
+	 */
+	public ClientResponse update(String key, CachedResponse cached, ClientResponse response, MessageBodyWorkers workers) {
+		if (cached != null && response.getStatus() == HTTP_STATUS_NOT_MODIFIED) {
+			response.close();
+			cached.refresh(expiresAt(response.getHeaders()));
+			revalidations.mark();
+			hits.mark();
+			return cached.toClientResponse(workers);
+		}
+
+		misses.mark();
+
+		if (response.getStatus() != HTTP_STATUS_OK) {
+			return response;
+		}
+
+		MultivaluedMap<String, String> headers = response.getHeaders();
+		if (!isStorable(headers) || "*".equals(headers.getFirst(VARY))) {
+			return response;
+		}
+
+		long expiresAt = expiresAt(headers);
+		String entityTag = headers.getFirst(ETAG);
+		if (expiresAt <= now() && entityTag == null) {
+			return response;
+		}
+
+		if (response.getLength() > maxBytes) {
+			return response;
+		}
+
+		byte[] body = BufferedResponse.buffer(response);
+		if (body.length <= maxBytes) {
+			put(key, new CachedResponse(response.getStatus(), headers, body, entityTag, expiresAt));
+		}
+
+		return response;
+	}
+
+	private synchronized void put(String key, CachedResponse cached) {
+		CachedResponse previous = entries.put(key, cached);
+		if (previous != null) {
+			currentBytes -= previous.size();
+		}
+		currentBytes += cached.size();
+
+		Iterator<CachedResponse> eldest = entries.values().iterator();
+		while (currentBytes > maxBytes && eldest.hasNext()) {
+			currentBytes -= eldest.next().size();
+			eldest.remove();
+			evictions.mark();
+		}
+	}
+
+	public synchronized void invalidateAll() {
+		entries.clear();
+		currentBytes = 0;
+	}
+
+	/**
+	 * Whether a shared cache may store the response: neither no-store nor private, the latter with or without a
+	 * list of fields.
+	 */
+	private static boolean isStorable(MultivaluedMap<String, String> headers) {
+		List<String> cacheControl = headers.get(CACHE_CONTROL);
+		if (cacheControl != null) {
+			for (String value : cacheControl) {
+				for (String directive : value.split(",")) {
+					directive = directive.trim().toLowerCase();
+					if (directive.equals("no-store") || directive.equals("private") || directive.startsWith("private=")) {
+						return false;
+					}
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Computes when a response stops being fresh: max-age wins over Expires, no-cache means immediately.
+	 */
+	private static long expiresAt(MultivaluedMap<String, String> headers) {
+		long now = now();
+		List<String> cacheControl = headers.get(CACHE_CONTROL);
+		if (cacheControl != null) {
+			for (String value : cacheControl) {
+				for (String directive : value.split(",")) {
+					directive = directive.trim().toLowerCase();
+					if (directive.equals("no-cache")) {
+						return now;
+					}
+					if (directive.startsWith("max-age=")) {
+						try {
+							return now + TimeUnit.SECONDS.toMillis(Long.parseLong(directive.substring("max-age=".length())));
+						} catch (NumberFormatException e) {
+							return now;
+						}
+					}
+				}
+			}
+		}
+
+		String expires = headers.getFirst(EXPIRES);
+		if (expires != null) {
+			try {
+				return ZonedDateTime.parse(expires, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+			} catch (DateTimeParseException e) {
+				return now;
+			}
+		}
+
+		return now;
+	}
+
+	private static long now() {
+		return System.currentTimeMillis();
+	}
+
+	public static class CachedResponse extends BufferedResponse {
+		private final String entityTag;
+		private volatile long expiresAt;
+
+		CachedResponse(int status, MultivaluedMap<String, String> headers, byte[] body, String entityTag, long expiresAt) {
+			super(status, headers, body);
+			this.entityTag = entityTag;
+			this.expiresAt = expiresAt;
+		}
+
+		public boolean isFresh() {
+			return expiresAt > now();
+		}
+
+		public String getEntityTag() {
+			return entityTag;
+		}
+
+		void refresh(long expiresAt) {
+			this.expiresAt = expiresAt;
+		}
+	}
+}
@@ -0,0 +1,186 @@
+package com.alfred.ishopper.client;
+
+import javax.validation.constraints.Max;
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import io.dropwizard.lifecycle.Managed;
+import io.dropwizard.setup.Environment;
+import io.dropwizard.util.Duration;
+
+public class IdempotentRequestConfiguration {
+	@JsonProperty
+	private boolean hedgingEnabled = true;
+
+	@Min(50)
+	@Max(100)
+	@JsonProperty
+	private double hedgePercentile = 95;
+
+	@NotNull
+	@JsonProperty
+	private Duration minHedgeDelay = Duration.milliseconds(20);
+
+	@Min(1)
+	@JsonProperty
+	private int maxConcurrentHedges = 16;
+
+	@NotNull
+	@JsonProperty
+	private Duration maxHedgeWait = Duration.seconds(10);
+
+	@Min(0)
+	@JsonProperty
+	private int maxRetries = 2;
+
+	@NotNull
+	@JsonProperty
+	private Duration retryBackoff = Duration.milliseconds(50);
+
+	@NotNull
+	@JsonProperty
+	private Duration maxRetryBackoff = Duration.seconds(1);
+
+	@Min(0)
+	@Max(100)
+	@JsonProperty
+	private int retryBudgetPercent = 10;
+
+	@Min(0)
+	@JsonProperty
+	private int minRetriesPerSecond = 10;
+
+	@JsonProperty
+	private boolean includePut = false;
+
+	public boolean isHedgingEnabled() {
+		return hedgingEnabled;
+	}
+
+	public void setHedgingEnabled(boolean hedgingEnabled) {
+		this.hedgingEnabled = hedgingEnabled;
+	}
+
+	/**
+	 * Latency percentile of recent calls after which a hedge request is sent.
+	 */
+	public double getHedgePercentile() {
+		return hedgePercentile;
+	}
+
+	public void setHedgePercentile(double hedgePercentile) {
+		this.hedgePercentile = hedgePercentile;
+	}
+
+	/**
+	 * Lower bound of the hedge delay, used until enough latencies have been observed.
+	 */
+	public Duration getMinHedgeDelay() {
+		return minHedgeDelay;
+	}
+
+	public void setMinHedgeDelay(Duration minHedgeDelay) {
+		this.minHedgeDelay = minHedgeDelay;
+	}
+
+	/**
+	 * Size of the policy's own pool of hedge threads. A hedge due while all of them are busy is not sent.
+	 */
+	public int getMaxConcurrentHedges() {
+		return maxConcurrentHedges;
+	}
+
+	public void setMaxConcurrentHedges(int maxConcurrentHedges) {
+		this.maxConcurrentHedges = maxConcurrentHedges;
+	}
+
+	/**
+	 * How long a caller whose own attempt failed waits for a hedge still in flight when the request has no
+	 * {@link Deadline}. With a deadline, the caller waits until it passes.
+	 */
+	public Duration getMaxHedgeWait() {
+		return maxHedgeWait;
+	}
+
+	public void setMaxHedgeWait(Duration maxHedgeWait) {
+		this.maxHedgeWait = maxHedgeWait;
+	}
+
+	public int getMaxRetries() {
+		return maxRetries;
+	}
+
+	public void setMaxRetries(int maxRetries) {
+		this.maxRetries = maxRetries;
+	}
+
+	/**
+	 * Base of the exponential, fully jittered backoff between retries.
+	 */
+	public Duration getRetryBackoff() {
+		return retryBackoff;
+	}
+
+	public void setRetryBackoff(Duration retryBackoff) {
+		this.retryBackoff = retryBackoff;
+	}
+
+	public Duration getMaxRetryBackoff() {
+		return maxRetryBackoff;
+	}
+
+	public void setMaxRetryBackoff(Duration maxRetryBackoff) {
+		this.maxRetryBackoff = maxRetryBackoff;
+	}
+
+	/**
+	 * Retries and hedges allowed as a percentage of regular requests.
+	 */
+	public int getRetryBudgetPercent() {
+		return retryBudgetPercent;
+	}
+
+	public void setRetryBudgetPercent(int retryBudgetPercent) {
+		this.retryBudgetPercent = retryBudgetPercent;
+	}
+
+	public int getMinRetriesPerSecond() {
+		return minRetriesPerSecond;
+	}
+
+	public void setMinRetriesPerSecond(int minRetriesPerSecond) {
+		this.minRetriesPerSecond = minRetriesPerSecond;
+	}
+
+	/**
+	 * Whether PUT is treated as idempotent too. GET and DELETE always are; POST and PATCH never are.
+	 */
+	public boolean isIncludePut() {
+		return includePut;
+	}
+
+	public void setIncludePut(boolean includePut) {
+		this.includePut = includePut;
+	}
+
+	/**
+	 * Builds a policy whose metrics are registered in the application's metric registry and whose hedge threads
+	 * are shut down with the application.
+	 */
+	public IdempotentRequestPolicy build(Environment environment, String name) {
+		final IdempotentRequestPolicy policy = new IdempotentRequestPolicy(this, environment.metrics(), name);
+		environment.lifecycle().manage(new Managed() {
+			@Override
+			public void start() throws Exception {
+			}
+
+			@Override
+			public void stop() throws Exception {
+				policy.close();
+			}
+		});
+		return policy;
+	}
+}
@@ -0,0 +1,293 @@
+package com.alfred.ishopper.client;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.sun.jersey.api.client.ClientHandlerException;
+import com.sun.jersey.api.client.ClientResponse;
+
+/**
+ * Tail latency protection for idempotent calls. The first attempt runs on the calling thread; when it has not
+ * answered within the configured latency percentile a second, identical attempt is started on the policy's own
+ * bounded pool of hedge threads, which never runs anything else. The first response wins and the other attempt is
+ * {@link Attempt aborted}, or discarded and closed once it arrives. Transport failures ({@link ClientHandlerException})
+ * are retried with jittered exponential backoff. Every hedge and retry is paid for from a {@link RetryBudget}, so
+ * neither can turn into a retry storm, and neither is started when the request's {@link Deadline} would pass before
+ * it could answer. Each attempt is a call of its own to the client, with its own bulkhead and limiter permits.
+ */
+public class IdempotentRequestPolicy {
+
+	private static final long DELAY_REFRESH_NANOS = TimeUnit.SECONDS.toNanos(1);
+	private static final int MIN_LATENCY_SAMPLES = 100;
+
+	private final IdempotentRequestConfiguration config;
+	private final RetryBudget budget;
+
+	private final Timer latency = new Timer();
+	private volatile long hedgeDelayNanos;
+	private volatile long hedgeDelayComputedAt;
+
+	private final Meter hedges = new Meter();
+	private final Meter hedgeWins = new Meter();
+	private final Meter retries = new Meter();
+	private final Meter budgetExhausted = new Meter();
+	private final Meter hedgesRejected = new Meter();
+
+	private final ThreadPoolExecutor hedgeExecutor;
+	private final ScheduledThreadPoolExecutor hedgeTimer;
+
+	public IdempotentRequestPolicy(IdempotentRequestConfiguration config) {
+		this(config, null, null);
+	}
+
+	public IdempotentRequestPolicy(IdempotentRequestConfiguration config, MetricRegistry metrics, String name) {
+		this.config = config;
+		this.budget = new RetryBudget(config.getRetryBudgetPercent(), config.getMinRetriesPerSecond());
+		this.hedgeDelayNanos = config.getMinHedgeDelay().toNanoseconds();
+		this.hedgeDelayComputedAt = System.nanoTime();
+
+		if (config.isHedgingEnabled()) {
+			String prefix = name != null ? "hedge-" + name + "-" : "hedge-";
+			this.hedgeExecutor = new ThreadPoolExecutor(0, config.getMaxConcurrentHedges(), 60L, TimeUnit.SECONDS,
+					new SynchronousQueue<Runnable>(), daemonThreads(prefix));
+			this.hedgeTimer = new ScheduledThreadPoolExecutor(1, daemonThreads(prefix + "timer-"));
+			this.hedgeTimer.setRemoveOnCancelPolicy(true);
+		} else {
+			this.hedgeExecutor = null;
+			this.hedgeTimer = null;
+		}
+
+		if (metrics != null) {
+			metrics.register(MetricRegistry.name(IdempotentRequestPolicy.class, name, "hedges"), hedges);
+			metrics.register(MetricRegistry.name(IdempotentRequestPolicy.class, name, "hedge-wins"), hedgeWins);
+			metrics.register(MetricRegistry.name(IdempotentRequestPolicy.class, name, "retries"), retries);
+			metrics.register(MetricRegistry.name(IdempotentRequestPolicy.class, name, "budget-exhausted"), budgetExhausted);
+			metrics.register(MetricRegistry.name(IdempotentRequestPolicy.class, name, "hedges-rejected"), hedgesRejected);
+		}
+	}
+
+	public boolean appliesTo(String httpMethod) {
+		return "GET".equals(httpMethod) || "DELETE".equals(httpMethod) || (config.isIncludePut() && "PUT".equals(httpMethod));
+	}
+
+	public ClientResponse call(Callable<ClientResponse> attempt) throws Exception {
+		budget.deposit();
+		Deadline deadline = Deadline.current();
+
+		for (int retry = 0;; retry++) {
+			try {
+				return hedgeExecutor != null ? hedged(attempt, deadline) : timed(attempt).call();
+			} catch (ClientHandlerException e) {
+				long backoff = backoffMillis(retry);
+				if (retry >= config.getMaxRetries() || (deadline != null && deadline.remaining(TimeUnit.MILLISECONDS) <= backoff)
+						|| !withdraw()) {
+					throw e;
+				}
+				retries.mark();
+				Thread.sleep(backoff);
+			}
+		}
+	}
+
+	/**
+	 * Makes the first attempt on the calling thread while a timer stands by to start the hedge. Once the first attempt
+	 * is over, the caller takes the winner, waiting for the hedge only when its own attempt failed, and for no longer
+	 * than the request's {@link Deadline} or, without one, the configured maximum hedge wait.
+	 */
+	private ClientResponse hedged(final Callable<ClientResponse> attempt, final Deadline deadline) throws Exception {
+		final Race race = new Race();
+		ScheduledFuture<?> timer;
+		try {
+			timer = hedgeTimer.schedule(new Runnable() {
+				@Override
+				public void run() {
+					hedge(race, attempt, deadline);
+				}
+			}, hedgeDelayNanos(), TimeUnit.NANOSECONDS);
+		} catch (RejectedExecutionException e) {
+			// closed, calls go unhedged
+			hedgesRejected.mark();
+			return timed(attempt).call();
+		}
+
+		try {
+			race.run(race.first, timed(attempt));
+		} finally {
+			timer.cancel(false);
+		}
+
+		long waitNanos = deadline != null ? deadline.remaining(TimeUnit.NANOSECONDS)
+				: config.getMaxHedgeWait().toNanoseconds();
+		try {
+			race.winner.get(waitNanos, TimeUnit.NANOSECONDS);
+		} catch (ExecutionException e) {
+			throw unwrap(e);
+		} catch (TimeoutException e) {
+			ClientHandlerException timeout = deadline != null
+					? new DeadlineExceededException("Deadline passed waiting for the hedged attempt")
+					: new ClientHandlerException("Hedged attempt did not answer within " + config.getMaxHedgeWait(), e);
+			if (race.winner.completeExceptionally(timeout)) {
+				race.hedge.abort();
+				throw timeout;
+			}
+			// the hedge answered just now
+		}
+
+		try {
+			return race.winner.get();
+		} catch (ExecutionException e) {
+			throw unwrap(e);
+		}
+	}
+
+	/**
+	 * Shuts the hedge threads down. Hedges already running finish, calls made afterwards are no longer hedged.
+	 */
+	public void close() {
+		if (hedgeTimer != null) {
+			hedgeTimer.shutdownNow();
+			hedgeExecutor.shutdown();
+		}
+	}
+
+	private void hedge(final Race race, final Callable<ClientResponse> attempt, Deadline deadline) {
+		if (race.winner.isDone() || (deadline != null && deadline.isExpired()) || !withdraw()) {
+			return;
+		}
+
+		race.pending.incrementAndGet();
+		try {
+			hedgeExecutor.execute(new Runnable() {
+				@Override
+				public void run() {
+					race.run(race.hedge, timed(attempt));
+				}
+			});
+			hedges.mark();
+		} catch (RejectedExecutionException e) {
+			hedgesRejected.mark();
+			race.fail(e);
+		}
+	}
+
+	private Callable<ClientResponse> timed(final Callable<ClientResponse> attempt) {
+		return new Callable<ClientResponse>() {
+			@Override
+			public ClientResponse call() throws Exception {
+				long start = System.nanoTime();
+				ClientResponse response = attempt.call();
+				latency.update(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+				return response;
+			}
+		};
+	}
+
+	/**
+	 * The configured latency percentile of recent attempts, recomputed at most once a second since taking a
+	 * snapshot of the reservoir is too expensive to do on every call.
+	 */
+	private long hedgeDelayNanos() {
+		long now = System.nanoTime();
+		if (now - hedgeDelayComputedAt > DELAY_REFRESH_NANOS) {
+			hedgeDelayComputedAt = now;
+			if (latency.getCount() >= MIN_LATENCY_SAMPLES) {
+				double percentile = latency.getSnapshot().getValue(config.getHedgePercentile() / 100);
+				hedgeDelayNanos = Math.max((long) percentile, config.getMinHedgeDelay().toNanoseconds());
+			}
+		}
+		return hedgeDelayNanos;
+	}
+
+	private long backoffMillis(int retry) {
+		long ceiling = Math.min(config.getMaxRetryBackoff().toMilliseconds(),
+				config.getRetryBackoff().toMilliseconds() << Math.min(retry, 20));
+		return ThreadLocalRandom.current().nextLong(ceiling + 1);
+	}
+
+	private boolean withdraw() {
+		if (budget.tryWithdraw()) {
+			return true;
+		}
+		budgetExhausted.mark();
+		return false;
+	}
+
+	private static Exception unwrap(ExecutionException e) {
+		Throwable cause = e.getCause();
+		if (cause instanceof Exception) {
+			return (Exception) cause;
+		}
+		throw (Error) cause;
+	}
+
+	private static ThreadFactory daemonThreads(final String prefix) {
+		return new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, prefix + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		};
+	}
+
+	/**
+	 * The first attempt and its hedge, if one is started. The first response completes the winner and aborts the
+	 * other attempt; the winner only fails once every attempt started has failed.
+	 */
+	private final class Race {
+		private final CompletableFuture<ClientResponse> winner = new CompletableFuture<ClientResponse>();
+		private final AtomicInteger pending = new AtomicInteger(1);
+		private final Attempt first = new Attempt();
+		private final Attempt hedge = new Attempt();
+
+		void run(Attempt attempt, Callable<ClientResponse> call) {
+			if (winner.isDone()) {
+				fail(null);
+				return;
+			}
+
+			ClientResponse response;
+			try {
+				response = attempt.call(call);
+			} catch (Throwable t) {
+				fail(t);
+				return;
+			}
+
+			if (winner.complete(response)) {
+				if (attempt == hedge) {
+					hedgeWins.mark();
+					first.abort();
+				} else {
+					hedge.abort();
+				}
+			} else if (response != null) {
+				// the other attempt won, release this one's connection
+				response.close();
+			}
+		}
+
+		void fail(Throwable t) {
+			if (pending.decrementAndGet() == 0 && t != null) {
+				winner.completeExceptionally(t);
+			}
+		}
+	}
+}
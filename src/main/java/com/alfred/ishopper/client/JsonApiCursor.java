@@ -0,0 +1,367 @@
+package com.alfred.ishopper.client;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiConsumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Cookie;
+import javax.ws.rs.core.MultivaluedMap;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.sun.jersey.api.client.ClientHandlerException;
+import com.sun.jersey.api.client.ClientResponse;
+import com.sun.jersey.api.uri.UriComponent;
+import com.sun.jersey.core.util.MultivaluedMapImpl;
+
+/**
+ * Iterates the resources of a paged JSON:API listing across all its pages. The next page is found through
+ * <code>links.next</code>, or, when the upstream sends none, by advancing <code>page[offset]</code> (or
+ * <code>offset</code>) by <code>page[limit]</code> (or <code>limit</code>) from the request params while pages
+ * come back full. A <code>links.next</code> on another scheme, host or port than the client's base URI fails the
+ * iteration, and one that repeats the current page ends it.
+ * <p>
+ * Pages are fetched in the background on the client's executor while the current one is consumed, at most
+ * <code>maxPages</code> ahead. Each page is held as its raw bytes and parsed with a {@link JsonApiIterator} only
+ * when reached. {@link #close()} cancels the outstanding fetch: a queued fetch never starts, a running one stops
+ * buffering its body and closes the response.
+ */
+public class JsonApiCursor<T> implements Iterator<T>, Closeable {
+
+	private static final String OFFSET = "offset";
+	private static final String LIMIT = "limit";
+	private static final String PAGE_OFFSET = "page[offset]";
+	private static final String PAGE_LIMIT = "page[limit]";
+	private static final int BUFFER_SIZE = 8192;
+
+	private final JsonRestClient client;
+	private final Map<String, Cookie> cookies;
+	private final Object xForwardedForHeader;
+	private final AuthUser user;
+	private final Class<T> valueType;
+	private final int maxPages;
+
+	private final ArrayDeque<Page> ready = new ArrayDeque<Page>();
+	private PageRequest next;
+	private CompletableFuture<Page> inFlight;
+	private Throwable failure;
+	private volatile boolean closed;
+
+	private JsonApiIterator<T> current;
+	private T value;
+
+	JsonApiCursor(JsonRestClient client, String resource, MultivaluedMap<String, String> params, Map<String, Cookie> cookies,
+			Object xForwardedForHeader, AuthUser user, Class<T> valueType, int maxPages) {
+		if (maxPages < 1) {
+			throw new IllegalArgumentException("maxPages must be at least 1");
+		}
+		this.client = client;
+		this.cookies = cookies;
+		this.xForwardedForHeader = xForwardedForHeader;
+		this.user = user;
+		this.valueType = valueType;
+		this.maxPages = maxPages;
+		this.next = new PageRequest(resource, params);
+
+		synchronized (this) {
+			fetch();
+		}
+	}
+
+	@Override
+	public boolean hasNext() {
+		while (value == null) {
+			if (current != null && current.hasNext()) {
+				value = current.next();
+			} else {
+				Page page = take();
+				if (page == null) {
+					return false;
+				}
+				current = new JsonApiIterator<T>(new ByteArrayInputStream(page.body), JsonRestClient.reader(valueType),
+						JsonRestClient.reader(JsonNode.class));
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public T next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		T result = value;
+		value = null;
+		return result;
+	}
+
+	/**
+	 * Returns the remaining resources as a sequential stream; closing the stream cancels prefetching.
+	 */
+	public Stream<T> stream() {
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED | Spliterator.NONNULL), false)
+				.onClose(new Runnable() {
+					@Override
+					public void run() {
+						close();
+					}
+				});
+	}
+
+	@Override
+	public synchronized void close() {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		next = null;
+		ready.clear();
+		if (inFlight != null) {
+			inFlight.cancel(false);
+			inFlight = null;
+		}
+		if (current != null) {
+			current.close();
+		}
+		notifyAll();
+	}
+
+	/**
+	 * Waits for the next fetched page; null when the listing is exhausted or the cursor closed.
+	 */
+	private synchronized Page take() {
+		while (ready.isEmpty()) {
+			if (failure != null) {
+				close();
+				if (failure instanceof RuntimeException) {
+					throw (RuntimeException) failure;
+				}
+				throw new ClientHandlerException(failure);
+			}
+			if (closed || (next == null && inFlight == null)) {
+				return null;
+			}
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				close();
+				throw new ClientHandlerException(e);
+			}
+		}
+		Page page = ready.poll();
+		fetch();
+		return page;
+	}
+
+	/**
+	 * Starts fetching the next page unless one is in flight, none is left or enough pages are waiting.
+	 */
+	private void fetch() {
+		if (closed || inFlight != null || next == null || ready.size() >= maxPages) {
+			return;
+		}
+
+		final PageRequest request = next;
+		next = null;
+		inFlight = client.async(new Callable<Page>() {
+			@Override
+			public Page call() throws IOException {
+				return load(request);
+			}
+		});
+		inFlight.whenComplete(new BiConsumer<Page, Throwable>() {
+			@Override
+			public void accept(Page page, Throwable t) {
+				onPage(page, t);
+			}
+		});
+	}
+
+	private synchronized void onPage(Page page, Throwable t) {
+		if (closed) {
+			return;
+		}
+		inFlight = null;
+		if (t != null) {
+			failure = JsonRestClient.unwrap(t);
+		} else {
+			ready.add(page);
+			next = page.next;
+			fetch();
+		}
+		notifyAll();
+	}
+
+	private Page load(PageRequest request) throws IOException {
+		ClientResponse response = client.getResponse(request.resource, request.params, cookies, xForwardedForHeader, user,
+				JsonRestClient.APPLICATION_VND_API_JSON);
+		try {
+			if (response.getStatus() < 200 || response.getStatus() >= 300) {
+				throw new WebApplicationException(client.convertResponseStatus(response.getStatusInfo()));
+			}
+			byte[] body = read(response.getEntityInputStream());
+			return new Page(body, nextRequest(request, body));
+		} finally {
+			response.close();
+		}
+	}
+
+	private byte[] read(InputStream in) throws IOException {
+		ByteArrayOutputStream body = new ByteArrayOutputStream(BUFFER_SIZE);
+		byte[] buffer = new byte[BUFFER_SIZE];
+		int n;
+		while ((n = in.read(buffer)) >= 0) {
+			if (closed) {
+				throw new CancellationException();
+			}
+			body.write(buffer, 0, n);
+		}
+		return body.toByteArray();
+	}
+
+	/**
+	 * Finds links.next, and counts the data resources for the offset/limit fallback, without mapping anything.
+	 */
+	private PageRequest nextRequest(PageRequest request, byte[] body) throws IOException {
+		String nextLink = null;
+		int count = 0;
+
+		JsonParser parser = JsonRestClient.reader(JsonNode.class).getFactory().createParser(body);
+		try {
+			if (parser.nextToken() != JsonToken.START_OBJECT) {
+				return null;
+			}
+			while (parser.nextToken() == JsonToken.FIELD_NAME) {
+				String name = parser.getCurrentName();
+				JsonToken token = parser.nextToken();
+				if ("data".equals(name) && token == JsonToken.START_ARRAY) {
+					while (parser.nextToken() != JsonToken.END_ARRAY) {
+						parser.skipChildren();
+						count++;
+					}
+				} else if ("links".equals(name) && token == JsonToken.START_OBJECT) {
+					JsonNode links = JsonRestClient.reader(JsonNode.class).readTree(parser);
+					JsonNode next = links.get("next");
+					if (next != null) {
+						nextLink = next.isTextual() ? next.asText() : next.path("href").asText(null);
+					}
+				} else {
+					parser.skipChildren();
+				}
+			}
+		} finally {
+			parser.close();
+		}
+
+		if (nextLink != null && !nextLink.isEmpty()) {
+			PageRequest next = follow(nextLink);
+			return next.sameAs(request) ? null : next;
+		}
+		return count > 0 ? advance(request, count) : null;
+	}
+
+	private PageRequest follow(String link) {
+		URI base = client.getBaseUri();
+		int query = link.indexOf('?');
+		if (query >= 0) {
+			// page[offset] style params are often sent unencoded
+			link = link.substring(0, query) + link.substring(query).replace("[", "%5B").replace("]", "%5D");
+		}
+		URI uri = client.toBaseUri(URI.create(base.toString() + "/").resolve(link));
+		if (!sameOrigin(uri, base)) {
+			throw new ClientHandlerException("links.next points to another origin: " + link);
+		}
+
+		String basePath = base.getRawPath() == null ? "" : base.getRawPath();
+		String path = uri.getRawPath();
+		if (path.startsWith(basePath)) {
+			path = path.substring(basePath.length());
+		}
+		return new PageRequest(path.startsWith("/") ? path.substring(1) : path, UriComponent.decodeQuery(uri, true));
+	}
+
+	/**
+	 * Compares scheme, host and port of a link resolved against the base URI, taking default ports into account.
+	 */
+	private static boolean sameOrigin(URI uri, URI base) {
+		return uri.getScheme() != null && uri.getScheme().equalsIgnoreCase(base.getScheme())
+				&& uri.getHost() != null && uri.getHost().equalsIgnoreCase(base.getHost())
+				&& port(uri) == port(base);
+	}
+
+	private static int port(URI uri) {
+		if (uri.getPort() >= 0) {
+			return uri.getPort();
+		}
+		return "https".equalsIgnoreCase(uri.getScheme()) ? 443 : 80;
+	}
+
+	private static PageRequest advance(PageRequest request, int count) {
+		if (request.params == null) {
+			return null;
+		}
+		boolean jsonApi = request.params.containsKey(PAGE_LIMIT);
+		String limitParam = jsonApi ? PAGE_LIMIT : LIMIT;
+		String offsetParam = jsonApi ? PAGE_OFFSET : OFFSET;
+		String limit = request.params.getFirst(limitParam);
+		if (limit == null) {
+			return null;
+		}
+
+		try {
+			if (count < Integer.parseInt(limit)) {
+				return null;
+			}
+			String offset = request.params.getFirst(offsetParam);
+			MultivaluedMap<String, String> params = new MultivaluedMapImpl();
+			params.putAll(request.params);
+			params.putSingle(offsetParam, Integer.toString((offset == null ? 0 : Integer.parseInt(offset)) + count));
+			return new PageRequest(request.resource, params);
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	private static class PageRequest {
+		private final String resource;
+		private final MultivaluedMap<String, String> params;
+
+		PageRequest(String resource, MultivaluedMap<String, String> params) {
+			this.resource = resource;
+			this.params = params;
+		}
+
+		boolean sameAs(PageRequest other) {
+			return resource.equals(other.resource) && (params == null || params.isEmpty() ?
+					other.params == null || other.params.isEmpty() : params.equals(other.params));
+		}
+	}
+
+	private static class Page {
+		private final byte[] body;
+		private final PageRequest next;
+
+		Page(byte[] body, PageRequest next) {
+			this.body = body;
+			this.next = next;
+		}
+	}
+}
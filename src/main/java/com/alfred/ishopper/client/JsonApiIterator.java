@@ -0,0 +1,244 @@
+package com.alfred.ishopper.client;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.sun.jersey.api.client.ClientHandlerException;
+
+/**
+ * Walks the <code>data</code> array of a JSON:API document with the streaming parser and maps one resource at a
+ * time, so memory stays flat however many <code>data</code> resources the document holds. The stream cannot be
+ * rewound, so <code>included</code> resources are still held, though only as their encoded bytes, and are parsed
+ * when looked up; memory therefore grows with the size of <code>included</code>. The top-level <code>links</code>,
+ * <code>meta</code> and <code>errors</code> members are kept as trees. All of them become available once the parser
+ * has passed them: immediately when they precede <code>data</code>, otherwise after the last resource has been
+ * returned.
+ * <p>
+ * The underlying response is closed when the iteration ends or on {@link #close()}; parse errors are thrown as
+ * {@link ClientHandlerException}, like Jersey's own entity reading.
+ */
+public class JsonApiIterator<T> implements Iterator<T>, Closeable {
+
+	private final JsonParser parser;
+	private final ObjectReader reader;
+	private final ObjectReader treeReader;
+
+	private final Map<String, byte[]> included = new HashMap<String, byte[]>();
+	private JsonNode links;
+	private JsonNode meta;
+	private JsonNode errors;
+
+	private boolean dataSeen;
+	private boolean inData;
+	private boolean closed;
+	private T next;
+
+	JsonApiIterator(InputStream json, ObjectReader reader, ObjectReader treeReader) {
+		this.reader = reader;
+		this.treeReader = treeReader;
+		try {
+			this.parser = treeReader.getFactory().createParser(json);
+			JsonToken first = parser.nextToken();
+			if (first == null) {
+				close();
+			} else if (first != JsonToken.START_OBJECT) {
+				throw new ClientHandlerException("JSON:API document is not an object");
+			} else {
+				advanceToData();
+			}
+		} catch (IOException e) {
+			closeQuietly(json);
+			throw new ClientHandlerException(e);
+		} catch (RuntimeException e) {
+			closeQuietly(json);
+			throw e;
+		}
+	}
+
+	/**
+	 * Reads top-level members up to the start of a <code>data</code> array, or to the end of the document. A single
+	 * resource <code>data</code> object is read right away.
+	 */
+	private void advanceToData() throws IOException {
+		while (parser.nextToken() == JsonToken.FIELD_NAME) {
+			String name = parser.getCurrentName();
+			JsonToken token = parser.nextToken();
+
+			if ("data".equals(name) && !dataSeen && token == JsonToken.START_ARRAY) {
+				dataSeen = true;
+				inData = true;
+				return;
+			} else if ("data".equals(name) && !dataSeen && token == JsonToken.START_OBJECT) {
+				dataSeen = true;
+				next = reader.readValue(parser);
+			} else if ("included".equals(name) && token == JsonToken.START_ARRAY) {
+				readIncluded();
+			} else if ("links".equals(name)) {
+				links = treeReader.readTree(parser);
+			} else if ("meta".equals(name)) {
+				meta = treeReader.readTree(parser);
+			} else if ("errors".equals(name)) {
+				errors = treeReader.readTree(parser);
+			} else {
+				parser.skipChildren();
+			}
+		}
+		close();
+	}
+
+	/**
+	 * Copies each included resource as it is into a byte array keyed by its type and id, without building a tree.
+	 */
+	private void readIncluded() throws IOException {
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		JsonToken token;
+		while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+			if (token != JsonToken.START_OBJECT) {
+				parser.skipChildren();
+				continue;
+			}
+
+			String type = "";
+			String id = "";
+			buffer.reset();
+			JsonGenerator generator = treeReader.getFactory().createGenerator(buffer);
+			generator.writeStartObject();
+			while (parser.nextToken() == JsonToken.FIELD_NAME) {
+				String field = parser.getCurrentName();
+				if (parser.nextToken().isScalarValue()) {
+					if ("type".equals(field)) {
+						type = parser.getText();
+					} else if ("id".equals(field)) {
+						id = parser.getText();
+					}
+				}
+				generator.writeFieldName(field);
+				generator.copyCurrentStructure(parser);
+			}
+			generator.writeEndObject();
+			generator.close();
+			included.put(key(type, id), buffer.toByteArray());
+		}
+	}
+
+	@Override
+	public boolean hasNext() {
+		if (next != null) {
+			return true;
+		}
+		if (closed) {
+			return false;
+		}
+
+		try {
+			while (inData) {
+				JsonToken token = parser.nextToken();
+				if (token == JsonToken.START_OBJECT) {
+					next = reader.readValue(parser);
+					return true;
+				} else if (token == JsonToken.END_ARRAY) {
+					inData = false;
+					advanceToData();
+				} else {
+					parser.skipChildren();
+				}
+			}
+			return next != null;
+		} catch (IOException e) {
+			close();
+			throw new ClientHandlerException(e);
+		}
+	}
+
+	@Override
+	public T next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		T value = next;
+		next = null;
+		return value;
+	}
+
+	/**
+	 * Returns the remaining resources as a sequential stream; closing the stream closes the response.
+	 */
+	public Stream<T> stream() {
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED | Spliterator.NONNULL), false)
+				.onClose(new Runnable() {
+					@Override
+					public void run() {
+						close();
+					}
+				});
+	}
+
+	/**
+	 * Parses the included resource into a tree, or returns null when it is not in the document or not parsed yet.
+	 * Each call parses it again.
+	 */
+	public JsonNode getIncluded(String type, String id) throws JsonRestClientException {
+		return getIncluded(type, id, JsonNode.class);
+	}
+
+	public <I> I getIncluded(String type, String id, Class<I> valueType) throws JsonRestClientException {
+		byte[] resource = included.get(key(type, id));
+		try {
+			return resource != null ? treeReader.forType(valueType).<I>readValue(resource) : null;
+		} catch (IOException e) {
+			throw new JsonRestClientException("Unable to map JSON to " + valueType.getCanonicalName(), e);
+		}
+	}
+
+	public JsonNode getLinks() {
+		return links;
+	}
+
+	public JsonNode getMeta() {
+		return meta;
+	}
+
+	public JsonNode getErrors() {
+		return errors;
+	}
+
+	@Override
+	public void close() {
+		if (!closed) {
+			closed = true;
+			inData = false;
+			try {
+				parser.close();
+			} catch (IOException e) {
+				// nothing left to read
+			}
+		}
+	}
+
+	private static String key(String type, String id) {
+		return type + '/' + id;
+	}
+
+	private static void closeQuietly(InputStream in) {
+		try {
+			in.close();
+		} catch (IOException e) {
+			// already failing
+		}
+	}
+}
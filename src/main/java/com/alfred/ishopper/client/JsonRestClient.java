@@ -1,12 +1,31 @@
 package com.alfred.ishopper.client;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.function.BiConsumer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.ws.rs.WebApplicationException;
@@ -21,25 +40,23 @@ import org.slf4j.LoggerFactory;
 import com.fasterxml.jackson.core.JsonParseException;
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
 import com.sun.jersey.api.client.Client;
 import com.sun.jersey.api.client.ClientHandlerException;
 import com.sun.jersey.api.client.ClientResponse;
-import com.sun.jersey.api.client.ClientResponse.Status;
 import com.sun.jersey.api.client.WebResource;
 import com.sun.jersey.core.util.Base64;
+import com.sun.jersey.spi.MessageBodyWorkers;
 
 
 public class JsonRestClient {
 	
 	private static final Logger LOGGER = LoggerFactory.getLogger(JsonRestClient.class);
 
-	private static final String HTTP_SCHEME = "http://";
-	private static final String HTTPS_SCHEME = "https://";
-
-	private static final int DEFAULT_HTTP_PORT = 80;
-	private static final int DEFAULT_HTTPS_PORT = 443;
-	
 	private static final String HTTP_METHOD_GET = "GET";
 	private static final String HTTP_METHOD_POST = "POST";
 	private static final String HTTP_METHOD_PATCH = "PATCH";
@@ -49,6 +66,7 @@ public class JsonRestClient {
 	private static final int HTTP_STATUS_FORBIDDEN = 403;
 	private static final int HTTP_STATUS_NOT_FOUND = 404;
 	private static final int HTTP_STATUS_UNPROCESSABLE_ENTITY = 422;
+	private static final int HTTP_STATUS_INTERNAL_SERVER_ERROR = 500;
 	
 
 	private static final String REQUEST_FAILED = "{} request failed";
@@ -57,6 +75,11 @@ public class JsonRestClient {
 	private static final String EMARKETS_ID = "emarketsId";
 
 	public static final String APPLICATION_VND_API_JSON = "application/vnd.api+json";
+	public static final String APPLICATION_SMILE = "application/x-jackson-smile";
+	public static final String APPLICATION_CBOR = "application/cbor";
+
+	private static final MediaType SMILE_TYPE = MediaType.valueOf(APPLICATION_SMILE);
+	private static final MediaType CBOR_TYPE = MediaType.valueOf(APPLICATION_CBOR);
 
 	private static final String TICKET_KEY = "encodedTicket";
 
@@ -65,20 +88,51 @@ public class JsonRestClient {
 	private boolean convertStatusCodes = true;
 
 	private static ObjectMapper mapper = new ObjectMapper();
+	private static final ObjectMapper smileMapper = new ObjectMapper(new SmileFactory());
+	private static final ObjectMapper cborMapper = new ObjectMapper(new CBORFactory());
 	
 	static {
 		mapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+		smileMapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+		cborMapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
 	}
 
+	private static final ConcurrentMap<Class<?>, ObjectReader> readers = new ConcurrentHashMap<Class<?>, ObjectReader>();
+	private static final ConcurrentMap<Class<?>, ObjectReader> smileReaders = new ConcurrentHashMap<Class<?>, ObjectReader>();
+	private static final ConcurrentMap<Class<?>, ObjectReader> cborReaders = new ConcurrentHashMap<Class<?>, ObjectReader>();
+
+	private static final int DEFAULT_ASYNC_THREADS = 64;
+	private static final int DEFAULT_ASYNC_QUEUE = 1024;
+	private static final int DEFAULT_BATCH_CONCURRENCY = 8;
+	private static final long DEFAULT_BATCH_TIMEOUT_MILLIS = 10000;
+	private static final int DEFAULT_PREFETCH_PAGES = 2;
+
+	private Client client;
 	private WebResource webResource;
+	private MessageBodyWorkers messageBodyWorkers;
 	private String encodedCredentials;
 	private String mediaType = MediaType.APPLICATION_JSON;
+	private String binaryAccept;
+	private Executor executor;
+	private HttpResponseCache responseCache;
+	private RequestCoalescer requestCoalescer;
+	private CircuitBreaker circuitBreaker;
+	private Bulkhead bulkhead;
+	private ConcurrencyLimiter concurrencyLimiter;
+	private IdempotentRequestPolicy idempotentRequestPolicy;
+	private ClientMetrics clientMetrics;
+	private int batchConcurrency = DEFAULT_BATCH_CONCURRENCY;
+	private long batchTimeoutMillis = DEFAULT_BATCH_TIMEOUT_MILLIS;
+	private List<String> forwardedCookies;
+	private List<String> endpoints;
 	
 	public JsonRestClient(Client client, ClientConfiguration config) throws URISyntaxException {	
-		this.webResource = client.resource(new URI(
-				(config.getBaseUri().startsWith(HTTP_SCHEME) && config.getBasePort() != DEFAULT_HTTP_PORT) ||
-				(config.getBaseUri().startsWith(HTTPS_SCHEME) && config.getBasePort() != DEFAULT_HTTPS_PORT) ?
-						config.getBaseUri() + ":" + config.getBasePort() :	config.getBaseUri()));
+		this.client = client;
+		this.webResource = client.resource(new URI(config.getUri()));
+		this.endpoints = config.getEndpoints();
+		this.messageBodyWorkers = client.getMessageBodyWorkers();
+		this.forwardedCookies = config.getForwardedCookies();
+		setBinaryFormat(config.getBinaryFormat());
 	}
 
 	public JsonRestClient(Client client, AuthenticatedClientConfiguration config) throws URISyntaxException {
@@ -91,6 +145,25 @@ public class JsonRestClient {
 		} 
 	}
 
+	URI getBaseUri() {
+		return webResource.getURI();
+	}
+
+	/**
+	 * Maps a URI on one of the load balanced endpoints, such as a link an instance sent, back to the base URI.
+	 */
+	URI toBaseUri(URI uri) {
+		String value = uri.toString();
+		for (String endpoint : endpoints) {
+			String prefix = endpoint.endsWith("/") ? endpoint.substring(0, endpoint.length() - 1) : endpoint;
+			if (LoadBalancer.startsWith(value, prefix)) {
+				String base = webResource.getURI().toString();
+				return URI.create((base.endsWith("/") ? base.substring(0, base.length() - 1) : base) + value.substring(prefix.length()));
+			}
+		}
+		return uri;
+	}
+
 	public String getMediaType() {
 		return mediaType;
 	}
@@ -99,19 +172,149 @@ public class JsonRestClient {
 		this.mediaType = mediaType;
 	}
 
+	/**
+	 * Makes calls that map the response to an object ask for {@link ClientConfiguration#SMILE} or
+	 * {@link ClientConfiguration#CBOR} ahead of JSON; null asks for JSON only. Responses are decoded according to
+	 * their Content-Type, so upstreams that only produce JSON keep working. Calls returning the body as a String
+	 * and JSON:API calls always ask for text.
+	 */
+	public void setBinaryFormat(String binaryFormat) {
+		if (binaryFormat == null) {
+			this.binaryAccept = null;
+		} else if (ClientConfiguration.SMILE.equals(binaryFormat)) {
+			this.binaryAccept = APPLICATION_SMILE + ", " + MediaType.APPLICATION_JSON + ";q=0.9";
+		} else if (ClientConfiguration.CBOR.equals(binaryFormat)) {
+			this.binaryAccept = APPLICATION_CBOR + ", " + MediaType.APPLICATION_JSON + ";q=0.9";
+		} else {
+			throw new IllegalArgumentException("Unknown binary format " + binaryFormat);
+		}
+	}
+
+	/**
+	 * The Accept header of calls whose response is mapped to an object: the binary format first when one is set and
+	 * the call would ask for plain JSON.
+	 */
+	private String entityMediaType(String mediaType) {
+		return binaryAccept != null && MediaType.APPLICATION_JSON.equals(mediaType) ? binaryAccept : mediaType;
+	}
+
 	public void setConvertStatusCodes(boolean convertStatusCodes) {
 		this.convertStatusCodes = convertStatusCodes;
 	}
 
+	/**
+	 * Sets the executor the *Async methods run their upstream calls on. Defaults to a shared pool of
+	 * {@value #DEFAULT_ASYNC_THREADS} daemon threads with room for {@value #DEFAULT_ASYNC_QUEUE} waiting calls, so the
+	 * calling (Jetty) thread is never the one waiting for the upstream. Calls the executor rejects fail with 503.
+	 */
+	public void setExecutor(Executor executor) {
+		this.executor = executor;
+	}
+
+	/**
+	 * Enables caching of GET responses. Requests carrying cookies are never cached.
+	 */
+	public void setResponseCache(HttpResponseCache responseCache) {
+		this.responseCache = responseCache;
+	}
+
+	/**
+	 * Enables sharing one upstream call between concurrent identical GETs.
+	 */
+	public void setRequestCoalescer(RequestCoalescer requestCoalescer) {
+		this.requestCoalescer = requestCoalescer;
+	}
+
+	/**
+	 * Fails calls fast with 503 while the upstream is considered unhealthy.
+	 */
+	public void setCircuitBreaker(CircuitBreaker circuitBreaker) {
+		this.circuitBreaker = circuitBreaker;
+	}
+
+	/**
+	 * Caps the number of concurrent calls to the upstream; calls above the cap are rejected with 503.
+	 */
+	public void setBulkhead(Bulkhead bulkhead) {
+		this.bulkhead = bulkhead;
+	}
+
+	/**
+	 * Adapts the number of concurrent calls to the upstream to its observed latency; calls above the current limit
+	 * are rejected with 503.
+	 */
+	public void setConcurrencyLimiter(ConcurrencyLimiter concurrencyLimiter) {
+		this.concurrencyLimiter = concurrencyLimiter;
+	}
+
+	/**
+	 * Enables hedging and budgeted retries for idempotent verbs. POST and PATCH are never hedged or retried.
+	 */
+	public void setIdempotentRequestPolicy(IdempotentRequestPolicy idempotentRequestPolicy) {
+		this.idempotentRequestPolicy = idempotentRequestPolicy;
+	}
+
+	/**
+	 * Enables outbound call metrics. Without them no timing is taken at all.
+	 */
+	public void setClientMetrics(ClientMetrics clientMetrics) {
+		this.clientMetrics = clientMetrics;
+	}
+
+	/**
+	 * Sets how many calls of a {@link #getAll} batch may be in flight at once.
+	 */
+	public void setBatchConcurrency(int batchConcurrency) {
+		this.batchConcurrency = batchConcurrency;
+	}
+
+	/**
+	 * Sets the overall deadline of a {@link #getAll} batch.
+	 */
+	public void setBatchTimeout(long timeout, TimeUnit unit) {
+		this.batchTimeoutMillis = unit.toMillis(timeout);
+	}
+
+	/**
+	 * Compiles a resource template such as <code>products/{id}/reviews</code> with the client's media type.
+	 */
+	public PreparedRequest prepare(String template) {
+		return prepare(template, null, null);
+	}
+
+	/**
+	 * Compiles a resource template once, together with headers that are the same for every call. Keep the result
+	 * and reuse it; calls then only bind path values, params, cookies and the per-user headers.
+	 */
+	public PreparedRequest prepare(String template, Map<String, String> headers, String mediaType) {
+		return new PreparedRequest(webResource.getURI().toString(), template, headers, encodedCredentials,
+				mediaType == null ? this.mediaType : mediaType);
+	}
+
+	/**
+	 * Copies the request's cookies into a map of JAX-RS cookies. {@link #forwardCookies} passes them on without
+	 * parsing and is cheaper for proxied calls.
+	 */
 	public static Map<String, Cookie> convert(HttpServletRequest request) {
 		Map<String, Cookie> cookies = new HashMap<String, Cookie>();
 
-		for (javax.servlet.http.Cookie c : request.getCookies()) {
-			cookies.put(c.getName(), new Cookie(c.getName(), c.getValue(), c.getPath(), c.getDomain(), c.getVersion()));
+		javax.servlet.http.Cookie[] servletCookies = request.getCookies();
+		if (servletCookies != null) {
+			for (javax.servlet.http.Cookie c : servletCookies) {
+				cookies.put(c.getName(), new Cookie(c.getName(), c.getValue(), c.getPath(), c.getDomain(), c.getVersion()));
+			}
 		}
 
 		return cookies;
 	}
+
+	/**
+	 * Takes the request's Cookie header as it is, keeping only the cookies named in the client's
+	 * <code>forwardedCookies</code> when that list is configured.
+	 */
+	public ForwardedCookies forwardCookies(HttpServletRequest request) {
+		return ForwardedCookies.of(request, forwardedCookies);
+	}
 	
 	public ClientResponse getResponse(String resource, MultivaluedMap<String, String> params, Map<String, String> headers, UserAccount userAccount, String mediaType) {
 		return getResponse(resource, params, null, null, headers, userAccount, mediaType == null ? this.mediaType : mediaType);
@@ -172,9 +375,11 @@ public class JsonRestClient {
 	public <T> T get(String resource, MultivaluedMap<String, String> params, Map<String, Cookie> cookies,
 			Object xForwardedForHeader, AuthUser user, Class<T> valueType) throws JsonRestClientException {
 
-		String result = get(resource, params, cookies, xForwardedForHeader, user);
+		if (resource == null) {
+			resource = "";
+		}
 
-		return (result != null) ? map(result, valueType) : null;
+		return readEntity(getResponse(resource, params, cookies, xForwardedForHeader, user, entityMediaType(mediaType)), valueType);
 	}
 
 	protected ClientResponse getResponse(String resource, MultivaluedMap<String, String> params,
@@ -195,62 +400,162 @@ public class JsonRestClient {
 		}
 	}
 
-	protected ClientResponse getResponse(String resource, MultivaluedMap<String, String> params,
-			Map<String, Cookie> cookies, Object xForwardedForHeader, Map<String, String> headers, Long userId, String emarketsId, String mediaType) {
+	protected ClientResponse getResponse(final String resource, final MultivaluedMap<String, String> params,
+			final Map<String, Cookie> cookies, final Object xForwardedForHeader, final Map<String, String> headers, final Long userId,
+			final String emarketsId, final String mediaType) {
 
-		ClientResponse response = null;
-		
-		try {
-			response =
-					buildResourceBuilder(resource, params, cookies, combineHeaders(headers, xForwardedForHeader, userId, emarketsId), mediaType).get(
-							ClientResponse.class);
-		} catch (ClientHandlerException e) {
-			LOGGER.error(REQUEST_FAILED, HTTP_METHOD_GET, e);
-			throw new WebApplicationException(Response.Status.SERVICE_UNAVAILABLE);
-		} catch (Exception e) {
-			LOGGER.error(REQUEST_FAILED, HTTP_METHOD_GET, e);
-			throw new WebApplicationException(Response.Status.INTERNAL_SERVER_ERROR);
-		}
+		String requestKey = (responseCache != null || requestCoalescer != null) ? HttpResponseCache.key(webResource.getURI().toString(),
+				resource, params, combineHeaders(headers, xForwardedForHeader, userId, emarketsId), mediaType, HEADER_X_FORWARDED_FOR) : null;
 
-		if (response == null) {
-			throw new WebApplicationException(Response.Status.SERVICE_UNAVAILABLE);
+		return getResponse(resource, null, params, cookies, mediaType, requestKey, new Callable<WebResource.Builder>() {
+			@Override
+			public WebResource.Builder call() {
+				return buildResourceBuilder(resource, params, cookies, headers, xForwardedForHeader, userId, emarketsId, mediaType);
+			}
+		});
+	}
+
+	public ClientResponse getResponse(PreparedRequest request, MultivaluedMap<String, String> params,
+			Map<String, Cookie> cookies, Object xForwardedForHeader, AuthUser user, Object... pathValues) {
+
+		return getResponse(request, params, cookies, xForwardedForHeader, user, request.getMediaType(), pathValues);
+	}
+
+	private ClientResponse getResponse(final PreparedRequest request, final MultivaluedMap<String, String> params,
+			final Map<String, Cookie> cookies, final Object xForwardedForHeader, AuthUser user, final String mediaType,
+			Object[] pathValues) {
+
+		final String path = request.expand(pathValues);
+		final Long userId = user != null ? user.getId() : null;
+		final String emarketsId = user != null ? user.getEmarketsId() : null;
+
+		String requestKey = (responseCache != null || requestCoalescer != null) ? HttpResponseCache.key(webResource.getURI().toString(),
+				path, params, combineHeaders(request.getHeaders(), xForwardedForHeader, userId, emarketsId), mediaType,
+				HEADER_X_FORWARDED_FOR) : null;
+
+		return getResponse(path, request.getTemplate(), params, cookies, mediaType, requestKey, new Callable<WebResource.Builder>() {
+			@Override
+			public WebResource.Builder call() {
+				return buildResourceBuilder(request, mediaType, path, params, cookies, xForwardedForHeader, userId, emarketsId);
+			}
+		});
+	}
+
+	public <T> T get(PreparedRequest request, MultivaluedMap<String, String> params, Map<String, Cookie> cookies,
+			Object xForwardedForHeader, AuthUser user, Class<T> valueType, Object... pathValues) throws JsonRestClientException {
+
+		return readEntity(getResponse(request, params, cookies, xForwardedForHeader, user, entityMediaType(request.getMediaType()),
+				pathValues), valueType);
+	}
+
+	/**
+	 * Streams the <code>data</code> resources of a JSON:API document one at a time instead of mapping the whole
+	 * document. Non-2xx responses are converted to a {@link WebApplicationException} like for plain JSON. Close the
+	 * iterator, or the stream it returns, when stopping before the end.
+	 */
+	public <T> JsonApiIterator<T> getJsonApi(String resource, MultivaluedMap<String, String> params, Map<String, Cookie> cookies,
+			Object xForwardedForHeader, AuthUser user, Class<T> valueType) {
+
+		return jsonApi(getResponse(resource == null ? "" : resource, params, cookies, xForwardedForHeader, user, APPLICATION_VND_API_JSON),
+				valueType);
+	}
+
+	public <T> JsonApiIterator<T> getJsonApi(PreparedRequest request, MultivaluedMap<String, String> params, Map<String, Cookie> cookies,
+			Object xForwardedForHeader, AuthUser user, Class<T> valueType, Object... pathValues) {
+
+		return jsonApi(getResponse(request, params, cookies, xForwardedForHeader, user, pathValues), valueType);
+	}
+
+	/**
+	 * Iterates a paged JSON:API listing across all of its pages, prefetching up to
+	 * {@value #DEFAULT_PREFETCH_PAGES} pages in the background. Close the cursor when stopping before the end.
+	 */
+	public <T> JsonApiCursor<T> paginate(String resource, MultivaluedMap<String, String> params, Map<String, Cookie> cookies,
+			Object xForwardedForHeader, AuthUser user, Class<T> valueType) {
+
+		return paginate(resource, params, cookies, xForwardedForHeader, user, valueType, DEFAULT_PREFETCH_PAGES);
+	}
+
+	public <T> JsonApiCursor<T> paginate(String resource, MultivaluedMap<String, String> params, Map<String, Cookie> cookies,
+			Object xForwardedForHeader, AuthUser user, Class<T> valueType, int maxPages) {
+
+		return new JsonApiCursor<T>(this, resource == null ? "" : resource, params, cookies, xForwardedForHeader, user, valueType, maxPages);
+	}
+
+	private <T> JsonApiIterator<T> jsonApi(ClientResponse response, Class<T> valueType) {
+		if (response.getStatus() < 200 || response.getStatus() >= 300) {
+			response.close();
+			throw new WebApplicationException(convertResponseStatus(response.getStatusInfo()));
 		}
+		return new JsonApiIterator<T>(response.getEntityInputStream(), reader(valueType), reader(JsonNode.class));
+	}
 
-		if (LOGGER.isDebugEnabled()) {
-			LOGGER.debug("HTTP code {} returned from {} with params {}", response.getStatus(), webResource.getURI() + resource, params);
+	/**
+	 * The GET pipeline shared by plain and prepared requests: cache lookup, coalescing, hedging and revalidation.
+	 * Callers that join a coalesced call wait for its response without making a call of their own, so they take no
+	 * permits and leave no samples. The request key is only needed when a cache or coalescer is set.
+	 */
+	private ClientResponse getResponse(final String resource, final String template, final MultivaluedMap<String, String> params,
+			final Map<String, Cookie> cookies, final String mediaType, final String requestKey, final Callable<WebResource.Builder> request) {
+
+		final String cacheKey = (responseCache != null && (cookies == null || cookies.isEmpty())) ? requestKey : null;
+		final HttpResponseCache.CachedResponse cached = (cacheKey != null) ? responseCache.get(cacheKey) : null;
+
+		if (cached != null && cached.isFresh()) {
+			return responseCache.hit(cached, messageBodyWorkers);
 		}
 
-		if (convertStatusCodes && !mediaType.equals(APPLICATION_VND_API_JSON)) {
-			Response.Status convertedResponseStatus = convertResponseStatus(response.getClientResponseStatus());
-		
-			if (convertedResponseStatus != Response.Status.OK) {
-				response.close();
-				throw new WebApplicationException(convertedResponseStatus);
+		final Callable<ClientResponse> upstream = upstream(HTTP_METHOD_GET, resource, template, new Callable<ClientResponse>() {
+			@Override
+			public ClientResponse call() throws Exception {
+				WebResource.Builder builder = request.call();
+				if (cached != null && cached.getEntityTag() != null) {
+					builder.header(HttpResponseCache.IF_NONE_MATCH, cached.getEntityTag());
+				}
+				return builder.get(ClientResponse.class);
 			}
-		}
+		});
+
+		return respond(HTTP_METHOD_GET, resource, params, mediaType, new Callable<ClientResponse>() {
+			@Override
+			public ClientResponse call() throws Exception {
+				ClientResponse response;
+				if (requestCoalescer != null) {
+					String key = cached != null ? cacheKey + "\n" + cached.getEntityTag() : requestKey;
+					response = requestCoalescer.execute(RequestCoalescer.key(key, cookies, encodedCredentials), upstream, messageBodyWorkers);
+				} else {
+					response = upstream.call();
+				}
 
-		return response;
+				if (cacheKey != null && response != null) {
+					response = responseCache.update(cacheKey, cached, response, messageBodyWorkers);
+				}
+				return response;
+			}
+		});
 	}
 	
-	private Map<String, String> combineHeaders(Map<String, String> headers,
+	/**
+	 * Returns a new map with the caller's headers and the per-user headers; the caller's map is left untouched.
+	 */
+	Map<String, String> combineHeaders(Map<String, String> headers,
 			Object xForwardedForHeader, Long userId, String emarketsId) {
-		if (headers == null) {
-			headers = new HashMap<String, String>();
-		}
+		Map<String, String> combined = headers != null ?
+				new HashMap<String, String>(headers) : new HashMap<String, String>();
 		
 		if (xForwardedForHeader != null) {
-			headers.put(HEADER_X_FORWARDED_FOR, xForwardedForHeader.toString());
+			combined.put(HEADER_X_FORWARDED_FOR, xForwardedForHeader.toString());
 		}
 		
 		if (userId != null) {			
-			headers.put(USER_ID, userId.toString());
+			combined.put(USER_ID, userId.toString());
 		}
 		
 		if (emarketsId != null) {			
-			headers.put(EMARKETS_ID, emarketsId);
+			combined.put(EMARKETS_ID, emarketsId);
 		}
 		
-		return headers;
+		return combined;
 	}
 
 	public ClientResponse delete(String resource, MultivaluedMap<String, String> params, Map<String, String> headers, UserAccount userAccount, String mediaType) {
@@ -266,39 +571,35 @@ public class JsonRestClient {
 		}
 	}
 
-	protected ClientResponse deleteResponse(String resource, MultivaluedMap<String, String> params,
-			Map<String, Cookie> cookies, Object xForwardedForHeader, Map<String, String> headers, Long userId, String emarketsId, String mediaType) {
+	protected ClientResponse deleteResponse(final String resource, final MultivaluedMap<String, String> params,
+			final Map<String, Cookie> cookies, final Object xForwardedForHeader, final Map<String, String> headers, final Long userId,
+			final String emarketsId, final String mediaType) {
 
-		ClientResponse response = null;
-		
-		try {
-			response = buildResourceBuilder(resource, params, cookies, combineHeaders(headers, xForwardedForHeader, userId, emarketsId), mediaType).delete(ClientResponse.class);
-		} catch (ClientHandlerException e) {
-			LOGGER.error(REQUEST_FAILED, HTTP_METHOD_DELETE, e);
-			throw new WebApplicationException(Response.Status.SERVICE_UNAVAILABLE);
-		} catch (Exception e) {
-			LOGGER.error(REQUEST_FAILED, HTTP_METHOD_DELETE, e);
-			throw new WebApplicationException(Response.Status.INTERNAL_SERVER_ERROR);
-		}
+		return respond(HTTP_METHOD_DELETE, resource, params, mediaType, upstream(HTTP_METHOD_DELETE, resource, null,
+				new Callable<ClientResponse>() {
+			@Override
+			public ClientResponse call() {
+				return buildResourceBuilder(resource, params, cookies, headers, xForwardedForHeader, userId, emarketsId, mediaType)
+						.delete(ClientResponse.class);
+			}
+		}));
+	}
 
-		if (response == null) {
-			throw new WebApplicationException(Response.Status.SERVICE_UNAVAILABLE);
-		}
+	public ClientResponse deleteResponse(final PreparedRequest request, final MultivaluedMap<String, String> params,
+			final Map<String, Cookie> cookies, final Object xForwardedForHeader, AuthUser user, Object... pathValues) {
 
-		if (LOGGER.isDebugEnabled()) {
-			LOGGER.debug("HTTP code {} returned from {} with params {}", response.getStatus(), webResource.getURI() + resource, params);
-		}
+		final String path = request.expand(pathValues);
+		final Long userId = user != null ? user.getId() : null;
+		final String emarketsId = user != null ? user.getEmarketsId() : null;
 
-		if (convertStatusCodes && !mediaType.equals(APPLICATION_VND_API_JSON)) {
-			Response.Status convertedResponseStatus = convertResponseStatus(response.getClientResponseStatus());
-		
-			if (convertedResponseStatus != Response.Status.OK) {
-				response.close();
-				throw new WebApplicationException(convertedResponseStatus);
+		return respond(HTTP_METHOD_DELETE, path, params, request.getMediaType(), upstream(HTTP_METHOD_DELETE, path, request.getTemplate(),
+				new Callable<ClientResponse>() {
+			@Override
+			public ClientResponse call() {
+				return buildResourceBuilder(request, request.getMediaType(), path, params, cookies, xForwardedForHeader, userId, emarketsId)
+						.delete(ClientResponse.class);
 			}
-		}
-
-		return response;
+		}));
 	}
 	
 	public ClientResponse post(String resource, MultivaluedMap<String, String> params, Map<String, String> headers,
@@ -334,6 +635,21 @@ public class JsonRestClient {
 		}
 	}
 
+	public <T> T post(String resource, MultivaluedMap<String, String> params,
+			Map<String, Cookie> cookies, Object xForwardedForHeader, AuthUser user, String mediaType, Object entity,
+			Class<T> valueType) throws JsonRestClientException {
+
+		if (resource == null) {
+			resource = "";
+		}
+
+		if (user != null) {
+			return readEntity(putPostResponse(resource, params, cookies, xForwardedForHeader, null, user.getId(), user.getEmarketsId(), mediaType, HTTP_METHOD_POST, entity), valueType);
+		} else {
+			return readEntity(putPostResponse(resource, params, cookies, xForwardedForHeader, null, null, null, mediaType, HTTP_METHOD_POST, entity), valueType);
+		}
+	}
+
 	public ClientResponse patch(String resource, MultivaluedMap<String, String> params, Map<String, String> headers,
 			UserAccount userAccount, String mediaType, Object entity) {
 		
@@ -376,6 +692,21 @@ public class JsonRestClient {
 		}
 	}
 	
+	public <T> T patch(String resource, MultivaluedMap<String, String> params,
+			Map<String, Cookie> cookies, Object xForwardedForHeader, AuthUser user, String mediaType, Object entity,
+			Class<T> valueType) throws JsonRestClientException {
+
+		if (resource == null) {
+			resource = "";
+		}
+
+		if (user != null) {
+			return readEntity(putPostResponse(resource, params, cookies, xForwardedForHeader, null, user.getId(), user.getEmarketsId(), mediaType, HTTP_METHOD_PATCH, entity), valueType);
+		} else {
+			return readEntity(putPostResponse(resource, params, cookies, xForwardedForHeader, null, null, null, mediaType, HTTP_METHOD_PATCH, entity), valueType);
+		}
+	}
+
 	public ClientResponse patchResponse(String resource, MultivaluedMap<String, String> params,
 			Map<String, Cookie> cookies, Object xForwardedForHeader, AuthUser user, String mediaType, Object entity) {
 
@@ -416,27 +747,372 @@ public class JsonRestClient {
 		}
 	}
 	
-	protected ClientResponse putPostResponse(String resource, MultivaluedMap<String, String> params,
-			Map<String, Cookie> cookies, Object xForwardedForHeader, Map<String, String> headers, Long userId, String emarketsId, String mediaType, String httpMethod, Object entity) {
+	public <T> T put(String resource, AuthUser user, String mediaType, Object entity, Class<T> valueType)
+			throws JsonRestClientException {
 
-		ClientResponse response = null;
+		if (resource == null) {
+			resource = "";
+		}
+
+		if (user != null) {
+			return readEntity(putPostResponse(resource, null, null, null, null, user.getId(), user.getEmarketsId(), mediaType, HTTP_METHOD_PUT, entity), valueType);
+		} else {
+			return readEntity(putPostResponse(resource, null, null, null, null, null, null, mediaType, HTTP_METHOD_PUT, entity), valueType);
+		}
+	}
+	
+	public CompletableFuture<ClientResponse> getAsync(final String resource, final MultivaluedMap<String, String> params,
+			final Map<String, String> headers, final UserAccount userAccount, final String mediaType) {
+		return async(new Callable<ClientResponse>() {
+			@Override
+			public ClientResponse call() {
+				return getResponse(resource, params, headers, userAccount, mediaType);
+			}
+		});
+	}
+
+	public <T> CompletableFuture<T> getAsync(final String resource, final MultivaluedMap<String, String> params,
+			final Map<String, Cookie> cookies, final Object xForwardedForHeader, final AuthUser user, final Class<T> valueType) {
+		return async(new Callable<T>() {
+			@Override
+			public T call() throws JsonRestClientException {
+				return get(resource, params, cookies, xForwardedForHeader, user, valueType);
+			}
+		});
+	}
+
+	public CompletableFuture<ClientResponse> postAsync(final String resource, final MultivaluedMap<String, String> params,
+			final Map<String, String> headers, final UserAccount userAccount, final String mediaType, final Object entity) {
+		return async(new Callable<ClientResponse>() {
+			@Override
+			public ClientResponse call() {
+				return post(resource, params, headers, userAccount, mediaType, entity);
+			}
+		});
+	}
+
+	public <T> CompletableFuture<T> postAsync(final String resource, final MultivaluedMap<String, String> params,
+			final Map<String, Cookie> cookies, final Object xForwardedForHeader, final AuthUser user, final String mediaType,
+			final Object entity, final Class<T> valueType) {
+		return async(new Callable<T>() {
+			@Override
+			public T call() throws JsonRestClientException {
+				return post(resource, params, cookies, xForwardedForHeader, user, mediaType, entity, valueType);
+			}
+		});
+	}
+
+	public CompletableFuture<ClientResponse> patchAsync(final String resource, final MultivaluedMap<String, String> params,
+			final Map<String, String> headers, final UserAccount userAccount, final String mediaType, final Object entity) {
+		return async(new Callable<ClientResponse>() {
+			@Override
+			public ClientResponse call() {
+				return patch(resource, params, headers, userAccount, mediaType, entity);
+			}
+		});
+	}
+
+	public <T> CompletableFuture<T> patchAsync(final String resource, final MultivaluedMap<String, String> params,
+			final Map<String, Cookie> cookies, final Object xForwardedForHeader, final AuthUser user, final String mediaType,
+			final Object entity, final Class<T> valueType) {
+		return async(new Callable<T>() {
+			@Override
+			public T call() throws JsonRestClientException {
+				return patch(resource, params, cookies, xForwardedForHeader, user, mediaType, entity, valueType);
+			}
+		});
+	}
+
+	public CompletableFuture<ClientResponse> putAsync(final String resource, final MultivaluedMap<String, String> params,
+			final Map<String, String> headers, final UserAccount userAccount, final String mediaType, final Object entity) {
+		return async(new Callable<ClientResponse>() {
+			@Override
+			public ClientResponse call() {
+				return put(resource, params, headers, userAccount, mediaType, entity);
+			}
+		});
+	}
+
+	public <T> CompletableFuture<T> putAsync(final String resource, final AuthUser user, final String mediaType,
+			final Object entity, final Class<T> valueType) {
+		return async(new Callable<T>() {
+			@Override
+			public T call() throws JsonRestClientException {
+				return put(resource, user, mediaType, entity, valueType);
+			}
+		});
+	}
+
+	public CompletableFuture<ClientResponse> deleteAsync(final String resource, final MultivaluedMap<String, String> params,
+			final Map<String, String> headers, final UserAccount userAccount, final String mediaType) {
+		return async(new Callable<ClientResponse>() {
+			@Override
+			public ClientResponse call() {
+				return delete(resource, params, headers, userAccount, mediaType);
+			}
+		});
+	}
+
+	public <T> List<BatchResult<T>> getAll(List<String> resources, MultivaluedMap<String, String> params,
+			Map<String, Cookie> cookies, Object xForwardedForHeader, AuthUser user, Class<T> valueType) {
+		return getAll(resources, params, cookies, xForwardedForHeader, user, valueType, batchConcurrency, batchTimeoutMillis,
+				TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Fetches all resources in parallel, with at most maxConcurrency calls in flight, and waits at most the given
+	 * timeout, or until the caller's {@link Deadline}, for the whole batch. Results are returned in the order of the
+	 * resources; items that failed or did not finish before the deadline are reported as failures instead of failing
+	 * the batch.
+	 * <p>
+	 * Each finished item launches the next. Items can finish on the launching thread itself, when the executor
+	 * rejects them, so launches are queued and run in a loop by whichever thread gets to them first instead of
+	 * nesting one call deeper per item.
+	 */
+	public <T> List<BatchResult<T>> getAll(final List<String> resources, final MultivaluedMap<String, String> params,
+			final Map<String, Cookie> cookies, final Object xForwardedForHeader, final AuthUser user, final Class<T> valueType,
+			int maxConcurrency, long timeout, TimeUnit unit) {
+
+		final int size = resources.size();
+		final List<CompletableFuture<T>> results = new ArrayList<CompletableFuture<T>>(size);
+		for (int i = 0; i < size; i++) {
+			results.add(new CompletableFuture<T>());
+		}
+
+		final AtomicInteger next = new AtomicInteger();
+		final AtomicInteger launches = new AtomicInteger();
+		final AtomicBoolean expired = new AtomicBoolean();
+		Runnable launcher = new Runnable() {
+			@Override
+			public void run() {
+				if (launches.getAndIncrement() > 0) {
+					// the thread already launching takes this one too
+					return;
+				}
+				do {
+					launchOne();
+				} while (launches.decrementAndGet() > 0);
+			}
+
+			private void launchOne() {
+				final int index = next.getAndIncrement();
+				if (index >= size) {
+					return;
+				}
+				if (expired.get()) {
+					results.get(index).completeExceptionally(new TimeoutException("Batch deadline exceeded"));
+					return;
+				}
+				final Runnable launchNext = this;
+				getAsync(resources.get(index), params, cookies, xForwardedForHeader, user, valueType).whenComplete(new BiConsumer<T, Throwable>() {
+					@Override
+					public void accept(T value, Throwable t) {
+						if (t != null) {
+							results.get(index).completeExceptionally(unwrap(t));
+						} else {
+							results.get(index).complete(value);
+						}
+						launchNext.run();
+					}
+				});
+			}
+		};
+
+		for (int i = 0; i < Math.min(Math.max(maxConcurrency, 1), size); i++) {
+			launcher.run();
+		}
+
+		long timeoutNanos = unit.toNanos(timeout);
+		Deadline requestDeadline = Deadline.current();
+		if (requestDeadline != null) {
+			timeoutNanos = Math.min(timeoutNanos, requestDeadline.remaining(TimeUnit.NANOSECONDS));
+		}
+		long deadline = System.nanoTime() + timeoutNanos;
+		List<BatchResult<T>> batch = new ArrayList<BatchResult<T>>(size);
+		for (int i = 0; i < size; i++) {
+			String resource = resources.get(i);
+			try {
+				batch.add(BatchResult.success(resource, results.get(i).get(Math.max(deadline - System.nanoTime(), 0), TimeUnit.NANOSECONDS)));
+			} catch (TimeoutException e) {
+				expired.set(true);
+				batch.add(BatchResult.<T>failure(resource, e));
+			} catch (ExecutionException e) {
+				batch.add(BatchResult.<T>failure(resource, e.getCause()));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				expired.set(true);
+				batch.add(BatchResult.<T>failure(resource, e));
+			}
+		}
+
+		return batch;
+	}
+
+	/**
+	 * Runs a blocking call on the async executor, under the caller's {@link Deadline}. Failures, including the
+	 * {@link WebApplicationException}s raised by the status conversion, complete the returned future exceptionally;
+	 * a call that only gets a thread after the deadline has passed fails with 503 without being made.
+	 */
+	protected <T> CompletableFuture<T> async(final Callable<T> call) {
+		final CompletableFuture<T> future = new CompletableFuture<T>();
+		final Deadline deadline = Deadline.current();
 
 		try {
-			WebResource.Builder builder = buildResourceBuilder(resource, params, cookies, combineHeaders(headers, xForwardedForHeader, userId, emarketsId), mediaType);
-			if (entity != null) {
-				builder = builder.entity(entity, mediaType);
-			}
-			if (httpMethod.equals(HTTP_METHOD_PUT)) {
-				response = builder.put(ClientResponse.class);
-			} else if (httpMethod.equals(HTTP_METHOD_POST) || httpMethod.equals(HTTP_METHOD_PATCH)) {
-				if (httpMethod.equals(HTTP_METHOD_PATCH)) {
-					builder.header("X-HTTP-Method-Override", "PATCH");	
+			getExecutor().execute(new Runnable() {
+				@Override
+				public void run() {
+					if (future.isDone()) {
+						return;
+					}
+					if (deadline != null && deadline.isExpired()) {
+						future.completeExceptionally(new WebApplicationException(Response.Status.SERVICE_UNAVAILABLE));
+						return;
+					}
+					Deadline previous = Deadline.set(deadline);
+					try {
+						future.complete(call.call());
+					} catch (Throwable t) {
+						future.completeExceptionally(t);
+					} finally {
+						Deadline.set(previous);
+					}
 				}
-				response = builder.post(ClientResponse.class);
-			} else {
-				throw new WebApplicationException(Response.Status.INTERNAL_SERVER_ERROR);
+			});
+		} catch (RejectedExecutionException e) {
+			LOGGER.warn("Async request rejected", e);
+			future.completeExceptionally(new WebApplicationException(Response.Status.SERVICE_UNAVAILABLE));
+		}
+
+		return future;
+	}
+
+	private Executor getExecutor() {
+		return executor != null ? executor : DefaultExecutorHolder.EXECUTOR;
+	}
+
+	/**
+	 * Unwraps the {@link CompletionException} a dependent stage of an async call fails with.
+	 */
+	public static Throwable unwrap(Throwable t) {
+		return (t instanceof CompletionException && t.getCause() != null) ? t.getCause() : t;
+	}
+
+	protected ClientResponse putPostResponse(final String resource, final MultivaluedMap<String, String> params,
+			final Map<String, Cookie> cookies, final Object xForwardedForHeader, final Map<String, String> headers, final Long userId,
+			final String emarketsId, final String mediaType, final String httpMethod, final Object entity) {
+
+		return putPostResponse(resource, null, params, mediaType, httpMethod, entity, new Callable<WebResource.Builder>() {
+			@Override
+			public WebResource.Builder call() {
+				return buildResourceBuilder(resource, params, cookies, headers, xForwardedForHeader, userId, emarketsId, mediaType);
+			}
+		});
+	}
+
+	protected ClientResponse putPostResponse(final PreparedRequest request, final MultivaluedMap<String, String> params,
+			final Map<String, Cookie> cookies, final Object xForwardedForHeader, AuthUser user, final String httpMethod,
+			final Object entity, Object[] pathValues) {
+
+		final String path = request.expand(pathValues);
+		final Long userId = user != null ? user.getId() : null;
+		final String emarketsId = user != null ? user.getEmarketsId() : null;
+
+		return putPostResponse(path, request.getTemplate(), params, request.getMediaType(), httpMethod, entity,
+				new Callable<WebResource.Builder>() {
+			@Override
+			public WebResource.Builder call() {
+				return buildResourceBuilder(request, request.getMediaType(), path, params, cookies, xForwardedForHeader, userId, emarketsId);
 			}
+		});
+	}
+
+	public <T> T post(PreparedRequest request, MultivaluedMap<String, String> params, Map<String, Cookie> cookies,
+			Object xForwardedForHeader, AuthUser user, Object entity, Class<T> valueType, Object... pathValues)
+			throws JsonRestClientException {
 
+		return readEntity(putPostResponse(request, params, cookies, xForwardedForHeader, user, HTTP_METHOD_POST, entity, pathValues), valueType);
+	}
+
+	public <T> T patch(PreparedRequest request, MultivaluedMap<String, String> params, Map<String, Cookie> cookies,
+			Object xForwardedForHeader, AuthUser user, Object entity, Class<T> valueType, Object... pathValues)
+			throws JsonRestClientException {
+
+		return readEntity(putPostResponse(request, params, cookies, xForwardedForHeader, user, HTTP_METHOD_PATCH, entity, pathValues), valueType);
+	}
+
+	public <T> T put(PreparedRequest request, AuthUser user, Object entity, Class<T> valueType, Object... pathValues)
+			throws JsonRestClientException {
+
+		return readEntity(putPostResponse(request, null, null, null, user, HTTP_METHOD_PUT, entity, pathValues), valueType);
+	}
+
+	private ClientResponse putPostResponse(String resource, String template, MultivaluedMap<String, String> params, final String mediaType,
+			final String httpMethod, final Object entity, final Callable<WebResource.Builder> request) {
+
+		return respond(httpMethod, resource, params, mediaType, upstream(httpMethod, resource, template, new Callable<ClientResponse>() {
+			@Override
+			public ClientResponse call() throws Exception {
+				WebResource.Builder builder = request.call();
+				if (entity != null) {
+					builder = builder.entity(entity, mediaType);
+				}
+				if (httpMethod.equals(HTTP_METHOD_PUT)) {
+					return builder.put(ClientResponse.class);
+				} else if (httpMethod.equals(HTTP_METHOD_POST) || httpMethod.equals(HTTP_METHOD_PATCH)) {
+					if (httpMethod.equals(HTTP_METHOD_PATCH)) {
+						builder.header("X-HTTP-Method-Override", "PATCH");	
+					}
+					return builder.post(ClientResponse.class);
+				} else {
+					throw new WebApplicationException(Response.Status.INTERNAL_SERVER_ERROR);
+				}
+			}
+		}));
+	}
+
+	/**
+	 * Turns a single upstream attempt into the call to the upstream: each attempt goes through {@link #execute} on its
+	 * own, and they are hedged and retried by the policy when one is set and the verb is idempotent.
+	 */
+	private Callable<ClientResponse> upstream(final String httpMethod, final String resource, final String template,
+			final Callable<ClientResponse> attempt) {
+		final Callable<ClientResponse> guarded = new Callable<ClientResponse>() {
+			@Override
+			public ClientResponse call() throws Exception {
+				return execute(httpMethod, resource, template, attempt);
+			}
+		};
+
+		if (idempotentRequestPolicy == null || !idempotentRequestPolicy.appliesTo(httpMethod)) {
+			return guarded;
+		}
+
+		return new Callable<ClientResponse>() {
+			@Override
+			public ClientResponse call() throws Exception {
+				return idempotentRequestPolicy.call(Deadline.propagate(guarded));
+			}
+		};
+	}
+
+	/**
+	 * Answers a call for the caller: fails it with 503 once the request's {@link Deadline} has passed, maps
+	 * transport failures to 503/500 and converts the upstream status code.
+	 */
+	private ClientResponse respond(String httpMethod, String resource, MultivaluedMap<String, String> params,
+			String mediaType, Callable<ClientResponse> call) {
+
+		Deadline deadline = Deadline.current();
+		if (deadline != null && deadline.isExpired()) {
+			LOGGER.debug("{} {} abandoned, deadline exceeded", httpMethod, resource);
+			throw new WebApplicationException(Response.Status.SERVICE_UNAVAILABLE);
+		}
+
+		ClientResponse response;
+		try {
+			response = call.call();
+		} catch (WebApplicationException e) {
+			throw e;
 		} catch (ClientHandlerException e) {
 			LOGGER.error(REQUEST_FAILED, httpMethod, e);
 			throw new WebApplicationException(Response.Status.SERVICE_UNAVAILABLE);
@@ -454,7 +1130,7 @@ public class JsonRestClient {
 		}
 
 		if (convertStatusCodes && !mediaType.equals(APPLICATION_VND_API_JSON)) {
-			Response.Status convertedResponseStatus = convertResponseStatus(response.getClientResponseStatus());
+			Response.Status convertedResponseStatus = convertResponseStatus(response.getStatusInfo());
 		
 			if (convertedResponseStatus != Response.Status.OK) {
 				response.close();
@@ -464,8 +1140,76 @@ public class JsonRestClient {
 
 		return response;
 	}
+
+	/**
+	 * Makes a call to the upstream under the bulkhead, concurrency limit and circuit breaker, which each see its
+	 * outcome, and records it in the client metrics under the template of a prepared request, or else the resource.
+	 * Calls they reject fail with 503 without being made. A hedged attempt that was aborted because the other one
+	 * answered first, and a call failed by the caller's {@link Deadline} ({@link DeadlineExceededException}), are not
+	 * counted as failures.
+	 */
+	protected ClientResponse execute(String httpMethod, String resource, String template, Callable<ClientResponse> call)
+			throws Exception {
+		if (bulkhead != null && !bulkhead.tryAcquire()) {
+			LOGGER.debug("{} {} rejected by bulkhead", httpMethod, resource);
+			throw new WebApplicationException(Response.Status.SERVICE_UNAVAILABLE);
+		}
+
+		try {
+			if (concurrencyLimiter != null && !concurrencyLimiter.tryAcquire()) {
+				LOGGER.debug("{} {} rejected by concurrency limit", httpMethod, resource);
+				throw new WebApplicationException(Response.Status.SERVICE_UNAVAILABLE);
+			}
+
+			if (circuitBreaker != null && !circuitBreaker.tryAcquirePermission()) {
+				if (concurrencyLimiter != null) {
+					concurrencyLimiter.release();
+				}
+				LOGGER.debug("{} {} rejected by open circuit breaker", httpMethod, resource);
+				throw new WebApplicationException(Response.Status.SERVICE_UNAVAILABLE);
+			}
+
+			ClientResponse response = null;
+			long start = System.nanoTime();
+			boolean failed = true;
+			boolean exceeded = false;
+			try {
+				response = call.call();
+				failed = response == null || response.getStatus() >= HTTP_STATUS_INTERNAL_SERVER_ERROR;
+				return response;
+			} catch (DeadlineExceededException e) {
+				exceeded = true;
+				throw e;
+			} finally {
+				long duration = System.nanoTime() - start;
+				boolean aborted = exceeded || failed && Attempt.isAborted();
+				if (aborted) {
+					if (concurrencyLimiter != null) {
+						concurrencyLimiter.release();
+					}
+					if (circuitBreaker != null) {
+						circuitBreaker.release();
+					}
+				} else {
+					if (concurrencyLimiter != null) {
+						concurrencyLimiter.onResult(duration, failed);
+					}
+					if (circuitBreaker != null) {
+						circuitBreaker.onResult(duration, failed);
+					}
+				}
+				if (clientMetrics != null && !aborted) {
+					clientMetrics.recordCall(httpMethod, template != null ? template : resource, response != null ? response.getStatus() : 0, duration);
+				}
+			}
+		} finally {
+			if (bulkhead != null) {
+				bulkhead.release();
+			}
+		}
+	}
 	
-	private Response.Status convertResponseStatus(Status status) {
+	Response.Status convertResponseStatus(Response.StatusType status) {
 		Response.Status convertedStatus = Response.Status.OK;
 		switch (status.getFamily()) {
 		case INFORMATIONAL: // 1xx
@@ -499,21 +1243,30 @@ public class JsonRestClient {
 	protected WebResource.Builder buildResourceBuilder(String resource, MultivaluedMap<String, String> params,
 			Map<String, Cookie> cookies, Map<String, String> headers, String mediaType) {
 
+		return buildResourceBuilder(resource, params, cookies, headers, null, null, null, mediaType);
+	}
+
+	/**
+	 * Builds the request with the caller's headers and the per-user headers written straight into the builder;
+	 * a per-user value replaces a caller header of the same name.
+	 */
+	private WebResource.Builder buildResourceBuilder(String resource, MultivaluedMap<String, String> params,
+			Map<String, Cookie> cookies, Map<String, String> headers, Object xForwardedForHeader, Long userId, String emarketsId,
+			String mediaType) {
+
 		/* XXX: We may need to remove userId and emarketsId from params. <thb> */
 		
 		WebResource.Builder builder =
 				(params != null && !params.isEmpty()) ? webResource.path(resource).queryParams(params)
 						.getRequestBuilder() : webResource.path(resource).getRequestBuilder();
 
-		if (cookies != null) {
-			for (Cookie cookie : cookies.values()) {
-				builder.cookie(cookie);
-			}
-		}
+		ForwardedCookies.addTo(builder, cookies);
 		
 		if (headers != null) {
 			for (Entry<String, String> entry : headers.entrySet()) {
-				builder.header(entry.getKey(), entry.getValue());
+				if (!isBound(entry.getKey(), xForwardedForHeader, userId, emarketsId)) {
+					builder.header(entry.getKey(), entry.getValue());
+				}
 			}
 		}
 		
@@ -525,9 +1278,42 @@ public class JsonRestClient {
 			builder = builder.accept(mediaType);
 		}
 
+		return bind(builder, xForwardedForHeader, userId, emarketsId);
+	}
+
+	private WebResource.Builder buildResourceBuilder(PreparedRequest request, String mediaType, String path,
+			MultivaluedMap<String, String> params, Map<String, Cookie> cookies, Object xForwardedForHeader, Long userId, String emarketsId) {
+
+		WebResource.Builder builder = request.builder(client, path, params, cookies, mediaType);
+
+		for (int i = 0; i < request.getHeaderCount(); i++) {
+			if (!isBound(request.getHeaderName(i), xForwardedForHeader, userId, emarketsId)) {
+				builder.header(request.getHeaderName(i), request.getHeaderValue(i));
+			}
+		}
+
+		return bind(builder, xForwardedForHeader, userId, emarketsId);
+	}
+
+	private static WebResource.Builder bind(WebResource.Builder builder, Object xForwardedForHeader, Long userId, String emarketsId) {
+		if (xForwardedForHeader != null) {
+			builder.header(HEADER_X_FORWARDED_FOR, xForwardedForHeader.toString());
+		}
+		if (userId != null) {
+			builder.header(USER_ID, userId.toString());
+		}
+		if (emarketsId != null) {
+			builder.header(EMARKETS_ID, emarketsId);
+		}
 		return builder;
 	}
 
+	private static boolean isBound(String header, Object xForwardedForHeader, Long userId, String emarketsId) {
+		return (xForwardedForHeader != null && header.equals(HEADER_X_FORWARDED_FOR))
+				|| (userId != null && header.equals(USER_ID))
+				|| (emarketsId != null && header.equals(EMARKETS_ID));
+	}
+
 	@SuppressWarnings("unchecked")
 	public Map<String, Object> getMap(String resource, MultivaluedMap<String, String> params,
 			Map<String, Cookie> cookies, Object xForwardedForHeader) throws JsonRestClientException {
@@ -542,7 +1328,7 @@ public class JsonRestClient {
 	
 	public static <T> T map(String json, Class<T> valueType) throws JsonRestClientException {
 		try {
-			return mapper.readValue(json, valueType);
+			return reader(valueType).readValue(json);
 		} catch (JsonParseException e) {
 			throw new JsonRestClientException("Unable to parse JSON", e);
 		} catch (JsonMappingException e) {
@@ -551,4 +1337,92 @@ public class JsonRestClient {
 			throw new JsonRestClientException("Unable retrive JSON", e);
 		}		
 	}
+
+	public static <T> T map(InputStream json, Class<T> valueType) throws JsonRestClientException {
+		return map(json, valueType, null);
+	}
+
+	/**
+	 * Maps a body in the given format: Smile or CBOR when the media type says so, JSON otherwise.
+	 */
+	public static <T> T map(InputStream body, Class<T> valueType, MediaType mediaType) throws JsonRestClientException {
+		try {
+			return reader(valueType, mediaType).readValue(body);
+		} catch (JsonParseException e) {
+			throw new JsonRestClientException("Unable to parse JSON", e);
+		} catch (JsonMappingException e) {
+			throw new JsonRestClientException("Unable to map JSON to "  + valueType.getCanonicalName(), e);
+		} catch (IOException e) {
+			throw new JsonRestClientException("Unable retrive JSON", e);
+		}
+	}
+
+	/**
+	 * Maps the response entity directly from the underlying stream instead of buffering it as a String first,
+	 * decoding Smile and CBOR by the response's Content-Type. The response is always closed, also when mapping fails.
+	 */
+	protected <T> T readEntity(ClientResponse response, Class<T> valueType) throws JsonRestClientException {
+		try {
+			if (!response.hasEntity()) {
+				return null;
+			}
+			if (clientMetrics == null) {
+				return map(response.getEntityInputStream(), valueType, response.getType());
+			}
+
+			TimedInputStream in = new TimedInputStream(response.getEntityInputStream());
+			long start = System.nanoTime();
+			T value = map(in, valueType, response.getType());
+			clientMetrics.recordBody(in.getReadNanos(), System.nanoTime() - start - in.getReadNanos());
+			return value;
+		} finally {
+			response.close();
+		}
+	}
+
+	static ObjectReader reader(Class<?> valueType) {
+		return reader(readers, mapper, valueType);
+	}
+
+	static ObjectReader reader(Class<?> valueType, MediaType mediaType) {
+		if (mediaType != null && SMILE_TYPE.isCompatible(mediaType)) {
+			return reader(smileReaders, smileMapper, valueType);
+		}
+		if (mediaType != null && CBOR_TYPE.isCompatible(mediaType)) {
+			return reader(cborReaders, cborMapper, valueType);
+		}
+		return reader(readers, mapper, valueType);
+	}
+
+	private static ObjectReader reader(ConcurrentMap<Class<?>, ObjectReader> readers, ObjectMapper mapper, Class<?> valueType) {
+		ObjectReader reader = readers.get(valueType);
+		if (reader == null) {
+			reader = mapper.readerFor(valueType);
+			ObjectReader existing = readers.putIfAbsent(valueType, reader);
+			if (existing != null) {
+				reader = existing;
+			}
+		}
+		return reader;
+	}
+
+	private static final class DefaultExecutorHolder {
+		private static final Executor EXECUTOR = createDefaultExecutor();
+
+		private static Executor createDefaultExecutor() {
+			ThreadPoolExecutor executor = new ThreadPoolExecutor(DEFAULT_ASYNC_THREADS, DEFAULT_ASYNC_THREADS, 60L,
+					TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(DEFAULT_ASYNC_QUEUE), new ThreadFactory() {
+						private final AtomicInteger count = new AtomicInteger();
+
+						@Override
+						public Thread newThread(Runnable r) {
+							Thread thread = new Thread(r, "json-rest-client-async-" + count.incrementAndGet());
+							thread.setDaemon(true);
+							return thread;
+						}
+					});
+			executor.allowCoreThreadTimeOut(true);
+			return executor;
+		}
+	}
 }
@@ -0,0 +1,342 @@
+package com.alfred.ishopper.client;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.sun.jersey.api.client.ClientHandlerException;
+import com.sun.jersey.api.client.ClientRequest;
+import com.sun.jersey.api.client.ClientResponse;
+import com.sun.jersey.api.client.filter.ClientFilter;
+
+/**
+ * Spreads the calls of one upstream over the instances listed in its <code>endpoints</code>. Requests are built
+ * against the client's base URI as usual; this filter picks an endpoint for each attempt, so hedges and retries can
+ * land on another instance, and rewrites the request to it. Requests to any other URI pass through untouched.
+ * <p>
+ * Calls are picked from a snapshot of the healthy endpoints without taking a lock. An endpoint that fails <code>consecutiveFailures</code> calls in
+ * a row (transport errors and 5xx) is ejected for <code>ejectionTime</code>; the first call after that is its probe,
+ * which either brings it back or ejects it for longer. Aborted hedges and calls failed by the caller's deadline count
+ * neither way. Per endpoint it registers
+ * <pre>
+ * LoadBalancer.{name}.{endpoint}.latency       time until the response headers arrived
+ * LoadBalancer.{name}.{endpoint}.outstanding   calls in flight
+ * LoadBalancer.{name}.{endpoint}.state         HEALTHY, EJECTED or PROBING
+ * LoadBalancer.{name}.{endpoint}.ejections / probes
+ * LoadBalancer.{name}.panic                    calls made while every endpoint was ejected
+ * </pre>
+ */
+public class LoadBalancer extends ClientFilter {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(LoadBalancer.class);
+
+	private static final int HEALTHY = 0;
+	private static final int EJECTED = 1;
+	private static final int PROBING = 2;
+	private static final String[] STATES = { "HEALTHY", "EJECTED", "PROBING" };
+
+	private static final int HTTP_STATUS_INTERNAL_SERVER_ERROR = 500;
+
+	private final String name;
+	private final String base;
+	private final Endpoint[] endpoints;
+	private final String policy;
+	private final int consecutiveFailures;
+	private final long ejectionNanos;
+	private final long maxEjectionNanos;
+	private final int maxEjected;
+	private final double decayNanos;
+
+	private final AtomicInteger next = new AtomicInteger();
+	private volatile Membership membership;
+	private final Meter panic = new Meter();
+
+	public LoadBalancer(ClientConfiguration config, MetricRegistry metrics, String name) {
+		List<String> uris = config.getEndpoints();
+		if (uris.isEmpty()) {
+			throw new IllegalArgumentException("No endpoints configured for " + name);
+		}
+		LoadBalancerConfiguration balancing = config.getLoadBalancer();
+		this.policy = balancing.getPolicy();
+		if (!LoadBalancerConfiguration.ROUND_ROBIN.equals(policy) && !LoadBalancerConfiguration.LEAST_OUTSTANDING.equals(policy)
+				&& !LoadBalancerConfiguration.EWMA.equals(policy)) {
+			throw new IllegalArgumentException("Unknown load balancing policy " + policy);
+		}
+
+		this.name = name;
+		this.base = trimSlash(config.getUri());
+		this.consecutiveFailures = balancing.getConsecutiveFailures();
+		this.ejectionNanos = balancing.getEjectionTime().toNanoseconds();
+		this.maxEjectionNanos = balancing.getMaxEjectionTime().toNanoseconds();
+		this.maxEjected = uris.size() * balancing.getMaxEjectionPercent() / 100;
+		this.decayNanos = balancing.getDecayTime().toNanoseconds();
+
+		this.endpoints = new Endpoint[uris.size()];
+		for (int i = 0; i < endpoints.length; i++) {
+			endpoints[i] = new Endpoint(trimSlash(uris.get(i)));
+		}
+		this.membership = new Membership(endpoints.clone(), new Endpoint[0]);
+
+		if (metrics != null) {
+			metrics.register(MetricRegistry.name(LoadBalancer.class, name, "panic"), panic);
+			for (Endpoint endpoint : endpoints) {
+				endpoint.register(metrics);
+			}
+		}
+	}
+
+	private static String trimSlash(String uri) {
+		return uri.endsWith("/") ? uri.substring(0, uri.length() - 1) : uri;
+	}
+
+	@Override
+	public ClientResponse handle(ClientRequest request) throws ClientHandlerException {
+		String uri = request.getURI().toString();
+		if (!startsWith(uri, base)) {
+			return getNext().handle(request);
+		}
+
+		Endpoint endpoint = choose();
+		long start = System.nanoTime();
+		boolean failed = true;
+		boolean exceeded = false;
+		try {
+			request.setURI(URI.create(endpoint.uri + uri.substring(base.length())));
+			ClientResponse response = getNext().handle(request);
+			failed = response.getStatus() >= HTTP_STATUS_INTERNAL_SERVER_ERROR;
+			return response;
+		} catch (DeadlineExceededException e) {
+			exceeded = true;
+			throw e;
+		} finally {
+			if (exceeded || failed && Attempt.isAborted()) {
+				endpoint.abandon();
+			} else {
+				endpoint.release(System.nanoTime() - start, failed);
+			}
+		}
+	}
+
+	/**
+	 * Whether the URI is the prefix itself or continues it with a path or query, so a base of host:80 does not
+	 * match host:8080.
+	 */
+	static boolean startsWith(String uri, String prefix) {
+		if (!uri.startsWith(prefix)) {
+			return false;
+		}
+		if (uri.length() == prefix.length()) {
+			return true;
+		}
+		char c = uri.charAt(prefix.length());
+		return c == '/' || c == '?';
+	}
+
+	/**
+	 * Picks the endpoint for a call and counts the call as outstanding on it. An ejected endpoint whose time is up
+	 * takes the call as its probe; otherwise the policy chooses among the healthy ones.
+	 */
+	Endpoint choose() {
+		long now = System.nanoTime();
+		Membership current = membership;
+		Endpoint chosen = null;
+		for (int i = 0; i < current.ejected.length && chosen == null; i++) {
+			chosen = current.ejected[i].tryProbe(now) ? current.ejected[i] : null;
+		}
+		if (chosen == null) {
+			chosen = pick(current.healthy, now);
+		}
+		chosen.outstanding.incrementAndGet();
+		return chosen;
+	}
+
+	private Endpoint pick(Endpoint[] healthy, long now) {
+		if (healthy.length == 0) {
+			panic.mark();
+			return endpoints[(next.getAndIncrement() & Integer.MAX_VALUE) % endpoints.length];
+		}
+		if (healthy.length == 1) {
+			return healthy[0];
+		}
+		if (LoadBalancerConfiguration.ROUND_ROBIN.equals(policy)) {
+			return healthy[(next.getAndIncrement() & Integer.MAX_VALUE) % healthy.length];
+		}
+		return twoChoices(healthy, now);
+	}
+
+	/**
+	 * Power of two choices: the less loaded of two distinct random endpoints.
+	 */
+	private Endpoint twoChoices(Endpoint[] healthy, long now) {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		int a = random.nextInt(healthy.length);
+		int b = random.nextInt(healthy.length - 1);
+		if (b >= a) {
+			b++;
+		}
+		return healthy[a].load(now) <= healthy[b].load(now) ? healthy[a] : healthy[b];
+	}
+
+	private synchronized boolean tryEject(Endpoint endpoint) {
+		return membership.ejected.length < maxEjected && endpoint.eject(HEALTHY);
+	}
+
+	/**
+	 * Rebuilds the healthy and ejected lists after an endpoint changed state. Only state changes take the lock;
+	 * calls read the current lists without it.
+	 */
+	private synchronized void refresh() {
+		List<Endpoint> healthy = new ArrayList<Endpoint>(endpoints.length);
+		List<Endpoint> ejected = new ArrayList<Endpoint>();
+		for (Endpoint endpoint : endpoints) {
+			(endpoint.state.get() == HEALTHY ? healthy : ejected).add(endpoint);
+		}
+		membership = new Membership(healthy.toArray(new Endpoint[healthy.size()]), ejected.toArray(new Endpoint[ejected.size()]));
+	}
+
+	private static final class Membership {
+		private final Endpoint[] healthy;
+		private final Endpoint[] ejected;
+
+		Membership(Endpoint[] healthy, Endpoint[] ejected) {
+			this.healthy = healthy;
+			this.ejected = ejected;
+		}
+	}
+
+	final class Endpoint {
+		private final String uri;
+		private final AtomicInteger state = new AtomicInteger(HEALTHY);
+		private final AtomicInteger outstanding = new AtomicInteger();
+		private final AtomicInteger failures = new AtomicInteger();
+		private final AtomicInteger ejections = new AtomicInteger();
+		private volatile long ejectedUntil;
+
+		private final AtomicLong ewmaBits = new AtomicLong(Double.doubleToLongBits(0));
+		private volatile long ewmaUpdatedAt = System.nanoTime();
+
+		private final Timer latency = new Timer();
+		private final Meter ejected = new Meter();
+		private final Meter probes = new Meter();
+
+		Endpoint(String uri) {
+			this.uri = uri;
+		}
+
+		private void register(MetricRegistry metrics) {
+			String endpoint = URI.create(uri).getAuthority().replace('.', '_').replace(':', '-');
+			metrics.register(MetricRegistry.name(LoadBalancer.class, name, endpoint, "latency"), latency);
+			metrics.register(MetricRegistry.name(LoadBalancer.class, name, endpoint, "ejections"), ejected);
+			metrics.register(MetricRegistry.name(LoadBalancer.class, name, endpoint, "probes"), probes);
+			metrics.register(MetricRegistry.name(LoadBalancer.class, name, endpoint, "outstanding"), new Gauge<Integer>() {
+				@Override
+				public Integer getValue() {
+					return outstanding.get();
+				}
+			});
+			metrics.register(MetricRegistry.name(LoadBalancer.class, name, endpoint, "state"), new Gauge<String>() {
+				@Override
+				public String getValue() {
+					return STATES[state.get()];
+				}
+			});
+		}
+
+		/**
+		 * Turns an ejected endpoint whose time is up into a probe; only one caller succeeds.
+		 */
+		private boolean tryProbe(long now) {
+			if (state.get() != EJECTED || now - ejectedUntil < 0 || !state.compareAndSet(EJECTED, PROBING)) {
+				return false;
+			}
+			probes.mark();
+			LOGGER.info("Probing endpoint {} of {}", uri, name);
+			return true;
+		}
+
+		/**
+		 * Outstanding calls, weighted by the peak EWMA latency in ewma mode.
+		 */
+		private double load(long now) {
+			int calls = outstanding.get() + 1;
+			return LoadBalancerConfiguration.EWMA.equals(policy) ? (ewma(now) + 1) * calls : calls;
+		}
+
+		/**
+		 * The latency average decayed to now; latencies above the average replace it right away.
+		 */
+		private double ewma(long now) {
+			return Double.longBitsToDouble(ewmaBits.get()) * Math.exp(-Math.max(now - ewmaUpdatedAt, 0) / decayNanos);
+		}
+
+		private void observe(long nanos, long now) {
+			for (;;) {
+				long bits = ewmaBits.get();
+				double average = Double.longBitsToDouble(bits);
+				double weight = Math.exp(-Math.max(now - ewmaUpdatedAt, 0) / decayNanos);
+				double updated = nanos > average ? nanos : average * weight + nanos * (1 - weight);
+				if (ewmaBits.compareAndSet(bits, Double.doubleToLongBits(updated))) {
+					ewmaUpdatedAt = now;
+					return;
+				}
+			}
+		}
+
+		void release(long nanos, boolean failed) {
+			outstanding.decrementAndGet();
+			latency.update(nanos, TimeUnit.NANOSECONDS);
+			observe(nanos, System.nanoTime());
+
+			if (!failed) {
+				failures.set(0);
+				if (state.get() == PROBING && state.compareAndSet(PROBING, HEALTHY)) {
+					ejections.set(0);
+					refresh();
+					LOGGER.warn("Endpoint {} of {} is back", uri, name);
+				}
+			} else if (state.get() == PROBING) {
+				eject(PROBING);
+			} else if (failures.incrementAndGet() >= consecutiveFailures && state.get() == HEALTHY) {
+				tryEject(this);
+			}
+		}
+
+		/**
+		 * Ends a call whose failure says nothing about the endpoint, such as an aborted hedge. A probe ends without a
+		 * verdict and the next call probes again.
+		 */
+		void abandon() {
+			outstanding.decrementAndGet();
+			state.compareAndSet(PROBING, EJECTED);
+		}
+
+		/**
+		 * Ejects the endpoint if it is still in the given state, for longer with every failed probe in a row. The
+		 * deadline is set before the state changes so no caller sees the ejection without it.
+		 */
+		private boolean eject(int from) {
+			long duration = Math.min(ejectionNanos * (ejections.get() + 1), maxEjectionNanos);
+			ejectedUntil = System.nanoTime() + duration;
+			if (!state.compareAndSet(from, EJECTED)) {
+				return false;
+			}
+			ejections.incrementAndGet();
+			failures.set(0);
+			ejected.mark();
+			refresh();
+			LOGGER.warn("Ejected endpoint {} of {} for {} ms", uri, name, TimeUnit.NANOSECONDS.toMillis(duration));
+			return true;
+		}
+	}
+}
@@ -0,0 +1,107 @@
+package com.alfred.ishopper.client;
+
+import javax.validation.constraints.Max;
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+
+import org.hibernate.validator.constraints.NotEmpty;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import io.dropwizard.util.Duration;
+
+public class LoadBalancerConfiguration {
+	public static final String ROUND_ROBIN = "round-robin";
+	public static final String LEAST_OUTSTANDING = "p2c";
+	public static final String EWMA = "ewma";
+
+	@NotEmpty
+	@JsonProperty
+	private String policy = LEAST_OUTSTANDING;
+
+	@Min(1)
+	@JsonProperty
+	private int consecutiveFailures = 5;
+
+	@NotNull
+	@JsonProperty
+	private Duration ejectionTime = Duration.seconds(30);
+
+	@NotNull
+	@JsonProperty
+	private Duration maxEjectionTime = Duration.minutes(5);
+
+	@Min(0)
+	@Max(100)
+	@JsonProperty
+	private int maxEjectionPercent = 50;
+
+	@NotNull
+	@JsonProperty
+	private Duration decayTime = Duration.seconds(10);
+
+	/**
+	 * <code>round-robin</code>; <code>p2c</code>, the less loaded of two random endpoints by outstanding requests;
+	 * or <code>ewma</code>, the same with the load weighted by each endpoint's peak EWMA latency.
+	 */
+	public String getPolicy() {
+		return policy;
+	}
+
+	public void setPolicy(String policy) {
+		this.policy = policy;
+	}
+
+	/**
+	 * Number of transport errors or 5xx in a row after which an endpoint is ejected.
+	 */
+	public int getConsecutiveFailures() {
+		return consecutiveFailures;
+	}
+
+	public void setConsecutiveFailures(int consecutiveFailures) {
+		this.consecutiveFailures = consecutiveFailures;
+	}
+
+	/**
+	 * How long an ejected endpoint gets no calls before one call is let through as a probe. Every failed probe adds
+	 * this much again, up to {@link #getMaxEjectionTime()}.
+	 */
+	public Duration getEjectionTime() {
+		return ejectionTime;
+	}
+
+	public void setEjectionTime(Duration ejectionTime) {
+		this.ejectionTime = ejectionTime;
+	}
+
+	public Duration getMaxEjectionTime() {
+		return maxEjectionTime;
+	}
+
+	public void setMaxEjectionTime(Duration maxEjectionTime) {
+		this.maxEjectionTime = maxEjectionTime;
+	}
+
+	/**
+	 * Share of the endpoints that may be ejected at the same time. When none is left, calls go to all of them.
+	 */
+	public int getMaxEjectionPercent() {
+		return maxEjectionPercent;
+	}
+
+	public void setMaxEjectionPercent(int maxEjectionPercent) {
+		this.maxEjectionPercent = maxEjectionPercent;
+	}
+
+	/**
+	 * Time constant of the EWMA latency: a sample this old still carries about a third of its weight.
+	 */
+	public Duration getDecayTime() {
+		return decayTime;
+	}
+
+	public void setDecayTime(Duration decayTime) {
+		this.decayTime = decayTime;
+	}
+}
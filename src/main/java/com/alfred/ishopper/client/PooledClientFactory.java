@@ -0,0 +1,288 @@
+package com.alfred.ishopper.client;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HeaderElement;
+import org.apache.http.HeaderElementIterator;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.AbortableHttpRequest;
+import org.apache.http.client.params.ClientPNames;
+import org.apache.http.client.params.HttpClientParams;
+import org.apache.http.conn.ClientConnectionRequest;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.ManagedClientConnection;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.client.RequestWrapper;
+import org.apache.http.impl.conn.PoolingClientConnectionManager;
+import org.apache.http.impl.conn.SchemeRegistryFactory;
+import org.apache.http.message.BasicHeaderElementIterator;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.CoreConnectionPNames;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.protocol.HTTP;
+import org.apache.http.protocol.HttpContext;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.RatioGauge;
+import com.codahale.metrics.Timer;
+import com.sun.jersey.api.client.Client;
+import com.sun.jersey.api.client.config.ClientConfig;
+import com.sun.jersey.client.apache4.ApacheHttpClient4;
+import com.sun.jersey.client.apache4.config.ApacheHttpClient4Config;
+import com.sun.jersey.client.apache4.config.DefaultApacheHttpClient4Config;
+
+import io.dropwizard.lifecycle.Managed;
+import io.dropwizard.setup.Environment;
+
+/**
+ * Builds Jersey clients backed by a pooled, keep-alive Apache HttpClient connection manager configured from a
+ * {@link ClientConfiguration}, instead of the default one-connection-per-request HttpURLConnection handler.
+ * Compression is handled by a {@link CompressionFilter} when enabled in the configuration, and calls are spread over
+ * the configured endpoints by a {@link LoadBalancer}. The timeouts of calls made for a request with a
+ * {@link Deadline} are capped at the time it has left, and hedged attempts can be {@link Attempt aborted}.
+ */
+public class PooledClientFactory {
+
+	private final ClientConfiguration config;
+
+	public PooledClientFactory(ClientConfiguration config) {
+		this.config = config;
+	}
+
+	/**
+	 * Builds a client whose idle connection eviction and shutdown are tied to the application lifecycle, and whose
+	 * pool statistics are registered in the application's metric registry.
+	 */
+	public Client build(Environment environment, String name) {
+		final ScheduledExecutorService evictor = environment.lifecycle()
+				.scheduledExecutorService("http-client-" + name + "-evictor").threads(1).build();
+		final Client client = build(environment.metrics(), evictor, name);
+
+		environment.lifecycle().manage(new Managed() {
+			@Override
+			public void start() throws Exception {
+			}
+
+			@Override
+			public void stop() throws Exception {
+				client.destroy();
+			}
+		});
+
+		return client;
+	}
+
+	public Client build(MetricRegistry metrics, ScheduledExecutorService evictor, String name) {
+		final PoolingClientConnectionManager connectionManager = createConnectionManager(
+				metrics != null ? metrics.timer(MetricRegistry.name(PooledClientFactory.class, name, "connection-acquire")) : null);
+
+		ClientConfig clientConfig = new DefaultApacheHttpClient4Config();
+		clientConfig.getProperties().put(ApacheHttpClient4Config.PROPERTY_CONNECTION_MANAGER, connectionManager);
+		clientConfig.getProperties().put(ApacheHttpClient4Config.PROPERTY_HTTP_PARAMS, createHttpParams());
+		clientConfig.getProperties().put(ClientConfig.PROPERTY_CONNECT_TIMEOUT, (int) config.getConnectTimeout().toMilliseconds());
+		clientConfig.getProperties().put(ClientConfig.PROPERTY_READ_TIMEOUT, (int) config.getReadTimeout().toMilliseconds());
+
+		ApacheHttpClient4 client = ApacheHttpClient4.create(clientConfig);
+		DefaultHttpClient httpClient = (DefaultHttpClient) client.getClientHandler().getHttpClient();
+		httpClient.setKeepAliveStrategy(new DefaultKeepAliveStrategy(config.getKeepAlive().toMilliseconds()));
+		httpClient.addRequestInterceptor(new AttemptInterceptor());
+
+		// added first so it runs last, right before the request is sent
+		client.addFilter(new DeadlineFilter(config, metrics, name));
+
+		if (config.isCompressResponses() || config.isCompressRequests()) {
+			client.addFilter(new CompressionFilter(client, config, metrics, name));
+		}
+
+		if (!config.getEndpoints().isEmpty()) {
+			// added last so it runs first and times each attempt as a whole
+			client.addFilter(new LoadBalancer(config, metrics, name));
+		}
+
+		if (metrics != null) {
+			registerMetrics(metrics, connectionManager, name);
+		}
+
+		if (evictor != null) {
+			final long idleTimeout = config.getIdleTimeout().toMilliseconds();
+			final long interval = Math.max(idleTimeout / 2, 1);
+			evictor.scheduleWithFixedDelay(new Runnable() {
+				@Override
+				public void run() {
+					connectionManager.closeExpiredConnections();
+					connectionManager.closeIdleConnections(idleTimeout, TimeUnit.MILLISECONDS);
+				}
+			}, interval, interval, TimeUnit.MILLISECONDS);
+		}
+
+		return client;
+	}
+
+	protected PoolingClientConnectionManager createConnectionManager(Timer acquireTimer) {
+		SchemeRegistry schemeRegistry = SchemeRegistryFactory.createSystemDefault();
+		PoolingClientConnectionManager connectionManager = acquireTimer != null ?
+				new InstrumentedConnectionManager(schemeRegistry, config.getTimeToLive().toMilliseconds(), acquireTimer) :
+				new PoolingClientConnectionManager(schemeRegistry, config.getTimeToLive().toMilliseconds(), TimeUnit.MILLISECONDS);
+		connectionManager.setMaxTotal(config.getMaxConnections());
+		connectionManager.setDefaultMaxPerRoute(config.getMaxConnectionsPerRoute());
+		return connectionManager;
+	}
+
+	private HttpParams createHttpParams() {
+		HttpParams params = new DeadlineHttpParams();
+		HttpConnectionParams.setConnectionTimeout(params, (int) config.getConnectTimeout().toMilliseconds());
+		HttpConnectionParams.setSoTimeout(params, (int) config.getReadTimeout().toMilliseconds());
+		HttpConnectionParams.setStaleCheckingEnabled(params, false);
+		HttpConnectionParams.setTcpNoDelay(params, true);
+		HttpClientParams.setConnectionManagerTimeout(params, config.getConnectionRequestTimeout().toMilliseconds());
+		return params;
+	}
+
+	private void registerMetrics(MetricRegistry metrics, final PoolingClientConnectionManager connectionManager, String name) {
+		metrics.register(MetricRegistry.name(PooledClientFactory.class, name, "leased-connections"), new Gauge<Integer>() {
+			@Override
+			public Integer getValue() {
+				return connectionManager.getTotalStats().getLeased();
+			}
+		});
+		metrics.register(MetricRegistry.name(PooledClientFactory.class, name, "available-connections"), new Gauge<Integer>() {
+			@Override
+			public Integer getValue() {
+				return connectionManager.getTotalStats().getAvailable();
+			}
+		});
+		metrics.register(MetricRegistry.name(PooledClientFactory.class, name, "pending-connections"), new Gauge<Integer>() {
+			@Override
+			public Integer getValue() {
+				return connectionManager.getTotalStats().getPending();
+			}
+		});
+		metrics.register(MetricRegistry.name(PooledClientFactory.class, name, "max-connections"), new Gauge<Integer>() {
+			@Override
+			public Integer getValue() {
+				return connectionManager.getTotalStats().getMax();
+			}
+		});
+		metrics.register(MetricRegistry.name(PooledClientFactory.class, name, "pool-utilization"), new RatioGauge() {
+			@Override
+			protected Ratio getRatio() {
+				return Ratio.of(connectionManager.getTotalStats().getLeased(), connectionManager.getTotalStats().getMax());
+			}
+		});
+	}
+
+	/**
+	 * Times how long requests wait for a pooled connection.
+	 */
+	private static class InstrumentedConnectionManager extends PoolingClientConnectionManager {
+		private final Timer acquireTimer;
+
+		InstrumentedConnectionManager(SchemeRegistry schemeRegistry, long timeToLive, Timer acquireTimer) {
+			super(schemeRegistry, timeToLive, TimeUnit.MILLISECONDS);
+			this.acquireTimer = acquireTimer;
+		}
+
+		@Override
+		public ClientConnectionRequest requestConnection(HttpRoute route, Object state) {
+			final ClientConnectionRequest request = super.requestConnection(route, state);
+			return new ClientConnectionRequest() {
+				@Override
+				public ManagedClientConnection getConnection(long timeout, TimeUnit unit)
+						throws InterruptedException, ConnectionPoolTimeoutException {
+					Timer.Context context = acquireTimer.time();
+					try {
+						return request.getConnection(timeout, unit);
+					} finally {
+						context.stop();
+					}
+				}
+
+				@Override
+				public void abortRequest() {
+					request.abortRequest();
+				}
+			};
+		}
+	}
+
+	/**
+	 * Client parameters whose connect, read and pool timeouts are capped at the time left to the current
+	 * {@link Deadline}. HttpClient looks them up on the calling thread for every request, and unlike the request
+	 * properties the Apache handler ignores, they apply to the connection that request uses.
+	 */
+	private static class DeadlineHttpParams extends BasicHttpParams {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		public Object getParameter(String name) {
+			Object value = super.getParameter(name);
+			Deadline deadline = Deadline.current();
+			if (deadline == null) {
+				return value;
+			}
+
+			long remaining = deadline.remaining(TimeUnit.MILLISECONDS);
+			if (CoreConnectionPNames.SO_TIMEOUT.equals(name) || CoreConnectionPNames.CONNECTION_TIMEOUT.equals(name)) {
+				return DeadlineFilter.cap(value instanceof Integer ? (Integer) value : 0, remaining);
+			}
+			if (ClientPNames.CONN_MANAGER_TIMEOUT.equals(name)) {
+				long timeout = value instanceof Long ? (Long) value : 0;
+				return Math.max(timeout > 0 ? Math.min(timeout, remaining) : remaining, 1);
+			}
+			return value;
+		}
+	}
+
+	/**
+	 * Hands the request being sent to the {@link Attempt} the calling thread makes, so the attempt can be aborted.
+	 * Interceptors run on the calling thread once the connection has been leased.
+	 */
+	private static class AttemptInterceptor implements HttpRequestInterceptor {
+		@Override
+		public void process(HttpRequest request, HttpContext context) {
+			Attempt attempt = Attempt.current();
+			if (attempt == null) {
+				return;
+			}
+			HttpRequest original = request instanceof RequestWrapper ? ((RequestWrapper) request).getOriginal() : request;
+			if (original instanceof AbortableHttpRequest) {
+				attempt.attach((AbortableHttpRequest) original);
+			}
+		}
+	}
+
+	/**
+	 * Honours the upstream's Keep-Alive timeout when present, otherwise keeps connections for the configured time.
+	 */
+	private static class DefaultKeepAliveStrategy implements ConnectionKeepAliveStrategy {
+		private final long defaultKeepAlive;
+
+		DefaultKeepAliveStrategy(long defaultKeepAlive) {
+			this.defaultKeepAlive = defaultKeepAlive;
+		}
+
+		@Override
+		public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+			HeaderElementIterator it = new BasicHeaderElementIterator(response.headerIterator(HTTP.CONN_KEEP_ALIVE));
+			while (it.hasNext()) {
+				HeaderElement element = it.nextElement();
+				if ("timeout".equalsIgnoreCase(element.getName()) && element.getValue() != null) {
+					try {
+						return Long.parseLong(element.getValue()) * 1000;
+					} catch (NumberFormatException e) {
+						break;
+					}
+				}
+			}
+			return defaultKeepAlive;
+		}
+	}
+}
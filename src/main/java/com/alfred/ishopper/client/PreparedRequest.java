@@ -0,0 +1,156 @@
+package com.alfred.ishopper.client;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import javax.ws.rs.core.Cookie;
+import javax.ws.rs.core.MultivaluedMap;
+
+import org.glassfish.jersey.uri.UriComponent;
+
+import com.sun.jersey.api.client.Client;
+import com.sun.jersey.api.client.WebResource;
+
+/**
+ * A resource template such as <code>products/{id}/reviews</code> compiled once by {@link JsonRestClient#prepare}.
+ * The path is split around its placeholders and the fixed headers, credentials and media type are kept as arrays,
+ * so a call only binds the placeholder values, query parameters, cookies and per-user headers. Paths and query
+ * parameters are encoded like the JAX-RS {@link javax.ws.rs.core.UriBuilder} the plain calls are built with, which is
+ * Jersey 2's in the application, so both reach the upstream, and the response cache, with the same URI. Immutable and
+ * thread-safe.
+ */
+public final class PreparedRequest {
+
+	private static final String HEADER_ACCEPT = "Accept";
+	private static final String HEADER_AUTHORIZATION = "Authorization";
+
+	private final String template;
+	private final String baseUri;
+	private final String[] literals;
+	private final String[] headerNames;
+	private final String[] headerValues;
+	private final Map<String, String> headers;
+	private final String authorization;
+	private final String mediaType;
+
+	PreparedRequest(String baseUri, String template, Map<String, String> headers, String authorization, String mediaType) {
+		this.template = template;
+		this.baseUri = baseUri.endsWith("/") ? baseUri : baseUri + "/";
+		this.literals = compile(template.startsWith("/") ? template.substring(1) : template);
+		this.headers = headers != null ? Collections.unmodifiableMap(new HashMap<String, String>(headers)) : Collections.<String, String>emptyMap();
+		this.headerNames = new String[this.headers.size()];
+		this.headerValues = new String[this.headers.size()];
+		int i = 0;
+		for (Entry<String, String> header : this.headers.entrySet()) {
+			headerNames[i] = header.getKey();
+			headerValues[i++] = header.getValue();
+		}
+		this.authorization = authorization;
+		this.mediaType = mediaType;
+	}
+
+	private static String[] compile(String template) {
+		List<String> literals = new ArrayList<String>();
+		int start = 0;
+		int open;
+		while ((open = template.indexOf('{', start)) >= 0) {
+			int close = template.indexOf('}', open);
+			if (close < 0) {
+				throw new IllegalArgumentException("Unclosed placeholder in " + template);
+			}
+			literals.add(UriComponent.contextualEncode(template.substring(start, open), UriComponent.Type.PATH));
+			start = close + 1;
+		}
+		literals.add(UriComponent.contextualEncode(template.substring(start), UriComponent.Type.PATH));
+		return literals.toArray(new String[literals.size()]);
+	}
+
+	public String getTemplate() {
+		return template;
+	}
+
+	public String getMediaType() {
+		return mediaType;
+	}
+
+	public int getVariableCount() {
+		return literals.length - 1;
+	}
+
+	Map<String, String> getHeaders() {
+		return headers;
+	}
+
+	String getHeaderName(int i) {
+		return headerNames[i];
+	}
+
+	String getHeaderValue(int i) {
+		return headerValues[i];
+	}
+
+	int getHeaderCount() {
+		return headerNames.length;
+	}
+
+	/**
+	 * Fills the placeholders in order, encoding each value as a single path segment.
+	 */
+	String expand(Object[] values) {
+		int variables = literals.length - 1;
+		if ((values == null ? 0 : values.length) != variables) {
+			throw new IllegalArgumentException(template + " takes " + variables + " path values");
+		}
+		if (variables == 0) {
+			return literals[0];
+		}
+
+		StringBuilder path = new StringBuilder(template.length() + 16 * variables);
+		for (int i = 0; i < variables; i++) {
+			path.append(literals[i]).append(UriComponent.encode(String.valueOf(values[i]), UriComponent.Type.PATH_SEGMENT));
+		}
+		return path.append(literals[variables]).toString();
+	}
+
+	URI uri(String path, MultivaluedMap<String, String> params) {
+		StringBuilder uri = new StringBuilder(baseUri.length() + path.length() + 64).append(baseUri).append(path);
+
+		if (params != null && !params.isEmpty()) {
+			char separator = '?';
+			for (Entry<String, List<String>> param : params.entrySet()) {
+				String name = UriComponent.contextualEncode(param.getKey(), UriComponent.Type.QUERY_PARAM);
+				for (String value : param.getValue()) {
+					uri.append(separator).append(name).append('=').append(UriComponent.contextualEncode(value, UriComponent.Type.QUERY_PARAM));
+					separator = '&';
+				}
+			}
+		}
+		return URI.create(uri.toString());
+	}
+
+	/**
+	 * Creates the request builder with the URI, cookies, credentials and the given Accept header set. Fixed headers
+	 * are left to the caller so per-call values can take precedence over them.
+	 */
+	WebResource.Builder builder(Client client, String path, MultivaluedMap<String, String> params, Map<String, Cookie> cookies,
+			String accept) {
+		WebResource.Builder builder = client.resource(uri(path, params)).getRequestBuilder();
+
+		ForwardedCookies.addTo(builder, cookies);
+		if (authorization != null) {
+			builder.header(HEADER_AUTHORIZATION, authorization);
+		}
+		builder.header(HEADER_ACCEPT, accept);
+		return builder;
+	}
+
+	@Override
+	public String toString() {
+		return mediaType + " " + baseUri + template;
+	}
+}
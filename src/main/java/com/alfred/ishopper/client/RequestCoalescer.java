@@ -0,0 +1,232 @@
+package com.alfred.ishopper.client;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.ws.rs.core.Cookie;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.sun.jersey.api.client.ClientHandlerException;
+import com.sun.jersey.api.client.ClientResponse;
+import com.sun.jersey.core.header.InBoundHeaders;
+import com.sun.jersey.spi.MessageBodyWorkers;
+
+/**
+ * Single-flight execution of identical GETs: while a request is in flight, concurrent callers with the same key
+ * wait for it instead of issuing their own, and each receives its own {@link ClientResponse} over the same
+ * buffered bytes.
+ * <p>
+ * The leading caller's response is only buffered when another caller has joined it; otherwise it is returned
+ * still streaming, as without coalescing. Bodies larger than <code>maxBytes</code> are not shared either: the
+ * leader reads on from where buffering stopped, and the callers that joined make calls of their own. Those are
+ * metered as RequestCoalescer.{name}.too-large.
+ * <p>
+ * The key covers everything that can change the upstream's answer, including cookies and the Authorization
+ * header, so requests made on behalf of different sessions or credentials are never merged. A caller waits for the
+ * shared call at most until its own {@link Deadline}.
+ */
+public class RequestCoalescer {
+
+	public static final long DEFAULT_MAX_BYTES = 1024 * 1024;
+
+	/**
+	 * Tells the callers that joined a flight to make calls of their own.
+	 */
+	private static final BufferedResponse UNSHARED = new BufferedResponse(0, new InBoundHeaders(), new byte[0]);
+
+	private final ConcurrentMap<String, Flight> inFlight = new ConcurrentHashMap<String, Flight>();
+
+	private final long maxBytes;
+	private final Meter coalesced;
+	private final Meter tooLarge;
+
+	public RequestCoalescer() {
+		this(null, null);
+	}
+
+	public RequestCoalescer(MetricRegistry metrics, String name) {
+		this(DEFAULT_MAX_BYTES, metrics, name);
+	}
+
+	public RequestCoalescer(long maxBytes, MetricRegistry metrics, String name) {
+		this.maxBytes = maxBytes;
+		this.coalesced = new Meter();
+		this.tooLarge = new Meter();
+
+		if (metrics != null) {
+			metrics.register(MetricRegistry.name(RequestCoalescer.class, name, "coalesced"), coalesced);
+			metrics.register(MetricRegistry.name(RequestCoalescer.class, name, "too-large"), tooLarge);
+		}
+	}
+
+	static String key(String requestKey, Map<String, Cookie> cookies, String authorization) {
+		StringBuilder key = new StringBuilder(requestKey);
+
+		if (authorization != null) {
+			key.append("\nAuthorization: ").append(authorization);
+		}
+
+		if (cookies instanceof ForwardedCookies) {
+			if (!cookies.isEmpty()) {
+				key.append("\nCookie: ").append(((ForwardedCookies) cookies).getHeader());
+			}
+		} else if (cookies != null && !cookies.isEmpty()) {
+			key.append("\nCookie:");
+			for (Cookie cookie : new TreeMap<String, Cookie>(cookies).values()) {
+				key.append(' ').append(cookie.toString()).append(';');
+			}
+		}
+
+		return key.toString();
+	}
+
+	/**
+	 * Runs the call, or joins an identical one already in flight. Exceptions thrown by the leading call are
+	 * rethrown to every caller that joined it; a caller whose deadline passes first fails with a
+	 * {@link ClientHandlerException}.
+	 */
+	public ClientResponse execute(String key, Callable<ClientResponse> call, MessageBodyWorkers workers) throws Exception {
+		Flight flight = new Flight();
+		Flight existing;
+		while ((existing = inFlight.putIfAbsent(key, flight)) != null) {
+			if (existing.join()) {
+				coalesced.mark();
+				BufferedResponse shared = await(existing.result);
+				if (shared == UNSHARED) {
+					return call.call();
+				}
+				return shared != null ? shared.toClientResponse(workers) : null;
+			}
+			// the flight ended before it could be joined
+			inFlight.remove(key, existing);
+		}
+
+		ClientResponse response;
+		try {
+			response = call.call();
+		} catch (Exception e) {
+			end(key, flight);
+			flight.result.completeExceptionally(e);
+			throw e;
+		} catch (Error e) {
+			end(key, flight);
+			flight.result.completeExceptionally(e);
+			throw e;
+		}
+
+		if (!end(key, flight) || response == null) {
+			flight.result.complete(null);
+			return response;
+		}
+
+		try {
+			byte[] body = buffer(response);
+			if (body == null) {
+				tooLarge.mark();
+			}
+			flight.result.complete(body != null ? new BufferedResponse(response.getStatus(), response.getHeaders(), body) : UNSHARED);
+		} catch (RuntimeException e) {
+			flight.result.completeExceptionally(e);
+			throw e;
+		}
+		return response;
+	}
+
+	/**
+	 * Stops the flight from being joined and returns whether anyone joined it.
+	 */
+	private boolean end(String key, Flight flight) {
+		inFlight.remove(key, flight);
+		return flight.end();
+	}
+
+	/**
+	 * Reads the entity into memory and replaces the response's stream with it, or returns null once it turns out
+	 * to be larger than <code>maxBytes</code>, leaving the response to read the bytes taken so far followed by the
+	 * rest of the stream.
+	 */
+	private byte[] buffer(ClientResponse response) {
+		if (response.getLength() > maxBytes) {
+			return null;
+		}
+		InputStream in = response.getEntityInputStream();
+		ByteArrayOutputStream out = new ByteArrayOutputStream(response.getLength() > 0 ? response.getLength() : 4096);
+		byte[] buffer = new byte[4096];
+		try {
+			int read;
+			while ((read = in.read(buffer)) != -1) {
+				out.write(buffer, 0, read);
+				if (out.size() > maxBytes) {
+					response.setEntityInputStream(new SequenceInputStream(new ByteArrayInputStream(out.toByteArray()), in));
+					return null;
+				}
+			}
+		} catch (IOException e) {
+			closeQuietly(in);
+			throw new ClientHandlerException(e);
+		}
+		closeQuietly(in);
+		byte[] body = out.toByteArray();
+		response.setEntityInputStream(new ByteArrayInputStream(body));
+		return body;
+	}
+
+	private static void closeQuietly(InputStream in) {
+		try {
+			in.close();
+		} catch (IOException e) {
+			// the body has been read completely or the request fails anyway
+		}
+	}
+
+	private static BufferedResponse await(CompletableFuture<BufferedResponse> future) throws Exception {
+		Deadline deadline = Deadline.current();
+		try {
+			return deadline != null ? future.get(deadline.remaining(TimeUnit.NANOSECONDS), TimeUnit.NANOSECONDS) : future.get();
+		} catch (TimeoutException e) {
+			throw new ClientHandlerException("Deadline exceeded while waiting for a coalesced call");
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof Exception) {
+				throw (Exception) cause;
+			}
+			throw (Error) cause;
+		}
+	}
+
+	/**
+	 * One leading call and the callers that joined it. Once the leader has its response the flight ends, and
+	 * callers arriving after that start a flight of their own rather than join one nobody buffers for.
+	 */
+	private static final class Flight {
+		final CompletableFuture<BufferedResponse> result = new CompletableFuture<BufferedResponse>();
+		private int joined;
+		private boolean ended;
+
+		synchronized boolean join() {
+			if (ended) {
+				return false;
+			}
+			joined++;
+			return true;
+		}
+
+		synchronized boolean end() {
+			ended = true;
+			return joined > 0;
+		}
+	}
+}
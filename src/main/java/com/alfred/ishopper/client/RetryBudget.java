@@ -0,0 +1,55 @@
+package com.alfred.ishopper.client;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket limiting extra attempts (retries and hedges) to a percentage of the regular request rate, plus a
+ * small fixed allowance per second so low traffic upstreams can still be retried. Shared by all calls of a client,
+ * it keeps retries from multiplying the load on an upstream that is already failing.
+ */
+public class RetryBudget {
+
+	private static final long TOKEN = 1000;
+
+	private final long depositPerRequest;
+	private final long reservePerSecond;
+	private final long maxBalance;
+
+	private long balance;
+	private long lastRefill;
+
+	/**
+	 * @param percentCanRetry extra attempts allowed, as a percentage of requests
+	 * @param minRetriesPerSecond extra attempts allowed per second regardless of traffic
+	 */
+	public RetryBudget(int percentCanRetry, int minRetriesPerSecond) {
+		this.depositPerRequest = TOKEN * percentCanRetry / 100;
+		this.reservePerSecond = TOKEN * minRetriesPerSecond;
+		this.maxBalance = Math.max(reservePerSecond, TOKEN) * 10;
+		this.balance = reservePerSecond;
+		this.lastRefill = System.nanoTime();
+	}
+
+	public synchronized void deposit() {
+		balance = Math.min(maxBalance, balance + depositPerRequest);
+	}
+
+	public synchronized boolean tryWithdraw() {
+		refill();
+		if (balance < TOKEN) {
+			return false;
+		}
+		balance -= TOKEN;
+		return true;
+	}
+
+	private void refill() {
+		long now = System.nanoTime();
+		long elapsed = now - lastRefill;
+		long refill = reservePerSecond * elapsed / TimeUnit.SECONDS.toNanos(1);
+		if (refill > 0) {
+			balance = Math.min(maxBalance, balance + refill);
+			lastRefill = now;
+		}
+	}
+}
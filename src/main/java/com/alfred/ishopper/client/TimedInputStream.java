@@ -0,0 +1,50 @@
+package com.alfred.ishopper.client;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Accumulates the time spent blocked in reads, to tell network time apart from the parsing done in between.
+ */
+class TimedInputStream extends FilterInputStream {
+	private long readNanos;
+
+	TimedInputStream(InputStream in) {
+		super(in);
+	}
+
+	long getReadNanos() {
+		return readNanos;
+	}
+
+	@Override
+	public int read() throws IOException {
+		long start = System.nanoTime();
+		try {
+			return super.read();
+		} finally {
+			readNanos += System.nanoTime() - start;
+		}
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		long start = System.nanoTime();
+		try {
+			return super.read(b, off, len);
+		} finally {
+			readNanos += System.nanoTime() - start;
+		}
+	}
+
+	@Override
+	public long skip(long n) throws IOException {
+		long start = System.nanoTime();
+		try {
+			return super.skip(n);
+		} finally {
+			readNanos += System.nanoTime() - start;
+		}
+	}
+}
@@ -0,0 +1,15 @@
+package com.alfred.ishopper.id;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A counter starting at 1. IDs are only unique within one process and restart with it.
+ */
+public class AtomicIdGenerator implements IdGenerator {
+    private final AtomicLong counter = new AtomicLong();
+
+    @Override
+    public long nextId() {
+        return counter.incrementAndGet();
+    }
+}
@@ -0,0 +1,9 @@
+package com.alfred.ishopper.id;
+
+/**
+ * Hands out unique, positive IDs. Implementations are thread-safe.
+ */
+public interface IdGenerator {
+
+    long nextId();
+}
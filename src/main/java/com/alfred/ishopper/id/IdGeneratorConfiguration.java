@@ -0,0 +1,101 @@
+package com.alfred.ishopper.id;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.dropwizard.util.Duration;
+import org.hibernate.validator.constraints.NotEmpty;
+
+import javax.validation.constraints.Max;
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+import java.time.Clock;
+
+/**
+ * Selects how IDs are generated. The default, "atomic", counts from 1 in each process and stays well below the
+ * 2<sup>53</sup> that JavaScript numbers hold exactly. "snowflake" IDs are unique across nodes and restarts but always
+ * exceed it, so only choose them when every client reads IDs without rounding; see {@link SnowflakeIdGenerator}.
+ * Every node behind the same load balancer then needs its own nodeId.
+ */
+public class IdGeneratorConfiguration {
+    public static final String SNOWFLAKE = "snowflake";
+    public static final String ATOMIC = "atomic";
+
+    @NotEmpty
+    @JsonProperty
+    private String type = ATOMIC;
+
+    @Min(0)
+    @Max(SnowflakeIdGenerator.MAX_NODE_ID)
+    @JsonProperty
+    private long nodeId = 0;
+
+    @JsonProperty
+    private long epoch = SnowflakeIdGenerator.DEFAULT_EPOCH;
+
+    @NotNull
+    @JsonProperty
+    private Duration maxClockSkew = Duration.seconds(1);
+
+    @Min(1)
+    @Max(4096)
+    @JsonProperty
+    private int blockSize = 1;
+
+    public IdGenerator build() {
+        if (ATOMIC.equals(type)) {
+            return new AtomicIdGenerator();
+        }
+        if (SNOWFLAKE.equals(type)) {
+            return new SnowflakeIdGenerator(nodeId, epoch, maxClockSkew.toMilliseconds(), blockSize, Clock.systemUTC());
+        }
+        throw new IllegalArgumentException("Unknown ID generator " + type);
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public void setType(String type) {
+        this.type = type;
+    }
+
+    public long getNodeId() {
+        return nodeId;
+    }
+
+    public void setNodeId(long nodeId) {
+        this.nodeId = nodeId;
+    }
+
+    /**
+     * Milliseconds since 1970 that snowflake timestamps count from. Changing it can repeat earlier IDs.
+     */
+    public long getEpoch() {
+        return epoch;
+    }
+
+    public void setEpoch(long epoch) {
+        this.epoch = epoch;
+    }
+
+    public Duration getMaxClockSkew() {
+        return maxClockSkew;
+    }
+
+    public void setMaxClockSkew(Duration maxClockSkew) {
+        this.maxClockSkew = maxClockSkew;
+    }
+
+    /**
+     * Sequence numbers a thread claims at once. With the default of 1 the per-thread blocks save nothing: every ID
+     * still takes a clock read and a compare-and-set on the generator's shared state. Larger blocks spread that cost
+     * over several IDs, but unused numbers of a block are lost when its millisecond passes, so only raise it when few
+     * threads each issue many IDs per millisecond.
+     */
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    public void setBlockSize(int blockSize) {
+        this.blockSize = blockSize;
+    }
+}
@@ -0,0 +1,130 @@
+package com.alfred.ishopper.id;
+
+import java.time.Clock;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Time-ordered IDs that are unique across nodes and restarts, laid out like Twitter's Snowflake:
+ * <pre>
+ * 0 | 41 bits milliseconds since the epoch | 10 bits node ID | 12 bits sequence
+ * </pre>
+ * Each thread claims a block of sequence numbers in the current millisecond with a single compare-and-set and hands
+ * them out locally; a block is dropped once its millisecond has passed, so IDs stay ordered by time to the
+ * millisecond. Once a millisecond's 4096 sequence numbers are claimed, callers wait for the next one. Numbers left in
+ * a dropped block are lost, so blocks larger than one only pay off when few threads each issue many IDs per
+ * millisecond; with many threads they use up the millisecond and make callers wait. With blocks of one, the
+ * default, every ID takes its own clock read and compare-and-set on the shared state.
+ * <p>
+ * IDs are above 2<sup>53</sup> once the clock is 2<sup>31</sup> ms (about 25 days) past the epoch, so with the
+ * default epoch they always are. JavaScript parses JSON numbers that large into doubles and rounds them to a
+ * nearby even number, which can map two IDs to the same value; browser clients have to read them with a JSON parser
+ * that keeps big integers.
+ * <p>
+ * When the clock moves backwards by up to <code>maxClockSkew</code>, IDs keep being issued from the last timestamp
+ * until the clock catches up; a larger jump fails with an {@link IllegalStateException} rather than risking
+ * duplicates.
+ */
+public class SnowflakeIdGenerator implements IdGenerator {
+    public static final int NODE_BITS = 10;
+    public static final int SEQUENCE_BITS = 12;
+    public static final long MAX_NODE_ID = (1L << NODE_BITS) - 1;
+    /** 2016-01-01T00:00:00Z */
+    public static final long DEFAULT_EPOCH = 1451606400000L;
+
+    private static final int SEQUENCE_LIMIT = 1 << SEQUENCE_BITS;
+    // one more bit than the sequence, so "all claimed" (4096) fits next to the timestamp
+    private static final int STATE_SHIFT = SEQUENCE_BITS + 1;
+    private static final long WAIT_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+    private final long nodeBits;
+    private final long epoch;
+    private final long maxClockSkewMillis;
+    private final int blockSize;
+    private final Clock clock;
+
+    /** Last claimed timestamp (relative to the epoch) and the next free sequence number in it. */
+    private final AtomicLong state = new AtomicLong();
+
+    private final ThreadLocal<Block> blocks = new ThreadLocal<Block>() {
+        @Override
+        protected Block initialValue() {
+            return new Block();
+        }
+    };
+
+    public SnowflakeIdGenerator(long nodeId) {
+        this(nodeId, DEFAULT_EPOCH, 1000, 1, Clock.systemUTC());
+    }
+
+    public SnowflakeIdGenerator(long nodeId, long epoch, long maxClockSkewMillis, int blockSize, Clock clock) {
+        if (nodeId < 0 || nodeId > MAX_NODE_ID) {
+            throw new IllegalArgumentException("nodeId must be between 0 and " + MAX_NODE_ID);
+        }
+        if (blockSize < 1 || blockSize > SEQUENCE_LIMIT) {
+            throw new IllegalArgumentException("blockSize must be between 1 and " + SEQUENCE_LIMIT);
+        }
+        this.nodeBits = nodeId << SEQUENCE_BITS;
+        this.epoch = epoch;
+        this.maxClockSkewMillis = maxClockSkewMillis;
+        this.blockSize = blockSize;
+        this.clock = clock;
+    }
+
+    @Override
+    public long nextId() {
+        Block block = blocks.get();
+        if (block.next >= block.end || block.timestamp < clock.millis() - epoch) {
+            claim(block);
+        }
+        return block.timestamp << (NODE_BITS + SEQUENCE_BITS) | nodeBits | block.next++;
+    }
+
+    private void claim(Block block) {
+        while (true) {
+            long now = clock.millis() - epoch;
+            long current = state.get();
+            long timestamp = current >>> STATE_SHIFT;
+            int sequence = (int) (current & ((1 << STATE_SHIFT) - 1));
+
+            if (now > timestamp) {
+                timestamp = now;
+                sequence = 0;
+            } else if (timestamp - now > maxClockSkewMillis) {
+                throw new IllegalStateException("Clock moved backwards by " + (timestamp - now) + " ms");
+            }
+
+            if (sequence >= SEQUENCE_LIMIT) {
+                // this millisecond is used up
+                LockSupport.parkNanos(WAIT_NANOS);
+                continue;
+            }
+
+            int end = Math.min(sequence + blockSize, SEQUENCE_LIMIT);
+            if (state.compareAndSet(current, timestamp << STATE_SHIFT | end)) {
+                block.timestamp = timestamp;
+                block.next = sequence;
+                block.end = end;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Milliseconds since 1970 at which the ID was issued.
+     */
+    public long timestamp(long id) {
+        return (id >>> (NODE_BITS + SEQUENCE_BITS)) + epoch;
+    }
+
+    public static long nodeId(long id) {
+        return (id >>> SEQUENCE_BITS) & MAX_NODE_ID;
+    }
+
+    private static final class Block {
+        private long timestamp;
+        private int next;
+        private int end;
+    }
+}
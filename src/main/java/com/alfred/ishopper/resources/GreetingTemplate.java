@@ -0,0 +1,68 @@
+package com.alfred.ishopper.resources;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A greeting format such as <code>Hello, %s!</code> compiled once into its literal parts, so rendering only
+ * appends strings into a per-thread buffer instead of parsing the format on every call. Supports <code>%s</code>,
+ * <code>%%</code> and <code>%n</code>; any other format, or more than one <code>%s</code>, is left to
+ * {@link String#format} so the result and errors stay exactly the same.
+ */
+public class GreetingTemplate {
+    private static final ThreadLocal<StringBuilder> BUFFERS = new ThreadLocal<StringBuilder>() {
+        @Override
+        protected StringBuilder initialValue() {
+            return new StringBuilder(64);
+        }
+    };
+
+    private final String template;
+    private final String[] literals;
+
+    private GreetingTemplate(String template, String[] literals) {
+        this.template = template;
+        this.literals = literals;
+    }
+
+    public static GreetingTemplate compile(String template) {
+        List<String> literals = new ArrayList<String>(2);
+        StringBuilder literal = new StringBuilder(template.length());
+        for (int i = 0; i < template.length(); i++) {
+            char c = template.charAt(i);
+            if (c != '%') {
+                literal.append(c);
+                continue;
+            }
+            char conversion = i + 1 < template.length() ? template.charAt(++i) : 0;
+            if (conversion == 's' && literals.isEmpty()) {
+                literals.add(literal.toString());
+                literal.setLength(0);
+            } else if (conversion == '%') {
+                literal.append('%');
+            } else if (conversion == 'n') {
+                literal.append(System.lineSeparator());
+            } else {
+                return new GreetingTemplate(template, null);
+            }
+        }
+        literals.add(literal.toString());
+        return new GreetingTemplate(template, literals.toArray(new String[literals.size()]));
+    }
+
+    public String render(String name) {
+        if (literals == null) {
+            return String.format(template, name);
+        }
+        if (literals.length == 1) {
+            return literals[0];
+        }
+        StringBuilder buffer = BUFFERS.get();
+        buffer.setLength(0);
+        return buffer.append(literals[0]).append(name).append(literals[1]).toString();
+    }
+
+    public String getTemplate() {
+        return template;
+    }
+}
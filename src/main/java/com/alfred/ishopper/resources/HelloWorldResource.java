@@ -1,5 +1,8 @@
 package com.alfred.ishopper.resources;
 
+import com.alfred.ishopper.client.JsonRestClient;
+import com.alfred.ishopper.id.AtomicIdGenerator;
+import com.alfred.ishopper.id.IdGenerator;
 import com.google.common.base.Optional;
 import com.codahale.metrics.annotation.Timed;
 
@@ -8,25 +11,36 @@ import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.MediaType;
-import java.util.concurrent.atomic.AtomicLong;
 
 @Path("/hello-world")
-@Produces(MediaType.APPLICATION_JSON)
+@Produces({ MediaType.APPLICATION_JSON, JsonRestClient.APPLICATION_SMILE, JsonRestClient.APPLICATION_CBOR })
 public class HelloWorldResource {
-    private final String template;
+    static final int DEFAULT_CACHED_NAMES = 1024;
+
+    private final SayingCache sayings;
     private final String defaultName;
-    private final AtomicLong counter;
+    private final IdGenerator ids;
 
     public HelloWorldResource(String template, String defaultName) {
-        this.template = template;
+        this(template, defaultName, new AtomicIdGenerator());
+    }
+
+    public HelloWorldResource(String template, String defaultName, IdGenerator ids) {
+        this(template, defaultName, ids, DEFAULT_CACHED_NAMES);
+    }
+
+    /**
+     * @param cachedNames how many names' greetings are kept pre-serialized, 0 for none
+     */
+    public HelloWorldResource(String template, String defaultName, IdGenerator ids, int cachedNames) {
+        this.sayings = new SayingCache(GreetingTemplate.compile(template), cachedNames);
         this.defaultName = defaultName;
-        this.counter = new AtomicLong();
+        this.ids = ids;
     }
 
     @GET
     @Timed
     public Saying sayHello(@QueryParam("name") Optional<String> name) {
-        final String value = String.format(template, name.or(defaultName));
-        return new Saying(counter.incrementAndGet(), value);
+        return sayings.saying(ids.nextId(), name.or(defaultName));
     }
 }
\ No newline at end of file
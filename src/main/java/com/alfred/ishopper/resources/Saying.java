@@ -1,5 +1,6 @@
 package com.alfred.ishopper.resources;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import org.hibernate.validator.constraints.Length;
 
@@ -9,6 +10,9 @@ public class Saying {
     @Length(max = 3)
     private String content;
 
+    @JsonIgnore
+    private byte[] serializedContent;
+
     public Saying() {
         // Jackson deserialization
     }
@@ -18,6 +22,11 @@ public class Saying {
         this.content = content;
     }
 
+    Saying(long id, String content, byte[] serializedContent) {
+        this(id, content);
+        this.serializedContent = serializedContent;
+    }
+
     @JsonProperty
     public long getId() {
         return id;
@@ -27,4 +36,11 @@ public class Saying {
     public String getContent() {
         return content;
     }
+
+    /**
+     * The JSON following the ID when this saying was built by {@link SayingCache}, or null.
+     */
+    byte[] getSerializedContent() {
+        return serializedContent;
+    }
 }
\ No newline at end of file
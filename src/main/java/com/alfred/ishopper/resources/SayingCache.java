@@ -0,0 +1,65 @@
+package com.alfred.ishopper.resources;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * Builds the {@link Saying} for a name. For up to <code>maxNames</code> recently used names the rendered greeting
+ * and the JSON bytes following the ID are kept, so {@link SayingWriter} only has to splice in the ID.
+ */
+public class SayingCache {
+    /** Longer names are rendered every time rather than filling the cache. */
+    static final int MAX_CACHED_NAME_LENGTH = 64;
+
+    private static final JsonFactory JSON = new JsonFactory();
+    private static final byte[] CONTENT_FIELD = { ',', '"', 'c', 'o', 'n', 't', 'e', 'n', 't', '"', ':' };
+
+    private final GreetingTemplate template;
+    private final Cache<String, Saying> sayings;
+
+    public SayingCache(GreetingTemplate template, long maxNames) {
+        this.template = template;
+        this.sayings = maxNames > 0 ? CacheBuilder.newBuilder().maximumSize(maxNames).<String, Saying>build() : null;
+    }
+
+    public Saying saying(long id, String name) {
+        if (sayings == null || name.length() > MAX_CACHED_NAME_LENGTH) {
+            return new Saying(id, template.render(name));
+        }
+
+        Saying cached = sayings.getIfPresent(name);
+        if (cached == null) {
+            String content = template.render(name);
+            cached = new Saying(0, content, serialize(content));
+            sayings.put(name, cached);
+        }
+        return new Saying(id, cached.getContent(), cached.getSerializedContent());
+    }
+
+    /**
+     * <code>,"content":"..."}</code>, the part of a serialized Saying after its ID.
+     */
+    static byte[] serialize(String content) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(content.length() + 16);
+            JsonGenerator json = JSON.createGenerator(bytes);
+            json.writeString(content);
+            json.close();
+
+            byte[] value = bytes.toByteArray();
+            byte[] serialized = new byte[CONTENT_FIELD.length + value.length + 1];
+            System.arraycopy(CONTENT_FIELD, 0, serialized, 0, CONTENT_FIELD.length);
+            System.arraycopy(value, 0, serialized, CONTENT_FIELD.length, value.length);
+            serialized[serialized.length - 1] = '}';
+            return serialized;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.alfred.ishopper.resources;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import javax.ws.rs.Produces;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.ext.MessageBodyWriter;
+import javax.ws.rs.ext.Provider;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+
+/**
+ * Writes a {@link Saying} from {@link SayingCache} as its ID followed by the pre-serialized content, producing the
+ * same bytes as Jackson would. Other sayings go through the ObjectMapper.
+ */
+@Provider
+@Produces(MediaType.APPLICATION_JSON)
+public class SayingWriter implements MessageBodyWriter<Saying> {
+    private static final byte[] ID_FIELD = { '{', '"', 'i', 'd', '"', ':' };
+
+    private final ObjectMapper mapper;
+
+    public SayingWriter(ObjectMapper mapper) {
+        this.mapper = mapper;
+    }
+
+    @Override
+    public boolean isWriteable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+        return Saying.class.isAssignableFrom(type);
+    }
+
+    @Override
+    public long getSize(Saying saying, Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+        return -1;
+    }
+
+    @Override
+    public void writeTo(Saying saying, Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType,
+                        MultivaluedMap<String, Object> httpHeaders, OutputStream out)
+            throws IOException, WebApplicationException {
+        byte[] content = saying.getSerializedContent();
+        if (content == null) {
+            mapper.writeValue(out, saying);
+            return;
+        }
+        out.write(toJson(saying.getId(), content));
+    }
+
+    /**
+     * Builds the whole document in one array, writing the ID's digits directly.
+     */
+    static byte[] toJson(long id, byte[] content) {
+        int digits = 1;
+        for (long rest = Math.abs(id / 10); rest > 0; rest /= 10) {
+            digits++;
+        }
+        int sign = id < 0 ? 1 : 0;
+
+        byte[] json = new byte[ID_FIELD.length + sign + digits + content.length];
+        System.arraycopy(ID_FIELD, 0, json, 0, ID_FIELD.length);
+        if (sign == 1) {
+            json[ID_FIELD.length] = '-';
+        }
+        long rest = id;
+        for (int i = ID_FIELD.length + sign + digits - 1; i >= ID_FIELD.length + sign; i--) {
+            json[i] = (byte) ('0' + Math.abs(rest % 10));
+            rest /= 10;
+        }
+        System.arraycopy(content, 0, json, ID_FIELD.length + sign + digits, content.length);
+        return json;
+    }
+}
@@ -1,61 +1,242 @@
 package com.alfred.ishopper.resources;
 
+import com.alfred.ishopper.speech.SentencePipeline;
+import com.alfred.ishopper.speech.SpeechCache;
+import com.alfred.ishopper.speech.SpeechSynthesizer;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
 import com.codahale.metrics.annotation.Timed;
 import com.google.common.base.Optional;
-import org.apache.commons.codec.binary.Base64;
+import com.google.common.util.concurrent.MoreExecutors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import javax.ws.rs.Consumes;
 import javax.ws.rs.GET;
+import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
+import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.MediaType;
-import java.nio.charset.Charset;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Streams synthesized audio to the client while the backend is still producing it, copying through one small
+ * buffer per request and flushing every chunk.
+ */
 @Path("/text-to-speech")
-@Produces(MediaType.MULTIPART_FORM_DATA)
 public class TextToSpeech {
-    private String username = "8da0bca8-c9d8-41e8-978b-b74febe37517";
-    private String password = "lFKYnN9Z30Fu";
-    private String url = "https://stream.watsonplatform.net/text-to-speech/api/v1/synthesize?text=Hello";
+    private static final Logger LOGGER = LoggerFactory.getLogger(TextToSpeech.class);
+    private static final byte[] CRLF = { '\r', '\n' };
+
+    static final int MAX_BATCH_TEXTS = 100;
+
+    private final SpeechSynthesizer synthesizer;
+    private final SentencePipeline pipeline;
+    private final String defaultFormat;
+    private final int bufferSize;
+    private final Timer timeToFirstByte;
+
+    /**
+     * Without a pipeline executor the sentences of long texts and batches are synthesized one at a time on the
+     * request thread.
+     */
+    public TextToSpeech(SpeechSynthesizer synthesizer, String defaultFormat, int bufferSize, MetricRegistry metrics) {
+        this(synthesizer, new SentencePipeline(synthesizer, MoreExecutors.newDirectExecutorService(), 1), defaultFormat,
+                bufferSize, metrics);
+    }
+
+    public TextToSpeech(SpeechSynthesizer synthesizer, SentencePipeline pipeline, String defaultFormat, int bufferSize,
+                        MetricRegistry metrics) {
+        this.synthesizer = synthesizer;
+        this.pipeline = pipeline;
+        this.defaultFormat = defaultFormat;
+        this.bufferSize = bufferSize;
+        this.timeToFirstByte = metrics.timer(MetricRegistry.name(TextToSpeech.class, "time-to-first-byte"));
+    }
 
     @GET
     @Timed
-    public String sayHello() {
-        /*RestTemplate template = new RestTemplate();
-        String plainCreds = username+":"+password;
-        byte[] plainCredsBytes = plainCreds.getBytes();
-        byte[] base64CredsBytes = Base64.encodeBase64(plainCredsBytes);
-        String base64Creds = new String(base64CredsBytes);
-
-        HttpHeaders headers = new HttpHeaders();
-        headers.add("Authorization", "Basic " + base64Creds);
-
-        //template.exchange("https://stream.watsonplatform.net/text-to-speech/api/v1/synthesize?text=Hello", HttpMethod.POST, new HttpEntity<String>(createHeaders(this.username,this.password)));
-
-        // Create the request body as a MultiValueMap
-        MultiValueMap<String, String> body = new LinkedMultiValueMap<String, String>();
-        body.add("field", "value");
-        // Note the body object as first parameter!
-        HttpEntity<?> httpEntity = new HttpEntity<Object>(body, headers);
-
-        //template.getForObject()
-        HttpEntity<String> request = new HttpEntity<String>(headers);
-        ResponseEntity<Object> response = template.exchange(url, HttpMethod.GET, request, Object.class);
-
-        System.out.println(response);
-        */
-        return "What up!!!";
-    }
-
-    /*public HttpHeaders createHeaders(final String username, final String password ){
-        return new HttpHeaders(){
-            {
-                String auth = username + ":" + password;
-                byte[] encodedAuth = Base64.encodeBase64(
-                        auth.getBytes(Charset.forName("US-ASCII")) );
-                String authHeader = "Basic " + new String( encodedAuth );
-                set( "Authorization", authHeader );
+    public Response synthesize(@QueryParam("text") String text,
+                               @QueryParam("voice") Optional<String> voice,
+                               @QueryParam("format") Optional<String> format) {
+        return stream(text, voice.orNull(), format.or(defaultFormat));
+    }
+
+    @POST
+    @Timed
+    @Consumes(MediaType.TEXT_PLAIN)
+    public Response synthesizeText(String text,
+                                   @QueryParam("voice") Optional<String> voice,
+                                   @QueryParam("format") Optional<String> format) {
+        return stream(text, voice.orNull(), format.or(defaultFormat));
+    }
+
+    /**
+     * Synthesizes a long text sentence by sentence, streaming each sentence's audio as soon as it and the ones
+     * before it are ready.
+     */
+    @POST
+    @Timed
+    @Path("/sentences")
+    @Consumes(MediaType.TEXT_PLAIN)
+    public Response synthesizeSentences(String text,
+                                        @QueryParam("voice") Optional<String> voice,
+                                        @QueryParam("format") Optional<String> format) {
+        return stream(pipeline, text, voice.orNull(), format.or(defaultFormat));
+    }
+
+    /**
+     * Synthesizes a JSON array of texts in parallel and returns them in order as the parts of a multipart/mixed
+     * response, each with its index as Content-ID.
+     */
+    @POST
+    @Timed
+    @Path("/batch")
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces("multipart/mixed")
+    public Response synthesizeBatch(List<String> texts,
+                                    @QueryParam("voice") Optional<String> voice,
+                                    @QueryParam("format") Optional<String> format) {
+        if (texts == null || texts.isEmpty()) {
+            throw new WebApplicationException(Response.Status.BAD_REQUEST);
+        }
+        if (texts.size() > MAX_BATCH_TEXTS) {
+            throw new WebApplicationException(Response.Status.REQUEST_ENTITY_TOO_LARGE);
+        }
+        for (String text : texts) {
+            if (text == null || text.trim().isEmpty()) {
+                throw new WebApplicationException(Response.Status.BAD_REQUEST);
+            }
+        }
+
+        final String partType = format.or(defaultFormat);
+        final long start = System.nanoTime();
+        final SentencePipeline.Segments segments = pipeline.segments(texts, voice.orNull(), partType);
+        final byte[] first;
+        try {
+            first = segments.next();
+        } catch (IllegalArgumentException e) {
+            segments.close();
+            throw new WebApplicationException(Response.Status.NOT_ACCEPTABLE);
+        } catch (IOException e) {
+            segments.close();
+            LOGGER.error("Speech synthesis failed", e);
+            throw new WebApplicationException(Response.Status.SERVICE_UNAVAILABLE);
+        }
+
+        final String boundary = UUID.randomUUID().toString();
+        StreamingOutput output = new StreamingOutput() {
+            @Override
+            public void write(OutputStream out) throws IOException {
+                try {
+                    byte[] audio = first;
+                    for (int i = 0; audio != null; i++, audio = segments.next()) {
+                        String headers = "--" + boundary + "\r\nContent-Type: " + partType + "\r\nContent-ID: <" + i
+                                + ">\r\nContent-Length: " + audio.length + "\r\n\r\n";
+                        out.write(headers.getBytes(StandardCharsets.US_ASCII));
+                        out.write(audio);
+                        out.write(CRLF);
+                        out.flush();
+                        if (i == 0) {
+                            timeToFirstByte.update(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                        }
+                    }
+                    out.write(("--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII));
+                } finally {
+                    segments.close();
+                }
+            }
+        };
+        return Response.ok(output, "multipart/mixed; boundary=" + boundary).build();
+    }
+
+    protected Response stream(String text, String voice, String format) {
+        return stream(synthesizer, text, voice, format);
+    }
+
+    /**
+     * Starts the synthesis before answering, so a failing backend still gets a proper status code instead of a
+     * truncated 200.
+     */
+    protected Response stream(SpeechSynthesizer synthesizer, String text, String voice, String format) {
+        if (text == null || text.trim().isEmpty()) {
+            throw new WebApplicationException(Response.Status.BAD_REQUEST);
+        }
+
+        final long start = System.nanoTime();
+        final InputStream audio;
+        try {
+            audio = synthesizer.synthesize(text, voice, format);
+        } catch (IllegalArgumentException e) {
+            throw new WebApplicationException(Response.Status.NOT_ACCEPTABLE);
+        } catch (IOException e) {
+            LOGGER.error("Speech synthesis failed", e);
+            throw new WebApplicationException(Response.Status.SERVICE_UNAVAILABLE);
+        }
+
+        StreamingOutput output = new StreamingOutput() {
+            @Override
+            public void write(OutputStream out) throws IOException {
+                try {
+                    if (audio instanceof SpeechCache.DiskClip) {
+                        transfer((SpeechCache.DiskClip) audio, out, start);
+                    } else {
+                        copy(audio, out, start);
+                    }
+                } finally {
+                    audio.close();
+                }
             }
         };
-    }*/
+        return Response.ok(output, format).build();
+    }
+
+    private void copy(InputStream audio, OutputStream out, long start) throws IOException {
+        byte[] buffer = new byte[bufferSize];
+        boolean first = true;
+        int n;
+        while ((n = audio.read(buffer)) >= 0) {
+            if (n == 0) {
+                continue;
+            }
+            out.write(buffer, 0, n);
+            out.flush();
+            if (first) {
+                timeToFirstByte.update(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                first = false;
+            }
+        }
+    }
+
+    /**
+     * Sends a cached clip on disk in bufferSize chunks, so it is never held in memory as a whole. The response stream
+     * is not a file or socket channel, so {@link java.nio.channels.FileChannel#transferTo} takes the JDK's fallback
+     * for arbitrary channels: each chunk is read into a temporary buffer and copied through a byte array into the
+     * stream, which costs about what reading the clip would.
+     */
+    private void transfer(SpeechCache.DiskClip clip, OutputStream out, long start) throws IOException {
+        WritableByteChannel channel = Channels.newChannel(out);
+        boolean first = true;
+        long position = 0;
+        while (position < clip.size()) {
+            position += clip.transferTo(position, bufferSize, channel);
+            out.flush();
+            if (first) {
+                timeToFirstByte.update(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                first = false;
+            }
+        }
+    }
 }
@@ -0,0 +1,70 @@
+package com.alfred.ishopper.server;
+
+import com.alfred.ishopper.client.JsonRestClient;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import io.dropwizard.jackson.Jackson;
+
+import javax.ws.rs.Produces;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.StreamingOutput;
+import javax.ws.rs.ext.MessageBodyWriter;
+import javax.ws.rs.ext.Provider;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+
+/**
+ * Writes entities as Smile or CBOR, the binary encodings of JSON, for resources that list those media types in
+ * their @Produces next to JSON and callers that ask for them. The mappers are set up like Dropwizard's own, so the
+ * documents have the same fields as the JSON ones.
+ */
+@Provider
+@Produces({ JsonRestClient.APPLICATION_SMILE, JsonRestClient.APPLICATION_CBOR })
+public class BinaryJsonWriter implements MessageBodyWriter<Object> {
+    private static final MediaType SMILE_TYPE = MediaType.valueOf(JsonRestClient.APPLICATION_SMILE);
+
+    private final ObjectMapper smile;
+    private final ObjectMapper cbor;
+
+    public BinaryJsonWriter() {
+        this(mapper(new SmileFactory()), mapper(new CBORFactory()));
+    }
+
+    public BinaryJsonWriter(ObjectMapper smile, ObjectMapper cbor) {
+        this.smile = smile;
+        this.cbor = cbor;
+    }
+
+    private static ObjectMapper mapper(JsonFactory factory) {
+        ObjectMapper mapper = Jackson.newObjectMapper(factory);
+        // Jersey closes the entity stream itself
+        mapper.configure(JsonGenerator.Feature.AUTO_CLOSE_TARGET, false);
+        return mapper;
+    }
+
+    @Override
+    public boolean isWriteable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+        return type != String.class && type != byte[].class
+                && !InputStream.class.isAssignableFrom(type) && !StreamingOutput.class.isAssignableFrom(type);
+    }
+
+    @Override
+    public long getSize(Object value, Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+        return -1;
+    }
+
+    @Override
+    public void writeTo(Object value, Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType,
+                        MultivaluedMap<String, Object> httpHeaders, OutputStream out)
+            throws IOException, WebApplicationException {
+        (SMILE_TYPE.isCompatible(mediaType) ? smile : cbor).writeValue(out, value);
+    }
+}
@@ -0,0 +1,75 @@
+package com.alfred.ishopper.server;
+
+import com.alfred.ishopper.client.Deadline;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.dropwizard.setup.Environment;
+import io.dropwizard.util.Duration;
+
+import javax.servlet.DispatcherType;
+import javax.validation.constraints.NotNull;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Time budgets for inbound requests. A request gets the budget of the longest route its path starts with, or else
+ * the default budget; a shorter budget sent by the caller in the {@link Deadline#HEADER} header takes precedence
+ * when {@link #isAcceptHeader() acceptHeader} is on. Requests with neither run without a deadline.
+ */
+public class DeadlineConfiguration {
+    @JsonProperty
+    private Duration defaultBudget;
+
+    @NotNull
+    @JsonProperty
+    private Map<String, Duration> routes = new LinkedHashMap<String, Duration>();
+
+    @JsonProperty
+    private boolean acceptHeader;
+
+    /**
+     * Installs the filter that sets each request's deadline; does nothing when no request could get one.
+     */
+    public void configure(Environment environment) {
+        if (defaultBudget == null && routes.isEmpty() && !acceptHeader) {
+            return;
+        }
+        environment.servlets().addFilter("request-deadline", new RequestDeadlineFilter(this, environment.metrics()))
+                .addMappingForUrlPatterns(EnumSet.of(DispatcherType.REQUEST), true, "/*");
+    }
+
+    /**
+     * Budget of requests that match no route; none by default.
+     */
+    public Duration getDefaultBudget() {
+        return defaultBudget;
+    }
+
+    public void setDefaultBudget(Duration defaultBudget) {
+        this.defaultBudget = defaultBudget;
+    }
+
+    /**
+     * Budgets by request path prefix, such as <code>/hello-world: 200ms</code>.
+     */
+    public Map<String, Duration> getRoutes() {
+        return routes;
+    }
+
+    public void setRoutes(Map<String, Duration> routes) {
+        this.routes = routes;
+    }
+
+    /**
+     * Whether the remaining time a caller sends is honoured; off by default. It can only shorten a configured budget,
+     * but any caller could then make upstream calls time out early, so turn it on only where every caller is trusted,
+     * such as behind a gateway that strips or sets the header.
+     */
+    public boolean isAcceptHeader() {
+        return acceptHeader;
+    }
+
+    public void setAcceptHeader(boolean acceptHeader) {
+        this.acceptHeader = acceptHeader;
+    }
+}
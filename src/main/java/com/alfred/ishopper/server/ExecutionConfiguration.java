@@ -0,0 +1,134 @@
+package com.alfred.ishopper.server;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.dropwizard.lifecycle.ExecutorServiceManager;
+import io.dropwizard.setup.Environment;
+import io.dropwizard.util.Duration;
+import org.hibernate.validator.constraints.NotEmpty;
+import org.glassfish.hk2.utilities.binding.AbstractBinder;
+import org.glassfish.jersey.servlet.async.AsyncContextDelegateProviderImpl;
+import org.glassfish.jersey.servlet.spi.AsyncContextDelegateProvider;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.validation.constraints.Max;
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Where resource methods run:
+ * <ul>
+ * <li><code>jetty</code>: on the Jetty request thread, bounded by server.maxThreads;</li>
+ * <li><code>virtual</code>: on a new virtual thread per request, so requests blocked on upstream I/O cost no
+ * platform thread; falls back to <code>executor</code> on JVMs without virtual threads;</li>
+ * <li><code>executor</code>: on a dedicated pool of <code>threads</code> platform threads, with the Jetty thread
+ * released while the request is suspended. At most <code>queueSize</code> requests wait for a pool thread; the
+ * rest are answered with 503.</li>
+ * </ul>
+ * The pool comes on top of server.maxThreads, so a request blocked on upstream I/O still holds a platform thread:
+ * executor mode bounds and sheds the backlog, it does not serve more concurrent requests than jetty mode with the
+ * same total number of threads. Virtual mode has not been measured, as the service does not yet boot on Java 21.
+ */
+public class ExecutionConfiguration {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ExecutionConfiguration.class);
+
+    public static final String JETTY = "jetty";
+    public static final String VIRTUAL = "virtual";
+    public static final String EXECUTOR = "executor";
+
+    @NotEmpty
+    @JsonProperty
+    private String mode = JETTY;
+
+    @Min(1)
+    @Max(10000)
+    @JsonProperty
+    private int threads = 64;
+
+    @Min(1)
+    @Max(100000)
+    @JsonProperty
+    private int queueSize = 256;
+
+    @NotNull
+    @JsonProperty
+    private Duration shutdownGracePeriod = Duration.seconds(5);
+
+    /**
+     * Registers the executor and the model processor that moves resource methods onto it; does nothing in jetty
+     * mode.
+     */
+    public void configure(Environment environment) {
+        if (JETTY.equals(mode)) {
+            return;
+        }
+        if (!VIRTUAL.equals(mode) && !EXECUTOR.equals(mode)) {
+            throw new IllegalArgumentException("Unknown execution mode " + mode);
+        }
+
+        ExecutorService executor = VIRTUAL.equals(mode) ? VirtualThreads.newThreadPerTaskExecutor() : null;
+        if (executor != null) {
+            environment.lifecycle().manage(new ExecutorServiceManager(executor, shutdownGracePeriod, "resource-virtual"));
+        } else {
+            if (VIRTUAL.equals(mode)) {
+                LOGGER.warn("Virtual threads need Java 21, running resources on {} executor threads instead", threads);
+            }
+            executor = environment.lifecycle().executorService("resource-%d")
+                    .minThreads(threads)
+                    .maxThreads(threads)
+                    .workQueue(new ArrayBlockingQueue<Runnable>(queueSize))
+                    .shutdownTime(shutdownGracePeriod)
+                    .build();
+        }
+
+        // normally found through META-INF/services, whose lookup the application turns off
+        environment.jersey().register(new AbstractBinder() {
+            @Override
+            protected void configure() {
+                bind(AsyncContextDelegateProviderImpl.class).to(AsyncContextDelegateProvider.class);
+            }
+        });
+        environment.jersey().register(new ResourceExecutorProvider(executor, environment.metrics()));
+        environment.jersey().register(ManagedAsyncModelProcessor.class);
+    }
+
+    public String getMode() {
+        return mode;
+    }
+
+    public void setMode(String mode) {
+        this.mode = mode;
+    }
+
+    /**
+     * Size of the pool in executor mode, and in virtual mode when it falls back to it.
+     */
+    public int getThreads() {
+        return threads;
+    }
+
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    /**
+     * How many requests may wait for a pool thread before further ones are rejected with 503.
+     */
+    public int getQueueSize() {
+        return queueSize;
+    }
+
+    public void setQueueSize(int queueSize) {
+        this.queueSize = queueSize;
+    }
+
+    public Duration getShutdownGracePeriod() {
+        return shutdownGracePeriod;
+    }
+
+    public void setShutdownGracePeriod(Duration shutdownGracePeriod) {
+        this.shutdownGracePeriod = shutdownGracePeriod;
+    }
+}
@@ -0,0 +1,47 @@
+package com.alfred.ishopper.server;
+
+import org.glassfish.jersey.server.model.ModelProcessor;
+import org.glassfish.jersey.server.model.Resource;
+import org.glassfish.jersey.server.model.ResourceMethod;
+import org.glassfish.jersey.server.model.ResourceModel;
+
+import javax.ws.rs.core.Configuration;
+
+/**
+ * Marks every resource method as {@link org.glassfish.jersey.server.ManagedAsync}, so Jersey suspends the request,
+ * frees the Jetty thread and invokes the method, and writes its response, on the managed async executor instead.
+ * Resource classes stay synchronous; methods that already suspend themselves are left alone.
+ */
+public class ManagedAsyncModelProcessor implements ModelProcessor {
+
+    @Override
+    public ResourceModel processResourceModel(ResourceModel resourceModel, Configuration configuration) {
+        return process(resourceModel, false);
+    }
+
+    @Override
+    public ResourceModel processSubResource(ResourceModel subResourceModel, Configuration configuration) {
+        return process(subResourceModel, true);
+    }
+
+    private static ResourceModel process(ResourceModel model, boolean subResource) {
+        ResourceModel.Builder builder = new ResourceModel.Builder(subResource);
+        for (Resource resource : model.getResources()) {
+            builder.addResource(process(resource));
+        }
+        return builder.build();
+    }
+
+    private static Resource process(Resource resource) {
+        Resource.Builder builder = Resource.builder(resource);
+        for (ResourceMethod method : resource.getResourceMethods()) {
+            if (!method.isSuspendDeclared() && !method.isManagedAsyncDeclared()) {
+                builder.updateMethod(method).managedAsync();
+            }
+        }
+        for (Resource child : resource.getChildResources()) {
+            builder.replaceChildResource(child, process(child));
+        }
+        return builder.build();
+    }
+}
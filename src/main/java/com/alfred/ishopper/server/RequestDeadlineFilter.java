@@ -0,0 +1,131 @@
+package com.alfred.ishopper.server;
+
+import com.alfred.ishopper.client.Deadline;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import io.dropwizard.util.Duration;
+import org.eclipse.jetty.server.Request;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Makes each inbound request's {@link Deadline} current for the thread handling it. The budget counts from when
+ * Jetty received the request, so time spent waiting for a thread is part of it, and a request whose budget is
+ * already spent is answered with 503 without being processed. Those are metered as
+ * RequestDeadlineFilter.expired.
+ */
+public class RequestDeadlineFilter implements Filter {
+    private static final Logger LOGGER = LoggerFactory.getLogger(RequestDeadlineFilter.class);
+
+    private static final long NONE = -1;
+
+    private final long defaultBudgetMillis;
+    private final String[] routes;
+    private final long[] routeBudgetMillis;
+    private final boolean acceptHeader;
+    private final Meter expired;
+
+    public RequestDeadlineFilter(DeadlineConfiguration config, MetricRegistry metrics) {
+        Duration defaultBudget = config.getDefaultBudget();
+        this.defaultBudgetMillis = defaultBudget != null ? defaultBudget.toMilliseconds() : NONE;
+        this.acceptHeader = config.isAcceptHeader();
+
+        // longest first, so the most specific route wins
+        List<Map.Entry<String, Duration>> entries = new ArrayList<Map.Entry<String, Duration>>(config.getRoutes().entrySet());
+        Collections.sort(entries, new Comparator<Map.Entry<String, Duration>>() {
+            @Override
+            public int compare(Map.Entry<String, Duration> a, Map.Entry<String, Duration> b) {
+                return b.getKey().length() - a.getKey().length();
+            }
+        });
+        this.routes = new String[entries.size()];
+        this.routeBudgetMillis = new long[entries.size()];
+        for (int i = 0; i < entries.size(); i++) {
+            String route = entries.get(i).getKey();
+            routes[i] = route.length() > 1 && route.endsWith("/") ? route.substring(0, route.length() - 1) : route;
+            routeBudgetMillis[i] = entries.get(i).getValue().toMilliseconds();
+        }
+
+        this.expired = metrics != null ? metrics.meter(MetricRegistry.name(RequestDeadlineFilter.class, "expired")) : new Meter();
+    }
+
+    @Override
+    public void init(FilterConfig filterConfig) {
+    }
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+            throws IOException, ServletException {
+        long budget = request instanceof HttpServletRequest ? budgetMillis((HttpServletRequest) request) : NONE;
+        if (budget == NONE) {
+            chain.doFilter(request, response);
+            return;
+        }
+
+        long received = request instanceof Request ? ((Request) request).getTimeStamp() : 0;
+        long remaining = received > 0 ? budget - Math.max(System.currentTimeMillis() - received, 0) : budget;
+        if (remaining <= 0) {
+            expired.mark();
+            LOGGER.debug("{} abandoned, its deadline passed before it was handled", ((HttpServletRequest) request).getRequestURI());
+            ((HttpServletResponse) response).sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            return;
+        }
+
+        Deadline previous = Deadline.set(Deadline.after(remaining, TimeUnit.MILLISECONDS));
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            Deadline.set(previous);
+        }
+    }
+
+    /**
+     * The request's budget in milliseconds, or {@link #NONE}.
+     */
+    long budgetMillis(HttpServletRequest request) {
+        long budget = defaultBudgetMillis;
+        String path = request.getRequestURI();
+        for (int i = 0; i < routes.length; i++) {
+            if (matches(path, routes[i])) {
+                budget = routeBudgetMillis[i];
+                break;
+            }
+        }
+
+        String header = acceptHeader ? request.getHeader(Deadline.HEADER) : null;
+        if (header != null) {
+            try {
+                long requested = Math.max(Long.parseLong(header.trim()), 0);
+                budget = budget == NONE ? requested : Math.min(budget, requested);
+            } catch (NumberFormatException e) {
+                LOGGER.debug("Ignoring malformed {} header {}", Deadline.HEADER, header);
+            }
+        }
+        return budget;
+    }
+
+    private static boolean matches(String path, String route) {
+        return path.startsWith(route)
+                && (path.length() == route.length() || route.endsWith("/") || path.charAt(route.length()) == '/');
+    }
+
+    @Override
+    public void destroy() {
+    }
+}
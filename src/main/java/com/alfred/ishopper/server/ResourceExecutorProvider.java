@@ -0,0 +1,97 @@
+package com.alfred.ishopper.server;
+
+import com.alfred.ishopper.client.Deadline;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import io.dropwizard.jersey.errors.ErrorMessage;
+import org.glassfish.jersey.server.ManagedAsyncExecutor;
+import org.glassfish.jersey.spi.ExecutorServiceProvider;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Supplies the executor Jersey runs managed async resource methods on. The executor's lifecycle belongs to
+ * whoever created it, so it is not shut down here. Requests the executor rejects are answered with 503 and metered
+ * as ResourceExecutorProvider.rejected.
+ */
+@ManagedAsyncExecutor
+public class ResourceExecutorProvider implements ExecutorServiceProvider {
+    private final ExecutorService executor;
+
+    public ResourceExecutorProvider(ExecutorService executor, MetricRegistry metrics) {
+        this.executor = new DeadlinePropagatingExecutor(executor,
+                metrics.meter(MetricRegistry.name(ResourceExecutorProvider.class, "rejected")));
+    }
+
+    @Override
+    public ExecutorService getExecutorService() {
+        return executor;
+    }
+
+    @Override
+    public void dispose(ExecutorService executorService) {
+        // managed by the application lifecycle
+    }
+
+    /**
+     * Runs each resource method under the {@link Deadline} of its request, which Jersey submits from the request
+     * thread the servlet filters ran on. A rejection is rethrown as a 503 that carries its own entity: Jersey
+     * answers any other exception thrown there with a 500, and Dropwizard logs the stack trace of a 503 without one
+     * for every request shed.
+     */
+    private static class DeadlinePropagatingExecutor extends AbstractExecutorService {
+        private final ExecutorService delegate;
+        private final Meter rejected;
+
+        DeadlinePropagatingExecutor(ExecutorService delegate, Meter rejected) {
+            this.delegate = delegate;
+            this.rejected = rejected;
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            try {
+                delegate.execute(Deadline.propagate(command));
+            } catch (RejectedExecutionException e) {
+                rejected.mark();
+                Response.Status status = Response.Status.SERVICE_UNAVAILABLE;
+                throw new WebApplicationException(e, Response.status(status)
+                        .type(MediaType.APPLICATION_JSON_TYPE)
+                        .entity(new ErrorMessage(status.getStatusCode(), "Server busy, try again later"))
+                        .build());
+            }
+        }
+
+        @Override
+        public void shutdown() {
+            delegate.shutdown();
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            return delegate.shutdownNow();
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return delegate.isShutdown();
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return delegate.isTerminated();
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+            return delegate.awaitTermination(timeout, unit);
+        }
+    }
+}
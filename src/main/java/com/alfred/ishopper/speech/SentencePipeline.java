@@ -0,0 +1,317 @@
+package com.alfred.ishopper.speech;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.text.BreakIterator;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Synthesizes long texts sentence by sentence. Up to <code>depth</code> sentences of a request are synthesized in
+ * parallel on a dedicated executor, and their audio is returned in order as soon as the next one is ready, so the
+ * first sentence can be heard while the rest are still being produced.
+ * <p>
+ * Sentences are joined into a single stream. WAV segments are stitched into one file with streaming lengths
+ * (0xFFFFFFFF, as Watson sends them); other formats, such as MP3 frames or chained Ogg streams, are concatenated as
+ * they are.
+ */
+public class SentencePipeline implements SpeechSynthesizer {
+    private static final int MIN_SENTENCE_LENGTH = 12;
+    private static final Pattern TRAILING_LIST_MARKER = Pattern.compile("\\s(\\d{1,3}[.)])$");
+    private static final int BUFFER_SIZE = 8192;
+
+    private final SpeechSynthesizer synthesizer;
+    private final ExecutorService executor;
+    private final int depth;
+
+    public SentencePipeline(SpeechSynthesizer synthesizer, ExecutorService executor, int depth) {
+        if (depth < 1) {
+            throw new IllegalArgumentException("depth must be at least 1");
+        }
+        this.synthesizer = synthesizer;
+        this.executor = executor;
+        this.depth = depth;
+    }
+
+    /**
+     * Splits the text into sentences for the voice's language. Fragments shorter than a few words, such as the
+     * "1." of a numbered step, are kept with the following sentence; so is a step number the sentence iterator left
+     * at the end of the previous one.
+     */
+    public static List<String> split(String text, String voice) {
+        BreakIterator sentences = BreakIterator.getSentenceInstance(locale(voice));
+        sentences.setText(text);
+
+        List<String> result = new ArrayList<String>();
+        StringBuilder pending = new StringBuilder();
+        int start = sentences.first();
+        for (int end = sentences.next(); end != BreakIterator.DONE; start = end, end = sentences.next()) {
+            pending.append(text, start, end);
+            String sentence = pending.toString().trim();
+            if (sentence.length() >= MIN_SENTENCE_LENGTH) {
+                pending.setLength(0);
+                Matcher marker = TRAILING_LIST_MARKER.matcher(sentence);
+                if (marker.find()) {
+                    pending.append(marker.group(1)).append(' ');
+                    sentence = sentence.substring(0, marker.start());
+                }
+                result.add(sentence);
+            }
+        }
+
+        String rest = pending.toString().trim();
+        if (!rest.isEmpty()) {
+            if (result.isEmpty()) {
+                result.add(rest);
+            } else {
+                result.set(result.size() - 1, result.get(result.size() - 1) + " " + rest);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Watson voice names start with their language tag, as in en-US_AllisonVoice.
+     */
+    private static Locale locale(String voice) {
+        if (voice != null && voice.indexOf('_') > 0) {
+            return Locale.forLanguageTag(voice.substring(0, voice.indexOf('_')));
+        }
+        return Locale.ENGLISH;
+    }
+
+    /**
+     * Waits for the first sentence before returning, so a failing backend is reported here rather than half way
+     * through the response.
+     */
+    @Override
+    public InputStream synthesize(String text, String voice, String format) throws IOException {
+        List<String> sentences = split(text, voice);
+        if (sentences.size() <= 1) {
+            return synthesizer.synthesize(text, voice, format);
+        }
+        return new JoinedInputStream(segments(sentences, voice, format), isWav(format));
+    }
+
+    /**
+     * Starts synthesizing the texts, each as one segment, and returns them in order.
+     */
+    public Segments segments(List<String> texts, String voice, String format) {
+        return new Segments(texts, voice, format);
+    }
+
+    private static boolean isWav(String format) {
+        return format.startsWith("audio/wav") || format.startsWith("audio/x-wav") || format.startsWith("audio/wave");
+    }
+
+    private byte[] synthesizeFully(String text, String voice, String format) throws IOException {
+        InputStream audio = synthesizer.synthesize(text, voice, format);
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(BUFFER_SIZE);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int n;
+            while ((n = audio.read(buffer)) >= 0) {
+                bytes.write(buffer, 0, n);
+            }
+            return bytes.toByteArray();
+        } finally {
+            audio.close();
+        }
+    }
+
+    /**
+     * The audio of a list of texts in order, synthesized at most <code>depth</code> ahead of the one being read.
+     * Closing cancels whatever has not been read yet.
+     */
+    public class Segments implements Closeable {
+        private final List<String> texts;
+        private final String voice;
+        private final String format;
+        private final ArrayDeque<Future<byte[]>> pending = new ArrayDeque<Future<byte[]>>();
+        private int submitted;
+
+        Segments(List<String> texts, String voice, String format) {
+            this.texts = Collections.unmodifiableList(new ArrayList<String>(texts));
+            this.voice = voice;
+            this.format = format;
+            schedule();
+        }
+
+        private void schedule() {
+            while (pending.size() < depth && submitted < texts.size()) {
+                final String text = texts.get(submitted++);
+                pending.add(executor.submit(new Callable<byte[]>() {
+                    @Override
+                    public byte[] call() throws IOException {
+                        return synthesizeFully(text, voice, format);
+                    }
+                }));
+            }
+        }
+
+        public int size() {
+            return texts.size();
+        }
+
+        /**
+         * Waits for the next segment's audio; null after the last one.
+         *
+         * @throws IllegalArgumentException when the format is not supported
+         * @throws IOException when the backend failed for this segment
+         */
+        public byte[] next() throws IOException {
+            Future<byte[]> next = pending.poll();
+            if (next == null) {
+                return null;
+            }
+            try {
+                return next.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                close();
+                throw new IOException("Interrupted while waiting for speech synthesis", e);
+            } catch (ExecutionException e) {
+                close();
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                }
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                throw new IOException(cause);
+            } finally {
+                schedule();
+            }
+        }
+
+        @Override
+        public void close() {
+            submitted = texts.size();
+            for (Future<byte[]> future : pending) {
+                future.cancel(true);
+            }
+            pending.clear();
+        }
+    }
+
+    /**
+     * Reads the segments one after the other. The first segment is fetched on construction.
+     */
+    private static class JoinedInputStream extends InputStream {
+        private final Segments segments;
+        private final boolean wav;
+        private byte[] current;
+        private int position;
+        private boolean first = true;
+
+        JoinedInputStream(Segments segments, boolean wav) throws IOException {
+            this.segments = segments;
+            this.wav = wav;
+            advance();
+        }
+
+        private boolean advance() throws IOException {
+            byte[] next = segments.next();
+            if (next == null) {
+                current = null;
+                return false;
+            }
+            position = wav ? Wav.stitch(next, first) : 0;
+            current = next;
+            first = false;
+            return true;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            while (current != null && position >= current.length) {
+                advance();
+            }
+            if (current == null) {
+                return -1;
+            }
+            int n = Math.min(len, current.length - position);
+            System.arraycopy(current, position, b, off, n);
+            position += n;
+            return n;
+        }
+
+        @Override
+        public void close() {
+            segments.close();
+        }
+    }
+
+    static final class Wav {
+        private static final int STREAMING_LENGTH = 0xFFFFFFFF;
+
+        private Wav() {
+        }
+
+        /**
+         * Prepares a segment for joining and returns where its bytes to send start: after the header for all but
+         * the first segment, whose RIFF and data lengths are set to the streaming value instead. Anything that is
+         * not a RIFF/WAVE file is sent whole.
+         */
+        static int stitch(byte[] segment, boolean first) {
+            if (segment.length < 12 || !ascii(segment, 0, "RIFF") || !ascii(segment, 8, "WAVE")) {
+                return 0;
+            }
+            int chunk = 12;
+            while (chunk + 8 <= segment.length) {
+                int size = int32(segment, chunk + 4);
+                if (ascii(segment, chunk, "data")) {
+                    if (first) {
+                        putInt32(segment, 4, STREAMING_LENGTH);
+                        putInt32(segment, chunk + 4, STREAMING_LENGTH);
+                        return 0;
+                    }
+                    return chunk + 8;
+                }
+                if (size < 0) {
+                    break;
+                }
+                chunk += 8 + size + (size & 1);
+            }
+            return 0;
+        }
+
+        private static boolean ascii(byte[] b, int offset, String value) {
+            for (int i = 0; i < value.length(); i++) {
+                if (b[offset + i] != value.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static int int32(byte[] b, int offset) {
+            return (b[offset] & 0xFF) | (b[offset + 1] & 0xFF) << 8 | (b[offset + 2] & 0xFF) << 16 | (b[offset + 3] & 0xFF) << 24;
+        }
+
+        private static void putInt32(byte[] b, int offset, int value) {
+            b[offset] = (byte) value;
+            b[offset + 1] = (byte) (value >> 8);
+            b[offset + 2] = (byte) (value >> 16);
+            b[offset + 3] = (byte) (value >> 24);
+        }
+    }
+}
@@ -0,0 +1,562 @@
+package com.alfred.ishopper.speech;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Content-addressed cache in front of a {@link SpeechSynthesizer}. Clips are keyed by the SHA-256 of the normalized
+ * text, the voice and the format, and kept in two LRU tiers bounded by bytes: small clips in memory, every clip in
+ * a directory on disk. Disk hits are returned as a {@link DiskClip}, which is read from its file in chunks rather
+ * than loaded into memory as a whole.
+ * <p>
+ * A miss streams the backend's audio to the caller while writing it to a temporary file, which becomes the cached
+ * clip once the audio has been read to the end. Concurrent misses for the same key wait for that one synthesis
+ * instead of starting their own; if the first caller gives up half way, one of them synthesizes instead. A caller
+ * that has waited longer than the wait timeout synthesizes the clip itself without caching it.
+ */
+public class SpeechCache implements SpeechSynthesizer {
+    private static final Logger LOGGER = LoggerFactory.getLogger(SpeechCache.class);
+
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final int KEY_LENGTH = 64;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final SpeechSynthesizer synthesizer;
+    private final Path directory;
+    private final long maxMemoryBytes;
+    private final long maxDiskBytes;
+    private final long waitTimeoutNanos;
+
+    private final LinkedHashMap<String, byte[]> memory = new LinkedHashMap<String, byte[]>(16, 0.75f, true);
+    private final LinkedHashMap<String, Long> disk = new LinkedHashMap<String, Long>(16, 0.75f, true);
+    private long memoryBytes;
+    private long diskBytes;
+
+    private final ConcurrentMap<String, CompletableFuture<Boolean>> inFlight =
+            new ConcurrentHashMap<String, CompletableFuture<Boolean>>();
+
+    private final Meter memoryHits = new Meter();
+    private final Meter diskHits = new Meter();
+    private final Meter misses = new Meter();
+    private final Meter coalesced = new Meter();
+    private final Meter waitTimeouts = new Meter();
+    private final Meter evictions = new Meter();
+
+    public SpeechCache(SpeechSynthesizer synthesizer, File directory, long maxMemoryBytes, long maxDiskBytes,
+                       long waitTimeoutMillis, MetricRegistry metrics) throws IOException {
+        this.synthesizer = synthesizer;
+        this.directory = directory.toPath();
+        this.maxMemoryBytes = maxMemoryBytes;
+        this.maxDiskBytes = maxDiskBytes;
+        this.waitTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(waitTimeoutMillis);
+
+        Files.createDirectories(this.directory);
+        load();
+
+        if (metrics != null) {
+            metrics.register(MetricRegistry.name(SpeechCache.class, "memory-hits"), memoryHits);
+            metrics.register(MetricRegistry.name(SpeechCache.class, "disk-hits"), diskHits);
+            metrics.register(MetricRegistry.name(SpeechCache.class, "misses"), misses);
+            metrics.register(MetricRegistry.name(SpeechCache.class, "coalesced"), coalesced);
+            metrics.register(MetricRegistry.name(SpeechCache.class, "wait-timeouts"), waitTimeouts);
+            metrics.register(MetricRegistry.name(SpeechCache.class, "evictions"), evictions);
+            metrics.register(MetricRegistry.name(SpeechCache.class, "memory-bytes"), new Gauge<Long>() {
+                @Override
+                public Long getValue() {
+                    synchronized (SpeechCache.this) {
+                        return memoryBytes;
+                    }
+                }
+            });
+            metrics.register(MetricRegistry.name(SpeechCache.class, "disk-bytes"), new Gauge<Long>() {
+                @Override
+                public Long getValue() {
+                    synchronized (SpeechCache.this) {
+                        return diskBytes;
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Rebuilds the disk index from a previous run, oldest file first, and removes unfinished clips.
+     */
+    private void load() throws IOException {
+        List<Path> clips = new ArrayList<Path>();
+        DirectoryStream<Path> files = Files.newDirectoryStream(directory);
+        try {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                if (name.endsWith(TEMP_SUFFIX)) {
+                    Files.deleteIfExists(file);
+                } else if (name.length() == KEY_LENGTH && Files.isRegularFile(file)) {
+                    clips.add(file);
+                }
+            }
+        } finally {
+            files.close();
+        }
+
+        Collections.sort(clips, new Comparator<Path>() {
+            @Override
+            public int compare(Path a, Path b) {
+                return Long.compare(a.toFile().lastModified(), b.toFile().lastModified());
+            }
+        });
+        for (Path clip : clips) {
+            stored(clip.getFileName().toString(), Files.size(clip));
+        }
+    }
+
+    /**
+     * Hex SHA-256 of the normalized text, voice and format.
+     */
+    public static String key(String text, String voice, String format) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(normalize(text).getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update((voice == null ? "" : voice).getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(format.getBytes(StandardCharsets.UTF_8));
+
+            byte[] hash = digest.digest();
+            char[] hex = new char[hash.length * 2];
+            for (int i = 0; i < hash.length; i++) {
+                hex[2 * i] = HEX[(hash[i] >> 4) & 0x0F];
+                hex[2 * i + 1] = HEX[hash[i] & 0x0F];
+            }
+            return new String(hex);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Unicode NFC with surrounding whitespace trimmed and inner runs of whitespace collapsed to one space, so
+     * phrases that only differ in layout share a clip. Case is kept, as it can change the pronunciation.
+     */
+    static String normalize(String text) {
+        String normalized = Normalizer.normalize(text, Normalizer.Form.NFC);
+        StringBuilder result = new StringBuilder(normalized.length());
+        boolean space = false;
+        for (int i = 0; i < normalized.length(); i++) {
+            char c = normalized.charAt(i);
+            if (Character.isWhitespace(c)) {
+                space = result.length() > 0;
+            } else {
+                if (space) {
+                    result.append(' ');
+                    space = false;
+                }
+                result.append(c);
+            }
+        }
+        return result.toString();
+    }
+
+    @Override
+    public InputStream synthesize(String text, String voice, String format) throws IOException {
+        String key = key(text, voice, format);
+        long waitUntil = System.nanoTime() + waitTimeoutNanos;
+
+        while (true) {
+            InputStream cached = lookup(key);
+            if (cached != null) {
+                return cached;
+            }
+
+            CompletableFuture<Boolean> flight = new CompletableFuture<Boolean>();
+            CompletableFuture<Boolean> existing = inFlight.putIfAbsent(key, flight);
+            if (existing == null) {
+                return lead(key, flight, text, voice, format);
+            }
+
+            coalesced.mark();
+            if (!await(existing, waitUntil - System.nanoTime())) {
+                waitTimeouts.mark();
+                return synthesizer.synthesize(text, voice, format);
+            }
+        }
+    }
+
+    private InputStream lead(String key, CompletableFuture<Boolean> flight, String text, String voice, String format)
+            throws IOException {
+        try {
+            // the previous leader may have stored the clip between our lookup and taking over
+            InputStream cached = lookup(key);
+            if (cached != null) {
+                finish(key, flight, true);
+                return cached;
+            }
+
+            misses.mark();
+            return new CachingInputStream(key, flight, synthesizer.synthesize(text, voice, format));
+        } catch (IOException e) {
+            fail(key, flight, e);
+            throw e;
+        } catch (RuntimeException e) {
+            fail(key, flight, e);
+            throw e;
+        }
+    }
+
+    /**
+     * Waits for another caller's synthesis of the same clip. Its backend failure is ours too; when it was abandoned
+     * we return to try the cache again, or to synthesize ourselves.
+     *
+     * @return false when the synthesis did not end in time
+     */
+    private static boolean await(CompletableFuture<Boolean> flight, long timeoutNanos) throws IOException {
+        try {
+            flight.get(Math.max(0, timeoutNanos), TimeUnit.NANOSECONDS);
+            return true;
+        } catch (TimeoutException e) {
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for speech synthesis", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    private void finish(String key, CompletableFuture<Boolean> flight, boolean stored) {
+        inFlight.remove(key, flight);
+        flight.complete(stored);
+    }
+
+    private void fail(String key, CompletableFuture<Boolean> flight, Throwable t) {
+        inFlight.remove(key, flight);
+        flight.completeExceptionally(t);
+    }
+
+    private InputStream lookup(String key) throws IOException {
+        synchronized (this) {
+            byte[] clip = memory.get(key);
+            if (clip != null) {
+                memoryHits.mark();
+                return new ByteArrayInputStream(clip);
+            }
+            if (disk.get(key) == null) {
+                return null;
+            }
+        }
+
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(directory.resolve(key), StandardOpenOption.READ);
+        } catch (NoSuchFileException e) {
+            // evicted since we looked
+            return null;
+        }
+        diskHits.mark();
+
+        long size = channel.size();
+        if (size > maxMemoryBytes / 8) {
+            return new DiskClip(channel);
+        }
+
+        try {
+            ByteBuffer clip = ByteBuffer.allocate((int) size);
+            while (clip.hasRemaining() && channel.read(clip) >= 0) {
+                // read the whole clip
+            }
+            remember(key, clip.array());
+            return new ByteArrayInputStream(clip.array());
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Keeps a clip read from disk in memory, unless it would take more than an eighth of the memory tier.
+     */
+    private synchronized void remember(String key, byte[] clip) {
+        byte[] previous = memory.put(key, clip);
+        if (previous != null) {
+            memoryBytes -= previous.length;
+        }
+        memoryBytes += clip.length;
+
+        Iterator<byte[]> eldest = memory.values().iterator();
+        while (memoryBytes > maxMemoryBytes && eldest.hasNext()) {
+            memoryBytes -= eldest.next().length;
+            eldest.remove();
+            evictions.mark();
+        }
+    }
+
+    private void stored(String key, long size) {
+        List<String> evicted = new ArrayList<String>();
+        synchronized (this) {
+            Long previous = disk.put(key, size);
+            if (previous != null) {
+                diskBytes -= previous;
+            }
+            diskBytes += size;
+
+            Iterator<Map.Entry<String, Long>> eldest = disk.entrySet().iterator();
+            while (diskBytes > maxDiskBytes && eldest.hasNext()) {
+                Map.Entry<String, Long> entry = eldest.next();
+                diskBytes -= entry.getValue();
+                eldest.remove();
+                evicted.add(entry.getKey());
+                evictions.mark();
+            }
+        }
+
+        for (String clip : evicted) {
+            try {
+                // readers that already opened the file keep reading it
+                Files.deleteIfExists(directory.resolve(clip));
+            } catch (IOException e) {
+                LOGGER.warn("Unable to delete cached speech {}", clip, e);
+            }
+        }
+    }
+
+    public synchronized boolean contains(String text, String voice, String format) {
+        String key = key(text, voice, format);
+        return memory.containsKey(key) || disk.containsKey(key);
+    }
+
+    /**
+     * Synthesizes the phrases that are not cached yet, one at a time. Failures are logged and skipped.
+     *
+     * @return the number of phrases synthesized
+     */
+    public int warm(Collection<String> phrases, String voice, String format) {
+        int warmed = 0;
+        byte[] buffer = new byte[8192];
+        for (String phrase : phrases) {
+            if (phrase == null || phrase.trim().isEmpty() || contains(phrase, voice, format)) {
+                continue;
+            }
+            try {
+                InputStream audio = synthesize(phrase, voice, format);
+                try {
+                    while (audio.read(buffer) >= 0) {
+                        // the cache keeps what we read
+                    }
+                } finally {
+                    audio.close();
+                }
+                warmed++;
+            } catch (IOException | RuntimeException e) {
+                LOGGER.warn("Unable to warm speech cache with \"{}\"", phrase, e);
+            }
+        }
+        return warmed;
+    }
+
+    /**
+     * A cached clip on disk. {@link #transferTo(long, long, WritableByteChannel)} lets the file channel move the
+     * bytes; only a file or socket channel target avoids the copy through a temporary buffer.
+     */
+    public static class DiskClip extends InputStream {
+        private final FileChannel channel;
+        private final long size;
+        private long position;
+
+        DiskClip(FileChannel channel) throws IOException {
+            this.channel = channel;
+            this.size = channel.size();
+        }
+
+        public long size() {
+            return size;
+        }
+
+        public long transferTo(long position, long count, WritableByteChannel target) throws IOException {
+            return channel.transferTo(position, Math.min(count, size - position), target);
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (position >= size) {
+                return -1;
+            }
+            int n = channel.read(ByteBuffer.wrap(b, off, (int) Math.min(len, size - position)), position);
+            if (n > 0) {
+                position += n;
+            }
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return (int) Math.min(Integer.MAX_VALUE, size - position);
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    /**
+     * Passes the backend's audio through while copying it to a temporary file. Reaching the end moves the file into
+     * place; closing early, a backend error or a clip larger than the disk tier discards it. Failing to write the
+     * file never fails the caller's read.
+     */
+    private class CachingInputStream extends InputStream {
+        private final String key;
+        private final CompletableFuture<Boolean> flight;
+        private final InputStream audio;
+        private final Path temp;
+        private OutputStream file;
+        private long size;
+        private boolean done;
+
+        CachingInputStream(String key, CompletableFuture<Boolean> flight, InputStream audio) {
+            this.key = key;
+            this.flight = flight;
+            this.audio = audio;
+            this.temp = directory.resolve(key + "." + UUID.randomUUID() + TEMP_SUFFIX);
+            try {
+                this.file = Files.newOutputStream(temp);
+            } catch (IOException e) {
+                LOGGER.warn("Unable to cache speech {}", key, e);
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n;
+            try {
+                n = audio.read(b, off, len);
+            } catch (IOException e) {
+                discard();
+                fail(key, flight, e);
+                done = true;
+                throw e;
+            }
+
+            if (n < 0) {
+                complete();
+            } else if (n > 0 && file != null) {
+                size += n;
+                try {
+                    if (size > maxDiskBytes) {
+                        discard();
+                    } else {
+                        file.write(b, off, n);
+                    }
+                } catch (IOException e) {
+                    LOGGER.warn("Unable to cache speech {}", key, e);
+                    discard();
+                }
+            }
+            return n;
+        }
+
+        private void complete() {
+            if (done) {
+                return;
+            }
+            done = true;
+
+            boolean stored = false;
+            if (file != null) {
+                try {
+                    file.close();
+                    file = null;
+                    Files.move(temp, directory.resolve(key), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                    stored(key, size);
+                    stored = true;
+                } catch (IOException e) {
+                    LOGGER.warn("Unable to cache speech {}", key, e);
+                    discard();
+                }
+            }
+            finish(key, flight, stored);
+        }
+
+        private void discard() {
+            if (file != null) {
+                try {
+                    file.close();
+                } catch (IOException e) {
+                    // deleted below
+                }
+                file = null;
+            }
+            try {
+                Files.deleteIfExists(temp);
+            } catch (IOException e) {
+                LOGGER.warn("Unable to delete {}", temp, e);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                audio.close();
+            } finally {
+                if (!done) {
+                    done = true;
+                    discard();
+                    finish(key, flight, false);
+                }
+            }
+        }
+    }
+}
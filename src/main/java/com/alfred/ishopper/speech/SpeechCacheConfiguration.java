@@ -0,0 +1,100 @@
+package com.alfred.ishopper.speech;
+
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.dropwizard.util.Duration;
+import io.dropwizard.util.Size;
+import org.hibernate.validator.constraints.NotEmpty;
+
+import javax.validation.constraints.NotNull;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Sizes and location of the {@link SpeechCache}, and the phrases synthesized into it at startup.
+ */
+public class SpeechCacheConfiguration {
+    @JsonProperty
+    private boolean enabled = false;
+
+    @NotEmpty
+    @JsonProperty
+    private String directory = "speech-cache";
+
+    @NotNull
+    @JsonProperty
+    private Size memorySize = Size.megabytes(32);
+
+    @NotNull
+    @JsonProperty
+    private Size diskSize = Size.gigabytes(1);
+
+    @NotNull
+    @JsonProperty
+    private Duration waitTimeout = Duration.seconds(10);
+
+    @NotNull
+    @JsonProperty
+    private List<String> warmPhrases = new ArrayList<String>();
+
+    public SpeechCache build(SpeechSynthesizer synthesizer, MetricRegistry metrics) throws IOException {
+        return new SpeechCache(synthesizer, new File(directory), memorySize.toBytes(), diskSize.toBytes(),
+                waitTimeout.toMilliseconds(), metrics);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public String getDirectory() {
+        return directory;
+    }
+
+    public void setDirectory(String directory) {
+        this.directory = directory;
+    }
+
+    public Size getMemorySize() {
+        return memorySize;
+    }
+
+    public void setMemorySize(Size memorySize) {
+        this.memorySize = memorySize;
+    }
+
+    public Size getDiskSize() {
+        return diskSize;
+    }
+
+    public void setDiskSize(Size diskSize) {
+        this.diskSize = diskSize;
+    }
+
+    /**
+     * How long a request waits for another request's synthesis of the same clip before synthesizing it itself.
+     */
+    public Duration getWaitTimeout() {
+        return waitTimeout;
+    }
+
+    public void setWaitTimeout(Duration waitTimeout) {
+        this.waitTimeout = waitTimeout;
+    }
+
+    /**
+     * Phrases synthesized in the background at startup with the default voice and format.
+     */
+    public List<String> getWarmPhrases() {
+        return warmPhrases;
+    }
+
+    public void setWarmPhrases(List<String> warmPhrases) {
+        this.warmPhrases = warmPhrases;
+    }
+}
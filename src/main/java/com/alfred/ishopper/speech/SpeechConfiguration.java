@@ -0,0 +1,188 @@
+package com.alfred.ishopper.speech;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.dropwizard.util.Duration;
+import org.hibernate.validator.constraints.NotEmpty;
+
+import javax.validation.Valid;
+import javax.validation.constraints.Max;
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+
+/**
+ * Selects and configures the text-to-speech backend. The "tone" engine needs no credentials and is meant for local
+ * runs and tests.
+ */
+public class SpeechConfiguration {
+    public static final String WATSON = "watson";
+    public static final String TONE = "tone";
+
+    @NotEmpty
+    @JsonProperty
+    private String engine = WATSON;
+
+    @NotEmpty
+    @JsonProperty
+    private String url = "https://stream.watsonplatform.net/text-to-speech/api/v1/synthesize";
+
+    @JsonProperty
+    private String username;
+
+    @JsonProperty
+    private String password;
+
+    @NotEmpty
+    @JsonProperty
+    private String voice = "en-US_AllisonVoice";
+
+    @NotEmpty
+    @JsonProperty
+    private String format = "audio/wav";
+
+    @NotNull
+    @JsonProperty
+    private Duration connectTimeout = Duration.seconds(2);
+
+    @NotNull
+    @JsonProperty
+    private Duration readTimeout = Duration.seconds(10);
+
+    @Min(512)
+    @Max(65536)
+    @JsonProperty
+    private int bufferSize = 4096;
+
+    @Min(1)
+    @Max(64)
+    @JsonProperty
+    private int pipelineThreads = 8;
+
+    @Min(1)
+    @Max(16)
+    @JsonProperty
+    private int pipelineDepth = 3;
+
+    @Valid
+    @NotNull
+    @JsonProperty
+    private SpeechCacheConfiguration cache = new SpeechCacheConfiguration();
+
+    public SpeechSynthesizer build() {
+        if (TONE.equals(engine)) {
+            return new ToneSpeechSynthesizer();
+        }
+        if (WATSON.equals(engine)) {
+            return new WatsonSpeechSynthesizer(url, username, password, voice,
+                    (int) connectTimeout.toMilliseconds(), (int) readTimeout.toMilliseconds());
+        }
+        throw new IllegalArgumentException("Unknown text-to-speech engine " + engine);
+    }
+
+    public String getEngine() {
+        return engine;
+    }
+
+    public void setEngine(String engine) {
+        this.engine = engine;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public void setUrl(String url) {
+        this.url = url;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public void setUsername(String username) {
+        this.username = username;
+    }
+
+    public String getPassword() {
+        return password;
+    }
+
+    public void setPassword(String password) {
+        this.password = password;
+    }
+
+    public String getVoice() {
+        return voice;
+    }
+
+    public void setVoice(String voice) {
+        this.voice = voice;
+    }
+
+    /**
+     * Audio format used when the request does not ask for one.
+     */
+    public String getFormat() {
+        return format;
+    }
+
+    public void setFormat(String format) {
+        this.format = format;
+    }
+
+    public Duration getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    public void setConnectTimeout(Duration connectTimeout) {
+        this.connectTimeout = connectTimeout;
+    }
+
+    public Duration getReadTimeout() {
+        return readTimeout;
+    }
+
+    public void setReadTimeout(Duration readTimeout) {
+        this.readTimeout = readTimeout;
+    }
+
+    /**
+     * Size of the buffer audio is copied through on its way to the client.
+     */
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    public void setBufferSize(int bufferSize) {
+        this.bufferSize = bufferSize;
+    }
+
+    /**
+     * Threads shared by all requests for synthesizing sentences and batch texts in parallel.
+     */
+    public int getPipelineThreads() {
+        return pipelineThreads;
+    }
+
+    public void setPipelineThreads(int pipelineThreads) {
+        this.pipelineThreads = pipelineThreads;
+    }
+
+    /**
+     * How many sentences of one request are synthesized ahead of the one being sent.
+     */
+    public int getPipelineDepth() {
+        return pipelineDepth;
+    }
+
+    public void setPipelineDepth(int pipelineDepth) {
+        this.pipelineDepth = pipelineDepth;
+    }
+
+    public SpeechCacheConfiguration getCache() {
+        return cache;
+    }
+
+    public void setCache(SpeechCacheConfiguration cache) {
+        this.cache = cache;
+    }
+}
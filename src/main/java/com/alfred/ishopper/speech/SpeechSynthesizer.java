@@ -0,0 +1,21 @@
+package com.alfred.ishopper.speech;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A text-to-speech backend. Implementations return the audio as a stream that is filled while synthesis is still
+ * running, so the first bytes can be sent on before the last ones exist.
+ */
+public interface SpeechSynthesizer {
+
+    /**
+     * Starts synthesizing the text. The caller closes the returned stream.
+     *
+     * @param voice  backend specific voice name, or null for the default voice
+     * @param format audio media type such as audio/wav
+     * @throws IllegalArgumentException when the format is not supported
+     * @throws IOException when the backend cannot be reached or refuses the request
+     */
+    InputStream synthesize(String text, String voice, String format) throws IOException;
+}
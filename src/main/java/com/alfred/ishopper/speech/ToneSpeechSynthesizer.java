@@ -0,0 +1,128 @@
+package com.alfred.ishopper.speech;
+
+import java.io.InputStream;
+
+/**
+ * Local stand-in engine that renders every character as a short tone in a 16 kHz, 16 bit mono WAV file. The audio
+ * is generated as it is read, so it behaves like a streaming backend without any network access.
+ */
+public class ToneSpeechSynthesizer implements SpeechSynthesizer {
+    public static final String FORMAT = "audio/wav";
+
+    static final int SAMPLE_RATE = 16000;
+    private static final int HEADER_SIZE = 44;
+
+    private final int millisPerCharacter;
+
+    public ToneSpeechSynthesizer() {
+        this(60);
+    }
+
+    public ToneSpeechSynthesizer(int millisPerCharacter) {
+        this.millisPerCharacter = millisPerCharacter;
+    }
+
+    @Override
+    public InputStream synthesize(String text, String voice, String format) {
+        if (!FORMAT.equals(format)) {
+            throw new IllegalArgumentException("Only " + FORMAT + " is supported, not " + format);
+        }
+        return new ToneInputStream(text, SAMPLE_RATE * millisPerCharacter / 1000);
+    }
+
+    /**
+     * Length in bytes of the WAV file produced for the text.
+     */
+    public long length(String text) {
+        return HEADER_SIZE + 2L * text.length() * (SAMPLE_RATE * millisPerCharacter / 1000);
+    }
+
+    private static class ToneInputStream extends InputStream {
+        private final String text;
+        private final int samplesPerCharacter;
+        private final byte[] header;
+        private final long length;
+        private long position;
+
+        ToneInputStream(String text, int samplesPerCharacter) {
+            this.text = text;
+            this.samplesPerCharacter = samplesPerCharacter;
+            this.length = HEADER_SIZE + 2L * text.length() * samplesPerCharacter;
+            this.header = header((int) (length - HEADER_SIZE));
+        }
+
+        private static byte[] header(int dataSize) {
+            byte[] header = new byte[HEADER_SIZE];
+            ascii(header, 0, "RIFF");
+            int32(header, 4, 36 + dataSize);
+            ascii(header, 8, "WAVE");
+            ascii(header, 12, "fmt ");
+            int32(header, 16, 16);
+            int16(header, 20, 1);
+            int16(header, 22, 1);
+            int32(header, 24, SAMPLE_RATE);
+            int32(header, 28, SAMPLE_RATE * 2);
+            int16(header, 32, 2);
+            int16(header, 34, 16);
+            ascii(header, 36, "data");
+            int32(header, 40, dataSize);
+            return header;
+        }
+
+        private static void ascii(byte[] b, int offset, String s) {
+            for (int i = 0; i < s.length(); i++) {
+                b[offset + i] = (byte) s.charAt(i);
+            }
+        }
+
+        private static void int16(byte[] b, int offset, int value) {
+            b[offset] = (byte) value;
+            b[offset + 1] = (byte) (value >> 8);
+        }
+
+        private static void int32(byte[] b, int offset, int value) {
+            int16(b, offset, value);
+            int16(b, offset + 2, value >> 16);
+        }
+
+        private int sample(long index) {
+            char c = text.charAt((int) (index / samplesPerCharacter));
+            if (Character.isWhitespace(c)) {
+                return 0;
+            }
+            double frequency = 220 + (c % 32) * 20;
+            return (int) (8000 * Math.sin(2 * Math.PI * frequency * (index % samplesPerCharacter) / SAMPLE_RATE));
+        }
+
+        private int byteAt(long offset) {
+            if (offset < HEADER_SIZE) {
+                return header[(int) offset] & 0xFF;
+            }
+            long data = offset - HEADER_SIZE;
+            int sample = sample(data / 2);
+            return ((data & 1) == 0 ? sample : sample >> 8) & 0xFF;
+        }
+
+        @Override
+        public int read() {
+            return position < length ? byteAt(position++) : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (position >= length) {
+                return -1;
+            }
+            int n = (int) Math.min(len, length - position);
+            for (int i = 0; i < n; i++) {
+                b[off + i] = (byte) byteAt(position++);
+            }
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return (int) Math.min(Integer.MAX_VALUE, length - position);
+        }
+    }
+}
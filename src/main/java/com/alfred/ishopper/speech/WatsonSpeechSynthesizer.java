@@ -0,0 +1,68 @@
+package com.alfred.ishopper.speech;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Collections;
+
+/**
+ * Synthesizes through the Watson text-to-speech REST API, handing back the HTTP response stream as it arrives.
+ */
+public class WatsonSpeechSynthesizer implements SpeechSynthesizer {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final String url;
+    private final String authorization;
+    private final String defaultVoice;
+    private final int connectTimeout;
+    private final int readTimeout;
+
+    public WatsonSpeechSynthesizer(String url, String username, String password, String defaultVoice,
+                                   int connectTimeout, int readTimeout) {
+        this.url = url;
+        this.authorization = "Basic " + Base64.getEncoder().encodeToString(
+                (username + ":" + password).getBytes(StandardCharsets.UTF_8));
+        this.defaultVoice = defaultVoice;
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+    }
+
+    @Override
+    public InputStream synthesize(String text, String voice, String format) throws IOException {
+        String query = "?voice=" + URLEncoder.encode(voice != null ? voice : defaultVoice, "UTF-8")
+                + "&accept=" + URLEncoder.encode(format, "UTF-8");
+        byte[] body = MAPPER.writeValueAsBytes(Collections.singletonMap("text", text));
+
+        HttpURLConnection connection = (HttpURLConnection) new URL(url + query).openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setConnectTimeout(connectTimeout);
+        connection.setReadTimeout(readTimeout);
+        connection.setFixedLengthStreamingMode(body.length);
+        connection.setRequestProperty("Authorization", authorization);
+        connection.setRequestProperty("Content-Type", "application/json");
+        connection.setRequestProperty("Accept", format);
+
+        try {
+            OutputStream out = connection.getOutputStream();
+            out.write(body);
+            out.close();
+
+            int status = connection.getResponseCode();
+            if (status != HttpURLConnection.HTTP_OK) {
+                throw new IOException("Watson text-to-speech returned HTTP " + status);
+            }
+            return connection.getInputStream();
+        } catch (IOException e) {
+            connection.disconnect();
+            throw e;
+        }
+    }
+}
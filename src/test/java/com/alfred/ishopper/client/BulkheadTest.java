@@ -0,0 +1,66 @@
+package com.alfred.ishopper.client;
+
+import com.codahale.metrics.MetricRegistry;
+import junit.framework.TestCase;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Takes and hands back bulkhead slots, with and without waiting for one.
+ */
+public class BulkheadTest extends TestCase {
+    private final MetricRegistry metrics = new MetricRegistry();
+
+    public void testRejectsCallsBeyondTheCap() {
+        Bulkhead bulkhead = new Bulkhead(2, 0, TimeUnit.MILLISECONDS, metrics, "stand-in");
+
+        assertTrue(bulkhead.tryAcquire());
+        assertTrue(bulkhead.tryAcquire());
+        assertFalse(bulkhead.tryAcquire());
+        assertFalse(bulkhead.tryAcquire());
+
+        assertEquals(2, rejected());
+        assertEquals(2, metrics.getGauges().get(MetricRegistry.name(Bulkhead.class, "stand-in", "in-flight")).getValue());
+
+        bulkhead.release();
+        assertTrue(bulkhead.tryAcquire());
+        assertEquals(2, rejected());
+    }
+
+    public void testWaitsForASlotUpToMaxWait() throws InterruptedException {
+        final Bulkhead bulkhead = new Bulkhead(1, 2000, TimeUnit.MILLISECONDS, metrics, "stand-in");
+        assertTrue(bulkhead.tryAcquire());
+
+        ScheduledExecutorService releaser = Executors.newSingleThreadScheduledExecutor();
+        try {
+            releaser.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    bulkhead.release();
+                }
+            }, 50, TimeUnit.MILLISECONDS);
+
+            assertTrue(bulkhead.tryAcquire());
+        } finally {
+            releaser.shutdownNow();
+        }
+        assertEquals(0, rejected());
+    }
+
+    public void testRejectsAfterMaxWait() {
+        Bulkhead bulkhead = new Bulkhead(1, 50, TimeUnit.MILLISECONDS, metrics, "stand-in");
+        assertTrue(bulkhead.tryAcquire());
+
+        long start = System.nanoTime();
+        assertFalse(bulkhead.tryAcquire());
+
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(40));
+        assertEquals(1, rejected());
+    }
+
+    private long rejected() {
+        return metrics.meter(MetricRegistry.name(Bulkhead.class, "stand-in", "rejected")).getCount();
+    }
+}
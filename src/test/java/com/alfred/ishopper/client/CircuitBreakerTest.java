@@ -0,0 +1,182 @@
+package com.alfred.ishopper.client;
+
+import com.codahale.metrics.MetricFilter;
+import com.codahale.metrics.MetricRegistry;
+import io.dropwizard.util.Duration;
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Feeds the breaker call outcomes directly, with a window of ten calls of which at least five are needed to open.
+ */
+public class CircuitBreakerTest extends TestCase {
+    private static final long FAST = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long SLOW = TimeUnit.MILLISECONDS.toNanos(500);
+
+    private final MetricRegistry metrics = new MetricRegistry();
+
+    public void testStaysClosedBelowTheMinimumCalls() {
+        CircuitBreaker breaker = breaker(Duration.seconds(30), 2);
+
+        record(breaker, 4, FAST, true);
+
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    public void testOpensAtTheFailureRate() {
+        CircuitBreaker breaker = breaker(Duration.seconds(30), 2);
+
+        record(breaker, 5, FAST, false);
+        record(breaker, 4, FAST, true);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+
+        // the fifth failure in ten calls reaches 50%
+        record(breaker, 1, FAST, true);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertFalse(breaker.tryAcquirePermission());
+        assertEquals(1, meter("rejected"));
+        assertEquals(1, meter("opened"));
+    }
+
+    public void testOpensAtTheSlowCallRate() {
+        CircuitBreaker breaker = breaker(Duration.seconds(30), 2);
+
+        record(breaker, 2, FAST, false);
+        record(breaker, 7, SLOW, false);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        record(breaker, 1, SLOW, false);
+
+        // eight slow calls in ten reach 80%
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    public void testOldCallsLeaveTheWindow() {
+        CircuitBreaker breaker = breaker(Duration.seconds(30), 2);
+
+        record(breaker, 6, FAST, false);
+        record(breaker, 4, FAST, true);
+        record(breaker, 10, FAST, false);
+        record(breaker, 4, FAST, true);
+
+        // eight of the last fourteen calls failed, but only four of the last ten
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    public void testSuccessfulProbesClose() throws InterruptedException {
+        CircuitBreaker breaker = openBreaker(2);
+
+        assertTrue(breaker.tryAcquirePermission());
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        assertTrue(breaker.tryAcquirePermission());
+        assertFalse(breaker.tryAcquirePermission());
+
+        breaker.onResult(FAST, false);
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        breaker.onResult(FAST, false);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertEquals(1, meter("closed"));
+
+        // the window starts empty again
+        record(breaker, 4, FAST, true);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    public void testFailedOrSlowProbeReopens() throws InterruptedException {
+        CircuitBreaker breaker = openBreaker(2);
+        assertTrue(breaker.tryAcquirePermission());
+        breaker.onResult(FAST, true);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+
+        Thread.sleep(60);
+        assertTrue(breaker.tryAcquirePermission());
+        breaker.onResult(SLOW, false);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertEquals(3, meter("opened"));
+    }
+
+    public void testReleaseHandsTheProbePermitBack() throws InterruptedException {
+        CircuitBreaker breaker = openBreaker(1);
+
+        assertTrue(breaker.tryAcquirePermission());
+        assertFalse(breaker.tryAcquirePermission());
+        breaker.release();
+
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        assertTrue(breaker.tryAcquirePermission());
+        breaker.onResult(FAST, false);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    public void testCallersRacingToHalfOpenAllGetProbePermits() throws Exception {
+        final int callers = 8;
+        ExecutorService threads = Executors.newFixedThreadPool(callers);
+        try {
+            for (int round = 0; round < 20; round++) {
+                final CircuitBreaker breaker = openBreaker(callers);
+                final CountDownLatch start = new CountDownLatch(1);
+                List<Future<Boolean>> permitted = new ArrayList<Future<Boolean>>();
+                for (int i = 0; i < callers; i++) {
+                    permitted.add(threads.submit(new Callable<Boolean>() {
+                        @Override
+                        public Boolean call() throws InterruptedException {
+                            start.await();
+                            return breaker.tryAcquirePermission();
+                        }
+                    }));
+                }
+                start.countDown();
+
+                for (Future<Boolean> permit : permitted) {
+                    assertTrue("a caller was rejected in round " + round, permit.get(5, TimeUnit.SECONDS));
+                }
+                assertFalse(breaker.tryAcquirePermission());
+            }
+        } finally {
+            threads.shutdownNow();
+        }
+    }
+
+    /**
+     * Returns a breaker that opened for 50 ms, which have passed.
+     */
+    private CircuitBreaker openBreaker(int halfOpenCalls) throws InterruptedException {
+        // every breaker registers the same names
+        metrics.removeMatching(MetricFilter.ALL);
+        CircuitBreaker breaker = breaker(Duration.milliseconds(50), halfOpenCalls);
+        record(breaker, 5, FAST, true);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        Thread.sleep(60);
+        return breaker;
+    }
+
+    private CircuitBreaker breaker(Duration openDuration, int halfOpenCalls) {
+        CircuitBreakerConfiguration config = new CircuitBreakerConfiguration();
+        config.setWindowSize(10);
+        config.setMinimumCalls(5);
+        config.setFailureRateThreshold(50);
+        config.setSlowCallRateThreshold(80);
+        config.setSlowCallDuration(Duration.milliseconds(100));
+        config.setOpenDuration(openDuration);
+        config.setHalfOpenCalls(halfOpenCalls);
+        return new CircuitBreaker("stand-in", config, metrics);
+    }
+
+    private static void record(CircuitBreaker breaker, int calls, long durationNanos, boolean failed) {
+        for (int i = 0; i < calls; i++) {
+            assertTrue(breaker.tryAcquirePermission());
+            breaker.onResult(durationNanos, failed);
+        }
+    }
+
+    private long meter(String name) {
+        return metrics.meter(MetricRegistry.name(CircuitBreaker.class, "stand-in", name)).getCount();
+    }
+}
@@ -0,0 +1,222 @@
+package com.alfred.ishopper.client;
+
+import com.codahale.metrics.MetricRegistry;
+import com.sun.jersey.api.client.Client;
+import com.sun.jersey.api.client.ClientHandler;
+import com.sun.jersey.api.client.ClientRequest;
+import com.sun.jersey.api.client.ClientResponse;
+import com.sun.jersey.core.header.InBoundHeaders;
+import io.dropwizard.util.Size;
+import junit.framework.TestCase;
+
+import javax.ws.rs.core.HttpHeaders;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Runs requests through the filter to a stand-in upstream that answers with the status, encoding and bytes the test
+ * sets, and keeps the last request it was sent.
+ */
+public class CompressionFilterTest extends TestCase {
+    private static final String TEXT = repeat("compressible text, ", 50);
+
+    private final MetricRegistry metrics = new MetricRegistry();
+    private ClientRequest sent;
+    private int status = 200;
+    private String encoding;
+    private byte[] body = new byte[0];
+
+    public void testAsksForCompressedResponses() {
+        client(true, false).resource("http://upstream/items").get(ClientResponse.class);
+
+        assertEquals("gzip, deflate", sent.getHeaders().getFirst(HttpHeaders.ACCEPT_ENCODING));
+    }
+
+    public void testLeavesTheCallersAcceptEncoding() {
+        client(true, false).resource("http://upstream/items").header(HttpHeaders.ACCEPT_ENCODING, "identity")
+                .get(ClientResponse.class);
+
+        assertEquals("identity", sent.getHeaders().getFirst(HttpHeaders.ACCEPT_ENCODING));
+    }
+
+    public void testDecodesGzip() throws IOException {
+        answer("gzip", gzip(TEXT.getBytes("UTF-8")));
+
+        ClientResponse response = client(true, false).resource("http://upstream/items").get(ClientResponse.class);
+
+        assertEquals(TEXT, read(response));
+        assertFalse(response.getHeaders().containsKey(HttpHeaders.CONTENT_ENCODING));
+        assertFalse(response.getHeaders().containsKey(HttpHeaders.CONTENT_LENGTH));
+    }
+
+    public void testDecodesXGzip() throws IOException {
+        answer("x-gzip", gzip(TEXT.getBytes("UTF-8")));
+
+        assertEquals(TEXT, read(client(true, false).resource("http://upstream/items").get(ClientResponse.class)));
+    }
+
+    public void testDecodesZlibWrappedDeflate() throws IOException {
+        answer("deflate", deflate(TEXT.getBytes("UTF-8"), false));
+
+        assertEquals(TEXT, read(client(true, false).resource("http://upstream/items").get(ClientResponse.class)));
+    }
+
+    public void testDecodesRawDeflate() throws IOException {
+        answer("deflate", deflate(TEXT.getBytes("UTF-8"), true));
+
+        assertEquals(TEXT, read(client(true, false).resource("http://upstream/items").get(ClientResponse.class)));
+    }
+
+    public void testEmptyBodiesNeverReachTheDecoder() throws IOException {
+        // a gzip decoder would fail on the missing header
+        status = 304;
+        answer("gzip", new byte[0]);
+        ClientResponse notModified = client(true, false).resource("http://upstream/items").get(ClientResponse.class);
+        assertEquals(304, notModified.getStatus());
+        assertEquals("", read(notModified));
+
+        status = 200;
+        ClientResponse head = client(true, false).resource("http://upstream/items").head();
+        assertEquals(0, head.getEntityInputStream().available());
+        assertEquals(-1, head.getEntityInputStream().read());
+        head.close();
+        assertEquals(0, meter("response-bytes-uncompressed"));
+    }
+
+    public void testUnknownEncodingsArePassedOn() throws IOException {
+        answer("br", "not really brotli".getBytes("UTF-8"));
+
+        ClientResponse response = client(true, false).resource("http://upstream/items").get(ClientResponse.class);
+
+        assertEquals("br", response.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING));
+        assertEquals("not really brotli", read(response));
+    }
+
+    public void testCompressesRequestsFromTheThreshold() throws IOException {
+        Client client = client(false, true);
+
+        client.resource("http://upstream/items").type("text/plain").post(ClientResponse.class, repeat("x", 99));
+        assertNull(sent.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING));
+        assertEquals(99, ((byte[]) sent.getEntity()).length);
+
+        client.resource("http://upstream/items").type("text/plain").post(ClientResponse.class, repeat("x", 100));
+        assertEquals("gzip", sent.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING));
+        assertEquals(repeat("x", 100), new String(gunzip((byte[]) sent.getEntity()), "UTF-8"));
+    }
+
+    public void testLeavesEncodedRequestsAlone() {
+        byte[] encoded = { 1, 2, 3 };
+
+        client(false, true).resource("http://upstream/items").type("application/octet-stream")
+                .header(HttpHeaders.CONTENT_ENCODING, "br").post(ClientResponse.class, encoded);
+
+        assertSame(encoded, sent.getEntity());
+    }
+
+    public void testMetersBytesInBothDirections() throws IOException {
+        Client client = client(true, true);
+        String entity = repeat("y", 1000);
+        byte[] compressedResponse = gzip(TEXT.getBytes("UTF-8"));
+        answer("gzip", compressedResponse);
+
+        ClientResponse response = client.resource("http://upstream/items").type("text/plain")
+                .post(ClientResponse.class, entity);
+        read(response);
+
+        assertEquals(1000, meter("request-bytes-uncompressed"));
+        assertEquals(((byte[]) sent.getEntity()).length, meter("request-bytes-compressed"));
+        assertTrue(meter("request-bytes-compressed") < 1000);
+        assertEquals(compressedResponse.length, meter("response-bytes-compressed"));
+        assertEquals(TEXT.length(), meter("response-bytes-uncompressed"));
+
+        // entities under the threshold and plain responses are not counted
+        answer(null, TEXT.getBytes("UTF-8"));
+        read(client.resource("http://upstream/items").type("text/plain").post(ClientResponse.class, "small"));
+        assertEquals(1000, meter("request-bytes-uncompressed"));
+        assertEquals(TEXT.length(), meter("response-bytes-uncompressed"));
+    }
+
+    private Client client(boolean compressResponses, boolean compressRequests) {
+        ClientConfiguration config = new ClientConfiguration();
+        config.setCompressResponses(compressResponses);
+        config.setCompressRequests(compressRequests);
+        config.setRequestCompressionThreshold(Size.bytes(100));
+
+        Client client = new Client(new ClientHandler() {
+            @Override
+            public ClientResponse handle(ClientRequest request) {
+                sent = request;
+                InBoundHeaders headers = new InBoundHeaders();
+                headers.putSingle(HttpHeaders.CONTENT_TYPE, "text/plain");
+                headers.putSingle(HttpHeaders.CONTENT_LENGTH, String.valueOf(body.length));
+                if (encoding != null) {
+                    headers.putSingle(HttpHeaders.CONTENT_ENCODING, encoding);
+                }
+                return new ClientResponse(status, headers, new ByteArrayInputStream(body), null);
+            }
+        });
+        client.addFilter(new CompressionFilter(client, config, metrics, "stand-in"));
+        return client;
+    }
+
+    private void answer(String encoding, byte[] body) {
+        this.encoding = encoding;
+        this.body = body;
+    }
+
+    private long meter(String name) {
+        return metrics.meter(MetricRegistry.name(CompressionFilter.class, "stand-in", name)).getCount();
+    }
+
+    private static String read(ClientResponse response) throws IOException {
+        InputStream in = response.getEntityInputStream();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[64];
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            bytes.write(buffer, 0, n);
+        }
+        in.close();
+        return bytes.toString("UTF-8");
+    }
+
+    private static byte[] gzip(byte[] plain) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        GZIPOutputStream out = new GZIPOutputStream(bytes);
+        out.write(plain);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    private static byte[] gunzip(byte[] compressed) throws IOException {
+        InputStream in = new GZIPInputStream(new ByteArrayInputStream(compressed));
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != -1) {
+            bytes.write(b);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static byte[] deflate(byte[] plain, boolean raw) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DeflaterOutputStream out = new DeflaterOutputStream(bytes, new Deflater(Deflater.DEFAULT_COMPRESSION, raw));
+        out.write(plain);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    private static String repeat(String s, int times) {
+        char[] chars = new char[s.length() * times];
+        for (int i = 0; i < times; i++) {
+            s.getChars(0, s.length(), chars, i * s.length());
+        }
+        return new String(chars);
+    }
+}
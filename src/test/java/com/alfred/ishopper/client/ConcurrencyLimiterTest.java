@@ -0,0 +1,173 @@
+package com.alfred.ishopper.client;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import io.dropwizard.util.Duration;
+import junit.framework.TestCase;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Feeds the limiter the RTTs of a simulated upstream that serves a fixed number of calls at a time and queues the
+ * rest, so the limit can be followed call by call without depending on the speed of the machine running the test.
+ * Probes are checked with real threads, as calls wait for permits while one is running.
+ */
+public class ConcurrencyLimiterTest extends TestCase {
+    private static final int CALLERS = 200;
+    private static final long SERVICE_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private final MetricRegistry metrics = new MetricRegistry();
+
+    public void testLimitGrowsToCapacityWithoutQueueing() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(config(1, 5, Duration.milliseconds(0), Duration.hours(1)),
+                metrics, "stand-in");
+
+        int lowest = Integer.MAX_VALUE;
+        int highest = 0;
+        for (int round = 0; round < 200; round++) {
+            serve(limiter, 20, false);
+            if (round >= 100) {
+                lowest = Math.min(lowest, limiter.getLimit());
+                highest = Math.max(highest, limiter.getLimit());
+            }
+        }
+
+        assertTrue("limit fell to " + lowest, lowest >= 20);
+        assertTrue("limit rose to " + highest, highest <= 30);
+        assertTrue(rejected() > 0);
+        assertEquals(limiter.getLimit(), gauge("limit").getValue());
+        assertEquals(0, gauge("in-flight").getValue());
+    }
+
+    public void testLimitFollowsCapacityDown() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(config(1, 5, Duration.milliseconds(0), Duration.hours(1)),
+                metrics, "stand-in");
+        for (int round = 0; round < 200; round++) {
+            serve(limiter, 40, false);
+        }
+        int before = limiter.getLimit();
+        assertTrue("limit " + before, before >= 40);
+
+        for (int round = 0; round < 200; round++) {
+            serve(limiter, 10, false);
+        }
+
+        int after = limiter.getLimit();
+        assertTrue("limit " + after, after >= 10 && after <= 20);
+    }
+
+    public void testFailuresShrinkTheLimit() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(config(100, 5, Duration.milliseconds(0), Duration.hours(1)),
+                metrics, "stand-in");
+
+        for (int round = 0; round < 20; round++) {
+            serve(limiter, 1000, true);
+        }
+
+        assertTrue("limit " + limiter.getLimit(), limiter.getLimit() < 100);
+    }
+
+    public void testCallsWaitForPermitsDuringProbeInsteadOfBeingRejected() throws Exception {
+        final ConcurrencyLimiter limiter = probingLimiter();
+
+        ExecutorService caller = Executors.newSingleThreadExecutor();
+        try {
+            Future<Boolean> waiter = caller.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() {
+                    return limiter.tryAcquire();
+                }
+            });
+            Thread.sleep(50);
+            assertFalse(waiter.isDone());
+
+            // the probe window ends with the next result once the window has passed
+            Thread.sleep(200);
+            limiter.onResult(SERVICE_NANOS, false);
+
+            assertTrue(waiter.get(5, TimeUnit.SECONDS));
+        } finally {
+            caller.shutdownNow();
+        }
+        assertEquals(0, rejected());
+    }
+
+    public void testWaitDuringProbeEndsAtTheDeadline() throws Exception {
+        final ConcurrencyLimiter limiter = probingLimiter();
+
+        ExecutorService caller = Executors.newSingleThreadExecutor();
+        try {
+            Future<Long> waited = caller.submit(new Callable<Long>() {
+                @Override
+                public Long call() {
+                    Deadline previous = Deadline.set(Deadline.after(50, TimeUnit.MILLISECONDS));
+                    long start = System.nanoTime();
+                    try {
+                        assertFalse(limiter.tryAcquire());
+                        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                    } finally {
+                        Deadline.set(previous);
+                    }
+                }
+            });
+
+            long millis = waited.get(5, TimeUnit.SECONDS);
+            assertTrue("waited " + millis + " ms", millis >= 40 && millis < 200);
+        } finally {
+            caller.shutdownNow();
+        }
+        assertEquals(1, rejected());
+    }
+
+    /**
+     * Returns a limiter in the middle of a probe, with every permit of the halved limit taken.
+     */
+    private ConcurrencyLimiter probingLimiter() throws InterruptedException {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(
+                config(10, 1, Duration.milliseconds(200), Duration.milliseconds(0)), metrics, "stand-in");
+        for (int i = 0; i < 10; i++) {
+            assertTrue(limiter.tryAcquire());
+        }
+        Thread.sleep(200);
+        limiter.onResult(SERVICE_NANOS, false);
+        assertTrue("limit " + limiter.getLimit(), limiter.getInFlight() >= limiter.getLimit());
+        return limiter;
+    }
+
+    /**
+     * Lets as many of the callers in as the limit permits and completes them with the RTT they would see at an
+     * upstream serving <code>capacity</code> calls at a time.
+     */
+    private static void serve(ConcurrencyLimiter limiter, int capacity, boolean failed) {
+        int admitted = 0;
+        while (admitted < CALLERS && limiter.tryAcquire()) {
+            admitted++;
+        }
+        long rtt = (long) (SERVICE_NANOS * Math.max(1.0, admitted / (double) capacity));
+        for (int i = 0; i < admitted; i++) {
+            limiter.onResult(rtt, failed);
+        }
+    }
+
+    private static ConcurrencyLimitConfiguration config(int initialLimit, int minWindowCalls, Duration sampleWindow,
+                                                        Duration probeInterval) {
+        ConcurrencyLimitConfiguration config = new ConcurrencyLimitConfiguration();
+        config.setInitialLimit(initialLimit);
+        config.setSampleWindow(sampleWindow);
+        config.setMinWindowCalls(minWindowCalls);
+        config.setProbeInterval(probeInterval);
+        return config;
+    }
+
+    private long rejected() {
+        return metrics.meter(MetricRegistry.name(ConcurrencyLimiter.class, "stand-in", "rejected")).getCount();
+    }
+
+    private Gauge<?> gauge(String metric) {
+        return metrics.getGauges().get(MetricRegistry.name(ConcurrencyLimiter.class, "stand-in", metric));
+    }
+}
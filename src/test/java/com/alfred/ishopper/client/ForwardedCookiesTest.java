@@ -0,0 +1,64 @@
+package com.alfred.ishopper.client;
+
+import junit.framework.TestCase;
+
+/**
+ * Runs the allow-list filter over a table of Cookie headers.
+ */
+public class ForwardedCookiesTest extends TestCase {
+    private static final String HEADER = "a=1; b=2; c=3";
+
+    /** header, allowed names, expected header */
+    private static final String[][] FILTERED = {
+        { HEADER, "b,c", "b=2; c=3" },
+        { HEADER, "a,c", "a=1; c=3" },
+        { HEADER, "a,b", "a=1; b=2" },
+        { HEADER, "b", "b=2" },
+        { HEADER, "c,b,a", HEADER },
+        { HEADER, "x", "" },
+        { "a=1;b=2;c=3", "a,c", "a=1; c=3" },
+        { " a=1 ;\tb=2\t; c=3 ", "a,c", "a=1; c=3" },
+        { "a=1;; b=2; ", "b", "b=2" },
+        { "a=\"x y\"; b=\"\"; c=\"3\"", "a,c", "a=\"x y\"; c=\"3\"" },
+        { "a=x=y; b=2", "a", "a=x=y" },
+        { "flag; a=1", "flag", "flag" },
+        { "ab=1; a=2; aa=3", "a", "a=2" },
+        { "a=1; b=2; a=3", "a", "a=1; a=3" },
+        { "$Version=1; a=1; $Path=/; b=2; $Domain=.example.com", "a,b", "a=1; b=2" },
+        { "$Version=1; a=1; $Path=/", "$Version,a,$Path", "$Version=1; a=1; $Path=/" },
+        { "A=1; a=2", "a", "a=2" },
+    };
+
+    public void testFilter() {
+        for (String[] row : FILTERED) {
+            assertEquals(row[0] + " with " + row[1], row[2], ForwardedCookies.filter(row[0], row[1].split(",")));
+        }
+    }
+
+    public void testAllKeptReturnsTheHeaderItself() {
+        assertSame(HEADER, ForwardedCookies.filter(HEADER, new String[] { "a", "b", "c" }));
+    }
+
+    public void testNoneKeptLeavesNoCookies() {
+        ForwardedCookies cookies = ForwardedCookies.of(ForwardedCookies.filter(HEADER, new String[] { "x" }));
+
+        assertTrue(cookies.isEmpty());
+        assertEquals("", cookies.getHeader());
+    }
+
+    public void testQuotedValuesAreUnquotedOnlyWhenRead() {
+        ForwardedCookies cookies = ForwardedCookies.of(ForwardedCookies.filter("a=\"x y\"; b=2", new String[] { "a" }));
+
+        assertEquals("a=\"x y\"", cookies.getHeader());
+        assertEquals("x y", cookies.get("a").getValue());
+        assertFalse(cookies.containsKey("b"));
+    }
+
+    public void testAttributesAreNotCookies() {
+        ForwardedCookies cookies = ForwardedCookies.of("$Version=1; a=1; $Path=/");
+
+        assertEquals(1, cookies.size());
+        assertEquals("1", cookies.entrySet().iterator().next().getValue().getValue());
+        assertEquals("$Version=1; a=1; $Path=/", cookies.getHeader());
+    }
+}
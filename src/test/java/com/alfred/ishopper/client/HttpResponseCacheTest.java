@@ -0,0 +1,196 @@
+package com.alfred.ishopper.client;
+
+import com.sun.jersey.api.client.ClientResponse;
+import com.sun.jersey.core.header.InBoundHeaders;
+import com.sun.jersey.core.util.MultivaluedMapImpl;
+import junit.framework.TestCase;
+
+import javax.ws.rs.core.MultivaluedMap;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Stores and replays responses built in the test, the way JsonRestClient hands them over after each upstream call.
+ */
+public class HttpResponseCacheTest extends TestCase {
+    private static final String KEY = "GET items";
+    private static final String[] FRESH = { "Cache-Control", "max-age=60" };
+
+    private final HttpResponseCache cache = new HttpResponseCache(1024);
+
+    public void testMaxAgeIsFresh() {
+        store(KEY, "body", "Cache-Control", "public, max-age=60");
+
+        HttpResponseCache.CachedResponse cached = cache.get(KEY);
+        assertTrue(cached.isFresh());
+        assertEquals("body", body(cached.toClientResponse(null)));
+    }
+
+    public void testMaxAgeWinsOverExpires() {
+        store(KEY, "body", "Cache-Control", "max-age=60", "Expires", httpDate(ZonedDateTime.now().minusHours(1)));
+
+        assertTrue(cache.get(KEY).isFresh());
+    }
+
+    public void testExpiresInTheFutureIsFresh() {
+        store(KEY, "body", "Expires", httpDate(ZonedDateTime.now().plusHours(1)));
+
+        assertTrue(cache.get(KEY).isFresh());
+    }
+
+    public void testExpiredWithoutEntityTagIsNotStored() {
+        store(KEY, "body", "Expires", httpDate(ZonedDateTime.now().minusHours(1)));
+        store("GET other", "body");
+
+        assertNull(cache.get(KEY));
+        assertNull(cache.get("GET other"));
+    }
+
+    public void testNoStoreAndPrivateAreNotStored() {
+        store("a", "body", "Cache-Control", "no-store, max-age=60");
+        store("b", "body", "Cache-Control", "private, max-age=60");
+        store("c", "body", "Cache-Control", "max-age=60, private=\"Set-Cookie\"");
+        store("d", "body", "Cache-Control", "max-age=60", "Vary", "*");
+
+        assertNull(cache.get("a"));
+        assertNull(cache.get("b"));
+        assertNull(cache.get("c"));
+        assertNull(cache.get("d"));
+    }
+
+    public void testNoCacheWithEntityTagIsStoredStale() {
+        store(KEY, "body", "Cache-Control", "no-cache, max-age=60", "ETag", "\"v1\"");
+
+        HttpResponseCache.CachedResponse cached = cache.get(KEY);
+        assertFalse(cached.isFresh());
+        assertEquals("\"v1\"", cached.getEntityTag());
+    }
+
+    public void testNotModifiedRefreshesTheStaleEntry() {
+        store(KEY, "body", "ETag", "\"v1\"");
+        HttpResponseCache.CachedResponse cached = cache.get(KEY);
+        assertFalse(cached.isFresh());
+
+        ClientResponse revalidated = cache.update(KEY, cached, response(304, "", "Cache-Control", "max-age=60"), null);
+
+        assertEquals(200, revalidated.getStatus());
+        assertEquals("body", body(revalidated));
+        assertTrue(cache.get(KEY).isFresh());
+    }
+
+    public void testChangedResponseReplacesTheStaleEntry() {
+        store(KEY, "old", "ETag", "\"v1\"");
+
+        ClientResponse changed = cache.update(KEY, cache.get(KEY),
+                response(200, "new", "ETag", "\"v2\"", "Cache-Control", "max-age=60"), null);
+
+        assertEquals("new", body(changed));
+        assertEquals("\"v2\"", cache.get(KEY).getEntityTag());
+        assertEquals("new", body(cache.get(KEY).toClientResponse(null)));
+    }
+
+    public void testErrorsAreNotStored() {
+        cache.update(KEY, null, response(500, "body", "Cache-Control", "max-age=60"), null);
+
+        assertNull(cache.get(KEY));
+    }
+
+    public void testEvictsLeastRecentlyUsedByBytes() {
+        HttpResponseCache small = new HttpResponseCache(10);
+        store(small, "a", "1234", FRESH);
+        store(small, "b", "1234", FRESH);
+        small.get("a");
+        store(small, "c", "1234", FRESH);
+
+        assertNotNull(small.get("a"));
+        assertNull(small.get("b"));
+        assertNotNull(small.get("c"));
+
+        store(small, "d", "12345678901", FRESH);
+        assertNull(small.get("d"));
+        assertNotNull(small.get("a"));
+    }
+
+    public void testKeyEscapesSeparators() {
+        MultivaluedMap<String, String> joined = new MultivaluedMapImpl();
+        joined.add("a", "1&b=2");
+        MultivaluedMap<String, String> split = new MultivaluedMapImpl();
+        split.add("a", "1");
+        split.add("b", "2");
+
+        assertFalse(key(joined).equals(key(split)));
+        assertFalse(HttpResponseCache.key("http://host", "items?a=1", null, null, "application/json", null)
+                .equals(key(single("a", "1"))));
+        assertFalse(HttpResponseCache.key("http://host", "items", null, Collections.singletonMap("h", "1\nx: 2"),
+                "application/json", null).equals(HttpResponseCache.key("http://host", "items", null,
+                headers("h", "1", "x", "2"), "application/json", null)));
+        assertEquals(key(single("a", "1")), key(single("a", "1")));
+    }
+
+    public void testKeyIgnoresTheExcludedHeader() {
+        assertEquals(HttpResponseCache.key("http://host", "items", null, headers("X-Forwarded-For", "10.0.0.1"),
+                "application/json", "X-Forwarded-For"),
+                HttpResponseCache.key("http://host", "items", null, headers("X-Forwarded-For", "10.0.0.2"),
+                        "application/json", "X-Forwarded-For"));
+    }
+
+    private void store(String key, String body, String... headers) {
+        store(cache, key, body, headers);
+    }
+
+    private static void store(HttpResponseCache cache, String key, String body, String... headers) {
+        ClientResponse returned = cache.update(key, null, response(200, body, headers), null);
+        assertEquals(body, body(returned));
+    }
+
+    private static String body(ClientResponse response) {
+        InputStream in = response.getEntityInputStream();
+        try {
+            StringBuilder body = new StringBuilder();
+            int c;
+            while ((c = in.read()) != -1) {
+                body.append((char) c);
+            }
+            return body.toString();
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static ClientResponse response(int status, String body, String... headers) {
+        InBoundHeaders inBound = new InBoundHeaders();
+        for (int i = 0; i < headers.length; i += 2) {
+            inBound.add(headers[i], headers[i + 1]);
+        }
+        return new ClientResponse(status, inBound, new ByteArrayInputStream(body.getBytes()), null);
+    }
+
+    private static String key(MultivaluedMap<String, String> params) {
+        return HttpResponseCache.key("http://host", "items", params, null, "application/json", null);
+    }
+
+    private static MultivaluedMap<String, String> single(String name, String value) {
+        MultivaluedMap<String, String> params = new MultivaluedMapImpl();
+        params.add(name, value);
+        return params;
+    }
+
+    private static Map<String, String> headers(String... namesAndValues) {
+        Map<String, String> headers = new LinkedHashMap<String, String>();
+        for (int i = 0; i < namesAndValues.length; i += 2) {
+            headers.put(namesAndValues[i], namesAndValues[i + 1]);
+        }
+        return headers;
+    }
+
+    private static String httpDate(ZonedDateTime time) {
+        return DateTimeFormatter.RFC_1123_DATE_TIME.format(time.withZoneSameInstant(ZoneOffset.UTC));
+    }
+}
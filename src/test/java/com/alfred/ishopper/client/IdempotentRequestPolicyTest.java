@@ -0,0 +1,216 @@
+package com.alfred.ishopper.client;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.sun.jersey.api.client.Client;
+import com.sun.jersey.api.client.ClientHandlerException;
+import com.sun.jersey.api.client.ClientResponse;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import io.dropwizard.util.Duration;
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hedges calls to a local stand-in upstream that can be made to hang on its next request.
+ */
+public class IdempotentRequestPolicyTest extends TestCase {
+    private final MetricRegistry metrics = new MetricRegistry();
+    private final AtomicInteger hits = new AtomicInteger();
+    private HttpServer server;
+    private final AtomicBoolean hangNext = new AtomicBoolean();
+    private volatile long latencyMillis;
+
+    @Override
+    protected void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 512);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    hits.incrementAndGet();
+                    Thread.sleep(hangNext.compareAndSet(true, false) ? 5000 : latencyMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                byte[] body = "{}".getBytes("UTF-8");
+                exchange.getResponseHeaders().set("Content-Type", "application/json");
+                exchange.sendResponseHeaders(200, body.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(body);
+                out.close();
+            }
+        });
+        server.start();
+    }
+
+    @Override
+    protected void tearDown() {
+        server.stop(0);
+        ((ExecutorService) server.getExecutor()).shutdownNow();
+    }
+
+    public void testManyConcurrentAsyncCallsComplete() throws Exception {
+        latencyMillis = 50;
+        JsonRestClient client = new JsonRestClient(Client.create(), clientConfiguration());
+        client.setIdempotentRequestPolicy(new IdempotentRequestPolicy(new IdempotentRequestConfiguration(), metrics, "stand-in"));
+
+        List<CompletableFuture<JsonNode>> calls = new ArrayList<CompletableFuture<JsonNode>>();
+        for (int i = 0; i < 200; i++) {
+            calls.add(client.getAsync("items", null, null, "127.0.0.1", null, JsonNode.class));
+        }
+
+        CompletableFuture.allOf(calls.toArray(new CompletableFuture<?>[calls.size()])).get(20, TimeUnit.SECONDS);
+    }
+
+    public void testHedgeAnswersAndAbortsTheHangingFirstAttempt() throws Exception {
+        ClientConfiguration config = clientConfiguration();
+        Client pooled = new PooledClientFactory(config).build(null, null, "stand-in");
+
+        CircuitBreakerConfiguration breakerConfig = new CircuitBreakerConfiguration();
+        breakerConfig.setMinimumCalls(1);
+        CircuitBreaker breaker = new CircuitBreaker("stand-in", breakerConfig);
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(new ConcurrencyLimitConfiguration());
+        Bulkhead bulkhead = new Bulkhead(2);
+
+        JsonRestClient client = new JsonRestClient(pooled, config);
+        client.setIdempotentRequestPolicy(new IdempotentRequestPolicy(new IdempotentRequestConfiguration(), metrics, "stand-in"));
+        client.setCircuitBreaker(breaker);
+        client.setConcurrencyLimiter(limiter);
+        client.setBulkhead(bulkhead);
+
+        client.get("items", null, null, "127.0.0.1", null, JsonNode.class);
+        int before = hits.get();
+        long wins = hedgeWins().getCount();
+        hangNext.set(true);
+
+        long start = System.nanoTime();
+        JsonNode answer = client.get("items", null, null, "127.0.0.1", null, JsonNode.class);
+        long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertNotNull(answer);
+        assertTrue("took " + millis + " ms", millis < 2000);
+        assertEquals(2, hits.get() - before);
+        assertEquals(wins + 1, hedgeWins().getCount());
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertEquals(0, limiter.getInFlight());
+        assertTrue(bulkhead.tryAcquire());
+        assertTrue(bulkhead.tryAcquire());
+        pooled.destroy();
+    }
+
+    public void testCallerWaitsForTheHedgeUntilItsDeadline() throws Exception {
+        IdempotentRequestPolicy policy = new IdempotentRequestPolicy(noRetries(), metrics, "stand-in");
+        Deadline previous = Deadline.set(Deadline.after(300, TimeUnit.MILLISECONDS));
+        long start = System.nanoTime();
+        try {
+            policy.call(failingFirstHangingHedge());
+            fail("the hanging hedge answered");
+        } catch (DeadlineExceededException e) {
+            long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            assertTrue("took " + millis + " ms", millis < 2000);
+        } finally {
+            Deadline.set(previous);
+            policy.close();
+        }
+    }
+
+    public void testCallerWaitsForTheHedgeAtMostTheMaximumWithoutDeadline() throws Exception {
+        IdempotentRequestConfiguration config = noRetries();
+        config.setMaxHedgeWait(Duration.milliseconds(300));
+        IdempotentRequestPolicy policy = new IdempotentRequestPolicy(config, metrics, "stand-in");
+        long start = System.nanoTime();
+        try {
+            policy.call(failingFirstHangingHedge());
+            fail("the hanging hedge answered");
+        } catch (ClientHandlerException e) {
+            long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            assertFalse(e instanceof DeadlineExceededException);
+            assertTrue("took " + millis + " ms", millis < 2000);
+        } finally {
+            policy.close();
+        }
+    }
+
+    public void testCloseStopsTheHedgeThreads() throws Exception {
+        latencyMillis = 100;
+        IdempotentRequestPolicy policy = new IdempotentRequestPolicy(new IdempotentRequestConfiguration(), metrics,
+                "closing");
+        JsonRestClient client = new JsonRestClient(Client.create(), clientConfiguration());
+        client.setIdempotentRequestPolicy(policy);
+        client.get("items", null, null, "127.0.0.1", null, JsonNode.class);
+        assertTrue(hedgeThreads("hedge-closing-") > 0);
+
+        policy.close();
+
+        long until = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (hedgeThreads("hedge-closing-") > 0) {
+            assertTrue(System.nanoTime() < until);
+            Thread.sleep(10);
+        }
+        int before = hits.get();
+        assertNotNull(client.get("items", null, null, "127.0.0.1", null, JsonNode.class));
+        assertEquals(1, hits.get() - before);
+    }
+
+    private static IdempotentRequestConfiguration noRetries() {
+        IdempotentRequestConfiguration config = new IdempotentRequestConfiguration();
+        config.setMaxRetries(0);
+        return config;
+    }
+
+    /**
+     * The first attempt fails once the hedge has started, the hedge does not answer for five seconds.
+     */
+    private static Callable<ClientResponse> failingFirstHangingHedge() {
+        final AtomicInteger attempts = new AtomicInteger();
+        return new Callable<ClientResponse>() {
+            @Override
+            public ClientResponse call() throws Exception {
+                if (attempts.incrementAndGet() == 1) {
+                    Thread.sleep(100);
+                    throw new ClientHandlerException("connection reset");
+                }
+                Thread.sleep(5000);
+                return null;
+            }
+        };
+    }
+
+    private static int hedgeThreads(String prefix) {
+        int threads = 0;
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().startsWith(prefix)) {
+                threads++;
+            }
+        }
+        return threads;
+    }
+
+    private Meter hedgeWins() {
+        return metrics.meter(MetricRegistry.name(IdempotentRequestPolicy.class, "stand-in", "hedge-wins"));
+    }
+
+    private ClientConfiguration clientConfiguration() {
+        ClientConfiguration config = new ClientConfiguration();
+        config.setBaseUri("http://127.0.0.1");
+        config.setBasePort(server.getAddress().getPort());
+        config.setReadTimeout(Duration.seconds(10));
+        return config;
+    }
+}
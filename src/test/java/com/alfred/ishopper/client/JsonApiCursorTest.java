@@ -0,0 +1,234 @@
+package com.alfred.ishopper.client;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.sun.jersey.api.client.Client;
+import com.sun.jersey.api.client.ClientHandler;
+import com.sun.jersey.api.client.ClientHandlerException;
+import com.sun.jersey.api.client.ClientRequest;
+import com.sun.jersey.api.client.ClientResponse;
+import com.sun.jersey.core.header.InBoundHeaders;
+import com.sun.jersey.core.util.MultivaluedMapImpl;
+import junit.framework.TestCase;
+
+import javax.ws.rs.core.MultivaluedMap;
+import java.io.ByteArrayInputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pages through listings served in process by a stand-in upstream:
+ * <pre>
+ * /numbers                 resources 1 to 5 by page[offset] and page[limit], or offset and limit, no links
+ * /linked/{n}, /hrefs/{n}  resource n, links.next to n + 1 up to 3, as a string or an href object
+ * /foreign/{n}             links.next to another host
+ * /repeat                  links.next to itself
+ * /endless/{n}             links.next to n + 1 forever, page 3 waits for the test
+ * </pre>
+ */
+public class JsonApiCursorTest extends TestCase {
+    private final List<String> requests = new ArrayList<String>();
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final ExecutorService executor = Executors.newFixedThreadPool(4);
+    private JsonRestClient client;
+
+    @Override
+    protected void setUp() throws Exception {
+        ClientConfiguration config = new ClientConfiguration();
+        config.setBaseUri("http://upstream");
+        config.setBasePort(80);
+        client = new JsonRestClient(new Client(new ClientHandler() {
+            @Override
+            public ClientResponse handle(ClientRequest request) {
+                synchronized (requests) {
+                    requests.add(pathAndQuery(request.getURI()));
+                }
+                return answer(request.getURI());
+            }
+        }), config);
+        client.setExecutor(executor);
+    }
+
+    @Override
+    protected void tearDown() {
+        release.countDown();
+        executor.shutdownNow();
+    }
+
+    public void testFollowsNextLinksGivenAsStrings() {
+        JsonApiCursor<JsonNode> cursor = client.paginate("linked/1", null, null, null, null, JsonNode.class);
+
+        assertEquals(Arrays.asList(1, 2, 3), ids(cursor));
+        assertEquals(Arrays.asList("/linked/1", "/linked/2", "/linked/3"), requests);
+    }
+
+    public void testFollowsNextLinksGivenAsHrefs() {
+        JsonApiCursor<JsonNode> cursor = client.paginate("hrefs/1", null, null, null, null, JsonNode.class);
+
+        assertEquals(Arrays.asList(1, 2, 3), ids(cursor));
+        assertEquals(Arrays.asList("/hrefs/1", "/hrefs/2", "/hrefs/3"), requests);
+    }
+
+    public void testAdvancesPageOffsetUntilAShortPage() {
+        MultivaluedMap<String, String> params = new MultivaluedMapImpl();
+        params.add("page[limit]", "2");
+
+        JsonApiCursor<JsonNode> cursor = client.paginate("numbers", params, null, null, null, JsonNode.class);
+
+        assertEquals(Arrays.asList(1, 2, 3, 4, 5), ids(cursor));
+        assertEquals(3, requests.size());
+        assertTrue(requests.get(2), requests.get(2).contains("page[offset]=4"));
+    }
+
+    public void testAdvancesPlainOffsetAndStopsOnAnEmptyPage() {
+        MultivaluedMap<String, String> params = new MultivaluedMapImpl();
+        params.add("limit", "5");
+        params.add("offset", "0");
+
+        JsonApiCursor<JsonNode> cursor = client.paginate("numbers", params, null, null, null, JsonNode.class);
+
+        assertEquals(Arrays.asList(1, 2, 3, 4, 5), ids(cursor));
+        assertEquals(2, requests.size());
+        assertTrue(requests.get(1), requests.get(1).contains("offset=5"));
+    }
+
+    public void testWithoutLimitReadsOnePage() {
+        JsonApiCursor<JsonNode> cursor = client.paginate("numbers", null, null, null, null, JsonNode.class);
+
+        assertEquals(Arrays.asList(1, 2, 3, 4, 5), ids(cursor));
+        assertEquals(1, requests.size());
+    }
+
+    public void testRejectsLinksToAnotherOrigin() {
+        JsonApiCursor<JsonNode> cursor = client.paginate("foreign/1", null, null, null, null, JsonNode.class);
+
+        try {
+            ids(cursor);
+            fail("links.next to another host was followed");
+        } catch (ClientHandlerException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("another origin"));
+        }
+        assertEquals(Arrays.asList("/foreign/1"), requests);
+    }
+
+    public void testStopsOnARepeatedPage() {
+        JsonApiCursor<JsonNode> cursor = client.paginate("repeat", null, null, null, null, JsonNode.class);
+
+        assertEquals(Arrays.asList(1), ids(cursor));
+        assertEquals(1, requests.size());
+    }
+
+    public void testBuffersAtMostMaxPagesAhead() throws Exception {
+        JsonApiCursor<JsonNode> cursor = client.paginate("endless/1", null, null, null, null, JsonNode.class, 2);
+        awaitRequests(2);
+        Thread.sleep(100);
+
+        assertEquals(2, requests.size());
+
+        // taking page 1 makes room for page 3
+        assertEquals(1, cursor.next().get("id").asInt());
+        awaitRequests(3);
+        cursor.close();
+    }
+
+    public void testCloseCancelsThePendingFetch() throws Exception {
+        JsonApiCursor<JsonNode> cursor = client.paginate("endless/1", null, null, null, null, JsonNode.class, 2);
+        assertEquals(1, cursor.next().get("id").asInt());
+        // page 3 is being fetched and waits for the test
+        awaitRequests(3);
+
+        cursor.close();
+        release.countDown();
+        Thread.sleep(100);
+
+        assertFalse(cursor.hasNext());
+        assertEquals(3, requests.size());
+    }
+
+    private ClientResponse answer(URI uri) {
+        String[] path = uri.getPath().substring(1).split("/");
+        int n = path.length > 1 ? Integer.parseInt(path[1]) : 1;
+        String links = "";
+
+        if ("numbers".equals(path[0])) {
+            Map<String, String> query = query(uri);
+            boolean jsonApi = query.containsKey("page[limit]");
+            String offset = query.get(jsonApi ? "page[offset]" : "offset");
+            String limit = query.get(jsonApi ? "page[limit]" : "limit");
+            int from = offset != null ? Integer.parseInt(offset) : 0;
+            int to = Math.min(5, limit != null ? from + Integer.parseInt(limit) : 5);
+            StringBuilder data = new StringBuilder();
+            for (int id = from + 1; id <= to; id++) {
+                data.append(data.length() > 0 ? "," : "").append("{'type':'numbers','id':").append(id).append('}');
+            }
+            return response("{'data':[" + data + "]}");
+        } else if ("linked".equals(path[0]) && n < 3) {
+            links = ",'links':{'next':'/linked/" + (n + 1) + "'}";
+        } else if ("hrefs".equals(path[0]) && n < 3) {
+            links = ",'links':{'next':{'href':'http://upstream/hrefs/" + (n + 1) + "'}}";
+        } else if ("foreign".equals(path[0])) {
+            links = ",'links':{'next':'http://elsewhere/foreign/" + (n + 1) + "'}";
+        } else if ("repeat".equals(path[0])) {
+            links = ",'links':{'self':'/repeat','next':'/repeat'}";
+        } else if ("endless".equals(path[0])) {
+            if (n == 3) {
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            links = ",'links':{'next':'/endless/" + (n + 1) + "'}";
+        }
+        return response("{'data':[{'type':'" + path[0] + "','id':" + n + "}]" + links + "}");
+    }
+
+    private static ClientResponse response(String json) {
+        InBoundHeaders headers = new InBoundHeaders();
+        headers.putSingle("Content-Type", JsonRestClient.APPLICATION_VND_API_JSON);
+        return new ClientResponse(200, headers, new ByteArrayInputStream(json.replace('\'', '"').getBytes()), null);
+    }
+
+    private static Map<String, String> query(URI uri) {
+        Map<String, String> query = new HashMap<String, String>();
+        if (uri.getQuery() != null) {
+            for (String pair : uri.getQuery().split("&")) {
+                int equals = pair.indexOf('=');
+                query.put(pair.substring(0, equals), pair.substring(equals + 1));
+            }
+        }
+        return query;
+    }
+
+    private static String pathAndQuery(URI uri) {
+        return uri.getPath() + (uri.getQuery() != null ? "?" + uri.getQuery() : "");
+    }
+
+    private void awaitRequests(int count) throws InterruptedException {
+        long until = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (true) {
+            synchronized (requests) {
+                if (requests.size() >= count) {
+                    return;
+                }
+            }
+            assertTrue("requests " + requests, System.nanoTime() < until);
+            Thread.sleep(5);
+        }
+    }
+
+    private static List<Integer> ids(JsonApiCursor<JsonNode> cursor) {
+        List<Integer> ids = new ArrayList<Integer>();
+        while (cursor.hasNext()) {
+            ids.add(cursor.next().get("id").asInt());
+        }
+        return ids;
+    }
+}
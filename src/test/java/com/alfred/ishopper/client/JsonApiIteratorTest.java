@@ -0,0 +1,154 @@
+package com.alfred.ishopper.client;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.sun.jersey.api.client.ClientHandlerException;
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Iterates documents written in the test, with single quotes standing in for double quotes.
+ */
+public class JsonApiIteratorTest extends TestCase {
+    private static final String DATA = "'data':[{'type':'items','id':'1'},{'type':'items','id':'2'}]";
+    private static final String INCLUDED = "'included':[{'type':'people','id':'9','attributes':{'name':'Ann'}},"
+            + "{'type':'items','id':'9','attributes':{'name':'not a person'}}]";
+    private static final String LINKS = "'links':{'next':'/items?page=2'}";
+    private static final String META = "'meta':{'total':2}";
+
+    private boolean closed;
+
+    public void testMembersBeforeDataAreAvailableRightAway() throws JsonRestClientException {
+        JsonApiIterator<JsonNode> resources = iterator("{" + INCLUDED + "," + LINKS + "," + META + "," + DATA + "}");
+
+        assertEquals("/items?page=2", resources.getLinks().get("next").asText());
+        assertEquals(2, resources.getMeta().get("total").asInt());
+        assertNotNull(resources.getIncluded("people", "9"));
+        assertEquals(Arrays.asList("1", "2"), ids(resources));
+        assertTrue(closed);
+    }
+
+    public void testMembersAfterDataAreAvailableOnceItIsRead() throws JsonRestClientException {
+        JsonApiIterator<JsonNode> resources = iterator("{" + DATA + "," + INCLUDED + "," + LINKS + "," + META + "}");
+
+        assertNull(resources.getLinks());
+        assertNull(resources.getMeta());
+        assertNull(resources.getIncluded("people", "9"));
+        assertEquals("1", resources.next().get("id").asText());
+        assertNull(resources.getLinks());
+
+        assertEquals("2", resources.next().get("id").asText());
+        assertFalse(resources.hasNext());
+        assertEquals("/items?page=2", resources.getLinks().get("next").asText());
+        assertEquals(2, resources.getMeta().get("total").asInt());
+        assertNotNull(resources.getIncluded("people", "9"));
+        assertTrue(closed);
+    }
+
+    public void testSingleResourceData() {
+        JsonApiIterator<JsonNode> resources = iterator("{'data':{'type':'items','id':'7'}," + META + "}");
+
+        assertEquals(Arrays.asList("7"), ids(resources));
+        assertEquals(2, resources.getMeta().get("total").asInt());
+    }
+
+    public void testMapsResourcesToTheValueType() {
+        JsonApiIterator<Map<?, ?>> resources = new JsonApiIterator<Map<?, ?>>(json("{" + DATA + "}"),
+                JsonRestClient.reader(Map.class), JsonRestClient.reader(JsonNode.class));
+
+        assertEquals("1", resources.next().get("id"));
+        assertEquals("2", resources.next().get("id"));
+    }
+
+    public void testEmptyBodyHasNoResources() {
+        JsonApiIterator<JsonNode> resources = iterator("");
+
+        assertFalse(resources.hasNext());
+        assertNull(resources.getLinks());
+        assertTrue(closed);
+        try {
+            resources.next();
+            fail("an empty body had a resource");
+        } catch (NoSuchElementException e) {
+            // expected
+        }
+    }
+
+    public void testDocumentWithoutDataHasNoResources() {
+        JsonApiIterator<JsonNode> resources = iterator("{'errors':[{'status':'404'}]," + META + "}");
+
+        assertFalse(resources.hasNext());
+        assertEquals("404", resources.getErrors().get(0).get("status").asText());
+    }
+
+    public void testDocumentThatIsNotAnObjectIsRejected() {
+        try {
+            iterator("[{'type':'items','id':'1'}]");
+            fail("an array was taken for a document");
+        } catch (ClientHandlerException e) {
+            assertTrue(closed);
+        }
+    }
+
+    public void testBrokenJsonFailsLikeEntityReading() {
+        JsonApiIterator<JsonNode> resources = iterator("{'data':[{'type':'items','id':'1'},{'type':");
+
+        assertEquals("1", resources.next().get("id").asText());
+        try {
+            resources.hasNext();
+            fail("the broken resource was read");
+        } catch (ClientHandlerException e) {
+            assertTrue(closed);
+        }
+    }
+
+    public void testIncludedResourcesAreFoundByTypeAndId() throws JsonRestClientException {
+        JsonApiIterator<JsonNode> resources = iterator("{" + INCLUDED + "," + DATA + "}");
+
+        assertEquals("Ann", resources.getIncluded("people", "9").get("attributes").get("name").asText());
+        assertEquals("not a person", resources.getIncluded("items", "9").get("attributes").get("name").asText());
+        assertNull(resources.getIncluded("people", "1"));
+        assertNull(resources.getIncluded("people", "91"));
+        Map<?, ?> person = resources.getIncluded("people", "9", Map.class);
+        assertEquals("people", person.get("type"));
+    }
+
+    public void testCloseReleasesTheResponse() {
+        JsonApiIterator<JsonNode> resources = iterator("{" + DATA + "}");
+        resources.next();
+
+        resources.close();
+
+        assertTrue(closed);
+        assertFalse(resources.hasNext());
+    }
+
+    private JsonApiIterator<JsonNode> iterator(String document) {
+        return new JsonApiIterator<JsonNode>(json(document), JsonRestClient.reader(JsonNode.class),
+                JsonRestClient.reader(JsonNode.class));
+    }
+
+    private InputStream json(String document) {
+        return new ByteArrayInputStream(document.replace('\'', '"').getBytes()) {
+            @Override
+            public void close() throws IOException {
+                closed = true;
+            }
+        };
+    }
+
+    private static List<String> ids(JsonApiIterator<JsonNode> resources) {
+        List<String> ids = new ArrayList<String>();
+        while (resources.hasNext()) {
+            ids.add(resources.next().get("id").asText());
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,256 @@
+package com.alfred.ishopper.client;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.sun.jersey.api.client.Client;
+import com.sun.jersey.api.client.ClientHandler;
+import com.sun.jersey.api.client.ClientRequest;
+import com.sun.jersey.api.client.ClientResponse;
+import com.sun.jersey.core.header.InBoundHeaders;
+import junit.framework.TestCase;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.HttpHeaders;
+import java.io.ByteArrayInputStream;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Calls a stand-in upstream answered in process by a client handler: <code>/items/{n}</code> answers
+ * <code>{"id":n}</code> after n milliseconds, <code>/broken/{n}</code> answers 500. Binary format negotiation runs
+ * against a second one that answers with the Content-Type and bytes the test sets, and keeps the Accept headers.
+ */
+public class JsonRestClientTest extends TestCase {
+    private static final Object ITEM = Collections.singletonMap("id", 7);
+
+    private final List<String> requests = new ArrayList<String>();
+    private final ExecutorService executor = Executors.newFixedThreadPool(4);
+    private final List<String> accepted = new ArrayList<String>();
+    private String contentType;
+    private byte[] body;
+
+    @Override
+    protected void tearDown() {
+        executor.shutdownNow();
+    }
+
+    public void testGetAllKeepsTheOrderOfTheResources() throws Exception {
+        JsonRestClient client = client();
+        List<String> resources = new ArrayList<String>();
+        for (int i = 20; i > 0; i--) {
+            resources.add("items/" + i);
+        }
+
+        List<BatchResult<JsonNode>> batch = client.getAll(resources, null, null, null, null, JsonNode.class, 4, 5,
+                TimeUnit.SECONDS);
+
+        assertEquals(resources.size(), batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+            BatchResult<JsonNode> result = batch.get(i);
+            assertEquals(resources.get(i), result.getResource());
+            assertTrue(result.isSuccess());
+            assertEquals(20 - i, result.getValue().get("id").asInt());
+        }
+        assertEquals(resources.size(), requests.size());
+    }
+
+    public void testGetAllReportsFailedItemsAlone() throws Exception {
+        JsonRestClient client = client();
+        List<String> resources = Arrays.asList("items/1", "broken/2", "items/3");
+
+        List<BatchResult<JsonNode>> batch = client.getAll(resources, null, null, null, null, JsonNode.class, 2, 5,
+                TimeUnit.SECONDS);
+
+        assertTrue(batch.get(0).isSuccess());
+        assertFalse(batch.get(1).isSuccess());
+        assertTrue(batch.get(1).getError() instanceof WebApplicationException);
+        assertNull(batch.get(1).getValue());
+        assertTrue(batch.get(2).isSuccess());
+        assertEquals(3, batch.get(2).getValue().get("id").asInt());
+    }
+
+    public void testGetAllStopsAtTheBatchTimeout() throws Exception {
+        JsonRestClient client = client();
+        List<String> resources = Arrays.asList("items/1", "items/2000", "items/3", "items/4");
+
+        long start = System.nanoTime();
+        List<BatchResult<JsonNode>> batch = client.getAll(resources, null, null, null, null, JsonNode.class, 4, 200,
+                TimeUnit.MILLISECONDS);
+        long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertTrue("took " + millis + " ms", millis < 1500);
+        assertTrue(batch.get(0).isSuccess());
+        assertTrue(batch.get(1).getError() instanceof TimeoutException);
+        assertTrue(batch.get(2).isSuccess());
+        assertTrue(batch.get(3).isSuccess());
+    }
+
+    public void testGetAllStopsAtTheCallersDeadline() throws Exception {
+        JsonRestClient client = client();
+        List<String> resources = Arrays.asList("items/1", "items/2000");
+
+        Deadline previous = Deadline.set(Deadline.after(200, TimeUnit.MILLISECONDS));
+        List<BatchResult<JsonNode>> batch;
+        try {
+            batch = client.getAll(resources, null, null, null, null, JsonNode.class, 2, 5, TimeUnit.SECONDS);
+        } finally {
+            Deadline.set(previous);
+        }
+
+        assertTrue(batch.get(0).isSuccess());
+        assertTrue(batch.get(1).getError() instanceof TimeoutException);
+    }
+
+    public void testGetAllOnARejectingExecutorFailsEveryItemWithoutRecursing() throws Exception {
+        final JsonRestClient client = client();
+        client.setExecutor(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                throw new RejectedExecutionException("saturated");
+            }
+        });
+        final List<String> resources = new ArrayList<String>();
+        for (int i = 0; i < 5000; i++) {
+            resources.add("items/" + i);
+        }
+
+        // a stack this small overflows long before 5000 nested launches
+        final AtomicReference<Object> outcome = new AtomicReference<Object>();
+        Thread caller = new Thread(null, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    outcome.set(client.getAll(resources, null, null, null, null, JsonNode.class, 1, 5, TimeUnit.SECONDS));
+                } catch (Throwable t) {
+                    outcome.set(t);
+                }
+            }
+        }, "batch", 128 * 1024);
+        caller.start();
+        caller.join(30000);
+
+        assertTrue(String.valueOf(outcome.get()), outcome.get() instanceof List);
+        for (Object result : (List<?>) outcome.get()) {
+            Throwable error = ((BatchResult<?>) result).getError();
+            assertEquals(503, ((WebApplicationException) error).getResponse().getStatus());
+        }
+        assertTrue(requests.isEmpty());
+    }
+
+    public void testAsksForTheBinaryFormatAheadOfJson() throws Exception {
+        Object[][] formats = {
+            { ClientConfiguration.SMILE, JsonRestClient.APPLICATION_SMILE, new SmileFactory() },
+            { ClientConfiguration.CBOR, JsonRestClient.APPLICATION_CBOR, new CBORFactory() },
+        };
+        for (Object[] format : formats) {
+            JsonRestClient client = binaryClient((String) format[0]);
+            answer((String) format[1], new ObjectMapper((JsonFactory) format[2]).writeValueAsBytes(ITEM));
+
+            assertEquals(7, client.get("items/7", null, (AuthUser) null, JsonNode.class).get("id").asInt());
+            assertEquals(7, client.get(client.prepare("items/{id}"), null, null, null, null, JsonNode.class, 7)
+                    .get("id").asInt());
+
+            String accept = format[1] + ", application/json;q=0.9";
+            assertEquals(Arrays.asList(accept, accept), accepted);
+            accepted.clear();
+        }
+    }
+
+    public void testFallsBackToJsonWhenTheUpstreamIgnoresAccept() throws Exception {
+        JsonRestClient client = binaryClient(ClientConfiguration.CBOR);
+        answer("application/json", "{\"id\":7}".getBytes("UTF-8"));
+
+        assertEquals(7, client.get("items/7", null, (AuthUser) null, JsonNode.class).get("id").asInt());
+
+        // and without a Content-Type at all
+        answer(null, "{\"id\":8}".getBytes("UTF-8"));
+        assertEquals(8, client.get("items/8", null, (AuthUser) null, JsonNode.class).get("id").asInt());
+    }
+
+    public void testAsksForJsonOnlyWithoutABinaryFormat() throws Exception {
+        JsonRestClient client = binaryClient(null);
+        answer("application/json", "{\"id\":7}".getBytes("UTF-8"));
+
+        client.get("items/7", null, (AuthUser) null, JsonNode.class);
+
+        assertEquals(Arrays.asList("application/json"), accepted);
+    }
+
+    public void testRejectsAnUnknownBinaryFormat() throws Exception {
+        try {
+            binaryClient("msgpack");
+            fail("msgpack was accepted");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("msgpack"));
+        }
+    }
+
+    private JsonRestClient client() throws URISyntaxException {
+        ClientConfiguration config = new ClientConfiguration();
+        config.setBaseUri("http://upstream");
+        config.setBasePort(80);
+        JsonRestClient client = new JsonRestClient(new Client(new ClientHandler() {
+            @Override
+            public ClientResponse handle(ClientRequest request) {
+                String path = request.getURI().getPath();
+                synchronized (requests) {
+                    requests.add(path);
+                }
+                int n = Integer.parseInt(path.substring(path.lastIndexOf('/') + 1));
+                if (path.startsWith("/broken/")) {
+                    return response(500, "{}");
+                }
+                try {
+                    Thread.sleep(n);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return response(200, "{\"id\":" + n + "}");
+            }
+        }), config);
+        client.setExecutor(executor);
+        return client;
+    }
+
+    private JsonRestClient binaryClient(String binaryFormat) throws URISyntaxException {
+        ClientConfiguration config = new ClientConfiguration();
+        config.setBaseUri("http://upstream");
+        config.setBasePort(80);
+        config.setBinaryFormat(binaryFormat);
+        return new JsonRestClient(new Client(new ClientHandler() {
+            @Override
+            public ClientResponse handle(ClientRequest request) {
+                accepted.add(String.valueOf(request.getHeaders().getFirst(HttpHeaders.ACCEPT)));
+                InBoundHeaders headers = new InBoundHeaders();
+                if (contentType != null) {
+                    headers.putSingle(HttpHeaders.CONTENT_TYPE, contentType);
+                }
+                return new ClientResponse(200, headers, new ByteArrayInputStream(body), null);
+            }
+        }), config);
+    }
+
+    private void answer(String contentType, byte[] body) {
+        this.contentType = contentType;
+        this.body = body;
+    }
+
+    private static ClientResponse response(int status, String body) {
+        InBoundHeaders headers = new InBoundHeaders();
+        headers.putSingle("Content-Type", "application/json");
+        return new ClientResponse(status, headers, new ByteArrayInputStream(body.getBytes()), null);
+    }
+}
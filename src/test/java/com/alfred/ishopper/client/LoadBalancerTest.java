@@ -0,0 +1,293 @@
+package com.alfred.ishopper.client;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.sun.jersey.api.client.Client;
+import com.sun.jersey.api.client.ClientHandler;
+import com.sun.jersey.api.client.ClientHandlerException;
+import com.sun.jersey.api.client.ClientRequest;
+import com.sun.jersey.api.client.ClientResponse;
+import com.sun.jersey.core.header.InBoundHeaders;
+import io.dropwizard.util.Duration;
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Balances calls over stand-in endpoints answered by a client handler that records which endpoint each call reached
+ * and answers with the status set for it, or times out after the delay set for it.
+ */
+public class LoadBalancerTest extends TestCase {
+    private static final String BASE = "http://upstream";
+
+    private final MetricRegistry metrics = new MetricRegistry();
+    private final Map<String, Integer> statuses = new ConcurrentHashMap<String, Integer>();
+    private final Map<String, Long> timeouts = new ConcurrentHashMap<String, Long>();
+    private final List<String> calls = new ArrayList<String>();
+    private Client client;
+
+    public void testEjectsAfterConsecutiveFailures() {
+        balancer(3, 50, Duration.seconds(30), "a:1", "b:1", "c:1");
+        statuses.put("a:1", 503);
+
+        call(9);
+        assertEquals("EJECTED", state("a:1"));
+        assertEquals(1, metrics.meter(name("a:1", "ejections")).getCount());
+
+        calls.clear();
+        call(10);
+        assertFalse(calls.contains("a:1"));
+        assertEquals("HEALTHY", state("b:1"));
+    }
+
+    public void testSuccessResetsTheFailureCount() {
+        balancer(3, 50, Duration.seconds(30), "a:1", "b:1");
+        for (int i = 0; i < 5; i++) {
+            statuses.put("a:1", 500);
+            call(4);
+            statuses.put("a:1", 200);
+            call(2);
+        }
+
+        assertEquals("HEALTHY", state("a:1"));
+    }
+
+    public void testMaxEjectionPercentCapsEjectedEndpoints() {
+        balancer(2, 50, Duration.seconds(30), "a:1", "b:1", "c:1", "d:1");
+        statuses.put("a:1", 500);
+        statuses.put("b:1", 500);
+        statuses.put("c:1", 500);
+
+        call(40);
+
+        int ejected = 0;
+        for (String endpoint : Arrays.asList("a:1", "b:1", "c:1")) {
+            ejected += "EJECTED".equals(state(endpoint)) ? 1 : 0;
+        }
+        assertEquals(2, ejected);
+        assertEquals("HEALTHY", state("d:1"));
+        assertEquals(0, metrics.meter(MetricRegistry.name(LoadBalancer.class, "stand-in", "panic")).getCount());
+    }
+
+    public void testSuccessfulProbeBringsTheEndpointBack() throws InterruptedException {
+        balancer(1, 50, Duration.milliseconds(200), "a:1", "b:1");
+        statuses.put("a:1", 500);
+        call(2);
+        assertEquals("EJECTED", state("a:1"));
+
+        statuses.put("a:1", 200);
+        Thread.sleep(250);
+        calls.clear();
+        call(1);
+
+        assertEquals(Arrays.asList("a:1"), calls);
+        assertEquals(1, metrics.meter(name("a:1", "probes")).getCount());
+        assertEquals("HEALTHY", state("a:1"));
+        calls.clear();
+        call(4);
+        assertTrue(calls.contains("a:1"));
+    }
+
+    public void testFailedProbeEjectsForLonger() throws InterruptedException {
+        balancer(1, 50, Duration.milliseconds(200), "a:1", "b:1");
+        statuses.put("a:1", 500);
+        call(2);
+
+        Thread.sleep(250);
+        calls.clear();
+        call(1);
+        assertEquals(Arrays.asList("a:1"), calls);
+        assertEquals("EJECTED", state("a:1"));
+        assertEquals(2, metrics.meter(name("a:1", "ejections")).getCount());
+
+        // the second ejection lasts 400 ms
+        Thread.sleep(150);
+        calls.clear();
+        call(3);
+        assertFalse(calls.contains("a:1"));
+
+        Thread.sleep(300);
+        calls.clear();
+        call(1);
+        assertEquals(Arrays.asList("a:1"), calls);
+        assertEquals(2, metrics.meter(name("a:1", "probes")).getCount());
+    }
+
+    public void testAbandonedProbeProbesAgain() {
+        LoadBalancer balancer = balancer(1, 50, Duration.milliseconds(0), "a:1", "b:1");
+        statuses.put("a:1", 500);
+        call(1);
+        assertEquals("EJECTED", state("a:1"));
+
+        LoadBalancer.Endpoint probe = balancer.choose();
+        assertEquals("PROBING", state("a:1"));
+        probe.abandon();
+
+        assertEquals("EJECTED", state("a:1"));
+        assertEquals(1, metrics.meter(name("a:1", "ejections")).getCount());
+        assertEquals(0, gauge("a:1", "outstanding"));
+    }
+
+    public void testPanicSpreadsCallsWhenEveryEndpointIsEjected() {
+        balancer(1, 100, Duration.seconds(30), "a:1", "b:1");
+        statuses.put("a:1", 500);
+        statuses.put("b:1", 500);
+        call(2);
+        assertEquals("EJECTED", state("a:1"));
+        assertEquals("EJECTED", state("b:1"));
+
+        calls.clear();
+        call(4);
+
+        assertEquals(2, Collections.frequency(calls, "a:1"));
+        assertEquals(2, Collections.frequency(calls, "b:1"));
+        assertEquals(4, metrics.meter(MetricRegistry.name(LoadBalancer.class, "stand-in", "panic")).getCount());
+    }
+
+    public void testCallsFailedByTheDeadlineDoNotEject() {
+        balancer(1, 50, Duration.seconds(30), "a:1", "b:1");
+        timeouts.put("a:1", 30L);
+
+        Deadline previous = Deadline.set(Deadline.after(0, TimeUnit.MILLISECONDS));
+        try {
+            callFailing(2);
+        } finally {
+            Deadline.set(previous);
+        }
+        assertTrue(calls.isEmpty());
+
+        // a:1 times out at the 20 ms the deadline capped its timeouts at
+        previous = Deadline.set(Deadline.after(20, TimeUnit.MILLISECONDS));
+        try {
+            callFailing(1);
+        } finally {
+            Deadline.set(previous);
+        }
+        assertEquals(Arrays.asList("a:1"), calls);
+
+        assertEquals("HEALTHY", state("a:1"));
+        assertEquals(0, gauge("a:1", "outstanding"));
+        assertEquals(3, exceeded());
+    }
+
+    public void testTimeoutsWithTimeLeftEject() {
+        balancer(1, 50, Duration.seconds(30), "a:1", "b:1");
+        timeouts.put("a:1", 0L);
+
+        Deadline previous = Deadline.set(Deadline.after(10, TimeUnit.SECONDS));
+        try {
+            callFailing(1);
+        } finally {
+            Deadline.set(previous);
+        }
+
+        assertEquals("EJECTED", state("a:1"));
+        assertEquals(0, exceeded());
+    }
+
+    public void testStartsWithMatchesWholeAuthority() {
+        assertTrue(LoadBalancer.startsWith("http://host", "http://host"));
+        assertTrue(LoadBalancer.startsWith("http://host/items", "http://host"));
+        assertTrue(LoadBalancer.startsWith("http://host?page=2", "http://host"));
+        assertTrue(LoadBalancer.startsWith("http://host:8080/items", "http://host:8080"));
+        assertFalse(LoadBalancer.startsWith("http://host:8080/items", "http://host"));
+        assertFalse(LoadBalancer.startsWith("http://host:80/items", "http://host:8"));
+        assertFalse(LoadBalancer.startsWith("http://hostname/items", "http://host"));
+        assertFalse(LoadBalancer.startsWith("http://other/items", "http://host"));
+    }
+
+    public void testRequestsToAnotherPortPassThrough() {
+        balancer(1, 50, Duration.seconds(30), "a:1", "b:1");
+
+        client.resource(BASE + ":8080/items").get(ClientResponse.class);
+
+        assertEquals(Arrays.asList("upstream:8080"), calls);
+    }
+
+    private LoadBalancer balancer(int consecutiveFailures, int maxEjectionPercent, Duration ejectionTime,
+                                  String... endpoints) {
+        ClientConfiguration config = new ClientConfiguration();
+        config.setBaseUri(BASE);
+        config.setBasePort(80);
+        List<String> uris = new ArrayList<String>();
+        for (String endpoint : endpoints) {
+            uris.add("http://" + endpoint);
+        }
+        config.setEndpoints(uris);
+        LoadBalancerConfiguration balancing = config.getLoadBalancer();
+        balancing.setPolicy(LoadBalancerConfiguration.ROUND_ROBIN);
+        balancing.setConsecutiveFailures(consecutiveFailures);
+        balancing.setMaxEjectionPercent(maxEjectionPercent);
+        balancing.setEjectionTime(ejectionTime);
+
+        LoadBalancer balancer = new LoadBalancer(config, metrics, "stand-in");
+        client = new Client(new ClientHandler() {
+            @Override
+            public ClientResponse handle(ClientRequest request) {
+                String endpoint = request.getURI().getAuthority();
+                calls.add(endpoint);
+                Long timeout = timeouts.get(endpoint);
+                if (timeout != null) {
+                    sleep(timeout);
+                    throw new ClientHandlerException(new SocketTimeoutException("Read timed out"));
+                }
+                Integer status = statuses.get(endpoint);
+                return new ClientResponse(status != null ? status : 200, new InBoundHeaders(),
+                        new ByteArrayInputStream(new byte[0]), null);
+            }
+        });
+        client.addFilter(new DeadlineFilter(config, metrics, "stand-in"));
+        client.addFilter(balancer);
+        return balancer;
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void call(int times) {
+        for (int i = 0; i < times; i++) {
+            client.resource(BASE + "/items").get(ClientResponse.class).close();
+        }
+    }
+
+    private void callFailing(int times) {
+        for (int i = 0; i < times; i++) {
+            try {
+                client.resource(BASE + "/items").get(ClientResponse.class).close();
+                fail("call did not fail");
+            } catch (ClientHandlerException expected) {
+                // failed by the deadline or the stand-in endpoint
+            }
+        }
+    }
+
+    private long exceeded() {
+        return metrics.meter(MetricRegistry.name(DeadlineFilter.class, "stand-in", "deadline-exceeded")).getCount();
+    }
+
+    private String state(String endpoint) {
+        return (String) metrics.getGauges().get(name(endpoint, "state")).getValue();
+    }
+
+    private int gauge(String endpoint, String metric) {
+        Gauge<?> gauge = metrics.getGauges().get(name(endpoint, metric));
+        return (Integer) gauge.getValue();
+    }
+
+    private static String name(String endpoint, String metric) {
+        return MetricRegistry.name(LoadBalancer.class, "stand-in", endpoint.replace(':', '-'), metric);
+    }
+}
@@ -0,0 +1,141 @@
+package com.alfred.ishopper.client;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.sun.jersey.api.client.Client;
+import com.sun.jersey.api.client.ClientHandler;
+import com.sun.jersey.api.client.ClientRequest;
+import com.sun.jersey.api.client.ClientResponse;
+import com.sun.jersey.core.header.InBoundHeaders;
+import com.sun.jersey.core.util.MultivaluedMapImpl;
+import junit.framework.TestCase;
+
+import javax.ws.rs.core.MultivaluedMap;
+import java.io.ByteArrayInputStream;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compiles templates against a client whose stand-in upstream records the URI of every request, so prepared calls
+ * can be compared with the plain ones built from a resource string.
+ */
+public class PreparedRequestTest extends TestCase {
+    private final List<URI> requests = new ArrayList<URI>();
+    private JsonRestClient client;
+
+    @Override
+    protected void setUp() throws Exception {
+        ClientConfiguration config = new ClientConfiguration();
+        config.setBaseUri("http://upstream");
+        config.setBasePort(80);
+        client = new JsonRestClient(new Client(new ClientHandler() {
+            @Override
+            public ClientResponse handle(ClientRequest request) {
+                requests.add(request.getURI());
+                InBoundHeaders headers = new InBoundHeaders();
+                headers.putSingle("Content-Type", "application/json");
+                return new ClientResponse(200, headers, new ByteArrayInputStream("{}".getBytes()), null);
+            }
+        }), config);
+    }
+
+    public void testUnclosedPlaceholderIsRejected() {
+        try {
+            client.prepare("products/{id/reviews");
+            fail("the unclosed placeholder was accepted");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("Unclosed placeholder"));
+        }
+    }
+
+    public void testWrongNumberOfValuesIsRejected() {
+        PreparedRequest request = client.prepare("products/{id}/reviews/{review}");
+        assertEquals(2, request.getVariableCount());
+
+        for (Object[] values : new Object[][] { null, {}, { 1 }, { 1, 2, 3 } }) {
+            try {
+                request.expand(values);
+                fail((values == null ? 0 : values.length) + " values were accepted");
+            } catch (IllegalArgumentException e) {
+                assertTrue(e.getMessage(), e.getMessage().contains("takes 2 path values"));
+            }
+        }
+        assertEquals("products/7/reviews/8", request.expand(new Object[] { 7, 8 }));
+    }
+
+    public void testTemplateWithoutPlaceholdersTakesNoValues() {
+        PreparedRequest request = client.prepare("/products");
+
+        assertEquals(0, request.getVariableCount());
+        assertEquals("products", request.expand(null));
+        assertEquals("products", request.expand(new Object[0]));
+    }
+
+    public void testValuesAreEncodedAsOneSegment() {
+        PreparedRequest request = client.prepare("products/{id}/reviews");
+
+        assertEquals("products/a%2Fb/reviews", request.expand(new Object[] { "a/b" }));
+        assertEquals("products/what%3F/reviews", request.expand(new Object[] { "what?" }));
+        assertEquals("products/100%25/reviews", request.expand(new Object[] { "100%" }));
+        assertEquals("products/red%20shoes/reviews", request.expand(new Object[] { "red shoes" }));
+
+        URI uri = request.uri(request.expand(new Object[] { "a/b?c=d e" }), null);
+        assertEquals("/products/a%2Fb%3Fc=d%20e/reviews", uri.getRawPath());
+        assertNull(uri.getRawQuery());
+    }
+
+    public void testQueryMatchesThePlainCall() throws Exception {
+        PreparedRequest request = client.prepare("products/{id}");
+        String[][] queries = {
+            { "q", "red shoes" },
+            { "q", "a&b=c" },
+            { "q", "100%" },
+            { "q", "café" },
+            { "q", "a/b?c" },
+            { "sort by", "price" },
+        };
+
+        for (String[] query : queries) {
+            MultivaluedMap<String, String> params = new MultivaluedMapImpl();
+            params.add(query[0], query[1]);
+            params.add("page", "2");
+
+            client.get("products/42", params, (AuthUser) null, JsonNode.class);
+            client.get(request, params, null, null, null, JsonNode.class, 42);
+
+            URI plain = requests.get(requests.size() - 2);
+            URI prepared = requests.get(requests.size() - 1);
+            assertEquals(query[0] + "=" + query[1], plain, prepared);
+            assertEquals(query[1], value(prepared, query[0]));
+        }
+    }
+
+    public void testPathMatchesThePlainCall() throws Exception {
+        PreparedRequest request = client.prepare("products/{id}/reviews");
+
+        client.get("products/red shoes/reviews", null, (AuthUser) null, JsonNode.class);
+        client.get(request, null, null, null, null, JsonNode.class, "red shoes");
+
+        assertEquals(requests.get(0), requests.get(1));
+        assertEquals("/products/red%20shoes/reviews", requests.get(1).getRawPath());
+
+        String literal = "products/a b;c=d@e:f!$&'()*+,%g%41é[]|^`\"<>";
+        client.get(literal, null, (AuthUser) null, JsonNode.class);
+        client.get(client.prepare(literal), null, null, null, null, JsonNode.class);
+        assertEquals(requests.get(2), requests.get(3));
+    }
+
+    /**
+     * Decodes the value of a query parameter from the raw query.
+     */
+    private static String value(URI uri, String name) throws Exception {
+        for (String pair : uri.getRawQuery().split("&")) {
+            int equals = pair.indexOf('=');
+            if (URLDecoder.decode(pair.substring(0, equals), "UTF-8").equals(name)) {
+                return URLDecoder.decode(pair.substring(equals + 1), "UTF-8");
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,209 @@
+package com.alfred.ishopper.client;
+
+import com.codahale.metrics.MetricRegistry;
+import com.sun.jersey.api.client.ClientResponse;
+import com.sun.jersey.core.header.InBoundHeaders;
+import junit.framework.TestCase;
+
+import javax.ws.rs.core.Cookie;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs concurrent callers through the coalescer against a stand-in upstream call that counts how often it is made
+ * and holds its answer until the test lets it go.
+ */
+public class RequestCoalescerTest extends TestCase {
+    private static final int CALLERS = 8;
+
+    private final MetricRegistry metrics = new MetricRegistry();
+    private final AtomicInteger upstreamCalls = new AtomicInteger();
+    private final CountDownLatch answer = new CountDownLatch(1);
+    private final ExecutorService callers = Executors.newFixedThreadPool(CALLERS);
+
+    @Override
+    protected void tearDown() {
+        callers.shutdownNow();
+    }
+
+    public void testIdenticalCallsMakeOneUpstreamCall() throws Exception {
+        RequestCoalescer coalescer = new RequestCoalescer(metrics, "stand-in");
+
+        List<Future<String>> bodies = new ArrayList<Future<String>>();
+        for (int i = 0; i < CALLERS; i++) {
+            bodies.add(submit(coalescer, "GET items", upstream("items")));
+        }
+        awaitJoined(CALLERS - 1);
+        answer.countDown();
+
+        for (Future<String> body : bodies) {
+            assertEquals("items", body.get(5, TimeUnit.SECONDS));
+        }
+        assertEquals(1, upstreamCalls.get());
+    }
+
+    public void testCallsForOtherSessionsOrCredentialsAreNotMerged() throws Exception {
+        RequestCoalescer coalescer = new RequestCoalescer(metrics, "stand-in");
+        String[] keys = {
+            RequestCoalescer.key("GET items", null, null),
+            RequestCoalescer.key("GET items", ForwardedCookies.of("session=a"), null),
+            RequestCoalescer.key("GET items", ForwardedCookies.of("session=b"), null),
+            RequestCoalescer.key("GET items", cookies("session", "a"), null),
+            RequestCoalescer.key("GET items", cookies("session", "b"), null),
+            RequestCoalescer.key("GET items", null, "Basic YTpi"),
+            RequestCoalescer.key("GET items", null, "Basic Yzpk"),
+        };
+
+        // every call must be in flight at once, which merged calls could never be
+        final CountDownLatch allInFlight = new CountDownLatch(keys.length);
+        List<Future<String>> bodies = new ArrayList<Future<String>>();
+        for (final String key : keys) {
+            bodies.add(submit(coalescer, key, new Callable<ClientResponse>() {
+                @Override
+                public ClientResponse call() throws Exception {
+                    upstreamCalls.incrementAndGet();
+                    allInFlight.countDown();
+                    assertTrue(allInFlight.await(5, TimeUnit.SECONDS));
+                    return response(key);
+                }
+            }));
+        }
+
+        for (int i = 0; i < keys.length; i++) {
+            assertEquals(keys[i], bodies.get(i).get(5, TimeUnit.SECONDS));
+        }
+        assertEquals(keys.length, upstreamCalls.get());
+        assertEquals(0, coalesced());
+    }
+
+    public void testResponseIsNotBufferedWithoutJoiners() throws Exception {
+        RequestCoalescer coalescer = new RequestCoalescer(metrics, "stand-in");
+        final ClientResponse upstream = response("items");
+        InputStream stream = upstream.getEntityInputStream();
+
+        ClientResponse response = coalescer.execute("GET items", new Callable<ClientResponse>() {
+            @Override
+            public ClientResponse call() {
+                return upstream;
+            }
+        }, null);
+
+        assertSame(stream, response.getEntityInputStream());
+    }
+
+    public void testLargeBodiesAreNotShared() throws Exception {
+        RequestCoalescer coalescer = new RequestCoalescer(4, metrics, "stand-in");
+
+        Future<String> leader = submit(coalescer, "GET items", upstream("0123456789"));
+        awaitUpstreamCalls(1);
+        Future<String> joiner = submit(coalescer, "GET items", upstream("0123456789"));
+        awaitJoined(1);
+        answer.countDown();
+
+        assertEquals("0123456789", leader.get(5, TimeUnit.SECONDS));
+        assertEquals("0123456789", joiner.get(5, TimeUnit.SECONDS));
+        assertEquals(2, upstreamCalls.get());
+        assertEquals(1, metrics.meter(MetricRegistry.name(RequestCoalescer.class, "stand-in", "too-large")).getCount());
+    }
+
+    public void testLeaderFailureReachesJoiners() throws Exception {
+        RequestCoalescer coalescer = new RequestCoalescer(metrics, "stand-in");
+        Callable<ClientResponse> failing = new Callable<ClientResponse>() {
+            @Override
+            public ClientResponse call() throws Exception {
+                upstreamCalls.incrementAndGet();
+                answer.await(5, TimeUnit.SECONDS);
+                throw new IOException("upstream down");
+            }
+        };
+
+        Future<String> leader = submit(coalescer, "GET items", failing);
+        awaitUpstreamCalls(1);
+        Future<String> joiner = submit(coalescer, "GET items", failing);
+        awaitJoined(1);
+        answer.countDown();
+
+        for (Future<String> caller : Arrays.asList(leader, joiner)) {
+            try {
+                caller.get(5, TimeUnit.SECONDS);
+                fail("the upstream failure was not passed on");
+            } catch (ExecutionException e) {
+                assertEquals("upstream down", e.getCause().getMessage());
+            }
+        }
+        assertEquals(1, upstreamCalls.get());
+    }
+
+    private Future<String> submit(final RequestCoalescer coalescer, final String key,
+                                  final Callable<ClientResponse> upstream) {
+        return callers.submit(new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                return body(coalescer.execute(key, upstream, null));
+            }
+        });
+    }
+
+    private Callable<ClientResponse> upstream(final String body) {
+        return new Callable<ClientResponse>() {
+            @Override
+            public ClientResponse call() throws Exception {
+                upstreamCalls.incrementAndGet();
+                assertTrue(answer.await(5, TimeUnit.SECONDS));
+                return response(body);
+            }
+        };
+    }
+
+    private void awaitJoined(int callers) throws InterruptedException {
+        long until = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (coalesced() < callers) {
+            assertTrue("joined " + coalesced(), System.nanoTime() < until);
+            Thread.sleep(1);
+        }
+    }
+
+    private void awaitUpstreamCalls(int calls) throws InterruptedException {
+        long until = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (upstreamCalls.get() < calls) {
+            assertTrue(System.nanoTime() < until);
+            Thread.sleep(1);
+        }
+    }
+
+    private long coalesced() {
+        return metrics.meter(MetricRegistry.name(RequestCoalescer.class, "stand-in", "coalesced")).getCount();
+    }
+
+    private static Map<String, Cookie> cookies(String name, String value) {
+        return Collections.singletonMap(name, new Cookie(name, value));
+    }
+
+    private static ClientResponse response(String body) {
+        return new ClientResponse(200, new InBoundHeaders(), new ByteArrayInputStream(body.getBytes()), null);
+    }
+
+    private static String body(ClientResponse response) throws IOException {
+        InputStream in = response.getEntityInputStream();
+        StringBuilder body = new StringBuilder();
+        int c;
+        while ((c = in.read()) != -1) {
+            body.append((char) c);
+        }
+        return body.toString();
+    }
+}
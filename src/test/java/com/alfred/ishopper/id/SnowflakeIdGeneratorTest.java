@@ -0,0 +1,162 @@
+package com.alfred.ishopper.id;
+
+import junit.framework.TestCase;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Issues IDs from several threads against the system clock, and from one thread against a clock the test moves.
+ */
+public class SnowflakeIdGeneratorTest extends TestCase {
+    private static final long EPOCH = SnowflakeIdGenerator.DEFAULT_EPOCH;
+    private static final int THREADS = 8;
+    private static final int IDS_PER_THREAD = 20000;
+
+    private final ManualClock clock = new ManualClock(EPOCH + 1000);
+
+    public void testIdsAreUniqueAndIncreasingPerThread() throws Exception {
+        assertUniqueAndIncreasing(new SnowflakeIdGenerator(5, EPOCH, 1000, 1, Clock.systemUTC()));
+        assertUniqueAndIncreasing(new SnowflakeIdGenerator(5, EPOCH, 1000, 64, Clock.systemUTC()));
+    }
+
+    public void testIdsCarryTimestampNodeAndSequence() {
+        SnowflakeIdGenerator ids = new SnowflakeIdGenerator(7, EPOCH, 1000, 1, clock);
+
+        long first = ids.nextId();
+        long second = ids.nextId();
+
+        assertEquals(EPOCH + 1000, ids.timestamp(first));
+        assertEquals(7, SnowflakeIdGenerator.nodeId(first));
+        assertEquals(first + 1, second);
+    }
+
+    public void testClockMovingBackWithinSkewKeepsTheLastTimestamp() {
+        SnowflakeIdGenerator ids = new SnowflakeIdGenerator(1, EPOCH, 1000, 1, clock);
+        long before = ids.nextId();
+
+        clock.set(EPOCH + 500);
+        long during = ids.nextId();
+        assertTrue(during > before);
+        assertEquals(ids.timestamp(before), ids.timestamp(during));
+
+        clock.set(EPOCH + 1001);
+        long after = ids.nextId();
+        assertTrue(after > during);
+        assertEquals(EPOCH + 1001, ids.timestamp(after));
+    }
+
+    public void testClockMovingBackBeyondSkewFails() {
+        SnowflakeIdGenerator ids = new SnowflakeIdGenerator(1, EPOCH, 100, 1, clock);
+        ids.nextId();
+
+        clock.set(EPOCH + 800);
+        try {
+            ids.nextId();
+            fail("issued an ID after the clock moved back by 200 ms");
+        } catch (IllegalStateException expected) {
+            // refused rather than risking a duplicate
+        }
+    }
+
+    public void testUsedUpMillisecondWaitsForTheNext() throws Exception {
+        final SnowflakeIdGenerator ids = new SnowflakeIdGenerator(1, EPOCH, 1000, 4096, clock);
+        for (int i = 0; i < 4096; i++) {
+            ids.nextId();
+        }
+
+        ExecutorService caller = Executors.newSingleThreadExecutor();
+        try {
+            Future<Long> next = caller.submit(new Callable<Long>() {
+                @Override
+                public Long call() {
+                    return ids.nextId();
+                }
+            });
+            Thread.sleep(50);
+            assertFalse(next.isDone());
+
+            clock.set(EPOCH + 1001);
+            assertEquals(EPOCH + 1001, ids.timestamp(next.get(5, TimeUnit.SECONDS)));
+        } finally {
+            caller.shutdownNow();
+        }
+    }
+
+    private static void assertUniqueAndIncreasing(final IdGenerator ids) throws Exception {
+        ExecutorService threads = Executors.newFixedThreadPool(THREADS);
+        try {
+            Future<?>[] issued = new Future<?>[THREADS];
+            for (int t = 0; t < THREADS; t++) {
+                issued[t] = threads.submit(new Callable<long[]>() {
+                    @Override
+                    public long[] call() {
+                        long[] values = new long[IDS_PER_THREAD];
+                        for (int i = 0; i < values.length; i++) {
+                            values[i] = ids.nextId();
+                        }
+                        return values;
+                    }
+                });
+            }
+
+            Set<Long> seen = new HashSet<Long>();
+            for (Future<?> future : issued) {
+                long[] values = (long[]) future.get(30, TimeUnit.SECONDS);
+                for (int i = 0; i < values.length; i++) {
+                    assertTrue(values[i] > 0);
+                    assertEquals(5, SnowflakeIdGenerator.nodeId(values[i]));
+                    if (i > 0) {
+                        assertTrue(values[i] > values[i - 1]);
+                    }
+                    assertTrue("duplicate " + values[i], seen.add(values[i]));
+                }
+            }
+            assertEquals(THREADS * IDS_PER_THREAD, seen.size());
+        } finally {
+            threads.shutdownNow();
+        }
+    }
+
+    private static class ManualClock extends Clock {
+        private final AtomicLong millis;
+
+        ManualClock(long millis) {
+            this.millis = new AtomicLong(millis);
+        }
+
+        void set(long value) {
+            millis.set(value);
+        }
+
+        @Override
+        public long millis() {
+            return millis.get();
+        }
+
+        @Override
+        public Instant instant() {
+            return Instant.ofEpochMilli(millis());
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+    }
+}
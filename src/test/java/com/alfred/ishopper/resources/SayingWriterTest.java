@@ -0,0 +1,70 @@
+package com.alfred.ishopper.resources;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.dropwizard.jackson.Jackson;
+import junit.framework.TestCase;
+
+import javax.ws.rs.core.MediaType;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.annotation.Annotation;
+import java.util.Arrays;
+
+/**
+ * Compares what {@link SayingWriter} writes for a {@link SayingCache} saying with Jackson's serialization of the
+ * same saying rendered by {@link String#format}.
+ */
+public class SayingWriterTest extends TestCase {
+    private static final String[] TEMPLATES = { "Hello, %s!", "%s", "100%% %s", "%s%n", "%n%%%s%%%n", "No name" };
+    private static final String[] NAMES = {
+        "Kamran", "", "\"quoted\"", "back\\slash", "/slash", "tab\tnew\nline\rreturn", "\u0000\u0001\u001f\u007f",
+        "caf\u00e9", "\u65e5\u672c", "\ud83d\ude00", "\u2028\u2029", "  ", "<script>&amp;</script>", "%s %% %n"
+    };
+    private static final long[] IDS = {
+        0, 1, 9, 10, 99, 100, -1, -9, -10, -100, 1234567890123L, (1L << 53) + 1, Long.MAX_VALUE, Long.MIN_VALUE,
+        Long.MIN_VALUE + 1
+    };
+
+    private final ObjectMapper mapper = Jackson.newObjectMapper();
+    private final SayingWriter writer = new SayingWriter(mapper);
+
+    public void testCachedSayingsMatchJacksonByteForByte() throws IOException {
+        for (String template : TEMPLATES) {
+            SayingCache cache = new SayingCache(GreetingTemplate.compile(template), 64);
+            for (String name : NAMES) {
+                for (long id : IDS) {
+                    Saying cached = cache.saying(id, name);
+                    assertNotNull(cached.getSerializedContent());
+                    assertJackson(new Saying(id, String.format(template, name)), write(cached));
+                }
+            }
+        }
+    }
+
+    public void testUncachedSayingsGoThroughTheMapper() throws IOException {
+        Saying saying = new SayingCache(GreetingTemplate.compile("Hello, %s!"), 0).saying(-42, "\"Kamran\"");
+
+        assertNull(saying.getSerializedContent());
+        assertJackson(saying, write(saying));
+    }
+
+    public void testIdDigitsMatchLongToString() {
+        byte[] content = { '}' };
+        for (long id : IDS) {
+            assertEquals("{\"id\":" + id + "}", new String(SayingWriter.toJson(id, content)));
+        }
+    }
+
+    private void assertJackson(Saying expected, byte[] actual) throws IOException {
+        byte[] jackson = mapper.writeValueAsBytes(expected);
+        if (!Arrays.equals(jackson, actual)) {
+            fail("expected " + new String(jackson, "UTF-8") + " but was " + new String(actual, "UTF-8"));
+        }
+    }
+
+    private byte[] write(Saying saying) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writer.writeTo(saying, Saying.class, Saying.class, new Annotation[0], MediaType.APPLICATION_JSON_TYPE, null, out);
+        return out.toByteArray();
+    }
+}
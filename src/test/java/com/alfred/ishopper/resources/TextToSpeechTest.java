@@ -0,0 +1,191 @@
+package com.alfred.ishopper.resources;
+
+import com.alfred.ishopper.speech.SentencePipeline;
+import com.alfred.ishopper.speech.SpeechSynthesizer;
+import com.alfred.ishopper.speech.ToneSpeechSynthesizer;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Optional;
+import junit.framework.TestCase;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Streams audio from the local tone engine through the resource.
+ */
+public class TextToSpeechTest extends TestCase {
+    private final ToneSpeechSynthesizer tones = new ToneSpeechSynthesizer();
+    private final MetricRegistry metrics = new MetricRegistry();
+
+    public void testStreamsWholeWavFileInSmallFlushedChunks() throws IOException {
+        TextToSpeech resource = new TextToSpeech(tones, ToneSpeechSynthesizer.FORMAT, 1024, metrics);
+        String text = "Milk is on aisle four";
+
+        Response response = resource.synthesize(text, Optional.<String>absent(), Optional.<String>absent());
+        assertEquals(200, response.getStatus());
+        assertEquals("audio/wav", response.getMediaType().toString());
+
+        ChunkRecordingStream out = new ChunkRecordingStream();
+        ((StreamingOutput) response.getEntity()).write(out);
+
+        byte[] audio = out.toByteArray();
+        assertEquals(tones.length(text), audio.length);
+        assertEquals("RIFF", new String(audio, 0, 4, "US-ASCII"));
+        assertEquals("WAVE", new String(audio, 8, 4, "US-ASCII"));
+        assertTrue(out.flushes > 1);
+        for (int chunk : out.chunks) {
+            assertTrue(chunk <= 1024);
+        }
+        assertEquals(1, metrics.timer(MetricRegistry.name(TextToSpeech.class, "time-to-first-byte")).getCount());
+    }
+
+    public void testPostedTextIsSynthesized() throws IOException {
+        TextToSpeech resource = new TextToSpeech(tones, ToneSpeechSynthesizer.FORMAT, 4096, metrics);
+
+        Response response = resource.synthesizeText("Hello", Optional.<String>absent(), Optional.<String>absent());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ((StreamingOutput) response.getEntity()).write(out);
+
+        assertEquals(tones.length("Hello"), out.size());
+    }
+
+    public void testRejectsMissingTextAndUnsupportedFormat() {
+        TextToSpeech resource = new TextToSpeech(tones, ToneSpeechSynthesizer.FORMAT, 4096, metrics);
+
+        assertStatus(400, resource, " ", Optional.<String>absent());
+        assertStatus(406, resource, "Hello", Optional.of("audio/ogg"));
+    }
+
+    public void testUnavailableBackendFailsBeforeStreaming() {
+        TextToSpeech resource = new TextToSpeech(new SpeechSynthesizer() {
+            @Override
+            public InputStream synthesize(String text, String voice, String format) throws IOException {
+                throw new IOException("down");
+            }
+        }, ToneSpeechSynthesizer.FORMAT, 4096, metrics);
+
+        assertStatus(503, resource, "Hello", Optional.<String>absent());
+    }
+
+    public void testBatchPartsComeInOrderWithTheirIndex() throws IOException {
+        ToneSpeechSynthesizer fast = new ToneSpeechSynthesizer(1);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            TextToSpeech resource = new TextToSpeech(fast, new SentencePipeline(fast, executor, 3),
+                    ToneSpeechSynthesizer.FORMAT, 4096, metrics);
+            List<String> texts = Arrays.asList("A much longer first text", "B", "Third", "Fourth text");
+
+            Response response = resource.synthesizeBatch(texts, Optional.<String>absent(), Optional.<String>absent());
+            assertTrue(response.getMediaType().isCompatible(MediaType.valueOf("multipart/mixed")));
+            String boundary = response.getMediaType().getParameters().get("boundary");
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            ((StreamingOutput) response.getEntity()).write(out);
+
+            byte[] body = out.toByteArray();
+            int position = 0;
+            for (int i = 0; i < texts.size(); i++) {
+                String delimiter = "--" + boundary + "\r\n";
+                assertEquals(delimiter, ascii(body, position, delimiter.length()));
+                position += delimiter.length();
+                int end = indexOf(body, "\r\n\r\n", position);
+                String headers = ascii(body, position, end - position);
+                assertEquals("Content-Type: audio/wav\r\nContent-ID: <" + i + ">\r\nContent-Length: "
+                        + fast.length(texts.get(i)), headers);
+                position = end + 4;
+                assertEquals("RIFF", ascii(body, position, 4));
+                position += (int) fast.length(texts.get(i));
+                assertEquals("\r\n", ascii(body, position, 2));
+                position += 2;
+            }
+            String close = "--" + boundary + "--\r\n";
+            assertEquals(close, ascii(body, position, body.length - position));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    public void testRejectsEmptyBlankOrOversizedBatches() {
+        TextToSpeech resource = new TextToSpeech(tones, ToneSpeechSynthesizer.FORMAT, 4096, metrics);
+        List<String> tooMany = new ArrayList<String>();
+        for (int i = 0; i <= TextToSpeech.MAX_BATCH_TEXTS; i++) {
+            tooMany.add("Hello");
+        }
+
+        assertBatchStatus(400, resource, Collections.<String>emptyList(), Optional.<String>absent());
+        assertBatchStatus(400, resource, Arrays.asList("Hello", " "), Optional.<String>absent());
+        assertBatchStatus(413, resource, tooMany, Optional.<String>absent());
+        assertBatchStatus(406, resource, Arrays.asList("Hello"), Optional.of("audio/ogg"));
+    }
+
+    private static void assertBatchStatus(int status, TextToSpeech resource, List<String> texts,
+                                          Optional<String> format) {
+        try {
+            resource.synthesizeBatch(texts, Optional.<String>absent(), format);
+            fail("expected HTTP " + status);
+        } catch (WebApplicationException e) {
+            assertEquals(status, e.getResponse().getStatus());
+        }
+    }
+
+    private static String ascii(byte[] b, int offset, int length) {
+        return new String(b, offset, Math.max(0, Math.min(length, b.length - offset)), StandardCharsets.US_ASCII);
+    }
+
+    private static int indexOf(byte[] b, String value, int from) {
+        byte[] bytes = value.getBytes(StandardCharsets.US_ASCII);
+        for (int i = from; i + bytes.length <= b.length; i++) {
+            if (Arrays.equals(bytes, Arrays.copyOfRange(b, i, i + bytes.length))) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static void assertStatus(int status, TextToSpeech resource, String text, Optional<String> format) {
+        try {
+            resource.synthesize(text, Optional.<String>absent(), format);
+            fail("expected HTTP " + status);
+        } catch (WebApplicationException e) {
+            assertEquals(status, e.getResponse().getStatus());
+        }
+    }
+
+    private static class ChunkRecordingStream extends OutputStream {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final List<Integer> chunks = new ArrayList<Integer>();
+        private int flushes;
+
+        @Override
+        public void write(int b) {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            bytes.write(b, off, len);
+            chunks.add(len);
+        }
+
+        @Override
+        public void flush() {
+            flushes++;
+        }
+
+        byte[] toByteArray() {
+            return bytes.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package com.alfred.ishopper.server;
+
+import com.alfred.ishopper.client.JsonRestClient;
+import com.alfred.ishopper.resources.HelloWorldResource;
+import com.alfred.ishopper.resources.Saying;
+import com.alfred.ishopper.resources.SayingWriter;
+import io.dropwizard.jackson.Jackson;
+import io.dropwizard.jersey.guava.OptionalParamFeature;
+import junit.framework.TestCase;
+import org.glassfish.jersey.internal.MapPropertiesDelegate;
+import org.glassfish.jersey.server.ApplicationHandler;
+import org.glassfish.jersey.server.ContainerRequest;
+import org.glassfish.jersey.server.ContainerResponse;
+import org.glassfish.jersey.server.ResourceConfig;
+import org.glassfish.jersey.server.ServerProperties;
+
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.annotation.Annotation;
+import java.net.URI;
+import java.util.Arrays;
+
+/**
+ * Writes sayings with {@link BinaryJsonWriter} and reads them back the way {@link JsonRestClient} does, and asks
+ * {@link HelloWorldResource} for them through an in-memory Jersey application set up with the service's writers.
+ */
+public class BinaryJsonWriterTest extends TestCase {
+    private static final MediaType SMILE = MediaType.valueOf(JsonRestClient.APPLICATION_SMILE);
+    private static final MediaType CBOR = MediaType.valueOf(JsonRestClient.APPLICATION_CBOR);
+
+    private final BinaryJsonWriter writer = new BinaryJsonWriter();
+
+    public void testSayingRoundTripsAsSmile() throws Exception {
+        byte[] smile = write(new Saying(-42, "Hello, \"café\" 😀!"), SMILE);
+
+        assertEquals(":)\n", new String(smile, 0, 3, "US-ASCII"));
+        assertSaying(-42, "Hello, \"café\" 😀!", JsonRestClient.map(in(smile), Saying.class, SMILE));
+    }
+
+    public void testSayingRoundTripsAsCbor() throws Exception {
+        byte[] cbor = write(new Saying(Long.MAX_VALUE, "Hello, Kamran!"), CBOR);
+
+        // a map of indefinite length
+        assertEquals((byte) 0xBF, cbor[0]);
+        assertSaying(Long.MAX_VALUE, "Hello, Kamran!", JsonRestClient.map(in(cbor), Saying.class, CBOR));
+    }
+
+    public void testLeavesTextAndStreamsToOtherWriters() {
+        for (Class<?> type : Arrays.<Class<?>>asList(String.class, byte[].class, InputStream.class,
+                ByteArrayInputStream.class, StreamingOutput.class)) {
+            assertFalse(type.getName(), writer.isWriteable(type, type, new Annotation[0], SMILE));
+        }
+        assertTrue(writer.isWriteable(Saying.class, Saying.class, new Annotation[0], CBOR));
+    }
+
+    public void testResourceNegotiatesTheFormat() throws Exception {
+        ApplicationHandler application = application();
+
+        assertSaying(1, "Hello, Ann!", get(application, JsonRestClient.APPLICATION_SMILE, SMILE));
+        assertSaying(2, "Hello, Ann!", get(application, JsonRestClient.APPLICATION_CBOR, CBOR));
+        assertSaying(3, "Hello, Ann!", get(application, JsonRestClient.APPLICATION_CBOR + ", "
+                + MediaType.APPLICATION_JSON + ";q=0.9", CBOR));
+        assertSaying(4, "Hello, Ann!", get(application, MediaType.APPLICATION_JSON, MediaType.APPLICATION_JSON_TYPE));
+    }
+
+    public void testAnyTypeOrNoAcceptGetsJson() throws Exception {
+        ApplicationHandler application = application();
+
+        assertSaying(1, "Hello, Ann!", get(application, "*/*", MediaType.APPLICATION_JSON_TYPE));
+        assertSaying(2, "Hello, Ann!", get(application, "application/*", MediaType.APPLICATION_JSON_TYPE));
+        assertSaying(3, "Hello, Ann!", get(application, null, MediaType.APPLICATION_JSON_TYPE));
+    }
+
+    private ApplicationHandler application() {
+        // without bean validation, whose Hibernate Validator does not start on every JVM the tests run on
+        ResourceConfig config = new ResourceConfig();
+        config.property(ServerProperties.BV_FEATURE_DISABLE, true);
+        config.property(ServerProperties.METAINF_SERVICES_LOOKUP_DISABLE, true);
+        config.register(OptionalParamFeature.class);
+        config.register(new HelloWorldResource("Hello, %s!", "Kamran"));
+        config.register(new SayingWriter(Jackson.newObjectMapper()));
+        config.register(writer);
+        return new ApplicationHandler(config);
+    }
+
+    /**
+     * GETs a greeting for Ann, checks the response's Content-Type and maps the body by it.
+     */
+    private static Saying get(ApplicationHandler application, String accept, MediaType expected) throws Exception {
+        ContainerRequest request = new ContainerRequest(URI.create("http://localhost/"),
+                URI.create("http://localhost/hello-world?name=Ann"), "GET", null, new MapPropertiesDelegate());
+        if (accept != null) {
+            request.header(HttpHeaders.ACCEPT, accept);
+        }
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+
+        ContainerResponse response = application.apply(request, body).get();
+
+        assertEquals(200, response.getStatus());
+        assertEquals(String.valueOf(accept), expected, response.getMediaType());
+        return JsonRestClient.map(in(body.toByteArray()), Saying.class, response.getMediaType());
+    }
+
+    private byte[] write(Saying saying, MediaType mediaType) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writer.writeTo(saying, Saying.class, Saying.class, new Annotation[0], mediaType, null, out);
+        return out.toByteArray();
+    }
+
+    private static InputStream in(byte[] bytes) {
+        return new ByteArrayInputStream(bytes);
+    }
+
+    private static void assertSaying(long id, String content, Saying saying) {
+        assertEquals(id, saying.getId());
+        assertEquals(content, saying.getContent());
+    }
+}
@@ -0,0 +1,78 @@
+package com.alfred.ishopper.server;
+
+import com.alfred.ishopper.client.Deadline;
+import com.codahale.metrics.MetricRegistry;
+import io.dropwizard.jersey.errors.ErrorMessage;
+import junit.framework.TestCase;
+
+import javax.ws.rs.WebApplicationException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Submits resource methods the way Jersey does, to a pool of one thread with room for one waiting task.
+ */
+public class ResourceExecutorProviderTest extends TestCase {
+    private final MetricRegistry metrics = new MetricRegistry();
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final ThreadPoolExecutor pool = new ThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<Runnable>(1));
+    private final ExecutorService executor = new ResourceExecutorProvider(pool, metrics).getExecutorService();
+
+    @Override
+    protected void tearDown() {
+        release.countDown();
+        pool.shutdownNow();
+    }
+
+    public void testRunsUnderTheDeadlineOfTheSubmittingThread() throws Exception {
+        Deadline deadline = Deadline.after(1, TimeUnit.SECONDS);
+        Deadline previous = Deadline.set(deadline);
+        Future<?> seen;
+        try {
+            seen = executor.submit(new Callable<Deadline>() {
+                @Override
+                public Deadline call() {
+                    return Deadline.current();
+                }
+            });
+        } finally {
+            Deadline.set(previous);
+        }
+
+        assertSame(deadline, seen.get(5, TimeUnit.SECONDS));
+    }
+
+    public void testRejectsWith503OnceThePoolAndQueueAreFull() {
+        executor.submit(blocked());
+        executor.submit(blocked());
+
+        try {
+            executor.submit(blocked());
+            fail("a third request was taken");
+        } catch (WebApplicationException e) {
+            assertEquals(503, e.getResponse().getStatus());
+            // with an entity Jersey sends the response as it is, without Dropwizard logging it as a server error
+            assertEquals(503, ((ErrorMessage) e.getResponse().getEntity()).getCode().intValue());
+        }
+        assertEquals(1, metrics.meter(MetricRegistry.name(ResourceExecutorProvider.class, "rejected")).getCount());
+    }
+
+    private Runnable blocked() {
+        return new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,255 @@
+package com.alfred.ishopper.speech;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Splits texts, stitches WAV segments, and pipelines sentences through a stand-in backend whose synthesis of each
+ * text waits until the test lets it finish.
+ */
+public class SentencePipelineTest extends TestCase {
+    private static final String FORMAT = "audio/wav";
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(8);
+    private final HeldSynthesizer backend = new HeldSynthesizer();
+
+    @Override
+    protected void tearDown() {
+        executor.shutdownNow();
+    }
+
+    public void testSplitsIntoSentences() {
+        assertEquals(Arrays.asList("Nimm die Milch aus Gang vier.", "Dann links abbiegen zur Kasse."),
+                SentencePipeline.split("Nimm die Milch aus Gang vier. Dann links abbiegen zur Kasse.", "de-DE_BirgitVoice"));
+    }
+
+    public void testKeepsShortFragmentsWithTheFollowingSentence() {
+        assertEquals(Arrays.asList("Go to aisle four.", "Ok. Then turn left at the bakery. Done."),
+                SentencePipeline.split("Go to aisle four. Ok. Then turn left at the bakery. Done.", null));
+        assertEquals(Collections.singletonList("Hi. Take the milk from aisle four."),
+                SentencePipeline.split("Hi. Take the milk from aisle four.", null));
+    }
+
+    public void testMovesTrailingListNumbersToTheirStep() {
+        assertEquals(Arrays.asList("1. Take the milk from aisle four.", "2. Pay at the till near the door."),
+                SentencePipeline.split("1. Take the milk from aisle four. 2. Pay at the till near the door.",
+                        "en-US_AllisonVoice"));
+    }
+
+    public void testFirstWavSegmentGetsStreamingLengths() {
+        byte[] segment = wav(10, 3);
+
+        assertEquals(0, SentencePipeline.Wav.stitch(segment, true));
+
+        assertEquals(0xFFFFFFFF, int32(segment, 4));
+        // fmt chunk, odd sized LIST chunk with its pad byte, then data
+        assertEquals(0xFFFFFFFF, int32(segment, 12 + 24 + 12 + 4));
+        assertEquals("WAVE", new String(segment, 8, 4));
+    }
+
+    public void testLaterWavSegmentsStartAfterTheHeader() {
+        byte[] segment = wav(10, 3);
+        byte[] original = segment.clone();
+
+        assertEquals(12 + 24 + 12 + 8, SentencePipeline.Wav.stitch(segment, false));
+        assertTrue(Arrays.equals(original, segment));
+    }
+
+    public void testOtherAudioIsSentWhole() {
+        byte[] mp3 = { 'I', 'D', '3', 4, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0 };
+        byte[] truncated = Arrays.copyOf(wav(10, 0), 40);
+
+        assertEquals(0, SentencePipeline.Wav.stitch(mp3, true));
+        assertEquals(0, SentencePipeline.Wav.stitch(mp3, false));
+        assertEquals(0, SentencePipeline.Wav.stitch(truncated, false));
+    }
+
+    public void testJoinsSentencesIntoOneWav() throws IOException {
+        ToneSpeechSynthesizer tones = new ToneSpeechSynthesizer(1);
+        SentencePipeline pipeline = new SentencePipeline(tones, executor, 2);
+        String text = "Take the milk from aisle four. Then turn left at the bakery. Pay at the till near the door.";
+
+        byte[] audio = read(pipeline.synthesize(text, null, FORMAT));
+
+        long expected = 44;
+        for (String sentence : SentencePipeline.split(text, null)) {
+            expected += tones.length(sentence) - 44;
+        }
+        assertEquals(expected, audio.length);
+        assertEquals(0xFFFFFFFF, int32(audio, 4));
+        assertEquals(0xFFFFFFFF, int32(audio, 40));
+    }
+
+    public void testSingleSentenceGoesStraightToTheBackend() throws IOException {
+        ToneSpeechSynthesizer tones = new ToneSpeechSynthesizer(1);
+        SentencePipeline pipeline = new SentencePipeline(tones, executor, 2);
+
+        byte[] audio = read(pipeline.synthesize("Take the milk.", null, FORMAT));
+
+        assertEquals(tones.length("Take the milk."), audio.length);
+        assertEquals(36 + tones.length("Take the milk.") - 44, int32(audio, 4));
+    }
+
+    public void testSegmentsComeInOrderAtMostDepthAhead() throws Exception {
+        SentencePipeline pipeline = new SentencePipeline(backend, executor, 2);
+        SentencePipeline.Segments segments = pipeline.segments(Arrays.asList("a", "b", "c", "d"), null, FORMAT);
+        backend.awaitStarted(2);
+        Thread.sleep(50);
+        assertEquals(Arrays.asList("a", "b"), backend.started());
+
+        // the second finishes first, yet comes second
+        backend.finish("b");
+        backend.finish("a");
+        assertEquals("a", new String(segments.next()));
+        backend.awaitStarted(3);
+        assertEquals("b", new String(segments.next()));
+        backend.awaitStarted(4);
+        backend.finish("d");
+        backend.finish("c");
+        assertEquals("c", new String(segments.next()));
+        assertEquals("d", new String(segments.next()));
+        assertNull(segments.next());
+        assertEquals(4, segments.size());
+    }
+
+    public void testCloseCancelsWhatHasNotBeenRead() throws Exception {
+        SentencePipeline pipeline = new SentencePipeline(backend, executor, 2);
+        SentencePipeline.Segments segments = pipeline.segments(Arrays.asList("a", "b", "c", "d"), null, FORMAT);
+        backend.awaitStarted(2);
+
+        segments.close();
+
+        assertTrue(backend.interrupted.await(5, TimeUnit.SECONDS));
+        assertNull(segments.next());
+        Thread.sleep(50);
+        assertEquals(Arrays.asList("a", "b"), backend.started());
+    }
+
+    public void testBackendFailureReachesTheReader() throws Exception {
+        SentencePipeline pipeline = new SentencePipeline(backend, executor, 2);
+        SentencePipeline.Segments segments = pipeline.segments(Arrays.asList("a", "fail"), null, FORMAT);
+        backend.finish("a");
+        backend.finish("fail");
+
+        assertEquals("a", new String(segments.next()));
+        try {
+            segments.next();
+            fail("the failed segment was returned");
+        } catch (IOException e) {
+            assertEquals("down", e.getMessage());
+        }
+    }
+
+    /**
+     * A WAV file with a 16 byte fmt chunk, a LIST chunk of the given odd size padded to even, and a data chunk.
+     */
+    private static byte[] wav(int dataSize, int listSize) {
+        int listChunk = listSize > 0 ? 8 + listSize + (listSize & 1) : 0;
+        byte[] wav = new byte[12 + 24 + listChunk + 8 + dataSize];
+        ascii(wav, 0, "RIFF");
+        putInt32(wav, 4, wav.length - 8);
+        ascii(wav, 8, "WAVE");
+        ascii(wav, 12, "fmt ");
+        putInt32(wav, 16, 16);
+        int data = 36;
+        if (listSize > 0) {
+            ascii(wav, 36, "LIST");
+            putInt32(wav, 40, listSize);
+            data += listChunk;
+        }
+        ascii(wav, data, "data");
+        putInt32(wav, data + 4, dataSize);
+        return wav;
+    }
+
+    private static void ascii(byte[] b, int offset, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            b[offset + i] = (byte) value.charAt(i);
+        }
+    }
+
+    private static void putInt32(byte[] b, int offset, int value) {
+        for (int i = 0; i < 4; i++) {
+            b[offset + i] = (byte) (value >> (8 * i));
+        }
+    }
+
+    private static int int32(byte[] b, int offset) {
+        return (b[offset] & 0xFF) | (b[offset + 1] & 0xFF) << 8 | (b[offset + 2] & 0xFF) << 16 | (b[offset + 3] & 0xFF) << 24;
+    }
+
+    private static byte[] read(InputStream in) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1000];
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            bytes.write(buffer, 0, n);
+        }
+        in.close();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Answers each text with its own bytes once the test finishes it, and fails the text "fail".
+     */
+    private static class HeldSynthesizer implements SpeechSynthesizer {
+        private final List<String> started = new ArrayList<String>();
+        private final List<String> finished = new ArrayList<String>();
+        private final CountDownLatch interrupted = new CountDownLatch(1);
+
+        @Override
+        public InputStream synthesize(String text, String voice, String format) throws IOException {
+            synchronized (this) {
+                started.add(text);
+                notifyAll();
+                try {
+                    while (!finished.contains(text)) {
+                        wait();
+                    }
+                } catch (InterruptedException e) {
+                    interrupted.countDown();
+                    throw new IOException("cancelled", e);
+                }
+            }
+            if ("fail".equals(text)) {
+                throw new IOException("down");
+            }
+            return new ByteArrayInputStream(text.getBytes());
+        }
+
+        synchronized void finish(String text) {
+            finished.add(text);
+            notifyAll();
+        }
+
+        /**
+         * The texts started so far, sorted, since the pool starts them in any order.
+         */
+        synchronized List<String> started() {
+            List<String> sorted = new ArrayList<String>(started);
+            Collections.sort(sorted);
+            return sorted;
+        }
+
+        synchronized void awaitStarted(int count) throws InterruptedException {
+            long until = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (started.size() < count) {
+                long left = until - System.nanoTime();
+                assertTrue("started " + started, left > 0);
+                TimeUnit.NANOSECONDS.timedWait(this, left);
+            }
+        }
+    }
+}
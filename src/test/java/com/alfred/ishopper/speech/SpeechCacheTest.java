@@ -0,0 +1,262 @@
+package com.alfred.ishopper.speech;
+
+import com.codahale.metrics.MetricRegistry;
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the cache against a stand-in backend that returns a fixed size clip per text and can be held before its
+ * first byte.
+ */
+public class SpeechCacheTest extends TestCase {
+    private static final String FORMAT = "audio/wav";
+    private static final int CLIP = 1000;
+
+    private final MetricRegistry metrics = new MetricRegistry();
+    private final StandInSynthesizer backend = new StandInSynthesizer();
+    private Path directory;
+
+    @Override
+    protected void setUp() throws IOException {
+        directory = Files.createTempDirectory("speech-cache");
+    }
+
+    @Override
+    protected void tearDown() throws IOException {
+        backend.gate.countDown();
+        for (String file : files()) {
+            Files.delete(directory.resolve(file));
+        }
+        Files.delete(directory);
+    }
+
+    public void testReadingToTheEndCommitsTheTempFile() throws IOException {
+        SpeechCache cache = cache(1 << 20, 1 << 20, 1000);
+        String key = SpeechCache.key("Hello", null, FORMAT);
+
+        InputStream audio = cache.synthesize("Hello", null, FORMAT);
+        assertEquals(100, audio.read(new byte[100]));
+        List<String> partial = files();
+        assertEquals(1, partial.size());
+        assertTrue(partial.get(0), partial.get(0).startsWith(key) && partial.get(0).endsWith(".tmp"));
+        assertFalse(cache.contains("Hello", null, FORMAT));
+
+        while (audio.read(new byte[256]) >= 0) {
+            // read to the end
+        }
+        audio.close();
+
+        assertEquals(Collections.singletonList(key), files());
+        assertEquals(CLIP, Files.size(directory.resolve(key)));
+        assertTrue(cache.contains("Hello", null, FORMAT));
+        assertTrue(Arrays.equals(StandInSynthesizer.clip("Hello"), readAll(cache.synthesize("Hello", null, FORMAT))));
+        assertEquals(1, backend.calls.get());
+    }
+
+    public void testClosingEarlyDiscardsTheTempFile() throws IOException {
+        SpeechCache cache = cache(1 << 20, 1 << 20, 1000);
+
+        InputStream audio = cache.synthesize("Hello", null, FORMAT);
+        assertEquals(100, audio.read(new byte[100]));
+        audio.close();
+
+        assertTrue(files().isEmpty());
+        assertFalse(cache.contains("Hello", null, FORMAT));
+        readAll(cache.synthesize("Hello", null, FORMAT));
+        assertEquals(2, backend.calls.get());
+    }
+
+    public void testDiskTierEvictsLeastRecentlyUsedClip() throws IOException {
+        SpeechCache cache = cache(0, CLIP * 5 / 2, 1000);
+
+        readAll(cache.synthesize("one", null, FORMAT));
+        readAll(cache.synthesize("two", null, FORMAT));
+        InputStream hit = cache.synthesize("one", null, FORMAT);
+        assertTrue(hit instanceof SpeechCache.DiskClip);
+        assertEquals(CLIP, ((SpeechCache.DiskClip) hit).size());
+        hit.close();
+        readAll(cache.synthesize("three", null, FORMAT));
+
+        assertTrue(cache.contains("one", null, FORMAT));
+        assertFalse(cache.contains("two", null, FORMAT));
+        assertTrue(cache.contains("three", null, FORMAT));
+        assertFalse(Files.exists(directory.resolve(SpeechCache.key("two", null, FORMAT))));
+        assertEquals(1, metrics.meter(MetricRegistry.name(SpeechCache.class, "evictions")).getCount());
+    }
+
+    public void testIndexIsRebuiltFromDiskOldestFirst() throws IOException {
+        SpeechCache first = cache(0, 1 << 20, 1000);
+        readAll(first.synthesize("one", null, FORMAT));
+        readAll(first.synthesize("two", null, FORMAT));
+        File one = directory.resolve(SpeechCache.key("one", null, FORMAT)).toFile();
+        File two = directory.resolve(SpeechCache.key("two", null, FORMAT)).toFile();
+        assertTrue(one.setLastModified(System.currentTimeMillis() - 60000));
+        assertTrue(two.setLastModified(System.currentTimeMillis()));
+        Files.write(directory.resolve("abandoned.tmp"), new byte[10]);
+        Files.write(directory.resolve("notes.txt"), new byte[10]);
+
+        StandInSynthesizer restarted = new StandInSynthesizer();
+        SpeechCache second = new SpeechCache(restarted, directory.toFile(), 0, CLIP * 5 / 2, 1000, null);
+
+        assertFalse(Files.exists(directory.resolve("abandoned.tmp")));
+        assertTrue(Files.exists(directory.resolve("notes.txt")));
+        assertTrue(second.contains("one", null, FORMAT));
+        assertTrue(Arrays.equals(StandInSynthesizer.clip("two"), readAll(second.synthesize("two", null, FORMAT))));
+
+        readAll(second.synthesize("three", null, FORMAT));
+        assertFalse(second.contains("one", null, FORMAT));
+        assertTrue(second.contains("two", null, FORMAT));
+        assertEquals(1, restarted.calls.get());
+    }
+
+    public void testConcurrentMissesShareOneSynthesis() throws Exception {
+        final SpeechCache cache = cache(1 << 20, 1 << 20, 10000);
+        backend.hold();
+        InputStream lead = cache.synthesize("Hello", null, FORMAT);
+
+        ExecutorService waiters = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<byte[]>> answers = new ArrayList<Future<byte[]>>();
+            for (int i = 0; i < 4; i++) {
+                answers.add(waiters.submit(new Callable<byte[]>() {
+                    @Override
+                    public byte[] call() throws IOException {
+                        return readAll(cache.synthesize("Hello", null, FORMAT));
+                    }
+                }));
+            }
+            long until = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (metrics.meter(MetricRegistry.name(SpeechCache.class, "coalesced")).getCount() < 4
+                    && System.nanoTime() < until) {
+                Thread.sleep(5);
+            }
+
+            backend.gate.countDown();
+            byte[] expected = readAll(lead);
+            for (Future<byte[]> answer : answers) {
+                assertTrue(Arrays.equals(expected, answer.get(5, TimeUnit.SECONDS)));
+            }
+        } finally {
+            waiters.shutdownNow();
+        }
+        assertEquals(1, backend.calls.get());
+        assertEquals(1, metrics.meter(MetricRegistry.name(SpeechCache.class, "misses")).getCount());
+    }
+
+    public void testWaiterSynthesizesItselfAfterTheWaitTimeout() throws IOException {
+        SpeechCache cache = cache(1 << 20, 1 << 20, 100);
+        backend.hold();
+        InputStream lead = cache.synthesize("Hello", null, FORMAT);
+
+        long start = System.nanoTime();
+        InputStream own = cache.synthesize("Hello", null, FORMAT);
+        long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertTrue("waited " + millis + " ms", millis >= 90 && millis < 2000);
+        assertEquals(2, backend.calls.get());
+        assertEquals(1, metrics.meter(MetricRegistry.name(SpeechCache.class, "wait-timeouts")).getCount());
+
+        backend.gate.countDown();
+        assertTrue(Arrays.equals(StandInSynthesizer.clip("Hello"), readAll(own)));
+        readAll(lead);
+        assertEquals(1, files().size());
+    }
+
+    private SpeechCache cache(long maxMemoryBytes, long maxDiskBytes, long waitTimeoutMillis) throws IOException {
+        return new SpeechCache(backend, directory.toFile(), maxMemoryBytes, maxDiskBytes, waitTimeoutMillis, metrics);
+    }
+
+    private List<String> files() throws IOException {
+        List<String> names = new ArrayList<String>();
+        DirectoryStream<Path> files = Files.newDirectoryStream(directory);
+        try {
+            for (Path file : files) {
+                names.add(file.getFileName().toString());
+            }
+        } finally {
+            files.close();
+        }
+        return names;
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[256];
+        int n;
+        try {
+            while ((n = in.read(buffer)) >= 0) {
+                out.write(buffer, 0, n);
+            }
+        } finally {
+            in.close();
+        }
+        return out.toByteArray();
+    }
+
+    private static class StandInSynthesizer implements SpeechSynthesizer {
+        private final AtomicInteger calls = new AtomicInteger();
+        private volatile CountDownLatch gate = new CountDownLatch(0);
+
+        static byte[] clip(String text) {
+            byte[] clip = new byte[CLIP];
+            for (int i = 0; i < clip.length; i++) {
+                clip[i] = (byte) (text.hashCode() + i);
+            }
+            return clip;
+        }
+
+        void hold() {
+            gate = new CountDownLatch(1);
+        }
+
+        @Override
+        public InputStream synthesize(String text, String voice, String format) {
+            calls.incrementAndGet();
+            final byte[] clip = clip(text);
+            final CountDownLatch held = gate;
+            return new InputStream() {
+                private int position;
+
+                @Override
+                public int read() throws IOException {
+                    byte[] b = new byte[1];
+                    return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    try {
+                        held.await();
+                    } catch (InterruptedException e) {
+                        throw new IOException(e);
+                    }
+                    if (position >= clip.length) {
+                        return -1;
+                    }
+                    int n = Math.min(len, clip.length - position);
+                    System.arraycopy(clip, position, b, off, n);
+                    position += n;
+                    return n;
+                }
+            };
+        }
+    }
+}